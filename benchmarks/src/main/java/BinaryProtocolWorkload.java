@@ -0,0 +1,83 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import bench.BinaryProtocolBenchmark;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*Frame binari e righe di testo letti da uno stream in memoria che ripete all'infinito
+  lo stesso contenuto, per bench.BinaryProtocolBenchmark*/
+public class BinaryProtocolWorkload implements BinaryProtocolBenchmark.Workload {
+    private static final String TEXT_MOVE = "MOVE=alice=bob=X=1=2";
+    private static final CommandTable<String> MOVES = new CommandTable<String>().add("MOVE", 5, 5, "MOVE");
+
+    private final byte[] moveFrame = new byte[BinaryProtocol.MOVE_FRAME];
+    private final FrameReader moveFrames;
+    private final FrameReader textFrames;
+    private final FrameReader textLines;
+    private final ProtocolLine line = new ProtocolLine();
+
+    /*Stream che ripete ciclicamente gli stessi byte*/
+    static final class RepeatingInputStream extends InputStream {
+        private final byte[] data;
+        private int position;
+
+        RepeatingInputStream(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            int b = data[position] & 0xFF;
+            position = (position + 1) % data.length;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] dst, int offset, int length) {
+            for (int i = 0; i < length; i++) {
+                dst[offset + i] = data[position];
+                position = (position + 1) % data.length;
+            }
+            return length;
+        }
+    }
+
+    public BinaryProtocolWorkload() {
+        moveFrames = new FrameReader(new RepeatingInputStream(BinaryProtocol.move(7, BitBoard.X, 1, 2)));
+        textFrames = new FrameReader(new RepeatingInputStream(BinaryProtocol.text(TEXT_MOVE)));
+        textLines = new FrameReader(new RepeatingInputStream((TEXT_MOVE + "\n").getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public byte[] encodeMoveFrame() {
+        BinaryProtocol.writeMove(moveFrame, 0, 7, BitBoard.X, 1, 2);
+        return moveFrame;
+    }
+
+    @Override
+    public byte[] encodeTextFrame() {
+        return BinaryProtocol.text(TEXT_MOVE);
+    }
+
+    @Override
+    public void decodeMoveFrame(Blackhole blackhole) throws IOException {
+        moveFrames.readFrame();
+        byte[] payload = moveFrames.buffer();
+        blackhole.consume(BinaryProtocol.moveMatchId(payload, 0));
+        blackhole.consume(BinaryProtocol.moveRow(payload, 0));
+        blackhole.consume(BinaryProtocol.moveCol(payload, 0));
+    }
+
+    @Override
+    public String decodeTextFrame() throws IOException {
+        textFrames.readFrame();
+        return new String(textFrames.buffer(), 0, textFrames.length(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int decodeTextLine() throws IOException {
+        //Come GameClient.handleServerLine: lettura della riga e coordinate lette dai byte
+        int length = textLines.readLine();
+        line.parse(textLines.buffer(), 0, length, MOVES);
+        return line.intArg(3) * 3 + line.intArg(4);
+    }
+}
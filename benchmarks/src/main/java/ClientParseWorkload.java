@@ -0,0 +1,45 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import bench.ClientParseBenchmark;
+
+/*Un GameClient collegato a un ServerSocket locale che non invia nulla, per bench.ClientParseBenchmark*/
+public class ClientParseWorkload implements ClientParseBenchmark.Workload {
+    private final ServerSocket server;
+    private final Socket accepted;
+    private final GameClient client;
+    private final PrintStream stdout;
+    private String encodedMessage;
+    private byte[] encoded;
+
+    public ClientParseWorkload() throws IOException {
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        client = GameClient.connect(InetAddress.getLoopbackAddress().getHostAddress(), server.getLocalPort());
+        accepted = server.accept();
+    }
+
+    @Override
+    public Object parse(String message) {
+        //Il client riceve byte: la riga si codifica una volta sola per ogni @Param
+        if (message != encodedMessage) {
+            encodedMessage = message;
+            encoded = message.getBytes(StandardCharsets.UTF_8);
+        }
+        client.handleServerLine(encoded, 0, encoded.length);
+        return client;
+    }
+
+    @Override
+    public void close() {
+        client.disconnect();
+        try {
+            accepted.close();
+            server.close();
+        } catch (IOException e) {
+            //Chiusura a fine benchmark: niente da recuperare
+        }
+        System.setOut(stdout);
+    }
+}
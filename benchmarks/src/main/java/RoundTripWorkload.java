@@ -0,0 +1,123 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import bench.RoundTripBenchmark;
+
+/*GameServer avviato nello stesso processo e client di testo minimi su loopback
+  (nessun thread in ascolto: ogni risposta si legge subito), per bench.RoundTripBenchmark*/
+public class RoundTripWorkload implements RoundTripBenchmark.Workload {
+    private static final int PORT = 12345;
+
+    private final PrintStream stdout;
+    private final Client a;
+    private final Client b;
+    private final Client challenger;
+    private final Client challenged;
+
+    /*Client di testo bloccante*/
+    static final class Client implements Closeable {
+        final String nickname;
+        final Socket socket;
+        final BufferedReader in;
+        final Writer out;
+
+        Client(String nickname) throws IOException {
+            this.nickname = nickname;
+            socket = new Socket(InetAddress.getLoopbackAddress(), PORT);
+            socket.setTcpNoDelay(true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            send("SET-NICKNAME=" + nickname);
+            expect("NICKNAME-SUCCESS");
+        }
+
+        void send(String message) throws IOException {
+            out.write(message);
+            out.write('\n');
+            out.flush();
+        }
+
+        String expect(String prefix) throws IOException {
+            String line = in.readLine();
+            if (line == null || !line.startsWith(prefix)) {
+                throw new IOException(nickname + ": atteso " + prefix + ", ricevuto " + line);
+            }
+            return line;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    public RoundTripWorkload() throws IOException, InterruptedException {
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        //Il registro delle partite resta spento, salvo -Djournal.dir=..., per non riempire la cartella di lavoro
+        if (System.getProperty("journal.dir") == null) System.setProperty("journal.dir", "");
+        Thread server = new Thread(() -> GameServer.main(new String[0]), "benchmark-server");
+        server.setDaemon(true);
+        server.start();
+        waitForServer();
+
+        String suffix = Long.toString(System.nanoTime(), 36);
+        a = new Client("rt-a-" + suffix);
+        b = new Client("rt-b-" + suffix);
+        a.send("CHALLENGE=" + b.nickname);
+        b.expect("CHALLENGE-REQUEST=");
+        b.send("ACCEPT-CHALLENGE=" + a.nickname);
+        a.expect("GAME-START=");
+        b.expect("GAME-START=");
+
+        challenger = new Client("rt-c-" + suffix);
+        challenged = new Client("rt-d-" + suffix);
+    }
+
+    private static void waitForServer() throws InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            try (Socket probe = new Socket(InetAddress.getLoopbackAddress(), PORT)) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("Il server non è partito sulla porta " + PORT);
+    }
+
+    @Override
+    public void close() {
+        try {
+            a.close();
+            b.close();
+            challenger.close();
+            challenged.close();
+        } catch (IOException e) {
+            //Chiusura a fine benchmark: niente da recuperare
+        }
+        System.setOut(stdout);
+    }
+
+    //Il server non controlla le mosse: le stesse coordinate si possono inviare all'infinito
+    @Override
+    public String moveRoundTrip() throws IOException {
+        a.send("MOVE=" + a.nickname + "=" + b.nickname + "=X=1=1");
+        b.expect("MOVE=");
+        b.send("MOVE=" + b.nickname + "=" + a.nickname + "=O=0=0");
+        return a.expect("MOVE=");
+    }
+
+    @Override
+    public String challengeGame() throws IOException {
+        challenger.send("CHALLENGE=" + challenged.nickname);
+        challenged.expect("CHALLENGE-REQUEST=");
+        challenged.send("ACCEPT-CHALLENGE=" + challenger.nickname);
+        challenger.expect("GAME-START=");
+        challenged.expect("GAME-START=");
+        challenger.send("MOVE=" + challenger.nickname + "=" + challenged.nickname + "=X=1=1");
+        String move = challenged.expect("MOVE=");
+        challenger.send("GAME-OVER");
+        challenged.send("GAME-OVER");
+        return move;
+    }
+}
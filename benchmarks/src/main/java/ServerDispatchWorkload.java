@@ -0,0 +1,54 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import bench.ServerDispatchBenchmark;
+
+/*Un ClientHandler collegato a una Connection finta, per bench.ServerDispatchBenchmark*/
+public class ServerDispatchWorkload implements ServerDispatchBenchmark.Workload {
+    private final GameServer.ClientHandler handler;
+    private final PrintStream stdout;
+    private String encodedMessage;
+    private byte[] encoded;
+
+    /*Connessione finta: conta i messaggi invece di scriverli*/
+    static final class NullConnection implements Connection {
+        long sent;
+
+        @Override
+        public void send(String message) {
+            sent++;
+        }
+
+        @Override
+        public void sendBytes(byte[] bytes) {
+            sent++;
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    public ServerDispatchWorkload() {
+        //Il server stampa ogni messaggio ricevuto: qui interessa solo la gestione
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        handler = new GameServer.ClientHandler(new NullConnection());
+        //Registrato come un client vero, così i comandi non si fermano al controllo del nickname
+        handler.handleMessage("SET-NICKNAME=dispatch");
+    }
+
+    @Override
+    public Object dispatch(String message) {
+        //Il server riceve byte: la riga si codifica una volta sola per ogni @Param
+        if (message != encodedMessage) {
+            encodedMessage = message;
+            encoded = message.getBytes(StandardCharsets.UTF_8);
+        }
+        handler.handleLine(encoded, 0, encoded.length);
+        return handler;
+    }
+
+    @Override
+    public void close() {
+        System.setOut(stdout);
+    }
+}
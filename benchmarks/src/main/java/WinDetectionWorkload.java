@@ -0,0 +1,73 @@
+import java.util.*;
+import bench.WinDetectionBenchmark;
+
+/*Partite casuali (seme fisso) giocate su BitBoard e MnkBoard per bench.WinDetectionBenchmark*/
+public class WinDetectionWorkload implements WinDetectionBenchmark.Workload {
+    private static final int GAMES = 64;
+
+    private final BitBoard bitBoard = new BitBoard();
+    private final MnkBoard classic = new MnkBoard(3, 3, 3);
+    private final MnkBoard gomoku = new MnkBoard(15, 15, 5);
+    private int[][] classicGames;
+    private int[][] gomokuGames;
+    private int next;
+
+    public WinDetectionWorkload() {
+        Random random = new Random(42);
+        classicGames = new int[GAMES][];
+        gomokuGames = new int[GAMES][];
+        for (int g = 0; g < GAMES; g++) {
+            classicGames[g] = randomGame(new MnkBoard(3, 3, 3), random);
+            gomokuGames[g] = randomGame(new MnkBoard(15, 15, 5), random);
+        }
+    }
+
+    //Mosse casuali fino alla fine della partita
+    private static int[] randomGame(MnkBoard board, Random random) {
+        List<Integer> cells = new ArrayList<>();
+        for (int cell = 0; cell < board.rows() * board.cols(); cell++) cells.add(cell);
+        Collections.shuffle(cells, random);
+        int[] moves = new int[cells.size()];
+        int n = 0;
+        for (int cell : cells) {
+            if (board.isOver()) break;
+            board.play(cell / board.cols(), cell % board.cols());
+            moves[n++] = cell;
+        }
+        return Arrays.copyOf(moves, n);
+    }
+
+    private int[] nextGame(int[][] games) {
+        next = (next + 1) & (GAMES - 1);
+        return games[next];
+    }
+
+    @Override
+    public int bitBoardGame() {
+        bitBoard.reset();
+        for (int cell : nextGame(classicGames)) bitBoard.play(cell);
+        return bitBoard.winner();
+    }
+
+    @Override
+    public int mnkClassicGame() {
+        classic.reset();
+        for (int cell : nextGame(classicGames)) classic.play(cell / 3, cell % 3);
+        return classic.winner();
+    }
+
+    @Override
+    public int mnkGomokuGame() {
+        gomoku.reset();
+        for (int cell : nextGame(gomokuGames)) gomoku.play(cell / 15, cell % 15);
+        return gomoku.winner();
+    }
+
+    @Override
+    public int perfectPlayMove() {
+        bitBoard.reset();
+        int[] game = nextGame(classicGames);
+        for (int i = 0; i < game.length / 2; i++) bitBoard.play(game[i]);
+        return PerfectPlay.bestMove(bitBoard);
+    }
+}
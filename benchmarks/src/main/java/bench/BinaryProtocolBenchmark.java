@@ -0,0 +1,56 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*Codifica e decodifica di BinaryProtocol e delle righe di testo con FrameReader.
+  La lettura avviene da uno stream in memoria che ripete all'infinito lo stesso contenuto*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinaryProtocolBenchmark {
+    public interface Workload {
+        byte[] encodeMoveFrame();
+        byte[] encodeTextFrame();
+        void decodeMoveFrame(Blackhole blackhole) throws IOException;
+        String decodeTextFrame() throws IOException;
+        int decodeTextLine() throws IOException;
+    }
+
+    private Workload workload;
+
+    @Setup
+    public void setup() {
+        workload = Workloads.load("BinaryProtocolWorkload", Workload.class);
+    }
+
+    @Benchmark
+    public byte[] encodeMoveFrame() {
+        return workload.encodeMoveFrame();
+    }
+
+    @Benchmark
+    public byte[] encodeTextFrame() {
+        return workload.encodeTextFrame();
+    }
+
+    @Benchmark
+    public void decodeMoveFrame(Blackhole blackhole) throws IOException {
+        workload.decodeMoveFrame(blackhole);
+    }
+
+    @Benchmark
+    public String decodeTextFrame() throws IOException {
+        return workload.decodeTextFrame();
+    }
+
+    @Benchmark
+    public int decodeTextLine() throws IOException {
+        return workload.decodeTextLine();
+    }
+}
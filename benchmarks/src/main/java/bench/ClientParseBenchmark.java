@@ -0,0 +1,54 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/*Costo di GameClient.handleServerLine per ogni tipo di messaggio del server, MOVE compresa
+  (il parsing di handleOpponentMove). Il client è collegato a un socket locale che non invia nulla*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientParseBenchmark {
+    public interface Workload extends AutoCloseable {
+        Object parse(String message);
+
+        @Override
+        void close();
+    }
+
+    @Param({
+        "NICKNAME-SUCCESS",
+        "NOT-VALID",
+        "PLAYERS=alice,bob,carl,dave,",
+        "PLAYERS-PAGE=1=alice,bob,carl,dave,",
+        "SEARCH-RESULT=0=alice,alan,",
+        "PLAYER-JOIN=alice",
+        "PLAYER-BUSY=alice",
+        "CHALLENGE-REQUEST=alice=15x15x5",
+        "CHALLENGE-DECLINED=alice",
+        "GAME-START=alice=X=3x3x3",
+        "MOVE=alice=bob=O=1=2",
+        "OPPONENT-DISCONNECTED"
+    })
+    public String message;
+
+    private Workload workload;
+
+    @Setup
+    public void setup() {
+        workload = Workloads.load("ClientParseWorkload", Workload.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        workload.close();
+    }
+
+    @Benchmark
+    public Object parse() {
+        return workload.parse(message);
+    }
+}
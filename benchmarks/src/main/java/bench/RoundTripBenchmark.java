@@ -0,0 +1,46 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/*Viaggi completi attraverso un GameServer avviato nello stesso processo, su loopback.
+  moveRoundTrip: una mossa per parte tra due giocatori già in partita.
+  challengeGame: sfida, accettazione, GAME-START a entrambi, una mossa e GAME-OVER*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoundTripBenchmark {
+    public interface Workload extends AutoCloseable {
+        String moveRoundTrip() throws IOException;
+        String challengeGame() throws IOException;
+
+        @Override
+        void close();
+    }
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        workload = Workloads.load("RoundTripWorkload", Workload.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        workload.close();
+    }
+
+    @Benchmark
+    public String moveRoundTrip() throws IOException {
+        return workload.moveRoundTrip();
+    }
+
+    @Benchmark
+    public String challengeGame() throws IOException {
+        return workload.challengeGame();
+    }
+}
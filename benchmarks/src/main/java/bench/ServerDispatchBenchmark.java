@@ -0,0 +1,55 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/*Costo di GameServer.ClientHandler.handleLine per ogni tipo di messaggio del client,
+  senza rete: le risposte finiscono in una Connection che le scarta*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServerDispatchBenchmark {
+    public interface Workload extends AutoCloseable {
+        Object dispatch(String message);
+
+        @Override
+        void close();
+    }
+
+    @Param({
+        "SET-NICKNAME=bench",
+        "GET-PLAYERS",
+        "GET-PLAYERS-PAGE=50=",
+        "SEARCH-PLAYERS=20=a",
+        "SUBSCRIBE-PLAYERS=DELTA",
+        "UNSUBSCRIBE-PLAYERS",
+        "LEAVE-QUEUE",
+        "CHALLENGE=nobody",
+        "ACCEPT-CHALLENGE=nobody",
+        "DECLINE-CHALLENGE=nobody",
+        "MOVE=bench=other=X=1=2",
+        "GAME-OVER",
+        "STATS"
+    })
+    public String message;
+
+    private Workload workload;
+
+    @Setup
+    public void setup() {
+        workload = Workloads.load("ServerDispatchWorkload", Workload.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        workload.close();
+    }
+
+    @Benchmark
+    public Object dispatch() {
+        return workload.dispatch(message);
+    }
+}
@@ -0,0 +1,48 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/*Costo del controllo della vittoria: una partita completa giocata mossa per mossa sui motori,
+  e la risposta dell'AI sul tris. Le partite sono casuali ma con seme fisso*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WinDetectionBenchmark {
+    public interface Workload {
+        int bitBoardGame();
+        int mnkClassicGame();
+        int mnkGomokuGame();
+        int perfectPlayMove();
+    }
+
+    private Workload workload;
+
+    @Setup
+    public void setup() {
+        workload = Workloads.load("WinDetectionWorkload", Workload.class);
+    }
+
+    @Benchmark
+    public int bitBoardGame() {
+        return workload.bitBoardGame();
+    }
+
+    @Benchmark
+    public int mnkClassicGame() {
+        return workload.mnkClassicGame();
+    }
+
+    @Benchmark
+    public int mnkGomokuGame() {
+        return workload.mnkGomokuGame();
+    }
+
+    @Benchmark
+    public int perfectPlayMove() {
+        return workload.perfectPlayMove();
+    }
+}
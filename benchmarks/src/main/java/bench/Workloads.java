@@ -0,0 +1,17 @@
+package bench;
+
+/*JMH non accetta benchmark nel package di default, e da un package con nome non si vedono
+  le classi del gioco (tutte nel package di default). Ogni benchmark dichiara quindi
+  un'interfaccia Workload, implementata da una classe del package di default che la carica per nome:
+  la chiamata resta monomorfica e il JIT la risolve come una chiamata diretta*/
+final class Workloads {
+    private Workloads() {}
+
+    static <T> T load(String className, Class<T> type) {
+        try {
+            return type.cast(Class.forName(className).getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Workload non disponibile: " + className, e);
+        }
+    }
+}
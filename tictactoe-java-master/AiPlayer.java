@@ -0,0 +1,128 @@
+import java.util.concurrent.*;
+
+/*Avversario gestito dal server: compare nella lobby come "AI" e accetta ogni sfida.
+  Per ogni sfida crea un giocatore simulato dedicato a quella partita, che risponde
+  alle mosse con la tabella di PerfectPlay sul tris e con SearchEngine sui tabelloni più grandi.
+  Riceve i messaggi come un client qualsiasi (tramite Connection) e risponde passando dal
+  normale handleMessage, quindi dall'altra parte le sue mosse arrivano come quelle di una persona*/
+class AiPlayer implements Connection {
+    static final String NICKNAME = "AI";
+
+    //Tempo di ricerca per mossa sui tabelloni più grandi del 3x3
+    static final long BUDGET_MS = Long.getLong("ai.budget.ms", 500);
+
+    //Un solo thread per i messaggi di tutte le partite: sul tris ogni mossa è una lettura dalla tabella
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "ai-player");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /*Motore e thread delle ricerche, creati solo alla prima partita su un tabellone grande.
+      Le ricerche girano una alla volta, ognuna su tutti i core, senza fermare i messaggi*/
+    private static final class Search {
+        static final SearchEngine engine = new SearchEngine(Runtime.getRuntime().availableProcessors());
+        static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "ai-search");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private MnkBoard board = new MnkBoard(3, 3, 3);
+    private GameServer.ClientHandler handler;
+    private String opponentName;
+    private String symbol;
+    //true dopo OPPONENT-DISCONNECTED: una ricerca ancora in corso viene scartata
+    private boolean finished;
+
+    private AiPlayer() {}
+
+    /*Crea un giocatore simulato con il suo handler*/
+    static GameServer.ClientHandler create() {
+        AiPlayer ai = new AiPlayer();
+        ai.handler = new GameServer.ClientHandler(ai, NICKNAME);
+        return ai.handler;
+    }
+
+    /*I messaggi per l'AI vengono gestiti sul suo thread, mai su quello di chi li invia*/
+    @Override
+    public void send(String message) {
+        execute(() -> receive(message));
+    }
+
+    private void execute(Runnable task) {
+        executor.execute(() -> {
+            OutboundBuffer.beginCycle();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.error("Errore dell'AI", e);
+            } finally {
+                OutboundBuffer.endCycle();
+            }
+        });
+    }
+
+    //L'AI non negozia il protocollo binario: le mosse le arrivano sempre in testo
+    @Override
+    public void sendBytes(byte[] bytes) {}
+
+    @Override
+    public void close() {}
+
+    private void receive(String message) {
+        if (message.startsWith("CHALLENGE-REQUEST=")) {
+            //CHALLENGE-REQUEST=challenger[=board]: ogni sfida ha il suo avversario simulato,
+            //così l'AI resta libera nella lobby
+            String challenger = message.split("=")[1];
+            create().handleMessage("ACCEPT-CHALLENGE=" + challenger);
+        } else if (message.startsWith("GAME-START=")) {
+            //GAME-START=opponent=symbol=board
+            String[] parts = message.split("=");
+            opponentName = parts[1];
+            symbol = parts[2];
+            board = MnkBoard.parse(parts[3]);
+            finished = false;
+            if (board.currentPlayer() == BitBoard.player(symbol)) playBestMove();
+        } else if (message.startsWith("MOVE=")) {
+            //MOVE=nickname=opponent=symbol=row=col
+            String[] parts = message.split("=");
+            if (board.currentPlayer() == BitBoard.player(symbol)
+                    || !board.play(Integer.parseInt(parts[4]), Integer.parseInt(parts[5]))) {
+                Log.warn("Mossa non valida per l'AI: ", message);
+                return;
+            }
+            if (board.isOver()) {
+                handler.handleMessage("GAME-OVER");
+            } else {
+                playBestMove();
+            }
+        } else if (message.equals("OPPONENT-DISCONNECTED")) {
+            finished = true;
+        }
+    }
+
+    private void playBestMove() {
+        if (board.isClassic()) {
+            applyMove(PerfectPlay.bestMove(board), board.moveCount());
+            return;
+        }
+        //La ricerca lavora su una copia; la mossa torna sul thread dei messaggi per essere giocata
+        MnkBoard position = board.copy();
+        Search.executor.execute(() -> {
+            int cell = Search.engine.bestMove(position, BUDGET_MS);
+            execute(() -> applyMove(cell, position.moveCount()));
+        });
+    }
+
+    /*Gioca la mossa scelta, se nel frattempo la partita non è cambiata*/
+    private void applyMove(int cell, int expectedMoves) {
+        if (finished || board.moveCount() != expectedMoves || cell < 0) return;
+        int row = cell / board.cols();
+        int col = cell % board.cols();
+        board.play(row, col);
+        handler.handleMessage("MOVE=" + NICKNAME + "=" + opponentName + "=" + symbol + "=" + row + "=" + col);
+        if (board.isOver()) handler.handleMessage("GAME-OVER");
+    }
+}
@@ -1,5 +1,15 @@
 public class App {
+    /*"java App [ai] [<rows>x<cols>x<k>]", ad esempio "java App ai 15x15x5" per il gomoku contro il computer*/
     public static void main(String[] args) throws Exception {
-        TicTacToe ticTacToe = new TicTacToe();
+        boolean vsComputer = false;
+        MnkBoard game = new MnkBoard(3, 3, 3);
+        for (String arg : args) {
+            if (arg.equals("ai")) {
+                vsComputer = true;
+            } else if (MnkBoard.parsePlayable(arg) != null) {
+                game = MnkBoard.parsePlayable(arg);
+            }
+        }
+        TicTacToe ticTacToe = new TicTacToe(game, vsComputer);
     }
 }
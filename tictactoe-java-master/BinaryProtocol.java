@@ -0,0 +1,90 @@
+import java.nio.charset.StandardCharsets;
+
+/*Framing binario opzionale, negoziato con "SET-NICKNAME=<nick>=BIN1".
+  Ogni frame è [lunghezza u16][opcode u8][payload], dove la lunghezza conta opcode + payload.
+  Una mossa occupa 10 byte ed è identificata dall'id della partita invece che dai nickname*/
+final class BinaryProtocol {
+    static final String VERSION = "BIN1";
+
+    //Messaggio di testo qualsiasi (payload = riga UTF-8 senza terminatore)
+    static final byte OP_TEXT = 1;
+    //Mossa: id partita (int), simbolo (BitBoard.X/O), riga, colonna
+    static final byte OP_MOVE = 2;
+
+    static final int HEADER = 2;
+    static final int MOVE_PAYLOAD = 7;
+    static final int MOVE_FRAME = HEADER + 1 + MOVE_PAYLOAD;
+    static final int MAX_FRAME = 8192;
+    //Messaggio di testo più lungo che sta in un frame OP_TEXT. È anche entro il limite delle righe
+    //di FrameReader, quindi vale per ogni messaggio del server, testuale o binario
+    static final int MAX_TEXT = MAX_FRAME - 1;
+
+    private BinaryProtocol() {}
+
+    /*Incapsula una riga di testo in un frame OP_TEXT*/
+    static byte[] text(String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        return text(bytes, 0, bytes.length);
+    }
+
+    /*Frame OP_TEXT con una riga già codificata*/
+    static byte[] text(byte[] bytes, int offset, int length) {
+        return frame(OP_TEXT, bytes, offset, length);
+    }
+
+    /*Frame con un opcode qualsiasi, ad esempio quelli dei collegamenti tra i nodi di Cluster.
+      Un payload oltre MAX_FRAME è un errore di chi lo invia: FrameReader rifiuterebbe il frame
+      e oltre i 16 bit la lunghezza nell'intestazione non sarebbe più quella vera*/
+    static byte[] frame(byte opcode, byte[] bytes, int offset, int length) {
+        if (length < 0 || 1 + length > MAX_FRAME) {
+            throw new IllegalArgumentException("Frame di " + (1 + length) + " byte, al massimo " + MAX_FRAME);
+        }
+        byte[] frame = new byte[HEADER + 1 + length];
+        writeHeader(frame, 0, 1 + length, opcode);
+        System.arraycopy(bytes, offset, frame, HEADER + 1, length);
+        return frame;
+    }
+
+    static byte[] move(int matchId, int player, int row, int col) {
+        byte[] frame = new byte[MOVE_FRAME];
+        writeMove(frame, 0, matchId, player, row, col);
+        return frame;
+    }
+
+    /*Scrive un frame OP_MOVE completo a partire da offset*/
+    static void writeMove(byte[] dst, int offset, int matchId, int player, int row, int col) {
+        writeHeader(dst, offset, 1 + MOVE_PAYLOAD, OP_MOVE);
+        int p = offset + HEADER + 1;
+        dst[p] = (byte) (matchId >>> 24);
+        dst[p + 1] = (byte) (matchId >>> 16);
+        dst[p + 2] = (byte) (matchId >>> 8);
+        dst[p + 3] = (byte) matchId;
+        dst[p + 4] = (byte) player;
+        dst[p + 5] = (byte) row;
+        dst[p + 6] = (byte) col;
+    }
+
+    private static void writeHeader(byte[] dst, int offset, int length, byte opcode) {
+        dst[offset] = (byte) (length >>> 8);
+        dst[offset + 1] = (byte) length;
+        dst[offset + 2] = opcode;
+    }
+
+    /*Lettori del payload di OP_MOVE (offset = inizio del payload, dopo l'opcode)*/
+    static int moveMatchId(byte[] payload, int offset) {
+        return ((payload[offset] & 0xFF) << 24) | ((payload[offset + 1] & 0xFF) << 16)
+            | ((payload[offset + 2] & 0xFF) << 8) | (payload[offset + 3] & 0xFF);
+    }
+
+    static int movePlayer(byte[] payload, int offset) {
+        return payload[offset + 4] & 0xFF;
+    }
+
+    static int moveRow(byte[] payload, int offset) {
+        return payload[offset + 5] & 0xFF;
+    }
+
+    static int moveCol(byte[] payload, int offset) {
+        return payload[offset + 6] & 0xFF;
+    }
+}
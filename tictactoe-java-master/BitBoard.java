@@ -0,0 +1,149 @@
+import java.util.Arrays;
+
+/*Motore di gioco senza interfaccia grafica per il tris 3x3.
+  Ogni giocatore ha una maschera da 9 bit: il bit (row * 3 + col) è acceso se la casella è sua.
+  Nessuna allocazione dopo la costruzione, quindi usabile da server, AI e benchmark*/
+public class BitBoard {
+    public static final int EMPTY = 0;
+    public static final int X = 1;
+    public static final int O = 2;
+
+    public static final int SIZE = 3;
+    public static final int CELLS = 9;
+    public static final int FULL = 0b111_111_111;
+
+    //Le 8 linee vincenti: 3 righe, 3 colonne, 2 diagonali
+    static final int[] LINES = {
+        0b000_000_111, 0b000_111_000, 0b111_000_000,
+        0b001_001_001, 0b010_010_010, 0b100_100_100,
+        0b100_010_001, 0b001_010_100
+    };
+
+    //Per ogni casella, solo le linee che la attraversano (da 2 a 4)
+    static final int[][] LINES_BY_CELL = new int[CELLS][];
+
+    static {
+        for (int cell = 0; cell < CELLS; cell++) {
+            int count = 0;
+            int[] lines = new int[4];
+            for (int line : LINES) {
+                if ((line & (1 << cell)) != 0) lines[count++] = line;
+            }
+            LINES_BY_CELL[cell] = Arrays.copyOf(lines, count);
+        }
+    }
+
+    private int xMask;
+    private int oMask;
+    private int moves;
+    private int winner;
+    private int winningLine;
+
+    /*Riporta il tabellone allo stato iniziale*/
+    public void reset() {
+        xMask = 0;
+        oMask = 0;
+        moves = 0;
+        winner = EMPTY;
+        winningLine = 0;
+    }
+
+    /*Gioca una mossa del giocatore di turno, restituisce false se non è valida*/
+    public boolean play(int row, int col) {
+        if (row < 0 || row >= SIZE || col < 0 || col >= SIZE) return false;
+        return play(row * SIZE + col);
+    }
+
+    /*Come play(row, col) ma con l'indice della casella (0-8)*/
+    public boolean play(int cell) {
+        if (cell < 0 || cell >= CELLS) return false;
+        int bit = 1 << cell;
+        if (isOver() || ((xMask | oMask) & bit) != 0) return false;
+
+        int mask;
+        if ((moves & 1) == 0) {
+            xMask |= bit;
+            mask = xMask;
+        } else {
+            oMask |= bit;
+            mask = oMask;
+        }
+        moves++;
+
+        int line = findLine(mask, cell);
+        if (line != 0) {
+            winner = (moves & 1) == 1 ? X : O;
+            winningLine = line;
+        }
+        return true;
+    }
+
+    /*Linea completata dalla maschera passando per la casella appena giocata, oppure 0*/
+    static int findLine(int mask, int cell) {
+        for (int line : LINES_BY_CELL[cell]) {
+            if ((mask & line) == line) return line;
+        }
+        return 0;
+    }
+
+    /*Restituisce la linea completata dalla maschera, oppure 0*/
+    static int findLine(int mask) {
+        for (int line : LINES) {
+            if ((mask & line) == line) return line;
+        }
+        return 0;
+    }
+
+    public static boolean isWin(int mask) {
+        return findLine(mask) != 0;
+    }
+
+    /*Contenuto di una casella: EMPTY, X oppure O*/
+    public int get(int row, int col) {
+        int bit = 1 << (row * SIZE + col);
+        if ((xMask & bit) != 0) return X;
+        if ((oMask & bit) != 0) return O;
+        return EMPTY;
+    }
+
+    public int currentPlayer() {
+        return (moves & 1) == 0 ? X : O;
+    }
+
+    public int winner() {
+        return winner;
+    }
+
+    /*Maschera delle caselle della linea vincente (0 se nessuno ha vinto)*/
+    public int winningLine() {
+        return winningLine;
+    }
+
+    public boolean isDraw() {
+        return winner == EMPTY && moves == CELLS;
+    }
+
+    public boolean isOver() {
+        return winner != EMPTY || moves == CELLS;
+    }
+
+    public int moveCount() {
+        return moves;
+    }
+
+    public int xMask() {
+        return xMask;
+    }
+
+    public int oMask() {
+        return oMask;
+    }
+
+    public static String symbol(int player) {
+        return player == X ? "X" : player == O ? "O" : "";
+    }
+
+    public static int player(String symbol) {
+        return "X".equals(symbol) ? X : "O".equals(symbol) ? O : EMPTY;
+    }
+}
@@ -0,0 +1,515 @@
+import java.io.*;
+import java.net.*;
+import java.security.MessageDigest;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/*Modalità cluster: più processi GameServer, ognuno con i propri client, condividono la directory
+  dei nickname e si passano sfide e mosse tra giocatori collegati a nodi diversi.
+  -Dcluster.nodes=host:porta,host:porta,... elenca le porte dei collegamenti tra i nodi (non quelle
+  dei client) e -Dcluster.node=<indice> dice quale di queste è il nodo corrente; senza cluster.nodes
+  il server è un nodo solo e niente di questa classe entra in gioco.
+  La directory è partizionata: il nickname n appartiene al nodo floorMod(n.hashCode(), nodi), che
+  sa su quale nodo è collegato il giocatore e garantisce che il nickname sia unico in tutto il cluster.
+  Ogni nodo apre un solo collegamento persistente verso ciascuno degli altri: i messaggi sono frame
+  di BinaryProtocol con gli opcode qui sotto e payload di testo separato da '=', accodati da chi li
+  invia e scritti a blocchi dal thread del collegamento (una write per tutti quelli in coda).
+  Tutto ciò che riguarda due giocatori passa dal collegamento diretto tra i loro nodi, mai da un
+  terzo: così arriva nell'ordine in cui è partito (una sfida non supera la mossa che la precede).
+  La porta dei collegamenti ascolta solo sull'indirizzo del nodo in cluster.nodes e accetta solo chi
+  presenta in HELLO il segreto comune -Dcluster.secret (obbligatorio): chiunque altro potrebbe
+  inoltrare mosse nelle partite o prendere nickname. Il segreto viaggia in chiaro, quindi i
+  collegamenti vanno tenuti su una rete privata.
+  Un collegamento perso si riapre ogni RETRY_MS. Quando cade, in entrata o in uscita, le partite con
+  i giocatori di quel nodo si chiudono come per una disconnessione su entrambi i nodi: i frame
+  rimasti in coda non arriveranno più, e un frame che non si può accodare chiude la partita a cui
+  appartiene invece di sparire in silenzio*/
+final class Cluster {
+    static final long RETRY_MS = Long.getLong("cluster.retry.ms", 1000);
+    //Attesa massima della risposta di un altro nodo: la conferma di un nickname in SET-NICKNAME e
+    //l'inizio (START) di una partita con uno sfidante remoto dopo ACCEPT-CHALLENGE
+    static final long CLAIM_MS = Long.getLong("cluster.claim.ms", 2000);
+    //Attesa massima di HELLO su un collegamento in ingresso appena aperto
+    private static final int HELLO_MS = 5000;
+    //Frame in coda verso un nodo oltre i quali si scartano (nodo bloccato o troppo lento)
+    private static final int QUEUE = Integer.getInteger("cluster.queue", 65536);
+    private static final int BATCH = 256;
+
+    //Opcode dei frame tra i nodi
+    static final byte HELLO = 1;      //<nodo>=<segreto>, primo frame di ogni collegamento
+    static final byte CLAIM = 2;      //<nickname>, al proprietario
+    static final byte CLAIMED = 3;    //<1 oppure 0>=<nickname>, risposta a CLAIM
+    static final byte UNCLAIM = 4;    //<nickname>, al proprietario
+    static final byte CHALLENGE = 5;  //<sfidato>=<sfidante>=<nodo dello sfidante>=<tabellone>
+    static final byte DECLINE = 6;    //<sfidante>=<sfidato>
+    static final byte ACCEPT = 7;     //<sfidante>=<sfidato>=<tabellone>
+    static final byte START = 8;      //<sfidato>=<sfidante>=<id partita>=<tabellone>
+    static final byte REFUSE = 9;     //<sfidato>=<sfidante>
+    static final byte FORWARD = 10;   //<destinatario>=<mittente>=<messaggio>
+    static final byte LOCATED = 11;   //<sfidato>=<sfidante>=<nodo dello sfidato>=<tabellone>, dal proprietario
+
+    private static final InetSocketAddress[] nodes = parse(System.getProperty("cluster.nodes", ""));
+    private static final int self = nodes.length == 0 ? 0 : Integer.getInteger("cluster.node", 0);
+    private static final byte[] secret = System.getProperty("cluster.secret", "").getBytes(StandardCharsets.UTF_8);
+
+    private static PlayerRegistry players;
+    private static Link[] links;
+    //Partizione della directory di questo nodo: nickname -> nodo a cui è collegato
+    private static final ConcurrentHashMap<String, Integer> directory = new ConcurrentHashMap<>();
+    //Richieste di nickname in attesa della risposta del proprietario
+    private static final ConcurrentHashMap<String, CompletableFuture<Boolean>> claims = new ConcurrentHashMap<>();
+    //Collegamento in ingresso attuale di ogni nodo, per riconoscere la caduta di quello vecchio
+    private static Socket[] incoming;
+
+    private static final LongAdder framesIn = new LongAdder();
+    private static final LongAdder framesOut = new LongAdder();
+    private static final LongAdder batchesOut = new LongAdder();
+    private static final AtomicInteger peers = new AtomicInteger();
+
+    private Cluster() {}
+
+    private static InetSocketAddress[] parse(String list) {
+        if (list.isBlank()) return new InetSocketAddress[0];
+        String[] entries = list.split(",");
+        InetSocketAddress[] result = new InetSocketAddress[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            String entry = entries[i].trim();
+            int colon = entry.lastIndexOf(':');
+            result[i] = new InetSocketAddress(entry.substring(0, colon), Integer.parseInt(entry.substring(colon + 1)));
+        }
+        return result;
+    }
+
+    static boolean isEnabled() {
+        return nodes.length > 1;
+    }
+
+    /*Numero di nodi (1 senza cluster) e indice di questo nodo*/
+    static int size() {
+        return Math.max(1, nodes.length);
+    }
+
+    static int self() {
+        return self;
+    }
+
+    /*Apre la porta dei collegamenti in ingresso e avvia quelli in uscita verso gli altri nodi*/
+    static void start(PlayerRegistry registry) {
+        players = registry;
+        if (!isEnabled()) return;
+        if (self < 0 || self >= nodes.length) throw new IllegalArgumentException("cluster.node fuori da cluster.nodes: " + self);
+        if (secret.length == 0) throw new IllegalArgumentException("cluster.secret mancante: serve lo stesso segreto su tutti i nodi");
+        incoming = new Socket[nodes.length];
+        links = new Link[nodes.length];
+        ServerSocket server;
+        try {
+            server = new ServerSocket();
+            server.bind(nodes[self]);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Porta del cluster non disponibile: " + nodes[self], e);
+        }
+        daemon("cluster-accept", () -> acceptLoop(server));
+        for (int i = 0; i < nodes.length; i++) {
+            if (i == self) continue;
+            links[i] = new Link(i);
+            daemon("cluster-link-" + i, links[i]);
+        }
+        Log.info("Nodo " + self + " di " + nodes.length + " del cluster, collegamenti su " + nodes[self]);
+    }
+
+    private static void daemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /*Nodo proprietario del nickname nella directory*/
+    static int owner(String nickname) {
+        return Math.floorMod(nickname.hashCode(), size());
+    }
+
+    /*Prenota il nickname in tutto il cluster per un giocatore di questo nodo. Il risultato è già
+      pronto senza cluster, se il proprietario è questo nodo o se non è raggiungibile (il nickname
+      si accetta lo stesso: i giocatori già collegati non devono dipendere da un nodo caduto, e gli
+      verrà annunciato quando il collegamento torna); altrimenti si completa sul thread del
+      collegamento quando arriva CLAIMED, oppure con TimeoutException dopo CLAIM_MS. Nessuno resta
+      fermo ad aspettarlo: in modalità NIO il thread di I/O serve anche altre connessioni*/
+    static CompletableFuture<Boolean> claim(String nickname) {
+        if (!isEnabled()) return CompletableFuture.completedFuture(true);
+        int owner = owner(nickname);
+        if (owner == self) return CompletableFuture.completedFuture(reserve(nickname, self));
+        CompletableFuture<Boolean> pending = new CompletableFuture<>();
+        if (claims.putIfAbsent(nickname, pending) != null) return CompletableFuture.completedFuture(false);
+        if (!links[owner].send(CLAIM, nickname)) {
+            claims.remove(nickname, pending);
+            return CompletableFuture.completedFuture(true);
+        }
+        pending.orTimeout(CLAIM_MS, TimeUnit.MILLISECONDS).whenComplete((granted, error) -> {
+            claims.remove(nickname, pending);
+            if (error != null) Log.warn("Nessuna risposta dal nodo " + owner + " per il nickname ", nickname);
+        });
+        return pending;
+    }
+
+    /*Libera il nickname di un giocatore di questo nodo*/
+    static void unclaim(String nickname) {
+        if (!isEnabled()) return;
+        int owner = owner(nickname);
+        if (owner == self) {
+            directory.remove(nickname, self);
+        } else {
+            links[owner].send(UNCLAIM, nickname);
+        }
+    }
+
+    /*Sul proprietario: il nickname è libero oppure è già dello stesso nodo*/
+    private static boolean reserve(String nickname, int node) {
+        Integer previous = directory.putIfAbsent(nickname, node);
+        return previous == null || previous == node;
+    }
+
+    /*Sfida verso un giocatore che non è su questo nodo: va al proprietario del suo nickname, che la
+      consegna se il giocatore è collegato lì e altrimenti risponde con il suo nodo (LOCATED), a cui
+      la sfida riparte direttamente. Se il giocatore non c'è la sfida si scarta, come su un nodo solo*/
+    static void challenge(String target, String challenger, String board) {
+        if (!isEnabled()) return;
+        int owner = owner(target);
+        if (owner != self) {
+            send(owner, CHALLENGE, target + "=" + challenger + "=" + self + "=" + board);
+            return;
+        }
+        Integer node = directory.get(target);
+        if (node != null && node != self) send(node, CHALLENGE, target + "=" + challenger + "=" + self + "=" + board);
+    }
+
+    static void decline(int node, String challenger, String target) {
+        send(node, DECLINE, challenger + "=" + target);
+    }
+
+    /*false se il frame non è partito: il collegamento verso node è chiuso o bloccato*/
+    static boolean accept(int node, String challenger, String target, String board) {
+        return send(node, ACCEPT, challenger + "=" + target + "=" + board);
+    }
+
+    /*Inoltra un messaggio per il giocatore di un altro nodo da parte del suo avversario locale,
+      false se il frame non è partito*/
+    static boolean forward(int node, String to, String from, String message) {
+        return send(node, FORWARD, to + "=" + from + "=" + message);
+    }
+
+    private static boolean send(int node, byte opcode, String payload) {
+        return links != null && links[node] != null && links[node].send(opcode, payload);
+    }
+
+    private static byte[] frame(byte opcode, String payload) {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        return BinaryProtocol.frame(opcode, bytes, 0, bytes.length);
+    }
+
+    private static void acceptLoop(ServerSocket server) {
+        while (true) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                daemon("cluster-in", () -> readLoop(socket));
+            } catch (IOException e) {
+                Log.error("Errore sulla porta del cluster: " + e.getMessage());
+            }
+        }
+    }
+
+    /*Legge i frame di un collegamento in ingresso: il primo è HELLO con l'indice del nodo.
+      Come per un client, i messaggi generati da un frame partono insieme alla fine del ciclo*/
+    private static void readLoop(Socket socket) {
+        int node = -1;
+        try (socket) {
+            FrameReader in = new FrameReader(socket.getInputStream());
+            socket.setSoTimeout(HELLO_MS);
+            if (in.readFrame() != HELLO) return;
+            String[] hello = text(in).split("=", 2);
+            if (hello.length < 2 || !MessageDigest.isEqual(secret, hello[1].getBytes(StandardCharsets.UTF_8))) {
+                Log.warn("HELLO senza il segreto del cluster da ", socket.getRemoteSocketAddress());
+                return;
+            }
+            int from = Integer.parseInt(hello[0]);
+            if (from < 0 || from >= nodes.length || from == self) return;
+            socket.setSoTimeout(0);
+            node = from;
+            Socket previous;
+            synchronized (incoming) {
+                previous = incoming[node];
+                incoming[node] = socket;
+            }
+            if (previous != null) previous.close();
+            Log.info("Collegamento dal nodo " + node);
+
+            int opcode;
+            while ((opcode = in.readFrame()) >= 0) {
+                framesIn.increment();
+                OutboundBuffer.beginCycle();
+                try {
+                    dispatch(node, opcode, text(in));
+                } catch (RuntimeException e) {
+                    Log.error("Frame non valido dal nodo " + node, e);
+                } finally {
+                    OutboundBuffer.endCycle();
+                }
+            }
+        } catch (IOException e) {
+            //Il nodo è caduto o il collegamento si è interrotto: lo gestisce il blocco seguente
+        } catch (NumberFormatException e) {
+            Log.warn("HELLO non valido da ", socket.getRemoteSocketAddress());
+        }
+        if (node < 0) return;
+        boolean current;
+        synchronized (incoming) {
+            current = incoming[node] == socket;
+            if (current) incoming[node] = null;
+        }
+        if (current) lost(node);
+    }
+
+    private static String text(FrameReader in) {
+        return new String(in.buffer(), 0, in.length(), StandardCharsets.UTF_8);
+    }
+
+    private static void dispatch(int node, int opcode, String payload) {
+        switch (opcode) {
+            case CLAIM:
+                links[node].send(CLAIMED, (reserve(payload, node) ? "1=" : "0=") + payload);
+                break;
+            case CLAIMED: {
+                boolean granted = payload.charAt(0) == '1';
+                String nickname = payload.substring(2);
+                CompletableFuture<Boolean> pending = claims.get(nickname);
+                if (pending != null && pending.complete(granted)) break;
+                if (!granted) {
+                    //Risposta a un nickname annunciato di nuovo dopo che il nodo era caduto
+                    Log.warn("Nickname preso anche su un altro nodo durante la caduta del nodo " + node + ": ", nickname);
+                } else if (players.get(nickname) == null) {
+                    //Conferma arrivata dopo CLAIM_MS, quando il client ha già ricevuto NOT-VALID: se nessun
+                    //giocatore di questo nodo usa il nickname, il proprietario lo deve liberare
+                    links[node].send(UNCLAIM, nickname);
+                }
+                break;
+            }
+            case UNCLAIM:
+                directory.remove(payload, node);
+                break;
+            case CHALLENGE: {
+                //<sfidato>=<sfidante>=<nodo>=<tabellone>
+                String[] parts = payload.split("=", 4);
+                int origin = Integer.parseInt(parts[2]);
+                if (players.get(parts[0]) != null) {
+                    GameServer.remoteChallenge(parts[0], parts[1], origin, parts[3]);
+                } else if (owner(parts[0]) == self) {
+                    Integer at = directory.get(parts[0]);
+                    if (at != null && at != self && at != origin) {
+                        send(origin, LOCATED, parts[0] + "=" + parts[1] + "=" + at + "=" + parts[3]);
+                    }
+                }
+                break;
+            }
+            case LOCATED: {
+                //<sfidato>=<sfidante>=<nodo>=<tabellone>: la sfida parte verso il nodo dello sfidato
+                String[] parts = payload.split("=", 4);
+                send(Integer.parseInt(parts[2]), CHALLENGE, parts[0] + "=" + parts[1] + "=" + self + "=" + parts[3]);
+                break;
+            }
+            case DECLINE: {
+                String[] parts = payload.split("=", 2);
+                GameServer.remoteDecline(parts[0], parts[1]);
+                break;
+            }
+            case ACCEPT: {
+                String[] parts = payload.split("=", 3);
+                int id = GameServer.remoteAccept(node, parts[0], parts[1], parts[2]);
+                if (id > 0) {
+                    //Senza START la partita c'è solo qui: si chiude subito, come tutte quelle con il nodo
+                    if (!send(node, START, parts[1] + "=" + parts[0] + "=" + id + "=" + parts[2])) GameServer.peerLost(node);
+                } else {
+                    send(node, REFUSE, parts[1] + "=" + parts[0]);
+                }
+                break;
+            }
+            case START: {
+                String[] parts = payload.split("=", 4);
+                if (!GameServer.remoteStart(node, parts[0], parts[1], Integer.parseInt(parts[2]), parts[3])) {
+                    //Per lo sfidante la partita è già iniziata: la chiude come per una disconnessione
+                    forward(node, parts[1], parts[0], "OPPONENT-DISCONNECTED");
+                }
+                break;
+            }
+            case REFUSE: {
+                String[] parts = payload.split("=", 2);
+                GameServer.remoteRefuse(node, parts[0], parts[1]);
+                break;
+            }
+            case FORWARD: {
+                String[] parts = payload.split("=", 3);
+                RemotePlayer.deliver(players, node, parts[0], parts[1], parts[2]);
+                break;
+            }
+            default:
+                Log.warn("Opcode sconosciuto dal nodo " + node + ": " + opcode);
+        }
+    }
+
+    /*Il nodo è caduto: i suoi nickname tornano liberi e le partite con i suoi giocatori si chiudono*/
+    private static void lost(int node) {
+        Log.warn("Nodo " + node + " del cluster non raggiungibile");
+        directory.values().removeIf(n -> n == node);
+        GameServer.peerLost(node);
+    }
+
+    /*Nodi raggiungibili dal collegamento in uscita*/
+    static int peers() {
+        return peers.get();
+    }
+
+    static long framesIn() {
+        return framesIn.sum();
+    }
+
+    static long framesOut() {
+        return framesOut.sum();
+    }
+
+    static long batchesOut() {
+        return batchesOut.sum();
+    }
+
+    /*Nickname nella partizione della directory di questo nodo*/
+    static int directorySize() {
+        return directory.size();
+    }
+
+    /*Collegamento in uscita verso un nodo: chi invia accoda il frame senza bloccarsi, il thread
+      del collegamento li scrive tutti quelli in coda con una sola write. Quando il socket cade
+      (errore di scrittura, oppure fine stream letta dal thread di controllo) le partite con i
+      giocatori del nodo si chiudono, e il collegamento si riapre ogni RETRY_MS ripartendo con HELLO
+      e con i nickname dei giocatori locali di cui il nodo è proprietario*/
+    private static final class Link implements Runnable {
+        //Sveglia il thread del collegamento quando il socket è stato chiuso
+        private static final byte[] WAKE = new byte[0];
+
+        private final int node;
+        private final LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<>(QUEUE);
+        //null finché il collegamento non è aperto: send lo dice a chi invia, che chiude la partita
+        private volatile Socket socket;
+
+        Link(int node) {
+            this.node = node;
+        }
+
+        /*Accoda un frame, false se il collegamento non è aperto o la coda è piena. Con la coda piena il
+          nodo non sta al passo: il collegamento si chiude, così entrambi i nodi chiudono le partite
+          invece di proseguirle con un frame mancante*/
+        boolean send(byte opcode, String payload) {
+            Socket connected = socket;
+            if (connected == null) return false;
+            if (!queue.offer(frame(opcode, payload))) {
+                Log.warn("Coda verso il nodo " + node + " piena: collegamento chiuso");
+                close(connected);
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Socket connected = connect();
+                //Frame rimasti dal collegamento precedente: le loro partite sono già state chiuse
+                queue.clear();
+                socket = connected;
+                peers.incrementAndGet();
+                try {
+                    OutputStream out = new BufferedOutputStream(connected.getOutputStream(), 64 * 1024);
+                    daemon("cluster-watch-" + node, () -> watch(connected));
+                    out.write(frame(HELLO, self + "=" + new String(secret, StandardCharsets.UTF_8)));
+                    for (GameServer.ClientHandler handler : players.all()) {
+                        String nickname = handler.getNickname();
+                        if (!handler.isBot() && owner(nickname) == node) out.write(frame(CLAIM, nickname));
+                    }
+                    out.flush();
+                    Log.info("Collegato al nodo " + node + " (" + nodes[node] + ")");
+                    write(connected, out);
+                } catch (IOException e) {
+                    Log.info("Collegamento verso il nodo " + node + " interrotto: " + e.getMessage());
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    socket = null;
+                    peers.decrementAndGet();
+                    close(connected);
+                }
+                //Anche se il nodo è ancora vivo, quello che era in coda è perso: l'altro nodo vede cadere
+                //lo stesso socket in ingresso e chiude le stesse partite
+                GameServer.peerLost(node);
+            }
+        }
+
+        private Socket connect() {
+            while (true) {
+                Socket candidate = new Socket();
+                try {
+                    candidate.connect(nodes[node], (int) Math.max(100, RETRY_MS));
+                    candidate.setTcpNoDelay(true);
+                    return candidate;
+                } catch (IOException e) {
+                    close(candidate);
+                }
+                try {
+                    Thread.sleep(RETRY_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /*Scrive i frame in coda a blocchi finché il socket è aperto*/
+        private void write(Socket connected, OutputStream out) throws IOException, InterruptedException {
+            ArrayList<byte[]> batch = new ArrayList<>(BATCH);
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, BATCH - 1);
+                if (connected.isClosed()) return;
+                int frames = 0;
+                for (int i = 0; i < batch.size(); i++) {
+                    byte[] frame = batch.get(i);
+                    if (frame == WAKE) continue;
+                    out.write(frame);
+                    frames++;
+                }
+                batch.clear();
+                if (frames == 0) continue;
+                out.flush();
+                framesOut.add(frames);
+                batchesOut.increment();
+            }
+        }
+
+        /*L'altro nodo non scrive mai su questo socket: la lettura serve solo ad accorgersi subito
+          che è caduto, anche quando non c'è niente da inviargli*/
+        private void watch(Socket connected) {
+            try {
+                while (connected.getInputStream().read() >= 0) {}
+            } catch (IOException e) {
+                //Chiuso: come la fine dello stream
+            }
+            close(connected);
+            queue.offer(WAKE);
+        }
+
+        private static void close(Socket socket) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //Già chiuso
+            }
+        }
+    }
+}
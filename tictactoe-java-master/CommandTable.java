@@ -0,0 +1,77 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*Tabella dei comandi del protocollo testuale: dal nome (i byte prima del primo '=') alla voce
+  con il numero di argomenti ammesso e il valore da usare nello switch del gestore.
+  È un array a indirizzamento aperto: la ricerca confronta byte e non crea stringhe*/
+final class CommandTable<E> {
+    static final class Entry<E> {
+        final String name;
+        final E value;
+        private final byte[] bytes;
+        private final int hash;
+        private final int minArgs;
+        private final int maxArgs;
+
+        private Entry(String name, int hash, int minArgs, int maxArgs, E value) {
+            this.name = name;
+            this.bytes = name.getBytes(StandardCharsets.US_ASCII);
+            this.hash = hash;
+            this.minArgs = minArgs;
+            this.maxArgs = maxArgs;
+            this.value = value;
+        }
+
+        /*true se il comando accetta questo numero di argomenti*/
+        boolean accepts(int args) {
+            return args >= minArgs && args <= maxArgs;
+        }
+    }
+
+    //Almeno il doppio delle voci, così le sequenze di collisione restano corte
+    private static final int SLOTS = 64;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Entry<E>[] slots = new Entry[SLOTS];
+    private int size;
+
+    /*Aggiunge un comando con il numero minimo e massimo di argomenti*/
+    CommandTable<E> add(String name, int minArgs, int maxArgs, E value) {
+        if (size == SLOTS / 2) throw new IllegalStateException("Troppi comandi");
+        byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+        int hash = hash(bytes, 0, bytes.length);
+        Entry<E> entry = new Entry<>(name, hash, minArgs, maxArgs, value);
+        int slot = spread(hash);
+        while (slots[slot] != null) {
+            if (slots[slot].name.equals(name)) throw new IllegalArgumentException("Comando duplicato: " + name);
+            slot = (slot + 1) & (SLOTS - 1);
+        }
+        slots[slot] = entry;
+        size++;
+        return this;
+    }
+
+    /*Voce del comando scritto in buffer[from, to), null se non esiste*/
+    Entry<E> find(byte[] buffer, int from, int to) {
+        int hash = hash(buffer, from, to);
+        int slot = spread(hash);
+        Entry<E> entry;
+        while ((entry = slots[slot]) != null) {
+            if (entry.hash == hash && Arrays.equals(entry.bytes, 0, entry.bytes.length, buffer, from, to)) return entry;
+            slot = (slot + 1) & (SLOTS - 1);
+        }
+        return null;
+    }
+
+    /*Hash da lunghezza, primo e ultimo byte: bastano a separare i nomi del protocollo e costano
+      tre operazioni invece di una moltiplicazione per ogni byte; le collisioni le risolve il confronto*/
+    static int hash(byte[] buffer, int from, int to) {
+        int length = to - from;
+        if (length == 0) return 0;
+        return (length * 31 + buffer[from]) * 31 + buffer[to - 1];
+    }
+
+    private static int spread(int hash) {
+        return (hash ^ (hash >>> 16)) & (SLOTS - 1);
+    }
+}
@@ -0,0 +1,33 @@
+import java.nio.charset.StandardCharsets;
+
+/*Canale verso un singolo client, indipendente dal modello di I/O usato dal server*/
+interface Connection {
+    /*Invia una riga di testo al client (il terminatore viene aggiunto dall'implementazione)*/
+    void send(String message);
+
+    /*Invia una riga già codificata in UTF-8, senza terminatore: i byte vengono copiati,
+      quindi possono stare in un buffer che il chiamante riusa subito dopo*/
+    default void sendLine(byte[] bytes, int offset, int length) {
+        send(new String(bytes, offset, length, StandardCharsets.UTF_8));
+    }
+
+    /*Invia byte già codificati, ad esempio un frame di BinaryProtocol. Lo stesso array può
+      arrivare a molte connessioni (Spectators): l'implementazione non lo modifica e può tenerlo
+      in coda senza copiarlo*/
+    void sendBytes(byte[] bytes);
+
+    /*Invia una variazione di stato già codificata, identificata da key (il giocatore per le
+      variazioni della lobby): se il client non sta al passo può essere sostituita da una più
+      recente con la stessa chiave prima di partire (vedi OutboundBuffer.Policy)*/
+    default void sendUpdate(String key, byte[] bytes) {
+        sendBytes(bytes);
+    }
+
+    /*Il gestore aveva sospeso la lettura dei messaggi successivi in attesa di una risposta
+      (SET-NICKNAME in un cluster) e ora la riprende. Chiamato da qualsiasi thread; serve solo
+      alle connessioni che non hanno un thread proprio che aspetta la risposta*/
+    default void resumeReading() {}
+
+    /*Chiude la connessione*/
+    void close();
+}
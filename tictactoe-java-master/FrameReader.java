@@ -0,0 +1,58 @@
+import java.io.*;
+import java.util.Arrays;
+
+/*Lettura bloccante dallo stesso stream sia di righe di testo sia di frame binari.
+  Sostituisce BufferedReader, che leggendo in anticipo renderebbe impossibile il cambio di protocollo*/
+class FrameReader {
+    private final DataInputStream in;
+    private byte[] buffer = new byte[256];
+    private int length;
+
+    FrameReader(InputStream stream) {
+        this.in = new DataInputStream(new BufferedInputStream(stream));
+    }
+
+    /*Legge una riga terminata da '\n' e ne restituisce la lunghezza senza '\r' finale (-1 a fine
+      stream); i byte restano in buffer(), così chi la gestisce non deve crearne una copia*/
+    int readLine() throws IOException {
+        length = 0;
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                if (length == 0) return -1;
+                break;
+            }
+            if (length == BinaryProtocol.MAX_FRAME) throw new IOException("Riga troppo lunga");
+            if (length == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            buffer[length++] = (byte) b;
+        }
+        if (length > 0 && buffer[length - 1] == '\r') length--;
+        return length;
+    }
+
+    /*Legge un frame e restituisce il suo opcode (-1 a fine stream); il payload resta in buffer()*/
+    int readFrame() throws IOException {
+        int frameLength;
+        try {
+            frameLength = in.readUnsignedShort();
+        } catch (EOFException e) {
+            return -1;
+        }
+        if (frameLength < 1 || frameLength > BinaryProtocol.MAX_FRAME) {
+            throw new IOException("Frame non valido: " + frameLength);
+        }
+        int opcode = in.readUnsignedByte();
+        length = frameLength - 1;
+        if (length > buffer.length) buffer = new byte[Math.max(length, buffer.length * 2)];
+        in.readFully(buffer, 0, length);
+        return opcode;
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    int length() {
+        return length;
+    }
+}
@@ -0,0 +1,752 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/*Statistiche sulle partite del registro di GameJournal: esiti per tabellone, durata media,
+  percentuali di vittoria per prima mossa e per apertura, vantaggio di X su O per giocatore.
+  Il registro si legge una volta sola, un segmento per thread, in colonne di tipi primitivi (una
+  cella per partita, circa 25 byte a partita, senza oggetti per partita): le mosse si rigiocano
+  durante la lettura e della partita restano solo esito, numero di mosse, durata e apertura. Sul
+  tris classico prima mossa e apertura (la posizione dopo due mosse) si riducono alla forma
+  canonica per simmetria con le tabelle di PerfectPlay, così un angolo vale l'altro.
+  Anche i conti si fanno in parallelo: le partite si dividono in parti, ogni parte somma i suoi
+  totali in array propri e alla fine i totali si sommano, senza lock né contatori condivisi.
+  java GameAnalytics [cartella] [giocatori]  riepilogo del registro ("journal" di default) e i
+                                             giocatori con più partite (10 di default)*/
+final class GameAnalytics {
+    //Esiti di una partita
+    static final int X_WINS = 0;
+    static final int O_WINS = 1;
+    static final int DRAW = 2;
+    //Chiusa con END ma senza vincitore né patta, ad esempio per una disconnessione
+    static final int ABANDONED = 3;
+    //Nessun END nel registro: in corso, o il server si è fermato durante la partita
+    static final int UNFINISHED = 4;
+    private static final int OUTCOMES = 5;
+    private static final String[] OUTCOME_NAMES = {"X vince", "O vince", "patte", "interrotte", "non concluse"};
+
+    //Nella colonna result: esito + 1 nei bit bassi (0 finché non si conosce) e ENDED dopo il primo END
+    private static final byte ENDED = 0x10;
+    private static final byte OUTCOME = 0x0F;
+    private static final char NO_CELL = Character.MAX_VALUE;
+
+    //Calcoli richiesti dal server, uno alla volta fuori dai thread dei client
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "analytics");
+        thread.setDaemon(true);
+        return thread;
+    });
+    //Calcolo in corso, null se nessuno: chi lo installa con compareAndExchange lo avvia
+    private static final AtomicReference<CompletableFuture<GameAnalytics>> running = new AtomicReference<>();
+
+    //Colonne: la partita con id matchId sta all'indice matchId - firstMatch
+    private int firstMatch;
+    private int size;
+    private short[] board = new short[0];
+    private int[] xPlayer = new int[0];
+    private int[] oPlayer = new int[0];
+    private char[] moves = new char[0];
+    private char[] opening = new char[0];
+    private short[] reply = new short[0];
+    private byte[] result = new byte[0];
+    //Ora di inizio (32 bit bassi dei millisecondi) fino all'END, poi durata in ms; -1 senza END
+    private int[] duration = new int[0];
+    //Solo durante la lettura: sul tris classico maschere di X (bit 0-8) e di O (bit 9-17); sugli altri
+    //tabelloni posizione + 1 della partita in inPlay (0 prima della prima mossa)
+    private int[] masks = new int[0];
+    private final List<MnkBoard> inPlay = new ArrayList<>();
+    private final ArrayDeque<Integer> freeInPlay = new ArrayDeque<>();
+
+    //Dizionari: l'id di un giocatore o di un tabellone è la sua posizione nella lista (+1 per i tabelloni).
+    //I nickname si cercano in una tabella a indirizzamento aperto confrontando i byte letti, così un
+    //nickname già visto non crea né stringhe né chiavi
+    private final List<String> players = new ArrayList<>();
+    private final List<byte[]> playerBytes = new ArrayList<>();
+    private int[] playerTable = new int[1024];
+    private final List<MnkBoard> boards = new ArrayList<>();
+
+    //Solo nelle parti: record delle partite iniziate in un segmento precedente, da applicare dopo l'unione
+    private byte[] deferred = new byte[0];
+    private int deferredLength;
+
+    private long records;
+    private long loadNanos;
+    private long aggregateNanos;
+    private int parts;
+    private Totals totals;
+
+    private GameAnalytics() {}
+
+    /*Legge tutto il registro della cartella e calcola le statistiche.
+      I segmenti si leggono in parallelo, ognuno in una parte con colonne e dizionari propri; una
+      partita a cavallo di due segmenti resta alla parte che ne ha letto lo START, e le parti
+      successive ne mettono da parte i record. Poi le parti si uniscono (rinumerando giocatori e
+      tabelloni) e i record messi da parte si applicano nell'ordine del registro*/
+    static GameAnalytics load(Path dir) throws IOException {
+        long start = System.nanoTime();
+        List<GameAnalytics> parts;
+        try {
+            parts = JournalReader.segments(dir).parallelStream()
+                .map(GameAnalytics::readSegment)
+                .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        GameAnalytics analytics = new GameAnalytics();
+        analytics.merge(parts);
+        int deferred = 0;
+        for (GameAnalytics part : parts) {
+            deferred += part.deferredLength;
+        }
+        long total = 0;
+        ByteBuffer records = ByteBuffer.allocate(deferred);
+        for (GameAnalytics part : parts) {
+            records.put(part.deferred, 0, part.deferredLength);
+            total += part.records;
+        }
+        records.flip();
+        parts = null;
+        analytics.read(new JournalReader(records), false);
+        analytics.finish();
+        analytics.records = total;
+        analytics.loadNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        analytics.totals = analytics.aggregate();
+        analytics.aggregateNanos = System.nanoTime() - start;
+        return analytics;
+    }
+
+    /*Statistiche aggiornate sul registro del server, calcolate sul thread "analytics".
+      Chi le chiede mentre un calcolo è in corso ne riceve il risultato invece di avviarne un altro.
+      Nessun monitor: la chiamano i thread dei client, anche virtual thread*/
+    static CompletableFuture<GameAnalytics> refresh() {
+        CompletableFuture<GameAnalytics> task = new CompletableFuture<>();
+        CompletableFuture<GameAnalytics> current = running.compareAndExchange(null, task);
+        if (current != null) return current;
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return load(Paths.get(GameJournal.DIR));
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor).whenComplete((analytics, error) -> {
+            //Prima si libera il posto: chi arriva dopo il risultato avvia un calcolo nuovo
+            running.set(null);
+            if (error != null) {
+                task.completeExceptionally(error);
+            } else {
+                task.complete(analytics);
+            }
+        });
+        return task;
+    }
+
+    private static GameAnalytics readSegment(Path file) {
+        GameAnalytics part = new GameAnalytics();
+        try {
+            part.read(new JournalReader(List.of(file)), true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return part;
+    }
+
+    /*Applica i record del cursore. Una parte (part true) mette da parte quelli delle partite di cui
+      non ha letto lo START; fuori dalle parti questi record si ignorano*/
+    private void read(JournalReader reader, boolean part) throws IOException {
+        //I record NAME di un nickname sono consecutivi: i pezzi si accumulano finché non cambia record
+        byte[] name = new byte[64];
+        int nameLength = 0;
+        int nameMatch = 0;
+        int nameSide = 0;
+        boolean pending = false;
+
+        while (reader.next()) {
+            records++;
+            int type = reader.type();
+            if (pending && (type != GameJournal.NAME || reader.matchId() != nameMatch || reader.player() != nameSide)) {
+                assignPlayer(nameMatch, nameSide, name, nameLength);
+                pending = false;
+                nameLength = 0;
+            }
+            if (type != GameJournal.START && slot(reader.matchId()) < 0) {
+                if (part) defer(reader);
+                continue;
+            }
+            switch (type) {
+                case GameJournal.START:
+                    started(reader);
+                    break;
+                case GameJournal.NAME:
+                    pending = true;
+                    nameMatch = reader.matchId();
+                    nameSide = reader.player();
+                    if (nameLength + GameJournal.NAME_CHUNK > name.length) name = Arrays.copyOf(name, name.length * 2);
+                    nameLength += reader.nameChunk(name, nameLength);
+                    break;
+                case GameJournal.MOVE:
+                    moved(reader);
+                    break;
+                case GameJournal.END:
+                    ended(reader);
+                    break;
+                default:
+                    break;
+            }
+        }
+        //Il nickname potrebbe continuare nel segmento successivo: lo si completa dopo l'unione
+        if (pending && part) {
+            deferName(nameMatch, nameSide, name, nameLength);
+        } else if (pending) {
+            assignPlayer(nameMatch, nameSide, name, nameLength);
+        }
+    }
+
+    /*Dopo tutti i record: durata ed esito delle partite senza END o senza risultato*/
+    private void finish() {
+        for (int slot = 0; slot < size; slot++) {
+            if (board[slot] == 0) continue;
+            if ((result[slot] & ENDED) == 0) duration[slot] = -1;
+            if ((result[slot] & OUTCOME) == 0) result[slot] |= (byte) ((result[slot] & ENDED) != 0 ? ABANDONED + 1 : UNFINISHED + 1);
+        }
+        masks = null;
+        inPlay.clear();
+        freeInPlay.clear();
+    }
+
+    /*Indice della partita, -1 se il registro non ne contiene l'inizio*/
+    private int slot(int matchId) {
+        int slot = matchId - firstMatch;
+        return slot >= 0 && slot < size && board[slot] != 0 ? slot : -1;
+    }
+
+    private void started(JournalReader reader) {
+        int matchId = reader.matchId();
+        short id = boardId(reader.a(), reader.b(), reader.k());
+        if (id == 0) return;
+        if (size == 0) firstMatch = matchId;
+        //Due partite iniziate insieme possono arrivare nel registro con gli id scambiati
+        if (matchId < firstMatch) {
+            int shift = firstMatch - matchId;
+            resize(Math.max(board.length, size + shift), shift);
+            firstMatch = matchId;
+            size += shift;
+        }
+        int slot = matchId - firstMatch;
+        if (slot >= board.length) resize(Math.max(slot + 1, Math.max(1024, board.length * 2)), 0);
+        size = Math.max(size, slot + 1);
+
+        board[slot] = id;
+        xPlayer[slot] = -1;
+        oPlayer[slot] = -1;
+        moves[slot] = 0;
+        opening[slot] = NO_CELL;
+        reply[slot] = -1;
+        result[slot] = 0;
+        duration[slot] = (int) reader.time();
+        masks[slot] = 0;
+    }
+
+    private void moved(JournalReader reader) {
+        int matchId = reader.matchId();
+        int slot = slot(matchId);
+        //Dopo una vittoria o una patta (o dopo l'END) le mosse non contano più
+        if (slot < 0 || result[slot] != 0) return;
+        MnkBoard template = boards.get(board[slot] - 1);
+        int row = reader.a();
+        int col = reader.b();
+        if (!template.inBounds(row, col)) return;
+        int count = moves[slot];
+
+        if (template.isClassic()) {
+            int cell = row * BitBoard.SIZE + col;
+            int bit = 1 << cell;
+            int state = masks[slot];
+            if (((state | state >>> BitBoard.CELLS) & bit) != 0) return;
+            boolean x = reader.player() == BitBoard.X;
+            state |= x ? bit : bit << BitBoard.CELLS;
+            masks[slot] = state;
+
+            int xMask = state & BitBoard.FULL;
+            int oMask = state >>> BitBoard.CELLS;
+            if (count == 0) opening[slot] = (char) PerfectPlay.canonicalCell(cell);
+            if (count == 1) reply[slot] = (short) PerfectPlay.canonicalIndex(xMask, oMask);
+            if (BitBoard.findLine(x ? xMask : oMask, cell) != 0) {
+                result[slot] = (byte) ((x ? X_WINS : O_WINS) + 1);
+            } else if ((xMask | oMask) == BitBoard.FULL) {
+                result[slot] = DRAW + 1;
+            }
+        } else {
+            //Su MnkBoard muove sempre il giocatore di turno, come nel gioco
+            MnkBoard game;
+            if (masks[slot] == 0) {
+                game = template.copy();
+                int index = freeInPlay.isEmpty() ? inPlay.size() : freeInPlay.pop();
+                if (index == inPlay.size()) {
+                    inPlay.add(game);
+                } else {
+                    inPlay.set(index, game);
+                }
+                masks[slot] = index + 1;
+            } else {
+                game = inPlay.get(masks[slot] - 1);
+            }
+            if (!game.play(row, col)) return;
+            if (count == 0) opening[slot] = (char) (row * template.cols() + col);
+            if (game.winner() != BitBoard.EMPTY) {
+                result[slot] = (byte) ((game.winner() == BitBoard.X ? X_WINS : O_WINS) + 1);
+                release(slot);
+            } else if (game.isDraw()) {
+                result[slot] = DRAW + 1;
+                release(slot);
+            }
+        }
+        if (count < Character.MAX_VALUE) moves[slot] = (char) (count + 1);
+    }
+
+    private void ended(JournalReader reader) {
+        int slot = slot(reader.matchId());
+        //Quando i due giocatori escono insieme gli END sono due: conta il primo
+        if (slot < 0 || (result[slot] & ENDED) != 0) return;
+        duration[slot] = (int) reader.time() - duration[slot];
+        result[slot] |= ENDED;
+        if (!boards.get(board[slot] - 1).isClassic()) release(slot);
+    }
+
+    /*Libera il tabellone di una partita finita su un tabellone non classico*/
+    private void release(int slot) {
+        int index = masks[slot] - 1;
+        if (index < 0) return;
+        inPlay.set(index, null);
+        freeInPlay.push(index);
+        masks[slot] = 0;
+    }
+
+    private void assignPlayer(int matchId, int side, byte[] name, int length) {
+        int slot = slot(matchId);
+        if (slot < 0) return;
+        (side == BitBoard.X ? xPlayer : oPlayer)[slot] = playerId(name, length, true);
+    }
+
+    /*Id del nickname scritto in name[0, length), -1 se è nuovo e add è false*/
+    private int playerId(byte[] name, int length, boolean add) {
+        int mask = playerTable.length - 1;
+        int i = nameHash(name, length) & mask;
+        while (playerTable[i] != 0) {
+            int id = playerTable[i] - 1;
+            byte[] known = playerBytes.get(id);
+            if (Arrays.equals(known, 0, known.length, name, 0, length)) return id;
+            i = (i + 1) & mask;
+        }
+        if (!add) return -1;
+
+        int id = players.size();
+        players.add(new String(name, 0, length, StandardCharsets.UTF_8));
+        playerBytes.add(Arrays.copyOf(name, length));
+        playerTable[i] = id + 1;
+        //Tabella piena al più a metà
+        if (players.size() * 2 > playerTable.length) {
+            playerTable = new int[playerTable.length * 2];
+            mask = playerTable.length - 1;
+            for (int known = 0; known < playerBytes.size(); known++) {
+                byte[] bytes = playerBytes.get(known);
+                int j = nameHash(bytes, bytes.length) & mask;
+                while (playerTable[j] != 0) {
+                    j = (j + 1) & mask;
+                }
+                playerTable[j] = known + 1;
+            }
+        }
+        return id;
+    }
+
+    private static int nameHash(byte[] name, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = hash * 31 + name[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private short boardId(int rows, int cols, int k) {
+        for (int i = 0; i < boards.size(); i++) {
+            MnkBoard known = boards.get(i);
+            if (known.rows() == rows && known.cols() == cols && known.k() == k) return (short) (i + 1);
+        }
+        if (!MnkBoard.isValid(rows, cols, k) || boards.size() == Short.MAX_VALUE) return 0;
+        boards.add(new MnkBoard(rows, cols, k));
+        return (short) boards.size();
+    }
+
+    /*Porta le colonne a capacity celle spostando le partite di shift posizioni in avanti*/
+    private void resize(int capacity, int shift) {
+        board = copy(board, new short[capacity], shift, size);
+        xPlayer = copy(xPlayer, new int[capacity], shift, size);
+        oPlayer = copy(oPlayer, new int[capacity], shift, size);
+        moves = copy(moves, new char[capacity], shift, size);
+        opening = copy(opening, new char[capacity], shift, size);
+        reply = copy(reply, new short[capacity], shift, size);
+        result = copy(result, new byte[capacity], shift, size);
+        duration = copy(duration, new int[capacity], shift, size);
+        masks = copy(masks, new int[capacity], shift, size);
+    }
+
+    private static <T> T copy(T from, T to, int shift, int length) {
+        System.arraycopy(from, 0, to, shift, length);
+        return to;
+    }
+
+    private void defer(JournalReader reader) {
+        if (deferredLength + GameJournal.RECORD > deferred.length) {
+            deferred = Arrays.copyOf(deferred, Math.max(1024, deferred.length * 2));
+        }
+        reader.copy(deferred, deferredLength);
+        deferredLength += GameJournal.RECORD;
+    }
+
+    /*Mette da parte un nickname letto solo in parte, riscrivendolo come record NAME*/
+    private void deferName(int matchId, int side, byte[] name, int length) {
+        int from = 0;
+        do {
+            int chunk = Math.min(GameJournal.NAME_CHUNK, length - from);
+            if (deferredLength + GameJournal.RECORD > deferred.length) {
+                deferred = Arrays.copyOf(deferred, Math.max(1024, deferred.length * 2));
+            }
+            GameJournal.encode(deferred, deferredLength, GameJournal.NAME, side, chunk, 0, matchId, 0);
+            System.arraycopy(name, from, deferred, deferredLength + GameJournal.DATA, chunk);
+            deferredLength += GameJournal.RECORD;
+            from += chunk;
+        } while (from < length);
+    }
+
+    /*Unisce le parti lette in parallelo: ogni partita va nella sua cella, con gli id di giocatori
+      e tabelloni rinumerati nei dizionari comuni*/
+    private void merge(List<GameAnalytics> parts) {
+        long first = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        for (GameAnalytics part : parts) {
+            if (part.size == 0) continue;
+            first = Math.min(first, part.firstMatch);
+            end = Math.max(end, (long) part.firstMatch + part.size);
+        }
+        if (first == Long.MAX_VALUE) return;
+        firstMatch = (int) first;
+        resize((int) (end - first), 0);
+        size = (int) (end - first);
+
+        for (GameAnalytics part : parts) {
+            short[] boardIds = new short[part.boards.size() + 1];
+            for (int b = 0; b < part.boards.size(); b++) {
+                MnkBoard spec = part.boards.get(b);
+                boardIds[b + 1] = boardId(spec.rows(), spec.cols(), spec.k());
+            }
+            int[] playerIds = new int[part.players.size()];
+            for (int p = 0; p < playerIds.length; p++) {
+                byte[] bytes = part.playerBytes.get(p);
+                playerIds[p] = playerId(bytes, bytes.length, true);
+            }
+
+            int shift = part.firstMatch - firstMatch;
+            for (int from = 0; from < part.size; from++) {
+                int b = part.board[from];
+                if (b == 0) continue;
+                int slot = from + shift;
+                board[slot] = boardIds[b];
+                xPlayer[slot] = part.xPlayer[from] < 0 ? -1 : playerIds[part.xPlayer[from]];
+                oPlayer[slot] = part.oPlayer[from] < 0 ? -1 : playerIds[part.oPlayer[from]];
+                moves[slot] = part.moves[from];
+                opening[slot] = part.opening[from];
+                reply[slot] = part.reply[from];
+                result[slot] = part.result[from];
+                duration[slot] = part.duration[from];
+                masks[slot] = part.masks[from];
+                //Partita ancora in corso su un tabellone non classico: il suo MnkBoard passa all'unione
+                if (!part.boards.get(b - 1).isClassic() && masks[slot] > 0) {
+                    inPlay.add(part.inPlay.get(masks[slot] - 1));
+                    masks[slot] = inPlay.size();
+                }
+            }
+        }
+    }
+
+    /*Totali di un intervallo di partite; quelli delle parti si sommano con merge*/
+    private final class Totals {
+        //[tabellone * OUTCOMES + esito]
+        final long[] outcomes = new long[boards.size() * OUTCOMES];
+        final long[] moveSum = new long[boards.size()];
+        final long[] durationSum = new long[boards.size()];
+        final long[] durationCount = new long[boards.size()];
+        //[tabellone][casella * OUTCOMES + esito]
+        final long[][] openings = new long[boards.size()][];
+        //Solo tris classico: [posizione canonica dopo due mosse * OUTCOMES + esito]
+        final long[] replies = new long[PerfectPlay.POSITIONS * OUTCOMES];
+        //[giocatore * 4 + ...]: partite da X, vinte da X, partite da O, vinte da O
+        final int[] players = new int[GameAnalytics.this.players.size() * 4];
+
+        Totals() {
+            for (int b = 0; b < boards.size(); b++) {
+                openings[b] = new long[boards.get(b).rows() * boards.get(b).cols() * OUTCOMES];
+            }
+        }
+
+        Totals add(int from, int to) {
+            for (int slot = from; slot < to; slot++) {
+                int b = board[slot] - 1;
+                if (b < 0) continue;
+                int outcome = (result[slot] & OUTCOME) - 1;
+                outcomes[b * OUTCOMES + outcome]++;
+                moveSum[b] += moves[slot];
+                if (duration[slot] >= 0) {
+                    durationSum[b] += duration[slot];
+                    durationCount[b]++;
+                }
+                if (opening[slot] != NO_CELL) openings[b][opening[slot] * OUTCOMES + outcome]++;
+                if (reply[slot] >= 0) replies[reply[slot] * OUTCOMES + outcome]++;
+
+                int x = xPlayer[slot];
+                int o = oPlayer[slot];
+                if (x >= 0) {
+                    players[x * 4]++;
+                    if (outcome == X_WINS) players[x * 4 + 1]++;
+                }
+                if (o >= 0) {
+                    players[o * 4 + 2]++;
+                    if (outcome == O_WINS) players[o * 4 + 3]++;
+                }
+            }
+            return this;
+        }
+
+        Totals merge(Totals other) {
+            sum(outcomes, other.outcomes);
+            sum(moveSum, other.moveSum);
+            sum(durationSum, other.durationSum);
+            sum(durationCount, other.durationCount);
+            for (int b = 0; b < openings.length; b++) {
+                sum(openings[b], other.openings[b]);
+            }
+            sum(replies, other.replies);
+            for (int i = 0; i < players.length; i++) {
+                players[i] += other.players[i];
+            }
+            return this;
+        }
+
+        private void sum(long[] into, long[] from) {
+            for (int i = 0; i < into.length; i++) {
+                into[i] += from[i];
+            }
+        }
+    }
+
+    /*Divide le partite in parti (qualche parte per thread, così un thread rimasto indietro non
+      blocca gli altri) e ne somma i totali con uno stream parallelo sul ForkJoinPool comune*/
+    private Totals aggregate() {
+        int threads = ForkJoinPool.getCommonPoolParallelism();
+        int count = Math.max(1, Math.min(threads * 4, size / 65536));
+        parts = count;
+        return IntStream.range(0, count).parallel()
+            .mapToObj(part -> new Totals().add((int) ((long) size * part / count), (int) ((long) size * (part + 1) / count)))
+            .reduce(Totals::merge)
+            .orElseGet(Totals::new);
+    }
+
+    long games() {
+        return Arrays.stream(totals.outcomes).sum();
+    }
+
+    /*Risposta ad ANALYTICS: coppie nome:valore come in STATS, poi per ogni tabellone
+      <tabellone>:<partite>/<X vince>/<O vince>/<patte>/<interrotte>/<non concluse>/<mosse medie>/<ms medi>
+      e per ogni prima mossa <tabellone>@<riga>.<colonna>:<partite>/<X vince>/<O vince>/<patte>
+      (le tre più giocate; sul tris classico solo angolo 0.0, lato 0.1 e centro 1.1).
+      I tabelloni vanno dal più giocato e si fermano prima di superare BinaryProtocol.MAX_TEXT*/
+    String summary() {
+        StringBuilder sb = new StringBuilder("ANALYTICS=");
+        sb.append("games:").append(games())
+            .append(",players:").append(players.size())
+            .append(",records:").append(records)
+            .append(",load-ms:").append(loadNanos / 1_000_000)
+            .append(",aggregate-ms:").append(aggregateNanos / 1_000_000);
+        Integer[] order = new Integer[boards.size()];
+        for (int b = 0; b < order.length; b++) {
+            order[b] = b;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(boardGames(b), boardGames(a)));
+        StringBuilder block = new StringBuilder();
+        for (int b : order) {
+            MnkBoard spec = boards.get(b);
+            long games = boardGames(b);
+            if (games == 0) break;
+            block.setLength(0);
+            block.append(',').append(spec.spec()).append(':').append(games);
+            for (int outcome = 0; outcome < OUTCOMES; outcome++) {
+                block.append('/').append(totals.outcomes[b * OUTCOMES + outcome]);
+            }
+            block.append('/').append(String.format(Locale.ROOT, "%.1f", (double) totals.moveSum[b] / games))
+                .append('/').append(totals.durationCount[b] == 0 ? 0 : totals.durationSum[b] / totals.durationCount[b]);
+            for (int cell : topOpenings(b, 3)) {
+                long[] counts = totals.openings[b];
+                block.append(',').append(spec.spec()).append('@').append(cell / spec.cols()).append('.').append(cell % spec.cols())
+                    .append(':').append(cellGames(b, cell));
+                for (int outcome = X_WINS; outcome <= DRAW; outcome++) {
+                    block.append('/').append(counts[cell * OUTCOMES + outcome]);
+                }
+            }
+            //Solo caratteri ASCII: la lunghezza è quella in byte
+            if (sb.length() + block.length() > BinaryProtocol.MAX_TEXT) break;
+            sb.append(block);
+        }
+        return sb.toString();
+    }
+
+    /*Risposta ad ANALYTICS=<nickname>:
+      <nickname>=<partite da X>/<vinte da X>/<partite da O>/<vinte da O>, 0 se non ha mai giocato*/
+    String player(String nickname) {
+        int[] stats = playerStats(nickname);
+        return "ANALYTICS=" + nickname + "=" + stats[0] + "/" + stats[1] + "/" + stats[2] + "/" + stats[3];
+    }
+
+    private int[] playerStats(String nickname) {
+        byte[] name = nickname.getBytes(StandardCharsets.UTF_8);
+        int id = playerId(name, name.length, false);
+        if (id < 0) return new int[4];
+        return Arrays.copyOfRange(totals.players, id * 4, id * 4 + 4);
+    }
+
+    /*Riepilogo leggibile per la riga di comando*/
+    String report(int topPlayers) {
+        StringBuilder sb = new StringBuilder();
+        long games = games();
+        sb.append(String.format(Locale.ROOT, "Lettura: %d record, %d partite in %.1f ms (%.1f milioni di record al secondo)%n",
+            records, games, loadNanos / 1e6, records / (loadNanos / 1e3)));
+        sb.append(String.format(Locale.ROOT, "Calcolo: %.1f ms in %d parti su %d thread (%.1f milioni di partite al secondo)%n",
+            aggregateNanos / 1e6, parts, ForkJoinPool.getCommonPoolParallelism(), games / (aggregateNanos / 1e3)));
+
+        for (int b = 0; b < boards.size(); b++) {
+            MnkBoard spec = boards.get(b);
+            long boardGames = boardGames(b);
+            if (boardGames == 0) continue;
+            sb.append(String.format(Locale.ROOT, "%nTabellone %s: %d partite", spec.spec(), boardGames));
+            for (int outcome = 0; outcome < OUTCOMES; outcome++) {
+                sb.append(String.format(Locale.ROOT, ", %s %.1f%%", OUTCOME_NAMES[outcome],
+                    percent(totals.outcomes[b * OUTCOMES + outcome], boardGames)));
+            }
+            sb.append(String.format(Locale.ROOT, "%n  Durata media: %.1f mosse", (double) totals.moveSum[b] / boardGames));
+            if (totals.durationCount[b] > 0) {
+                sb.append(String.format(Locale.ROOT, ", %.2f s", totals.durationSum[b] / 1e3 / totals.durationCount[b]));
+            }
+            sb.append(String.format("%n  Prima mossa%s:%n", spec.isClassic() ? " (a meno di simmetrie)" : ""));
+            for (int cell : topOpenings(b, spec.isClassic() ? 3 : 5)) {
+                String label = spec.isClassic() ? (cell == 4 ? "centro" : cell == 0 ? "angolo" : "lato")
+                    : (cell / spec.cols()) + "," + (cell % spec.cols());
+                sb.append("    ").append(String.format("%-8s", label)).append(' ');
+                appendRates(sb, totals.openings[b], cell, cellGames(b, cell));
+            }
+            if (spec.isClassic()) {
+                sb.append(String.format("  Aperture più giocate (posizione dopo due mosse, a meno di simmetrie):%n"));
+                for (int position : topReplies(5)) {
+                    sb.append("    ").append(positionString(position)).append(' ');
+                    appendRates(sb, totals.replies, position, replyGames(position));
+                }
+            }
+        }
+
+        if (topPlayers > 0 && !players.isEmpty()) {
+            sb.append(String.format("%nGiocatori con più partite (vantaggio da X = %% vinte da X - %% vinte da O):%n"));
+            Integer[] ids = new Integer[players.size()];
+            for (int i = 0; i < ids.length; i++) ids[i] = i;
+            int[] p = totals.players;
+            Arrays.sort(ids, (a, c) -> Integer.compare(p[c * 4] + p[c * 4 + 2], p[a * 4] + p[a * 4 + 2]));
+            for (int i = 0; i < Math.min(topPlayers, ids.length); i++) {
+                int id = ids[i];
+                double asX = percent(p[id * 4 + 1], p[id * 4]);
+                double asO = percent(p[id * 4 + 3], p[id * 4 + 2]);
+                sb.append(String.format(Locale.ROOT, "  %-20s X %d (vinte %.1f%%), O %d (vinte %.1f%%), vantaggio %+.1f%n",
+                    players.get(id), p[id * 4], asX, p[id * 4 + 2], asO, asX - asO));
+            }
+        }
+        return sb.toString();
+    }
+
+    private long boardGames(int b) {
+        long games = 0;
+        for (int outcome = 0; outcome < OUTCOMES; outcome++) {
+            games += totals.outcomes[b * OUTCOMES + outcome];
+        }
+        return games;
+    }
+
+    private long cellGames(int b, int cell) {
+        return sumOutcomes(totals.openings[b], cell);
+    }
+
+    private long replyGames(int position) {
+        return sumOutcomes(totals.replies, position);
+    }
+
+    private static long sumOutcomes(long[] counts, int index) {
+        long games = 0;
+        for (int outcome = 0; outcome < OUTCOMES; outcome++) {
+            games += counts[index * OUTCOMES + outcome];
+        }
+        return games;
+    }
+
+    /*Le caselle di prima mossa più giocate sul tabellone, dalla più giocata*/
+    private int[] topOpenings(int b, int limit) {
+        return top(totals.openings[b].length / OUTCOMES, limit, cell -> cellGames(b, cell));
+    }
+
+    private int[] topReplies(int limit) {
+        return top(PerfectPlay.POSITIONS, limit, this::replyGames);
+    }
+
+    private static int[] top(int count, int limit, IntToLongFunction games) {
+        return IntStream.range(0, count)
+            .filter(i -> games.applyAsLong(i) > 0)
+            .boxed()
+            .sorted((a, b) -> Long.compare(games.applyAsLong(b), games.applyAsLong(a)))
+            .limit(limit)
+            .mapToInt(Integer::intValue)
+            .toArray();
+    }
+
+    private static void appendRates(StringBuilder sb, long[] counts, int index, long games) {
+        sb.append(String.format(Locale.ROOT, "%d partite, X %.1f%%, O %.1f%%, patte %.1f%%%n", games,
+            percent(counts[index * OUTCOMES + X_WINS], games),
+            percent(counts[index * OUTCOMES + O_WINS], games),
+            percent(counts[index * OUTCOMES + DRAW], games)));
+    }
+
+    /*Posizione del tris dal suo indice in base 3, come "X../.O./..."*/
+    private static String positionString(int index) {
+        StringBuilder sb = new StringBuilder();
+        for (int cell = 0; cell < BitBoard.CELLS; cell++) {
+            if (cell > 0 && cell % BitBoard.SIZE == 0) sb.append('/');
+            int digit = index % 3;
+            sb.append(digit == 1 ? 'X' : digit == 2 ? 'O' : '.');
+            index /= 3;
+        }
+        return sb.toString();
+    }
+
+    private static double percent(long part, long whole) {
+        return whole == 0 ? 0 : 100.0 * part / whole;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Paths.get(args.length > 0 ? args[0] : GameJournal.DIR);
+        int top = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        System.out.print(load(dir).report(top));
+    }
+}
@@ -1,36 +1,150 @@
 import java.io.*;
 import java.net.*;
+import java.util.Arrays;
 
 public class GameClient {
-    private Socket socket;
-    private BufferedReader in;
-    private PrintWriter out;
+    /*Messaggi del server, con il numero minimo e massimo di argomenti dopo il nome*/
+    private enum ServerMessage {
+        NICKNAME_SUCCESS(0, 2), RESUMED(6, 6), RESUME_FAILED(0, 0), NOT_VALID(0, 0), PLAYERS(1, 1), PLAYERS_MORE(1, 1), PLAYERS_PAGE(2, 2), SEARCH_RESULT(2, 2),
+        PLAYER_JOIN(1, 1), PLAYER_FREE(1, 1), PLAYER_LEAVE(1, 1), PLAYER_BUSY(1, 1),
+        CHALLENGE_REQUEST(1, 2), CHALLENGE_DECLINED(1, 1), GAME_START(3, 4), MOVE(5, 5),
+        OPPONENT_AWAY(0, 1), OPPONENT_BACK(0, 0), OPPONENT_DISCONNECTED(0, 0), PING(0, 0), PONG(0, 0),
+        WATCHING(6, 6), WATCH_MOVE(4, 4), WATCH_END(1, 1), WATCH_FAILED(1, 1), STATS(1, 1), ANALYTICS(1, 2),
+        LOG_LEVEL(1, 1), ERROR(1, 2);
+
+        final int minArgs;
+        final int maxArgs;
+
+        ServerMessage(int minArgs, int maxArgs) {
+            this.minArgs = minArgs;
+            this.maxArgs = maxArgs;
+        }
+    }
+
+    private static final CommandTable<ServerMessage> MESSAGES = new CommandTable<>();
+
+    static {
+        for (ServerMessage message : ServerMessage.values()) {
+            MESSAGES.add(message.name().replace('_', '-'), message.minArgs, message.maxArgs, message);
+        }
+    }
+
+    //Per quanto si riprova a riconnettersi dopo una caduta, come l'attesa del server
+    private static final long RESUME_WINDOW_MS = Long.getLong("resume.grace.ms", 30_000);
+    private static final long RETRY_MS = 1000;
+
+    private final String serverAddress;
+    private final int port;
+    private volatile Socket socket;
+    private FrameReader in;
+    private volatile OutboundBuffer out;
+    //Token ricevuto con NICKNAME-SUCCESS, per riprendere la partita con RESUME dopo una caduta
+    private volatile String token;
+    //true dopo disconnect(): la chiusura è voluta e non si riprova
+    private volatile boolean closing;
+    //true se la connessione corrente usa BinaryProtocol (dopo NICKNAME-SUCCESS=BIN1 o RESUMED)
+    private volatile boolean binary;
+    //true se il server ha accettato BinaryProtocol durante SET-NICKNAME: dopo una caduta RESUME
+    //chiede di nuovo lo stesso protocollo
+    private volatile boolean negotiatedBinary;
+    private int matchId;
+    private final byte[] moveFrame = new byte[BinaryProtocol.MOVE_FRAME];
     private String nickname;
     private String opponent;
     private String mySymbol;
+    //Tabellone della partita corrente, "<rows>x<cols>x<k>"
+    private String board = MnkBoard.CLASSIC;
     private TicTacToeOnline gameUI;
     private MainMenu menuUI;
     private Thread listenerThread;
+    //Vista sull'ultimo messaggio ricevuto, usata solo dal listenerThread
+    private final ProtocolLine line = new ProtocolLine();
+    //Parti della lista dei giocatori (PLAYERS-MORE) in attesa del PLAYERS finale, solo del listenerThread
+    private final StringBuilder playerList = new StringBuilder();
+
+    /*Si collega al server e avvia il thread che ne ascolta i messaggi*/
+    public static GameClient connect(String serverAddress, int port) throws IOException {
+        GameClient client = new GameClient(serverAddress, port);
+        client.startListening();
+        return client;
+    }
 
-    public GameClient(String serverAddress, int port) throws IOException {
-        socket = new Socket(serverAddress, port);
-        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        out = new PrintWriter(socket.getOutputStream(), true);
-        
-        //Thread secondario che ascolta continuamente i messaggi dal server
+    private GameClient(String serverAddress, int port) throws IOException {
+        this.serverAddress = serverAddress;
+        this.port = port;
+        open();
+    }
+
+    /*Thread secondario che ascolta continuamente i messaggi dal server. Parte solo a oggetto
+      costruito, perché riceve this*/
+    private void startListening() {
         listenerThread = new Thread(() -> {
-            try {
-                String message;
-                while ((message = in.readLine()) != null) {
-                    handleServerMessage(message);
+            do {
+                try {
+                    listen();
+                } catch (IOException e) {
+                    Log.info("Disconnesso dal server");
                 }
-            } catch (IOException e) {
-                System.out.println("Disconnesso dal server");
-            }
+            } while (reconnect());
         });
         listenerThread.start();
     }
 
+    /*Apre la connessione; il protocollo riparte sempre in testo*/
+    private void open() throws IOException {
+        Socket opened = new Socket(serverAddress, port);
+        in = new FrameReader(opened.getInputStream());
+        out = new OutboundBuffer(opened.getOutputStream());
+        binary = false;
+        socket = opened;
+    }
+
+    /*Legge i messaggi fino alla chiusura della connessione*/
+    private void listen() throws IOException {
+        while (true) {
+            if (!binary) {
+                int length = in.readLine();
+                if (length < 0) return;
+                handleServerLine(in.buffer(), 0, length);
+            } else {
+                int opcode = in.readFrame();
+                if (opcode < 0) return;
+                if (opcode == BinaryProtocol.OP_TEXT) {
+                    handleServerLine(in.buffer(), 0, in.length());
+                } else if (opcode == BinaryProtocol.OP_MOVE && in.length() == BinaryProtocol.MOVE_PAYLOAD) {
+                    handleBinaryMove(in.buffer());
+                }
+            }
+        }
+    }
+
+    /*Dopo una caduta durante una partita riapre la connessione e chiede RESUME con il token,
+      riprovando ogni RETRY_MS per RESUME_WINDOW_MS: il server risponde con RESUMED e lo stato
+      della partita. false se non c'è nulla da riprendere o il tempo è scaduto*/
+    private boolean reconnect() {
+        TicTacToeOnline game = gameUI;
+        if (closing || token == null || game == null || game.gameOver) return false;
+        game.handleConnectionLost();
+        long deadline = System.currentTimeMillis() + RESUME_WINDOW_MS;
+        while (!closing && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(RETRY_MS);
+                open();
+                //Come SET-NICKNAME: la richiesta è in testo e chiede il protocollo concordato allora
+                out.writeLine("RESUME=" + token + (negotiatedBinary ? "=" + BinaryProtocol.VERSION : ""));
+                out.flush();
+                Log.info("Riconnesso, ripresa della partita");
+                return true;
+            } catch (IOException e) {
+                Log.debug("Riconnessione fallita: ", e.getMessage());
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        if (!closing) game.handleResumeFailed();
+        return false;
+    }
+
     /*Imposta l'interfaccia del menu*/
     public void setMenuUI(MainMenu menu) {
         this.menuUI = menu;
@@ -41,97 +155,244 @@ public class GameClient {
         this.gameUI = ui;
     }
 
-    /*Invia il nickname al server*/
+    /*Invia un messaggio di testo, incapsulato in un frame se il protocollo binario è attivo*/
+    private void send(String message) {
+        if (binary) {
+            out.write(BinaryProtocol.text(message));
+        } else {
+            out.writeLine(message);
+        }
+        out.flush();
+    }
+
+    /*Invia il nickname al server, chiedendo il protocollo binario*/
     public void sendNickname(String nick) {
         this.nickname = nick;
-        out.println("SET-NICKNAME=" + nick);
+        out.writeLine("SET-NICKNAME=" + nick + "=" + BinaryProtocol.VERSION);
+        out.flush();
     }
 
     /*Richiede la lista dei giocatori disponibili*/
     public void requestPlayerList() {
-        out.println("GET-PLAYERS");
+        send("GET-PLAYERS");
+    }
+
+    /*Si iscrive alla lobby senza lista iniziale: il server invia solo le variazioni*/
+    public void subscribePlayers() {
+        send("SUBSCRIBE-PLAYERS=DELTA");
+    }
+
+    /*Richiede la pagina di giocatori liberi che segue il nickname indicato ("" = prima pagina)*/
+    public void requestPlayerPage(String after, int count) {
+        send("GET-PLAYERS-PAGE=" + count + "=" + after);
+    }
+
+    /*Cerca i giocatori liberi il cui nickname inizia con il prefisso*/
+    public void searchPlayers(String prefix, int count) {
+        send("SEARCH-PLAYERS=" + count + "=" + prefix);
+    }
+
+    /*Entra nella coda di matchmaking: il server abbina automaticamente due giocatori*/
+    public void joinQueue() {
+        send("QUEUE");
+    }
+
+    /*Esce dalla coda di matchmaking*/
+    public void leaveQueue() {
+        send("LEAVE-QUEUE");
     }
 
     /*Invia una richiesta di sfida*/
     public void sendChallenge(String player) {
-        out.println("CHALLENGE=" + player);
+        send("CHALLENGE=" + player);
+    }
+
+    /*Invia una richiesta di sfida su un tabellone diverso dal 3x3 ("<rows>x<cols>x<k>")*/
+    public void sendChallenge(String player, String board) {
+        send("CHALLENGE=" + player + "=" + board);
     }
 
     /*Accetta una sfida*/
     public void acceptChallenge(String challenger) {
-        out.println("ACCEPT-CHALLENGE=" + challenger);
+        send("ACCEPT-CHALLENGE=" + challenger);
     }
 
     /*Rifiuta una sfida*/
     public void declineChallenge(String challenger) {
-        out.println("DECLINE-CHALLENGE=" + challenger);
+        send("DECLINE-CHALLENGE=" + challenger);
     }
 
     /*Invia una mossa al server*/
     public void sendMove(int row, int col, String symbol) {
+        if (binary) {
+            synchronized (moveFrame) {
+                BinaryProtocol.writeMove(moveFrame, 0, matchId, BitBoard.player(symbol), row, col);
+                out.write(moveFrame);
+            }
+            out.flush();
+            return;
+        }
         String message = String.format("MOVE=%s=%s=%s=%d=%d", 
             nickname, opponent, symbol, row, col);
-        out.println(message);
+        send(message);
     }
 
     /*Notifica la fine della partita*/
     public void sendGameOver() {
-        out.println("GAME-OVER");
-    }
-
-    /*Gestisce i messaggi ricevuti dal server*/
-    private void handleServerMessage(String message) {
-        System.out.println("Dal server: " + message);
-
-        System.out.println("DEBUG: Messaggio ricevuto -> " + message);
-
-        if (message.equals("NICKNAME-SUCCESS")) {
-            if (menuUI != null) menuUI.handleNicknameSuccess();
-        } else if (message.equals("NOT-VALID")) {
-            if (menuUI != null) menuUI.handleNicknameError();
-        } else if (message.startsWith("PLAYERS=")) {
-            String playerList = message.substring(8);
-            if (menuUI != null) menuUI.handlePlayerList(playerList);
-        } else if (message.startsWith("CHALLENGE-REQUEST=")) {
-            String challenger = message.substring(18);
-            if (menuUI != null) menuUI.handleChallengeRequest(challenger);
-        } else if (message.startsWith("CHALLENGE-DECLINED=")) {
-            String player = message.substring(19);
-            if (menuUI != null) menuUI.handleChallengeDeclined(player);
-        } else if (message.startsWith("GAME-START=")) {
-            String[] parts = message.split("=");
-            this.opponent = parts[1];
-            this.mySymbol = parts[2];
-            if (menuUI != null) menuUI.handleGameStart(opponent, mySymbol);
-            if (gameUI != null) gameUI.handleGameStart(opponent, mySymbol);
-        } else if (message.startsWith("MOVE=")) {
-            handleOpponentMove(message);
-        } else if (message.equals("OPPONENT-DISCONNECTED")) {
-            if (gameUI != null) gameUI.handleOpponentDisconnected();
+        send("GAME-OVER");
+    }
+
+    /*Gestisce un messaggio ricevuto dal server direttamente dal buffer di lettura: nome e argomenti
+      in un solo passaggio, stringhe solo per ciò che passa all'interfaccia*/
+    void handleServerLine(byte[] buffer, int offset, int length) {
+        CommandTable.Entry<ServerMessage> entry = line.parse(buffer, offset, length, MESSAGES);
+        Log.trace("Dal server: ", line);
+        if (entry == null || !entry.accepts(line.argCount())) {
+            Log.warn("Messaggio non valido dal server: ", line);
+            return;
+        }
+
+        switch (entry.value) {
+            case NICKNAME_SUCCESS:
+                //NICKNAME-SUCCESS[=BIN1][=token]: con "=BIN1" da qui in poi il server invia e si aspetta
+                //solo frame binari; il token, se c'è, è sempre l'ultimo argomento
+                boolean accepted = line.argCount() > 0 && line.argEquals(0, BinaryProtocol.VERSION);
+                if (line.argCount() > (accepted ? 1 : 0)) token = line.arg(line.argCount() - 1);
+                negotiatedBinary = accepted;
+                if (accepted) binary = true;
+                if (menuUI != null) menuUI.handleNicknameSuccess();
+                break;
+            case RESUMED:
+                handleResumed(line);
+                break;
+            case RESUME_FAILED:
+                if (gameUI != null) gameUI.handleResumeFailed();
+                break;
+            case NOT_VALID:
+                if (menuUI != null) menuUI.handleNicknameError();
+                break;
+            case PLAYERS_MORE:
+                playerList.append(line.arg(0));
+                break;
+            case PLAYERS:
+                //Una lobby grande arriva in più messaggi: la lista è completa con PLAYERS
+                String list = playerList.append(line.arg(0)).toString();
+                playerList.setLength(0);
+                if (menuUI != null) menuUI.handlePlayerList(list);
+                break;
+            case PLAYERS_PAGE:
+                if (menuUI != null) menuUI.handlePlayerPage(line.arg(1), line.argEquals(0, "1"));
+                break;
+            case SEARCH_RESULT:
+                if (menuUI != null) menuUI.handleSearchResult(line.arg(1), line.argEquals(0, "1"));
+                break;
+            case PLAYER_JOIN:
+            case PLAYER_FREE:
+                if (menuUI != null) menuUI.handlePlayerAvailable(line.arg(0));
+                break;
+            case PLAYER_LEAVE:
+            case PLAYER_BUSY:
+                if (menuUI != null) menuUI.handlePlayerUnavailable(line.arg(0));
+                break;
+            case CHALLENGE_REQUEST:
+                //CHALLENGE-REQUEST=challenger[=board]
+                String requested = line.argCount() == 2 ? line.arg(1) : MnkBoard.CLASSIC;
+                if (menuUI != null) menuUI.handleChallengeRequest(line.arg(0), requested);
+                break;
+            case CHALLENGE_DECLINED:
+                if (menuUI != null) menuUI.handleChallengeDeclined(line.arg(0));
+                break;
+            case GAME_START:
+                //GAME-START=opponent=symbol=board[=matchId]
+                this.opponent = line.arg(0);
+                this.mySymbol = line.arg(1);
+                this.board = line.arg(2);
+                if (line.argCount() == 4) this.matchId = line.intArg(3);
+                if (menuUI != null) menuUI.handleGameStart(opponent, mySymbol, board);
+                if (gameUI != null) gameUI.handleGameStart(opponent, mySymbol);
+                break;
+            case MOVE:
+                handleOpponentMove(line);
+                break;
+            case OPPONENT_AWAY:
+                //OPPONENT-AWAY[=secondi]: il server tiene aperta la partita in attesa che rientri
+                int seconds = line.argCount() == 1 ? line.intArg(0) : 0;
+                if (gameUI != null) gameUI.handleOpponentAway(Math.max(0, seconds));
+                break;
+            case OPPONENT_BACK:
+                if (gameUI != null) gameUI.handleOpponentBack();
+                break;
+            case OPPONENT_DISCONNECTED:
+                if (gameUI != null) gameUI.handleOpponentDisconnected();
+                break;
+            case PING:
+                //Il server manda PING dopo qualche secondo di silenzio e chiude chi non risponde
+                send("PONG");
+                break;
+            case PONG:
+                break;
+            case WATCHING:
+            case WATCH_MOVE:
+            case WATCH_END:
+            case WATCH_FAILED:
+            case STATS:
+            case ANALYTICS:
+            case LOG_LEVEL:
+                //Risposte a comandi di spettatori e amministratori, che l'interfaccia non invia
+                Log.info("Dal server: ", line);
+                break;
+            case ERROR:
+                Log.warn("Errore dal server: ", line);
+                break;
         }
     }
 
-    /*Gestisce la mossa dell'avversario*/
-    private void handleOpponentMove(String message) {
-        try {
-            String[] parts = message.split("=");
-            //MOVE=nickname=opponent=symbol=row=col
-            int row = Integer.parseInt(parts[4]);
-            int col = Integer.parseInt(parts[5]);
-            String symbol = parts[3];
-            
-            if (gameUI != null) gameUI.handleOpponentMove(row, col, symbol);
-        } catch (Exception e) {
-            System.err.println("Errore nel parsing della mossa: " + e.getMessage());
+    /*Stato della partita dopo RESUME: RESUMED=opponent=symbol=board=matchId=turn=cells, con le caselle
+      (riga * colonne + colonna) nell'ordine in cui sono state giocate. La risposta arriva in testo
+      e da qui in poi si usa il protocollo concordato con SET-NICKNAME: frame binari se era BIN1*/
+    private void handleResumed(ProtocolLine line) {
+        binary = negotiatedBinary;
+        this.opponent = line.arg(0);
+        this.mySymbol = line.arg(1);
+        this.board = line.arg(2);
+        this.matchId = line.intArg(3);
+        String turn = line.arg(4);
+        String cells = line.arg(5);
+        int[] moves = cells.isEmpty() ? new int[0]
+            : Arrays.stream(cells.split(",")).mapToInt(Integer::parseInt).toArray();
+        if (gameUI != null) gameUI.handleResumed(mySymbol, turn, moves);
+    }
+
+    /*Gestisce la mossa dell'avversario: MOVE=nickname=opponent=symbol=row=col*/
+    private void handleOpponentMove(ProtocolLine line) {
+        String symbol = line.argEquals(2, "X") ? "X" : line.argEquals(2, "O") ? "O" : null;
+        int row = line.intArg(3);
+        int col = line.intArg(4);
+        if (symbol == null || row < 0 || col < 0) {
+            Log.warn("Mossa non valida dal server: ", line);
+            return;
         }
+
+        if (gameUI != null) gameUI.handleOpponentMove(row, col, symbol);
+    }
+
+    /*Gestisce la mossa dell'avversario in formato binario, senza creare stringhe*/
+    private void handleBinaryMove(byte[] payload) {
+        if (BinaryProtocol.moveMatchId(payload, 0) != matchId) return;
+        int row = BinaryProtocol.moveRow(payload, 0);
+        int col = BinaryProtocol.moveCol(payload, 0);
+        String symbol = BitBoard.symbol(BinaryProtocol.movePlayer(payload, 0));
+
+        if (gameUI != null) gameUI.handleOpponentMove(row, col, symbol);
     }
 
     /*Chiude la connessione*/
     public void disconnect() {
+        closing = true;
         try {
             if (socket != null) socket.close();
         } catch (IOException e) {
-            e.printStackTrace();
+            Log.error("Chiusura del socket fallita", e);
         }
     }
 
@@ -146,4 +407,8 @@ public class GameClient {
     public String getMySymbol() {
         return mySymbol;
     }
+
+    public String getBoard() {
+        return board;
+    }
 }
@@ -0,0 +1,287 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+/*Registro su disco di partite e mosse: record binari da 32 byte aggiunti in coda a segmenti
+  mappati in memoria (journal-000001.dat, journal-000002.dat, ...), ognuno lungo
+  -Djournal.segment.mb (64 MB di default) e preallocato alla creazione.
+  Chi gestisce i client non tocca mai il disco: come Log, scrive il record in un buffer circolare
+  senza lock (-Djournal.buffer record) e un solo thread "journal-writer" lo copia nel segmento.
+  Con il buffer pieno il record si scarta e si conta, invece di rallentare l'inoltro delle mosse.
+  Il thread forza i segmenti su disco ogni -Djournal.force.ms (1000 ms) e a fine programma.
+  -Djournal.dir indica la cartella ("journal" di default, vuoto per disattivare il registro).
+
+  Record (interi big-endian come in BinaryProtocol):
+  [0] tipo, [1] giocatore o motivo, [2] [3] due byte, [4..7] id partita, [8..15] ora in ms,
+  [16..31] dati.
+  - START: [2] righe, [3] colonne, [16] k
+  - NAME: [1] lato (BitBoard.X o O), [2] byte usati in [16..31]; un nickname lungo occupa più
+    NAME consecutivi, da concatenare
+  - MOVE: [1] BitBoard.X o O, [2] riga, [3] colonna
+  - END: [1] FINISHED o DISCONNECTED; il risultato si ricava rigiocando le mosse (JournalReader)
+  Il tipo si scrive per ultimo: dopo un crash un record a metà ha ancora tipo 0, cioè fine dei dati.
+  Ogni segmento inizia con un'intestazione di 32 byte: MAGIC, versione, dimensione dei record,
+  numero del segmento e ora di creazione*/
+final class GameJournal {
+    static final int RECORD = 32;
+    static final int MAGIC = 0x54544A31; //"TTJ1"
+    static final int VERSION = 1;
+    static final int DATA = 16;
+    static final int NAME_CHUNK = RECORD - DATA;
+
+    static final byte START = 1;
+    static final byte NAME = 2;
+    static final byte MOVE = 3;
+    static final byte END = 4;
+
+    //Motivi di END
+    static final byte FINISHED = 1;
+    static final byte DISCONNECTED = 2;
+
+    static final String DIR = System.getProperty("journal.dir", "journal");
+    static final long SEGMENT_BYTES = Math.max(2 * RECORD, Long.getLong("journal.segment.mb", 64) << 20) / RECORD * RECORD;
+    private static final long FORCE_MS = Long.getLong("journal.force.ms", 1000);
+    private static final int CAPACITY = Integer.highestOneBit(Math.max(64, Integer.getInteger("journal.buffer", 65536)));
+    private static final int MASK = CAPACITY - 1;
+
+    /*Buffer circolare a più produttori e un consumatore, come quello di Log: la cella è libera per
+      la posizione p se sequence == p e pronta da scrivere su disco se sequence == p + 1.
+      I record stanno in un solo array di byte, quindi accodarne uno non alloca nulla*/
+    private static final AtomicLongArray sequence = new AtomicLongArray(CAPACITY);
+    private static final byte[] ring = new byte[CAPACITY * RECORD];
+    private static final AtomicLong tail = new AtomicLong();
+    private static final LongAdder dropped = new LongAdder();
+    private static final LongAdder written = new LongAdder();
+    private static volatile boolean enabled;
+
+    //Letti e scritti solo dal thread di scrittura (e dall'hook di chiusura, sotto lo stesso lock)
+    private static long head;
+    private static int segmentIndex;
+    private static MappedByteBuffer segment;
+    private static int position;
+    private static boolean dirty;
+    private static long lastForce;
+    private static volatile Thread writer;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            sequence.set(i, i);
+        }
+    }
+
+    private GameJournal() {}
+
+    /*Apre un nuovo segmento dopo quelli esistenti e avvia il thread di scrittura.
+      Restituisce l'id di partita più alto già registrato, da cui il server riparte
+      (così un id identifica una sola partita anche tra un riavvio e l'altro); 0 se il registro è vuoto
+      o disattivato*/
+    static int start() {
+        if (DIR.isEmpty()) return 0;
+        Path dir = Paths.get(DIR);
+        int lastMatch;
+        try {
+            Files.createDirectories(dir);
+            List<Path> existing = JournalReader.segments(dir);
+            segmentIndex = existing.isEmpty() ? 0 : JournalReader.segmentIndex(existing.get(existing.size() - 1));
+            lastMatch = JournalReader.lastMatchId(existing);
+            roll();
+        } catch (IOException e) {
+            Log.warn("Registro delle partite non disponibile: ", e.getMessage());
+            return 0;
+        }
+
+        Thread thread = new Thread(GameJournal::drainForever, "journal-writer");
+        thread.setDaemon(true);
+        writer = thread;
+        enabled = true;
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            writer = null;
+            drain(true);
+        }, "journal-flush"));
+        Log.info("Registro delle partite in " + dir.toAbsolutePath() + " (segmento " + segmentIndex
+            + ", ultima partita " + lastMatch + ")");
+        return lastMatch;
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    static long written() {
+        return written.sum();
+    }
+
+    static long dropped() {
+        return dropped.sum();
+    }
+
+    /*Inizio partita: un record START e i nickname dei due giocatori in record NAME*/
+    static void gameStarted(int matchId, String x, String o, String board) {
+        if (!enabled) return;
+        byte[] xName = x.getBytes(StandardCharsets.UTF_8);
+        byte[] oName = o.getBytes(StandardCharsets.UTF_8);
+        int records = 1 + chunks(xName) + chunks(oName);
+        long position = claim(records);
+        if (position < 0) return;
+
+        long now = System.currentTimeMillis();
+        //"<righe>x<colonne>x<k>", già validato da MnkBoard
+        int first = board.indexOf('x');
+        int second = board.indexOf('x', first + 1);
+        int offset = header(position, START, 0,
+            Integer.parseInt(board, 0, first, 10), Integer.parseInt(board, first + 1, second, 10), matchId, now);
+        ring[offset + DATA] = (byte) Integer.parseInt(board, second + 1, board.length(), 10);
+        publish(position);
+
+        position = putName(position + 1, matchId, now, BitBoard.X, xName);
+        putName(position, matchId, now, BitBoard.O, oName);
+    }
+
+    /*Mossa inoltrata dal server*/
+    static void move(int matchId, int player, int row, int col) {
+        if (!enabled) return;
+        long position = claim(1);
+        if (position < 0) return;
+        header(position, MOVE, player, row, col, matchId, System.currentTimeMillis());
+        publish(position);
+    }
+
+    /*Fine partita: FINISHED dopo GAME-OVER, DISCONNECTED se un giocatore è uscito.
+      Se i due giocatori chiudono insieme possono arrivare due END: conta il primo*/
+    static void gameEnded(int matchId, byte reason) {
+        if (!enabled) return;
+        long position = claim(1);
+        if (position < 0) return;
+        header(position, END, reason, 0, 0, matchId, System.currentTimeMillis());
+        publish(position);
+    }
+
+    private static int chunks(byte[] name) {
+        return Math.max(1, (name.length + NAME_CHUNK - 1) / NAME_CHUNK);
+    }
+
+    private static long putName(long position, int matchId, long now, int side, byte[] name) {
+        int from = 0;
+        do {
+            int length = Math.min(NAME_CHUNK, name.length - from);
+            int offset = header(position, NAME, side, length, 0, matchId, now);
+            System.arraycopy(name, from, ring, offset + DATA, length);
+            publish(position);
+            from += length;
+            position++;
+        } while (from < name.length);
+        return position;
+    }
+
+    /*Riserva records celle consecutive, -1 (e record scartati) se il buffer è pieno*/
+    private static long claim(int records) {
+        long position = tail.get();
+        while (true) {
+            //Le celle si liberano in ordine: se è libera l'ultima lo sono anche le precedenti
+            long last = position + records - 1;
+            long available = sequence.get((int) last & MASK);
+            if (available == last) {
+                if (tail.compareAndSet(position, position + records)) return position;
+                position = tail.get();
+            } else if (available < last) {
+                dropped.add(records);
+                return -1;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /*Scrive i campi comuni nella cella e ne restituisce l'offset nel buffer*/
+    private static int header(long position, byte type, int player, int a, int b, int matchId, long time) {
+        int offset = ((int) position & MASK) * RECORD;
+        encode(ring, offset, type, player, a, b, matchId, time);
+        return offset;
+    }
+
+    /*Scrive un record in dst[offset, offset + RECORD) con i dati a zero*/
+    static void encode(byte[] dst, int offset, byte type, int player, int a, int b, int matchId, long time) {
+        dst[offset] = type;
+        dst[offset + 1] = (byte) player;
+        dst[offset + 2] = (byte) a;
+        dst[offset + 3] = (byte) b;
+        dst[offset + 4] = (byte) (matchId >>> 24);
+        dst[offset + 5] = (byte) (matchId >>> 16);
+        dst[offset + 6] = (byte) (matchId >>> 8);
+        dst[offset + 7] = (byte) matchId;
+        for (int i = 0; i < 8; i++) {
+            dst[offset + 8 + i] = (byte) (time >>> (56 - 8 * i));
+        }
+        for (int i = DATA; i < RECORD; i++) {
+            dst[offset + i] = 0;
+        }
+    }
+
+    private static void publish(long position) {
+        sequence.set((int) position & MASK, position + 1);
+    }
+
+    private static void drainForever() {
+        while (writer != null) {
+            if (!drain(false)) LockSupport.parkNanos(1_000_000);
+        }
+    }
+
+    /*Copia nel segmento tutti i record pronti; false se non c'era nulla*/
+    private static synchronized boolean drain(boolean force) {
+        int count = 0;
+        try {
+            while (true) {
+                int slot = (int) head & MASK;
+                if (sequence.get(slot) != head + 1) break;
+                if (position + RECORD > segment.capacity()) roll();
+                int offset = slot * RECORD;
+                segment.put(position + 1, ring, offset + 1, RECORD - 1);
+                segment.put(position, ring[offset]);
+                position += RECORD;
+                sequence.set(slot, head + CAPACITY);
+                head++;
+                count++;
+            }
+            written.add(count);
+            dirty |= count > 0;
+            long now = System.currentTimeMillis();
+            if (dirty && (force || now - lastForce >= FORCE_MS)) {
+                segment.force();
+                dirty = false;
+                lastForce = now;
+            }
+        } catch (IOException e) {
+            //Senza segmento non si può scrivere: il registro si spegne, il server continua
+            Log.error("Registro delle partite disattivato", e);
+            enabled = false;
+            writer = null;
+        }
+        return count > 0;
+    }
+
+    /*Chiude il segmento corrente e ne apre uno nuovo, preallocato e con l'intestazione*/
+    private static void roll() throws IOException {
+        if (segment != null) segment.force();
+        segmentIndex++;
+        Path file = Paths.get(DIR, JournalReader.segmentName(segmentIndex));
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            //La mappatura resta valida anche dopo la chiusura del canale
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+        }
+        segment.order(ByteOrder.BIG_ENDIAN);
+        segment.putInt(4, VERSION << 16 | RECORD);
+        segment.putInt(8, segmentIndex);
+        segment.putLong(12, System.currentTimeMillis());
+        segment.putInt(0, MAGIC);
+        position = RECORD;
+        dirty = true;
+    }
+}
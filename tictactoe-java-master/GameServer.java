@@ -1,190 +1,1036 @@
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 public class GameServer {
-    private static final int PORT = 12345;
-    private static HashMap<String, ClientHandler> players = new HashMap<>();
-    private static HashMap<String, String> challenges = new HashMap<>();
+    static final int PORT = Integer.getInteger("server.port", 12345);
+    //Dopo quanti ms di silenzio il server manda PING e quanti ne aspetta poi prima di chiudere;
+    //chiude anche chi fuori da una partita non invia comandi per IDLE_MS e chi in partita non muove
+    //per MOVE_MS. 0 disattiva il controllo corrispondente
+    static final long PING_MS = Long.getLong("heartbeat.ping.ms", 15_000);
+    static final long PONG_TIMEOUT_MS = Long.getLong("heartbeat.timeout.ms", 10_000);
+    static final long IDLE_MS = Long.getLong("heartbeat.idle.ms", 900_000);
+    static final long MOVE_MS = Long.getLong("heartbeat.move.ms", 120_000);
+    //Byte (UTF-8) di un nickname: ogni messaggio con un nickname, e ogni pagina della lobby,
+    //resta così entro BinaryProtocol.MAX_TEXT
+    static final int MAX_NICKNAME = 64;
+    //Intervallo dei controlli quando nessuna scadenza è in vista, ad esempio in partita senza PING
+    private static final long RECHECK_MS = Math.min(PING_MS > 0 ? PING_MS : Long.MAX_VALUE,
+        Math.min(IDLE_MS > 0 ? IDLE_MS : Long.MAX_VALUE, MOVE_MS > 0 ? MOVE_MS : Long.MAX_VALUE));
+    //Giocatori e sfide: letture senza lock e accoppiamento atomico, nessun monitor condiviso
+    //(quindi anche i virtual thread non restano mai agganciati al carrier)
+    private static final PlayerRegistry players = new PlayerRegistry();
+    private static final AtomicInteger matchIds = new AtomicInteger();
+    private static final Matchmaker matchmaker = new Matchmaker(players);
+    //Giocatori disconnessi durante una partita, in attesa di RESUME
+    private static final SessionStore sessions = new SessionStore();
+    //Heartbeat e timeout di tutte le connessioni: un timer per connessione su una sola ruota
+    private static final TimingWheel heartbeats =
+        new TimingWheel("heartbeat", Long.getLong("heartbeat.tick.ms", 250), 1024);
     private static ExecutorService threadPool = Executors.newCachedThreadPool();
 
+    /*Avvio: "java GameServer" (un thread per client), "java GameServer virtual"
+      (un virtual thread per client) oppure "java GameServer nio [thread]"*/
     public static void main(String[] args) {
-        System.out.println("Server avviato sulla porta " + PORT);
+        startStatsLog();
+        //Gli id delle partite continuano da quelli già nel registro. In un cluster ogni nodo usa solo
+        //quelli congrui a self() + 1 modulo il numero di nodi, così due nodi non danno mai lo stesso id
+        int lastMatch = GameJournal.start();
+        matchIds.set(lastMatch - Math.floorMod(lastMatch - Cluster.self() - 1, Cluster.size()));
+        Cluster.start(players);
+        ServerMetrics.start(players::size);
+        matchmaker.start();
+        //L'avversario del server è sempre nella lobby: la tabella si costruisce qui, prima dei client
+        players.register(AiPlayer.NICKNAME, AiPlayer.create());
+        Log.info("AI pronta: ", PerfectPlay.summary());
+        if (args.length > 0 && args[0].equals("virtual")) {
+            threadPool = Executors.newVirtualThreadPerTaskExecutor();
+        }
+        if (args.length > 0 && args[0].equals("nio")) {
+            int loops = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            Log.info("Server NIO avviato sulla porta " + PORT + " con " + loops + " thread di I/O");
+            try {
+                new NioServer(PORT, loops).start();
+            } catch (IOException e) {
+                Log.error("Errore del server: " + e.getMessage());
+            }
+            return;
+        }
+
+        Log.info("Server avviato sulla porta " + PORT
+            + (args.length > 0 && args[0].equals("virtual") ? " (virtual thread)" : ""));
         
         try (ServerSocket serverSocket = new ServerSocket(PORT)) {
             while (true) {
                 Socket clientSocket = serverSocket.accept();
-                System.out.println("Nuova connessione da: " + clientSocket.getInetAddress());
+                //Come nel server NIO: senza, una mossa che segue un messaggio non ancora
+                //confermato aspetta l'ACK ritardato del client (circa 40 ms)
+                clientSocket.setTcpNoDelay(true);
+                ServerMetrics.connectionOpened();
+                Log.info("Nuova connessione da: ", clientSocket.getInetAddress());
                 
                 ClientHandler handler = new ClientHandler(clientSocket);
                 threadPool.execute(handler);
             }
         } catch (IOException e) {
-            System.err.println("Errore del server: " + e.getMessage());
+            Log.error("Errore del server: " + e.getMessage());
+        }
+    }
+
+    /*Inizia una partita sul tris classico tra due giocatori già accoppiati nel registro*/
+    static void startGame(ClientHandler x, ClientHandler o) {
+        startGame(x, o, MnkBoard.CLASSIC);
+    }
+
+    /*Inizia una partita sul tabellone indicato ("<rows>x<cols>x<k>"): x gioca per primo.
+      Restituisce l'id della partita*/
+    static int startGame(ClientHandler x, ClientHandler o, String board) {
+        int id = matchIds.addAndGet(Cluster.size());
+        startGame(x, o, board, id);
+        return id;
+    }
+
+    /*Inizia la partita con un id già assegnato, quello del nodo dello sfidante per le partite tra nodi*/
+    static void startGame(ClientHandler x, ClientHandler o, String board, int id) {
+        Match match = new Match(id, MnkBoard.parse(board), x.nickname, o.nickname);
+        x.matchId = id;
+        o.matchId = id;
+        x.match = match;
+        o.match = match;
+        x.side = BitBoard.X;
+        o.side = BitBoard.O;
+        GameJournal.gameStarted(id, x.nickname, o.nickname, board);
+        x.sendGameStart(o.nickname, "X", board);
+        o.sendGameStart(x.nickname, "O", board);
+    }
+
+    /*Sfida arrivata da un altro nodo per un giocatore di questo*/
+    static void remoteChallenge(String target, String challenger, int node, String board) {
+        if (MnkBoard.parsePlayable(board) == null) return;
+        ClientHandler targetHandler = players.get(target);
+        if (targetHandler != null && !targetHandler.isInGame()) targetHandler.offerChallenge(challenger, board, node);
+    }
+
+    /*Lo sfidato, su un altro nodo, ha rifiutato la sfida di un giocatore di questo*/
+    static void remoteDecline(String challenger, String target) {
+        ClientHandler challengerHandler = players.get(challenger);
+        if (challengerHandler != null) challengerHandler.send("CHALLENGE-DECLINED=" + target);
+    }
+
+    /*Lo sfidato, sul nodo node, ha accettato ed è già accoppiato con lo sfidante remoto: qui lo
+      sfidante si accoppia con lo sfidato remoto e la partita inizia. Restituisce l'id da mandare
+      al nodo dello sfidato (START), 0 se lo sfidante non è più libero (REFUSE)*/
+    static int remoteAccept(int node, String challenger, String target, String board) {
+        ClientHandler challengerHandler = players.get(challenger);
+        if (challengerHandler == null || !players.isRegistered(challengerHandler)) return 0;
+        if (MnkBoard.parsePlayable(board) == null) return 0;
+        ClientHandler remote = RemotePlayer.create(target, node, challenger);
+        if (!players.pair(challengerHandler, remote)) return 0;
+        return startGame(challengerHandler, remote, board);
+    }
+
+    /*Sul nodo dello sfidato: la partita è iniziata dall'altra parte con l'id indicato.
+      false se lo sfidato non la aspetta più (è uscito o ha chiuso l'accoppiamento)*/
+    static boolean remoteStart(int node, String target, String challenger, int id, String board) {
+        ClientHandler remote = waitingRemote(node, target, challenger);
+        if (remote == null) return false;
+        startGame(remote, players.get(target), board, id);
+        return true;
+    }
+
+    /*Sul nodo dello sfidato: lo sfidante non era più libero, l'accoppiamento si scioglie*/
+    static void remoteRefuse(int node, String target, String challenger) {
+        if (waitingRemote(node, target, challenger) != null) players.unpair(players.get(target));
+    }
+
+    /*Lo sfidante remoto con cui il giocatore locale target si è accoppiato accettando, se la
+      partita non è ancora iniziata*/
+    private static ClientHandler waitingRemote(int node, String target, String challenger) {
+        ClientHandler targetHandler = players.get(target);
+        if (targetHandler == null) return null;
+        ClientHandler remote = targetHandler.opponent.get();
+        if (remote == null || remote.match != null || remote.remote() == null
+                || remote.remote().node() != node || !remote.nickname.equals(challenger)) {
+            return null;
         }
+        return remote;
+    }
+
+    /*Il collegamento con il nodo node è caduto: le partite dei giocatori locali contro i suoi (anche
+      quelle accettate e non ancora iniziate) si chiudono come se l'avversario si fosse disconnesso*/
+    static void peerLost(int node) {
+        OutboundBuffer.beginCycle();
+        try {
+            for (ClientHandler handler : players.all()) {
+                ClientHandler opponentHandler = handler.opponent.get();
+                if (opponentHandler != null && opponentHandler.remote() != null && opponentHandler.remote().node() == node) {
+                    opponentHandler.cleanup();
+                }
+            }
+        } finally {
+            OutboundBuffer.endCycle();
+        }
+    }
+
+    /*Stampa periodicamente quanti messaggi in uscita vengono raggruppati in ogni flush*/
+    private static void startStatsLog() {
+        ScheduledExecutorService stats = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "stats-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long[] last = {0, 0};
+        stats.scheduleAtFixedRate(() -> {
+            long messages = OutboundBuffer.messages();
+            if (messages != last[0]) {
+                last[0] = messages;
+                Log.info("Uscita: ", OutboundBuffer.summary());
+            }
+            long matches = matchmaker.matches();
+            if (matches != last[1]) {
+                last[1] = matches;
+                Log.info("Matchmaking: partite=" + matches + " in coda=" + matchmaker.queued()
+                    + " attesa " + matchmaker.timeToMatch().summaryMillis());
+            }
+        }, 60, 60, TimeUnit.SECONDS);
     }
 
     /*Classe per gestire ogni singolo client*/
-    static class ClientHandler implements Runnable {
+    static class ClientHandler implements Runnable, TimingWheel.Timer {
         private Socket socket;
-        private BufferedReader in;
-        private PrintWriter out;
-        private String nickname;
-        private String opponent;
-        private boolean inGame;
+        private FrameReader in;
+        private Connection connection;
+        private volatile String nickname;
+        //true dopo la negoziazione di BinaryProtocol in SET-NICKNAME
+        private volatile boolean binary;
+        private volatile int matchId;
+        //Stato della partita corrente e simbolo del giocatore (BitBoard.X o O), da rimandare dopo RESUME
+        private volatile Match match;
+        private volatile int side;
+        //Token per riprendere la sessione, assegnato con NICKNAME-SUCCESS
+        private volatile String token;
+        //true se la connessione è caduta durante una partita e il giocatore aspetta RESUME
+        private volatile boolean away;
+        //SET-NICKNAME in attesa della conferma del proprietario del nickname in un cluster: fino alla
+        //risposta la connessione non legge i messaggi successivi, che dopo la conferma possono essere frame
+        private volatile CompletableFuture<Void> handshake;
+        //true per i giocatori simulati dal server (AiPlayer), che non hanno un socket
+        private final boolean bot;
+        //Ora (TimingWheel.now) dell'ultimo messaggio ricevuto e dell'ultimo comando diverso da PING/PONG
+        private volatile long lastHeard;
+        private volatile long lastCommand;
+        //Silenzio per cui è già partito un PING, usato solo dal thread della ruota
+        private long pinged = -1;
+        private volatile boolean closed;
+        //Avversario corrente, null se il giocatore è libero
+        private final AtomicReference<ClientHandler> opponent = new AtomicReference<>();
+        //Partita seguita come spettatore (WATCH), null se nessuna
+        private final AtomicReference<Match> watching = new AtomicReference<>();
+        //Vista sulla riga in gestione, riusata per ogni messaggio della connessione
+        private final ProtocolLine line = new ProtocolLine();
+
+        //Comandi del protocollo testuale, dal nome al valore usato nello switch di dispatch
+        private static final CommandTable<ServerMetrics.Command> COMMANDS = new CommandTable<>();
+
+        static {
+            for (ServerMetrics.Command command : ServerMetrics.Command.values()) {
+                if (command.isText()) COMMANDS.add(command.label, command.minArgs, command.maxArgs, command);
+            }
+        }
 
         public ClientHandler(Socket socket) {
             this.socket = socket;
-            this.inGame = false;
+            this.bot = false;
+        }
+
+        /*Costruttore usato dal server NIO, che si occupa direttamente della lettura*/
+        public ClientHandler(Connection connection) {
+            this.connection = connection;
+            this.bot = false;
+        }
+
+        /*Costruttore dei giocatori simulati: il nickname è fisso e non passa da SET-NICKNAME*/
+        ClientHandler(Connection connection, String nickname) {
+            this.connection = connection;
+            this.nickname = nickname;
+            this.bot = true;
         }
 
         @Override
         public void run() {
             try {
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                out = new PrintWriter(socket.getOutputStream(), true);
+                in = new FrameReader(ServerMetrics.counting(socket.getInputStream()));
+                connection = new SocketConnection(socket);
+                startHeartbeat();
 
-                String message;
-                while ((message = in.readLine()) != null) {
-                    handleMessage(message);
+                while (true) {
+                    if (!binary) {
+                        int length = in.readLine();
+                        if (length < 0) break;
+                        OutboundBuffer.beginCycle();
+                        try {
+                            handleLine(in.buffer(), 0, length);
+                        } finally {
+                            OutboundBuffer.endCycle();
+                        }
+                        awaitHandshake();
+                    } else {
+                        int opcode = in.readFrame();
+                        if (opcode < 0) break;
+                        OutboundBuffer.beginCycle();
+                        try {
+                            handleFrame(opcode, in.buffer(), 0, in.length());
+                        } finally {
+                            OutboundBuffer.endCycle();
+                        }
+                    }
                 }
             } catch (IOException e) {
-                System.out.println("Connessione persa: " + nickname);
+                Log.info("Connessione persa: ", nickname);
             } finally {
                 cleanup();
             }
         }
 
-        /*Gestisce i messaggi ricevuti dal client*/
-        private void handleMessage(String message) {
-            System.out.println("Ricevuto: " + message);
+        /*Invia un messaggio a questo client*/
+        void send(String message) {
+            if (binary) {
+                connection.sendBytes(BinaryProtocol.text(message));
+            } else {
+                connection.send(message);
+            }
+        }
+
+        /*Invia una variazione della lobby sul giocatore indicato: a un client in ritardo può
+          arrivare solo l'ultima (OutboundBuffer.Policy.COALESCE)*/
+        void sendUpdate(String player, String message) {
+            connection.sendUpdate(player, binary
+                ? BinaryProtocol.text(message)
+                : (message + "\n").getBytes(StandardCharsets.UTF_8));
+        }
 
-            if (message.startsWith("SET-NICKNAME=")) {
-                handleNickname(message.substring(13));
-            } else if (message.startsWith("GET-PLAYERS")) {
-                sendPlayerList();
-            } else if (message.startsWith("CHALLENGE=")) {
-                handleChallenge(message.substring(10));
-            } else if (message.startsWith("ACCEPT-CHALLENGE=")) {
-                handleAcceptChallenge(message.substring(17));
-            } else if (message.startsWith("DECLINE-CHALLENGE=")) {
-                handleDeclineChallenge(message.substring(18));
-            } else if (message.startsWith("MOVE=")) {
-                handleMove(message);
-            } else if (message.startsWith("GAME-OVER")) {
-                handleGameOver();
+        /*Invia una riga già codificata (senza terminatore), ad esempio quella appena ricevuta*/
+        void send(byte[] bytes, int offset, int length) {
+            if (binary) {
+                connection.sendBytes(BinaryProtocol.text(bytes, offset, length));
+            } else {
+                connection.sendLine(bytes, offset, length);
             }
         }
 
-        /*Controlla e registra il nickname*/
-        private void handleNickname(String nick) {
-            synchronized (players) {
-                if (players.containsKey(nick)) {
-                    out.println("NOT-VALID");
+        /*Invia un messaggio codificato una volta per molti destinatari (Spectators): line è la riga
+          con il terminatore, frame lo stesso messaggio per i client binari. Gli array sono condivisi
+          tra le connessioni e nessuna li modifica*/
+        void sendShared(byte[] line, byte[] frame) {
+            connection.sendBytes(binary ? frame : line);
+        }
+
+        /*La partita seguita è finita (WATCH-END): il client torna a contare come inattivo solo da qui*/
+        void watchEnded(Match ended) {
+            if (watching.compareAndSet(ended, null)) lastCommand = heartbeats.now();
+        }
+
+        boolean isBinary() {
+            return binary;
+        }
+
+        /*true finché SET-NICKNAME aspetta la conferma del cluster: i messaggi successivi si leggono dopo*/
+        boolean isParked() {
+            CompletableFuture<Void> pending = handshake;
+            return pending != null && !pending.isDone();
+        }
+
+        /*Il thread di una connessione bloccante è solo suo: aspetta la conferma prima di leggere
+          il messaggio successivo, che dopo NICKNAME-SUCCESS=BIN1 è un frame*/
+        private void awaitHandshake() {
+            CompletableFuture<Void> pending = handshake;
+            if (pending != null) pending.exceptionally(e -> null).join();
+        }
+
+        String getNickname() {
+            return nickname;
+        }
+
+        boolean isBot() {
+            return bot;
+        }
+
+        boolean isInGame() {
+            return opponent.get() != null;
+        }
+
+        boolean isAway() {
+            return away;
+        }
+
+        /*Stato dell'avversario remoto durante l'attesa di RESUME sul suo nodo*/
+        void setAway(boolean away) {
+            this.away = away;
+        }
+
+        /*Il collegamento verso l'altro nodo se questo è un avversario remoto, altrimenti null*/
+        RemotePlayer remote() {
+            return connection instanceof RemotePlayer remote ? remote : null;
+        }
+
+        AtomicReference<ClientHandler> opponentRef() {
+            return opponent;
+        }
+
+        /*Gestisce un messaggio già in forma di stringa, come quelli dei giocatori simulati*/
+        void handleMessage(String message) {
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            handleLine(bytes, 0, bytes.length);
+        }
+
+        /*Gestisce una riga ricevuta dal client direttamente dal buffer di lettura, misurando il tempo
+          di ogni comando. La riga si scompone in un solo passaggio e gli argomenti arrivano ai gestori
+          come viste sul buffer; un comando sconosciuto o con argomenti non validi riceve
+          ERROR=UNKNOWN-COMMAND=<comando> oppure ERROR=MALFORMED=<comando>*/
+        void handleLine(byte[] buffer, int offset, int length) {
+            long start = System.nanoTime();
+            CommandTable.Entry<ServerMetrics.Command> entry = line.parse(buffer, offset, length, COMMANDS);
+            Log.trace("Ricevuto: ", line);
+
+            ServerMetrics.Command command = entry != null ? entry.value : ServerMetrics.Command.UNKNOWN;
+            heard(command != ServerMetrics.Command.PING && command != ServerMetrics.Command.PONG);
+            if (entry == null) {
+                //Il nome torna indietro solo se è corto: la risposta deve stare in un frame
+                send("ERROR=UNKNOWN-COMMAND=" + (line.nameLength() <= MAX_NICKNAME ? line.name() : ""));
+            } else if (!entry.accepts(line.argCount()) || !dispatch(command, line)) {
+                send("ERROR=MALFORMED=" + entry.name);
+            }
+            ServerMetrics.record(command, System.nanoTime() - start);
+        }
+
+        /*Esegue il comando, false se gli argomenti non sono validi*/
+        private boolean dispatch(ServerMetrics.Command command, ProtocolLine line) {
+            switch (command) {
+                case SET_NICKNAME:
+                    return handleNickname(line);
+                case RESUME:
+                    return handleResume(line);
+                case GET_PLAYERS_PAGE:
+                    return handlePageRequest(line, false);
+                case GET_PLAYERS:
+                    sendPlayerList();
+                    return true;
+                case SEARCH_PLAYERS:
+                    return handlePageRequest(line, true);
+                case SUBSCRIBE_PLAYERS:
+                    //Con "=DELTA" il client riceve solo le variazioni e carica la lista a pagine
+                    if (line.argCount() == 1 && !line.argEquals(0, "DELTA")) return false;
+                    players.subscribe(this, line.argCount() == 0);
+                    return true;
+                case UNSUBSCRIBE_PLAYERS:
+                    players.unsubscribe(this);
+                    return true;
+                case QUEUE:
+                    return handleQueue(line);
+                case LEAVE_QUEUE:
+                    matchmaker.cancel(this);
+                    return true;
+                case CHALLENGE:
+                    return handleChallenge(line);
+                case ACCEPT_CHALLENGE:
+                    handleAcceptChallenge(line.arg(0));
+                    return true;
+                case DECLINE_CHALLENGE:
+                    handleDeclineChallenge(line.arg(0));
+                    return true;
+                case MOVE:
+                    return handleMove(line);
+                case GAME_OVER:
+                    handleGameOver();
+                    return true;
+                case WATCH:
+                    //Il nickname torna in WATCH-FAILED: come in SET-NICKNAME, al più MAX_NICKNAME byte
+                    if (line.argLength(0) > MAX_NICKNAME) return false;
+                    handleWatch(line.arg(0));
+                    return true;
+                case UNWATCH:
+                    unwatch();
+                    return true;
+                case PING:
+                    send("PONG");
+                    return true;
+                case PONG:
+                    //Basta averlo ricevuto: heard() ha già aggiornato l'ora dell'ultimo messaggio
+                    return true;
+                case STATS:
+                    send(ServerMetrics.stats());
+                    return true;
+                case ANALYTICS:
+                    if (line.argCount() == 1 && line.argLength(0) > MAX_NICKNAME) return false;
+                    handleAnalytics(line.argCount() == 1 ? line.arg(0) : null);
+                    return true;
+                case LOG_LEVEL:
+                    //LOG-LEVEL=<livello> cambia il livello del log; senza argomento lo restituisce e basta
+                    if (line.argCount() == 1) {
+                        Log.Level level = Log.parse(line.arg(0), null);
+                        if (level == null) return false;
+                        Log.setLevel(level);
+                    }
+                    send("LOG-LEVEL=" + Log.level());
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        /*ANALYTICS[=<nickname>]: le statistiche si calcolano sul registro fuori dal thread del client
+          e la risposta parte quando sono pronte; senza registro la risposta è ERROR=UNAVAILABLE=ANALYTICS*/
+        private void handleAnalytics(String player) {
+            if (!GameJournal.isEnabled()) {
+                send("ERROR=UNAVAILABLE=ANALYTICS");
+                return;
+            }
+            GameAnalytics.refresh().whenComplete((analytics, error) -> {
+                if (error != null) {
+                    Log.error("Statistiche del registro non disponibili", error);
+                    send("ERROR=UNAVAILABLE=ANALYTICS");
                 } else {
-                    this.nickname = nick;
-                    players.put(nick, this);
-                    out.println("NICKNAME-SUCCESS");
-                    System.out.println("Registrato: " + nick);
+                    send(player == null ? analytics.summary() : analytics.player(player));
                 }
+            });
+        }
+
+        /*Gestisce un frame binario ricevuto dal client*/
+        void handleFrame(int opcode, byte[] payload, int offset, int length) {
+            if (opcode == BinaryProtocol.OP_TEXT) {
+                handleLine(payload, offset, length);
+            } else if (opcode == BinaryProtocol.OP_MOVE && length == BinaryProtocol.MOVE_PAYLOAD) {
+                long start = System.nanoTime();
+                heard(true);
+                handleBinaryMove(payload, offset);
+                ServerMetrics.record(ServerMetrics.Command.BINARY_MOVE, System.nanoTime() - start);
+            } else {
+                Log.warn("Frame non valido da " + nickname + ": opcode " + opcode);
             }
         }
 
-        /*Invia la lista dei giocatori disponibili*/
-        private void sendPlayerList() {
-            StringBuilder list = new StringBuilder("PLAYERS=");
-            synchronized (players) {
-                for (String player : players.keySet()) {
-                    if (!player.equals(nickname) && !players.get(player).inGame) {
-                        list.append(player).append(",");
+        /*Controlla e registra il nickname: SET-NICKNAME=<nickname>[=BIN1], con al più MAX_NICKNAME byte.
+          La risposta è NICKNAME-SUCCESS[=BIN1]=<token>, con il token per RESUME
+          (senza token se le sessioni riprendibili sono disattivate)*/
+        private boolean handleNickname(ProtocolLine line) {
+            if (line.argLength(0) == 0 || line.argLength(0) > MAX_NICKNAME) return false;
+            //Un client che supporta il protocollo binario lo chiede con il suffisso "=BIN1"
+            boolean wantsBinary = line.argCount() == 2;
+            if (wantsBinary && !line.argEquals(1, BinaryProtocol.VERSION)) return false;
+            if (nickname != null) return false;
+
+            String nick = line.arg(0);
+            if (players.get(nick) != null || isParked()) {
+                send("NOT-VALID");
+                return true;
+            }
+            //In un cluster il nickname deve essere libero anche sugli altri nodi: lo conferma il
+            //proprietario nella directory. La risposta arriva sul thread del collegamento (o dopo
+            //Cluster.CLAIM_MS come errore), e intanto la connessione resta sospesa
+            CompletableFuture<Boolean> claim = Cluster.claim(nick);
+            if (claim.isDone()) {
+                completeNickname(nick, wantsBinary, claim.join());
+                return true;
+            }
+            CompletableFuture<Void> pending = claim.handle((granted, error) -> {
+                completeNickname(nick, wantsBinary, error == null && granted);
+                return null;
+            });
+            handshake = pending;
+            pending.whenComplete((result, error) -> connection.resumeReading());
+            return true;
+        }
+
+        /*Conclude SET-NICKNAME con la risposta del cluster. Se la connessione si è chiusa intanto, o un
+          altro giocatore di questo nodo ha preso il nickname, la prenotazione si restituisce*/
+        private void completeNickname(String nick, boolean wantsBinary, boolean granted) {
+            if (granted && !closed && players.get(nick) == null && players.register(nick, this)) {
+                this.nickname = nick;
+                //Con la risposta su un altro thread, cleanup() potrebbe non aver visto il nickname
+                if (closed) {
+                    release();
+                    return;
+                }
+                String resume = "";
+                if (SessionStore.isEnabled()) {
+                    token = SessionStore.newToken();
+                    resume = "=" + token;
+                }
+                if (wantsBinary) {
+                    //La conferma viaggia ancora in testo, da qui in poi solo frame
+                    send("NICKNAME-SUCCESS=" + BinaryProtocol.VERSION + resume);
+                    binary = true;
+                } else {
+                    send("NICKNAME-SUCCESS" + resume);
+                }
+                Log.info("Registrato: ", nick);
+            } else {
+                if (granted && players.get(nick) == null) Cluster.unclaim(nick);
+                send("NOT-VALID");
+            }
+        }
+
+        /*Riprende la sessione di una connessione caduta: RESUME=<token>[=BIN1]. Questo handler prende
+          nickname e partita di quello vecchio e riceve
+          RESUMED=<avversario>=<simbolo>=<tabellone>=<id>=<turno>=<caselle> (vedi Match.snapshot),
+          poi le mosse successive come sempre; l'avversario riceve OPPONENT-BACK.
+          Con un token sconosciuto o scaduto la risposta è RESUME-FAILED e la connessione
+          può ancora registrarsi con SET-NICKNAME*/
+        private boolean handleResume(ProtocolLine line) {
+            boolean wantsBinary = line.argCount() == 2;
+            if (wantsBinary && !line.argEquals(1, BinaryProtocol.VERSION)) return false;
+            if (nickname != null) return false;
+
+            ClientHandler old = sessions.claim(line.arg(0));
+            if (old != null && old.match == null) {
+                //park() non tiene aperte sessioni senza partita: per sicurezza la vecchia si chiude
+                old.release();
+                old = null;
+            }
+            if (old == null) {
+                send("RESUME-FAILED");
+                return true;
+            }
+            nickname = old.nickname;
+            token = old.token;
+            matchId = old.matchId;
+            match = old.match;
+            side = old.side;
+            players.rebind(nickname, old, this);
+
+            Match current = match;
+            ClientHandler opponentHandler;
+            boolean over;
+            current.lock();
+            try {
+                //Dopo lo scambio le mosse dell'avversario arrivano qui, ma solo dopo l'istantanea
+                opponentHandler = old.opponent.get();
+                if (opponentHandler != null) {
+                    opponent.set(opponentHandler);
+                    if (!opponentHandler.opponent.compareAndSet(old, this)) {
+                        //La partita si è chiusa proprio adesso: il lato vecchio lo libera unpair
+                        opponent.set(null);
+                        opponentHandler = null;
                     }
                 }
+                over = current.board.isOver();
+                send("RESUMED=" + current.opponentOf(side) + "=" + BitBoard.symbol(side) + "=" + current.snapshot());
+                //Come per NICKNAME-SUCCESS, la risposta è in testo e da qui in poi solo frame
+                binary = wantsBinary;
+            } finally {
+                current.unlock();
             }
-            out.println(list.toString());
+            Log.info("Sessione ripresa: ", nickname);
+
+            if (opponentHandler != null) {
+                opponentHandler.send("OPPONENT-BACK");
+                if (opponentHandler.away) send("OPPONENT-AWAY=" + SessionStore.graceSeconds());
+            } else {
+                //La partita si è chiusa mentre era via: se non è finita sul tabellone, l'avversario è uscito
+                players.markFree(this);
+                if (!over) send("OPPONENT-DISCONNECTED");
+            }
+            return true;
         }
 
-        /*Gestisce la richiesta di sfida*/
-        private void handleChallenge(String targetPlayer) {
+        /*Invia la lista dei giocatori disponibili, in più messaggi se la lobby è grande*/
+        private void sendPlayerList() {
+            for (String part : players.snapshot(this)) {
+                send(part);
+            }
+        }
+
+        /*Pagina (GET-PLAYERS-PAGE=<count>=<after>) o ricerca (SEARCH-PLAYERS=<count>=<prefix>)*/
+        private boolean handlePageRequest(ProtocolLine line, boolean search) {
+            int count = line.intArg(0);
+            if (count == ProtocolLine.NOT_A_NUMBER) return false;
+            String key = line.arg(1);
+            if (search) {
+                players.sendSearch(this, key, count);
+            } else {
+                players.sendPage(this, key, count);
+            }
+            return true;
+        }
+
+        /*Mette il giocatore in coda per una partita automatica: QUEUE oppure QUEUE=<rating>*/
+        private boolean handleQueue(ProtocolLine line) {
+            int rating = line.argCount() == 1 ? line.intArg(0) : 0;
+            if (rating == ProtocolLine.NOT_A_NUMBER) return false;
+            if (nickname == null || isInGame()) return true;
+            matchmaker.enqueue(this, rating);
+            return true;
+        }
+
+        /*Gestisce la richiesta di sfida: CHALLENGE=<player> oppure CHALLENGE=<player>=<rows>x<cols>x<k>*/
+        private boolean handleChallenge(ProtocolLine line) {
+            String board = MnkBoard.CLASSIC;
+            if (line.argCount() == 2) {
+                MnkBoard requested = MnkBoard.parsePlayable(line.arg(1));
+                if (requested == null) return false;
+                board = requested.spec();
+            }
+
+            String targetPlayer = line.arg(0);
             ClientHandler target = players.get(targetPlayer);
-            if (target != null && !target.inGame) {
-                challenges.put(targetPlayer, nickname);
-                target.out.println("CHALLENGE-REQUEST=" + nickname);
+            if (target != null && !target.isInGame()) {
+                target.offerChallenge(nickname, board, Cluster.self());
+            } else if (target == null && nickname != null) {
+                //Forse è collegato a un altro nodo del cluster
+                Cluster.challenge(targetPlayer, nickname, board);
             }
+            return true;
+        }
+
+        /*Registra la sfida ricevuta da challenger, collegato al nodo node, e la notifica a questo client*/
+        private void offerChallenge(String challenger, String board, int node) {
+            players.putChallenge(nickname, challenger, board, node);
+            send("CHALLENGE-REQUEST=" + challenger + (board.equals(MnkBoard.CLASSIC) ? "" : "=" + board));
         }
 
         /*Gestisce l'accettazione della sfida*/
         private void handleAcceptChallenge(String challenger) {
-            System.out.println("DEBUG: Invio GAME-START a " + this.nickname + " con simbolo O");
-            System.out.println("DEBUG: Invio GAME-START a " + challenger + " con simbolo X");
+            if (nickname == null) return;
+            Log.debug("Sfida accettata, X a ", challenger);
 
-            ClientHandler challengerHandler = players.get(challenger);
-            if (challengerHandler != null) {
-                this.inGame = true;
-                challengerHandler.inGame = true;
-                this.opponent = challenger;
-                challengerHandler.opponent = this.nickname;
+            //Il tabellone è quello proposto nella sfida, il tris se la sfida non è più pendente
+            PlayerRegistry.Challenge challenge = players.takeChallenge(this.nickname, challenger);
+            boolean pending = challenge != null;
+            String board = pending ? challenge.board() : MnkBoard.CLASSIC;
 
+            if (pending && challenge.node() != Cluster.self()) {
+                //Lo sfidante è su un altro nodo: qui si accoppia con un avversario remoto e la partita
+                //inizia quando il nodo dello sfidante risponde con l'id (Cluster.START)
+                ClientHandler remote = RemotePlayer.create(challenger, challenge.node(), nickname);
+                if (players.pair(this, remote)) {
+                    //Fino a START nessuna partita: una disconnessione non chiude quella precedente
+                    match = null;
+                    matchId = 0;
+                    if (Cluster.accept(challenge.node(), challenger, nickname, board)) {
+                        heartbeats.schedule(now -> {
+                            awaitStart(remote);
+                            return 0;
+                        }, Cluster.CLAIM_MS);
+                    } else {
+                        abandonStart(remote);
+                    }
+                }
+                return;
+            }
+
+            ClientHandler challengerHandler = players.get(challenger);
+            if (challengerHandler != null && players.pair(this, challengerHandler)) {
                 //Il primo giocatore usa X
-                challengerHandler.out.println("GAME-START=" + this.nickname + "=X");
-                this.out.println("GAME-START=" + challenger + "=O");
-                
-                challenges.remove(this.nickname);
+                startGame(challengerHandler, this, board);
             }
         }
 
+        /*Se dopo Cluster.CLAIM_MS lo sfidante remoto non ha ancora risposto con START (o REFUSE) la
+          risposta è andata persa con il collegamento: l'accoppiamento si scioglie*/
+        private void awaitStart(ClientHandler remote) {
+            if (waitingRemote(remote.remote().node(), nickname, remote.nickname) == remote) abandonStart(remote);
+        }
+
+        /*La sfida accettata non può iniziare: il collegamento con il nodo dello sfidante non c'è*/
+        private void abandonStart(ClientHandler remote) {
+            //Dal lato dell'avversario remoto: se intanto la partita è cambiata, this non è più il suo
+            if (players.unpair(remote) == this) send("ERROR=UNAVAILABLE=ACCEPT-CHALLENGE");
+        }
+
+        /*GAME-START=<avversario>=<simbolo>=<tabellone>; i client binari ricevono anche l'id
+          della partita da usare nelle mosse*/
+        private void sendGameStart(String opponentName, String symbol, String board) {
+            send("GAME-START=" + opponentName + "=" + symbol + "=" + board + (binary ? "=" + matchId : ""));
+        }
+
         /*Gestisce il rifiuto della sfida*/
         private void handleDeclineChallenge(String challenger) {
-            ClientHandler challengerHandler = players.get(challenger);
-            if (challengerHandler != null) {
-                challengerHandler.out.println("CHALLENGE-DECLINED=" + this.nickname);
+            if (nickname == null) return;
+            PlayerRegistry.Challenge challenge = players.takeChallenge(this.nickname, challenger);
+            if (challenge != null && challenge.node() != Cluster.self()) {
+                Cluster.decline(challenge.node(), challenger, nickname);
+            } else {
+                ClientHandler challengerHandler = players.get(challenger);
+                if (challengerHandler != null) {
+                    challengerHandler.send("CHALLENGE-DECLINED=" + this.nickname);
+                }
             }
-            challenges.remove(this.nickname);
         }
 
-        /*Gestisce le mosse del gioco*/
-        private void handleMove(String message) {
-            if (opponent != null) {
-                ClientHandler opponentHandler = players.get(opponent);
-                if (opponentHandler != null) {
-                    opponentHandler.out.println(message);
+        /*Gestisce le mosse del gioco: MOVE=<nickname>=<avversario>=<simbolo>=<riga>=<colonna>.
+          Verso un client testuale si inoltrano i byte ricevuti, verso uno binario si scrive
+          il frame con i numeri letti dalla riga: in entrambi i casi nessuna stringa.
+          Una mossa con il simbolo dell'avversario, fuori turno o su una casella occupata non
+          arriva all'avversario né al registro: il mittente riceve ERROR=REJECTED=MOVE*/
+        private boolean handleMove(ProtocolLine line) {
+            int player = line.argEquals(2, "X") ? BitBoard.X : line.argEquals(2, "O") ? BitBoard.O : BitBoard.EMPTY;
+            int row = line.intArg(3);
+            int col = line.intArg(4);
+            if (player == BitBoard.EMPTY || row < 0 || col < 0) return false;
+
+            Match current = match;
+            if (current == null) return true;
+            if (row >= current.board.rows() || col >= current.board.cols()) return false;
+            if (player != side) {
+                send("ERROR=REJECTED=MOVE");
+                return true;
+            }
+            //Con il lock della partita la mossa o è nell'istantanea di un RESUME o arriva dopo
+            current.lock();
+            try {
+                ClientHandler opponentHandler = opponent.get();
+                if (opponentHandler == null) return true;
+                if (!current.play(player, row, col)) {
+                    send("ERROR=REJECTED=MOVE");
+                    return true;
                 }
+                GameJournal.move(matchId, player, row, col);
+                if (opponentHandler.binary) {
+                    opponentHandler.connection.sendBytes(BinaryProtocol.move(opponentHandler.matchId, player, row, col));
+                } else {
+                    opponentHandler.send(line.buffer(), line.offset(), line.length());
+                }
+            } finally {
+                current.unlock();
             }
+            return true;
         }
 
-        /*Gestisce la fine della partita*/
-        private void handleGameOver() {
-            this.inGame = false;
-            if (opponent != null) {
-                ClientHandler opponentHandler = players.get(opponent);
-                if (opponentHandler != null) {
-                    opponentHandler.inGame = false;
-                    opponentHandler.opponent = null;
+        /*Gestisce una mossa in formato binario, con gli stessi controlli di handleMove*/
+        private void handleBinaryMove(byte[] payload, int offset) {
+            Match current = match;
+            if (current == null || BinaryProtocol.moveMatchId(payload, offset) != matchId) return;
+            int player = BinaryProtocol.movePlayer(payload, offset);
+            int row = BinaryProtocol.moveRow(payload, offset);
+            int col = BinaryProtocol.moveCol(payload, offset);
+            //Come per la riga di testo: un simbolo che non è né X né O o una casella fuori dal
+            //tabellone sono un messaggio malformato, non una mossa da inoltrare
+            if ((player != BitBoard.X && player != BitBoard.O)
+                    || row >= current.board.rows() || col >= current.board.cols()) {
+                send("ERROR=MALFORMED=MOVE");
+                return;
+            }
+            if (player != side) {
+                send("ERROR=REJECTED=MOVE");
+                return;
+            }
+
+            current.lock();
+            try {
+                ClientHandler opponentHandler = opponent.get();
+                if (opponentHandler == null) return;
+                if (!current.play(player, row, col)) {
+                    send("ERROR=REJECTED=MOVE");
+                    return;
                 }
-                this.opponent = null;
+                GameJournal.move(matchId, player, row, col);
+                if (opponentHandler.binary) {
+                    opponentHandler.connection.sendBytes(
+                        BinaryProtocol.move(opponentHandler.matchId, player, row, col));
+                } else {
+                    opponentHandler.send("MOVE=" + nickname + "=" + opponentHandler.nickname + "="
+                        + BitBoard.symbol(player) + "=" + row + "=" + col);
+                }
+            } finally {
+                current.unlock();
             }
         }
 
+        /*WATCH=<player>: segue la partita in corso del giocatore, anche senza essersi registrati.
+          La risposta è WATCHING=<x>=<o>=<istantanea come in RESUMED>, poi ogni mossa arriva come
+          WATCH-MOVE=<id>=<simbolo>=<riga>=<colonna> (ai client binari un frame OP_MOVE con l'id della
+          partita) e alla fine WATCH-END=<id>. WATCH-FAILED=<player> se il giocatore non è in partita
+          su questo nodo. Si segue una partita alla volta: un nuovo WATCH lascia la precedente*/
+        private void handleWatch(String player) {
+            unwatch();
+            ClientHandler target = players.get(player);
+            Match current = target != null && target.isInGame() ? target.match : null;
+            if (current == null || !current.watch(this)) {
+                send("WATCH-FAILED=" + player);
+                return;
+            }
+            watching.set(current);
+        }
+
+        /*Smette di seguire la partita, se ne segue una*/
+        private void unwatch() {
+            Match current = watching.getAndSet(null);
+            if (current != null) current.unwatch(this);
+        }
+
+        /*Gestisce la fine della partita*/
+        private void handleGameOver() {
+            //Il primo dei due GAME-OVER chiude la partita, il secondo non trova più l'avversario
+            ClientHandler opponentHandler = players.unpair(this);
+            if (opponentHandler == null) return;
+            Match current = match;
+            if (current != null) current.end();
+            if (matchId != 0) GameJournal.gameEnded(matchId, GameJournal.FINISHED);
+            //Con un avversario remoto la partita va chiusa anche sul suo nodo, che ha la propria copia
+            if (opponentHandler.remote() != null) opponentHandler.send("GAME-OVER");
+        }
+
         /*Pulizia quando il client si disconnette*/
-        private void cleanup() {
+        void cleanup() {
+            closed = true;
+            if (!bot) ServerMetrics.connectionClosed();
+            unwatch();
             if (nickname != null) {
-                synchronized (players) {
-                    players.remove(nickname);
+                matchmaker.cancel(this);
+                if (!park()) release();
+            }
+            close();
+        }
+
+        private void close() {
+            if (connection != null) {
+                connection.close();
+            } else {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    Log.error("Chiusura del socket fallita", e);
                 }
-                if (opponent != null) {
-                    ClientHandler opponentHandler = players.get(opponent);
-                    if (opponentHandler != null) {
-                        opponentHandler.out.println("OPPONENT-DISCONNECTED");
-                        opponentHandler.inGame = false;
-                        opponentHandler.opponent = null;
+            }
+        }
+
+        /*Mette la connessione sulla ruota dei heartbeat: il primo controllo fissa le scadenze.
+          Va chiamato solo quando la connessione è pronta a inviare e chiudere, perché la ruota
+          può scadere subito su un altro thread*/
+        void startHeartbeat() {
+            lastHeard = heartbeats.now();
+            lastCommand = lastHeard;
+            if (RECHECK_MS != Long.MAX_VALUE) heartbeats.schedule(this, 0);
+        }
+
+        /*Annota l'ora di un messaggio ricevuto. L'ora della ruota cambia solo a ogni tick,
+          quindi di solito è una lettura e nessuna scrittura*/
+        private void heard(boolean command) {
+            long now = heartbeats.now();
+            if (lastHeard != now) lastHeard = now;
+            if (command && lastCommand != now) lastCommand = now;
+        }
+
+        /*Controlli della connessione, sul thread della ruota: PING dopo PING_MS di silenzio e
+          chiusura se non arriva nulla per altri PONG_TIMEOUT_MS (connessione mezza aperta, la
+          partita resta riprendibile con RESUME); chiusura senza ripresa dopo IDLE_MS senza comandi
+          fuori da una partita e dopo MOVE_MS di attesa della propria mossa. La chiusura passa da
+          cleanup() come una disconnessione qualsiasi. Restituisce fra quanti ms ricontrollare*/
+        @Override
+        public long expire(long now) {
+            if (closed) return 0;
+            long next = Long.MAX_VALUE;
+            if (PING_MS > 0) {
+                long heard = lastHeard;
+                if (now - heard >= PING_MS + PONG_TIMEOUT_MS) return reap("nessuna risposta al PING", true);
+                if (now - heard >= PING_MS) {
+                    if (pinged != heard) {
+                        pinged = heard;
+                        send("PING");
                     }
+                    next = heard + PING_MS + PONG_TIMEOUT_MS;
+                } else {
+                    next = heard + PING_MS;
                 }
-                System.out.println("Disconnesso: " + nickname);
             }
+            //Chi segue una partita come spettatore non invia comandi ma non è inattivo
+            if (IDLE_MS > 0 && !isInGame() && !matchmaker.isQueued(this) && watching.get() == null) {
+                long command = lastCommand;
+                if (now - command >= IDLE_MS) return reap("inattività", false);
+                next = Math.min(next, command + IDLE_MS);
+            }
+            Match current = match;
+            if (MOVE_MS > 0 && current != null && isInGame() && current.toMove() == side) {
+                long since = current.turnSince();
+                if (now - since >= MOVE_MS) return reap("tempo per la mossa scaduto", false);
+                next = Math.min(next, since + MOVE_MS);
+            }
+            return next == Long.MAX_VALUE ? RECHECK_MS : Math.max(1, next - now);
+        }
+
+        /*Chiude la connessione dal thread della ruota; senza ripresa la partita si chiude subito*/
+        private long reap(String reason, boolean resumable) {
+            Log.info("Chiusura per " + reason + ": ", nickname);
+            ServerMetrics.connectionReaped();
+            if (!resumable) token = null;
+            close();
+            return 0;
+        }
+
+        /*Se la connessione cade durante una partita, il giocatore resta nel registro e la partita
+          aperta per SessionStore.GRACE_MS: l'avversario riceve OPPONENT-AWAY=<secondi>.
+          false se non c'è una partita da tenere aperta, anche quando l'avversario c'è ma la partita
+          non è ancora iniziata (sfida accettata verso un altro nodo, in attesa di START): non c'è
+          un tabellone da riprendere e la disconnessione scioglie l'accoppiamento*/
+        private boolean park() {
+            if (token == null || !SessionStore.isEnabled()) return false;
+            //Prima del controllo: se la partita si chiude adesso, markFree non lo rimette tra i liberi
+            away = true;
+            ClientHandler opponentHandler = opponent.get();
+            if (opponentHandler == null || match == null) return false;
+            sessions.park(token, this, this::release);
+            opponentHandler.send("OPPONENT-AWAY=" + SessionStore.graceSeconds());
+            Log.info("In attesa di RESUME: ", nickname);
+            return true;
+        }
+
+        /*Toglie il giocatore dal registro e chiude la sua partita: alla disconnessione, oppure
+          alla scadenza dell'attesa di RESUME*/
+        private void release() {
+            if (players.unregister(nickname, this) && players.get(nickname) == null) Cluster.unclaim(nickname);
+            ClientHandler opponentHandler = players.unpair(this);
+            if (opponentHandler != null) {
+                Match current = match;
+                if (current != null) current.end();
+                //matchId è 0 se la partita con un avversario remoto non era ancora iniziata
+                if (matchId != 0) GameJournal.gameEnded(matchId, GameJournal.DISCONNECTED);
+                opponentHandler.send("OPPONENT-DISCONNECTED");
+            }
+            Log.info("Disconnesso: ", nickname);
+        }
+    }
+
+    /*Connessione bloccante: i messaggi passano da un OutboundBuffer e partono a blocchi,
+      inviati dallo scrittore della connessione. Con la coda piena la chiusura del socket sblocca
+      anche il thread di lettura, che fa cleanup*/
+    static class SocketConnection implements Connection {
+        private final Socket socket;
+        private final OutboundBuffer out;
+
+        SocketConnection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new OutboundBuffer(socket.getOutputStream(), this::close);
+        }
+
+        @Override
+        public void send(String message) {
+            out.writeLine(message);
+        }
+
+        @Override
+        public void sendLine(byte[] bytes, int offset, int length) {
+            out.writeLine(bytes, offset, length);
+        }
+
+        @Override
+        public void sendBytes(byte[] bytes) {
+            out.write(bytes);
+        }
+
+        @Override
+        public void sendUpdate(String key, byte[] bytes) {
+            out.writeUpdate(key, bytes);
+        }
+
+        @Override
+        public void close() {
             try {
                 socket.close();
             } catch (IOException e) {
-                e.printStackTrace();
+                Log.error("Chiusura del socket fallita", e);
             }
         }
     }
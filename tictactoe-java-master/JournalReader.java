@@ -0,0 +1,273 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+/*Lettura del registro scritto da GameJournal: un cursore che scorre i record di tutti i segmenti
+  in ordine, direttamente sulla mappatura del file e senza creare oggetti per record, quindi
+  milioni di record al secondo. Da riga di comando stampa un riepilogo del registro oppure
+  rigioca una partita:
+  java JournalReader [cartella]            riepilogo (record, partite, mosse, velocità di lettura)
+  java JournalReader [cartella] <partita>  mosse, tabellone finale e risultato della partita*/
+final class JournalReader {
+    private final List<Path> files;
+    private int next;
+    private ByteBuffer segment;
+    private int limit;
+    private int offset;
+
+    JournalReader(Path dir) throws IOException {
+        this(segments(dir));
+    }
+
+    JournalReader(List<Path> files) {
+        this.files = files;
+    }
+
+    /*Cursore su record già in memoria, senza intestazione (ad esempio quelli messi da parte da
+      GameAnalytics)*/
+    JournalReader(ByteBuffer records) {
+        this.files = List.of();
+        this.segment = records;
+        this.limit = records.limit();
+        this.offset = -GameJournal.RECORD;
+    }
+
+    static String segmentName(int index) {
+        return String.format("journal-%06d.dat", index);
+    }
+
+    static int segmentIndex(Path file) {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name, 8, name.length() - 4, 10);
+    }
+
+    /*Segmenti della cartella in ordine di scrittura (vuota se la cartella non esiste)*/
+    static List<Path> segments(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) return List.of();
+        try (Stream<Path> list = Files.list(dir)) {
+            return list.filter(p -> p.getFileName().toString().matches("journal-\\d{6}\\.dat"))
+                .sorted(Comparator.comparingInt(JournalReader::segmentIndex))
+                .collect(Collectors.toList());
+        }
+    }
+
+    /*Id di partita più alto registrato: si cerca a ritroso nel primo segmento che contiene partite*/
+    static int lastMatchId(List<Path> files) throws IOException {
+        for (int i = files.size() - 1; i >= 0; i--) {
+            JournalReader reader = new JournalReader(files.subList(i, i + 1));
+            int max = 0;
+            while (reader.next()) {
+                if (reader.type() == GameJournal.START) max = Math.max(max, reader.matchId());
+            }
+            if (max > 0) return max;
+        }
+        return 0;
+    }
+
+    /*Passa al record successivo; false a fine registro*/
+    boolean next() throws IOException {
+        while (true) {
+            if (segment != null) {
+                offset += GameJournal.RECORD;
+                //Un record con tipo 0 è la parte preallocata e mai scritta del segmento
+                if (offset + GameJournal.RECORD <= limit && segment.get(offset) != 0) return true;
+                segment = null;
+            }
+            if (next == files.size()) return false;
+            open(files.get(next++));
+        }
+    }
+
+    private void open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        //Segmento appena creato da GameJournal, con l'intestazione non ancora scritta: per ora è vuoto
+        if (segment.capacity() == 0 || segment.getInt(0) == 0) {
+            limit = 0;
+            offset = 0;
+            return;
+        }
+        if (segment.capacity() < GameJournal.RECORD || segment.getInt(0) != GameJournal.MAGIC
+                || (segment.getInt(4) & 0xFFFF) != GameJournal.RECORD) {
+            throw new IOException("Segmento non valido: " + file);
+        }
+        limit = segment.capacity();
+        //Il primo next() salta l'intestazione
+        offset = 0;
+    }
+
+    int type() {
+        return segment.get(offset);
+    }
+
+    /*MOVE: BitBoard.X o O; NAME: lato; END: motivo*/
+    int player() {
+        return segment.get(offset + 1);
+    }
+
+    /*MOVE: riga; START: righe; NAME: byte del nickname in questo record*/
+    int a() {
+        return segment.get(offset + 2) & 0xFF;
+    }
+
+    /*MOVE: colonna; START: colonne*/
+    int b() {
+        return segment.get(offset + 3) & 0xFF;
+    }
+
+    /*START: k*/
+    int k() {
+        return segment.get(offset + GameJournal.DATA) & 0xFF;
+    }
+
+    int matchId() {
+        return segment.getInt(offset + 4);
+    }
+
+    long time() {
+        return segment.getLong(offset + 8);
+    }
+
+    /*Copia in dst il record intero*/
+    void copy(byte[] dst, int at) {
+        segment.get(offset, dst, at, GameJournal.RECORD);
+    }
+
+    /*NAME: copia in dst la parte di nickname di questo record e ne restituisce la lunghezza*/
+    int nameChunk(byte[] dst, int at) {
+        segment.get(offset + GameJournal.DATA, dst, at, a());
+        return a();
+    }
+
+    /*Partita ricostruita dal registro*/
+    static final class Game {
+        final int matchId;
+        String board;
+        final ByteArrayOutputStream x = new ByteArrayOutputStream();
+        final ByteArrayOutputStream o = new ByteArrayOutputStream();
+        final List<int[]> moves = new ArrayList<>();
+        long started;
+        long ended;
+        int endReason;
+
+        Game(int matchId) {
+            this.matchId = matchId;
+        }
+
+        String x() {
+            return x.toString(StandardCharsets.UTF_8);
+        }
+
+        String o() {
+            return o.toString(StandardCharsets.UTF_8);
+        }
+    }
+
+    /*Rilegge tutto il registro e ricostruisce la partita, null se non c'è*/
+    static Game replay(Path dir, int matchId) throws IOException {
+        JournalReader reader = new JournalReader(dir);
+        Game game = null;
+        byte[] chunk = new byte[GameJournal.NAME_CHUNK];
+        while (reader.next()) {
+            if (reader.matchId() != matchId) continue;
+            switch (reader.type()) {
+                case GameJournal.START:
+                    game = new Game(matchId);
+                    game.board = reader.a() + "x" + reader.b() + "x" + reader.k();
+                    game.started = reader.time();
+                    break;
+                case GameJournal.NAME:
+                    if (game == null) break;
+                    int length = reader.nameChunk(chunk, 0);
+                    (reader.player() == BitBoard.X ? game.x : game.o).write(chunk, 0, length);
+                    break;
+                case GameJournal.MOVE:
+                    if (game == null || game.endReason != 0) break;
+                    game.moves.add(new int[] {reader.player(), reader.a(), reader.b()});
+                    break;
+                case GameJournal.END:
+                    if (game == null || game.endReason != 0) break;
+                    game.endReason = reader.player();
+                    game.ended = reader.time();
+                    break;
+                default:
+                    break;
+            }
+        }
+        return game;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Paths.get(args.length > 0 ? args[0] : GameJournal.DIR);
+        if (args.length > 1) {
+            printGame(dir, Integer.parseInt(args[1]));
+            return;
+        }
+
+        long start = System.nanoTime();
+        long records = 0;
+        long games = 0;
+        long moves = 0;
+        long ends = 0;
+        JournalReader reader = new JournalReader(dir);
+        while (reader.next()) {
+            records++;
+            int type = reader.type();
+            if (type == GameJournal.MOVE) {
+                moves++;
+            } else if (type == GameJournal.START) {
+                games++;
+            } else if (type == GameJournal.END) {
+                ends++;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Segmenti: %d in %s%n", reader.files.size(), dir.toAbsolutePath());
+        System.out.printf("Record: %d (partite %d, mosse %d, fini %d)%n", records, games, moves, ends);
+        System.out.printf("Lettura: %.1f ms, %.1f milioni di record al secondo%n",
+            seconds * 1e3, records / seconds / 1e6);
+    }
+
+    private static void printGame(Path dir, int matchId) throws IOException {
+        Game game = replay(dir, matchId);
+        if (game == null) {
+            System.out.println("Partita " + matchId + " non trovata");
+            return;
+        }
+        MnkBoard board = MnkBoard.parse(game.board);
+        System.out.printf("Partita %d su %s: %s (X) contro %s (O), iniziata %s%n",
+            matchId, game.board, game.x(), game.o(), new Date(game.started));
+        for (int[] move : game.moves) {
+            System.out.printf("  %s %d,%d%n", BitBoard.symbol(move[0]), move[1], move[2]);
+            if (board != null && !board.play(move[1], move[2])) System.out.println("  (mossa non valida)");
+        }
+        if (board != null) {
+            for (int r = 0; r < board.rows(); r++) {
+                StringBuilder row = new StringBuilder("  ");
+                for (int c = 0; c < board.cols(); c++) {
+                    row.append(board.get(r, c) == 0 ? '.' : BitBoard.symbol(board.get(r, c)).charAt(0));
+                }
+                System.out.println(row);
+            }
+        }
+        String result;
+        if (board != null && board.winner() != 0) {
+            result = "vince " + BitBoard.symbol(board.winner());
+        } else if (board != null && board.isDraw()) {
+            result = "patta";
+        } else if (game.endReason == GameJournal.DISCONNECTED) {
+            result = "interrotta (disconnessione)";
+        } else if (game.endReason == 0) {
+            result = "non conclusa";
+        } else {
+            result = "conclusa senza vincitore";
+        }
+        System.out.println("Risultato: " + result + ", " + game.moves.size() + " mosse"
+            + (game.ended > 0 ? String.format(", durata %.1f s", (game.ended - game.started) / 1e3) : ""));
+    }
+}
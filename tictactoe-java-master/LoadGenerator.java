@@ -0,0 +1,213 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/*Generatore di carico senza interfaccia grafica: apre N connessioni verso GameServer, registra
+  i nickname, accoppia i bot a due a due con CHALLENGE e ACCEPT-CHALLENGE e fa giocare a ogni coppia
+  un numero fisso di partite complete (mosse casuali, MOVE e GAME-OVER come un client vero).
+  Ogni bot gira su un virtual thread con un socket bloccante, quindi migliaia di bot costano pochi
+  thread del sistema operativo, a differenza di GameClient che apre un listenerThread per istanza.
+  Alla fine stampa la velocità di connessione, i percentili dell'andata e ritorno di una mossa
+  (dall'invio della propria mossa all'arrivo della risposta, passando due volte dal server)
+  e le partite al secondo*/
+final class LoadGenerator {
+    //Oltre questo tempo senza risposte un bot si considera bloccato
+    private static final int READ_TIMEOUT_MS = Integer.getInteger("load.timeout.ms", 30_000);
+
+    private final String host;
+    //Con più porte (i nodi di un cluster) il bot i si collega a ports[i % ports.length]:
+    //con due nodi ogni coppia ha un bot per nodo e tutte le partite passano da Cluster
+    private final int[] ports;
+    private final int bots;
+    private final int games;
+    private final String board;
+    //Prefisso diverso a ogni esecuzione, così i nickname non collidono con bot ancora collegati
+    private final String prefix = "load-" + Long.toString(System.currentTimeMillis() % 1_000_000, 36) + "-";
+
+    private final LatencyHistogram connectLatency = new LatencyHistogram();
+    private final LatencyHistogram moveLatency = new LatencyHistogram();
+    private final AtomicInteger gamesPlayed = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    LoadGenerator(String host, int[] ports, int bots, int games, String board) {
+        this.host = host;
+        this.ports = ports;
+        this.bots = bots;
+        this.games = games;
+        this.board = board;
+    }
+
+    /*Connessione di un bot, con lettura e scrittura bloccanti*/
+    private final class Bot implements Closeable {
+        final int index;
+        final String nickname;
+        Socket socket;
+        BufferedReader in;
+        Writer out;
+
+        Bot(int index) {
+            this.index = index;
+            this.nickname = prefix + index;
+        }
+
+        void connect() throws IOException {
+            socket = new Socket(host, ports[index % ports.length]);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            send("SET-NICKNAME=" + nickname);
+            expect("NICKNAME-SUCCESS");
+        }
+
+        void send(String message) throws IOException {
+            out.write(message);
+            out.write('\n');
+            out.flush();
+        }
+
+        /*Legge fino al messaggio atteso, ignorando quelli che un bot non usa*/
+        String expect(String expected) throws IOException {
+            while (true) {
+                String line = in.readLine();
+                if (line == null || line.equals("NOT-VALID") || line.equals("OPPONENT-DISCONNECTED")) {
+                    throw new IOException(nickname + ": atteso " + expected + ", ricevuto " + line);
+                }
+                if (line.startsWith(expected)) return line;
+                //Un bot che aspetta a lungo riceve PING: senza PONG il server lo chiuderebbe
+                if (line.equals("PING")) send("PONG");
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (socket != null) socket.close();
+            } catch (IOException e) {
+                //Il bot ha finito comunque
+            }
+        }
+    }
+
+    /*Gioca tutte le partite della coppia: i bot pari sfidano, i dispari accettano*/
+    private void play(Bot bot) throws IOException {
+        boolean challenger = bot.index % 2 == 0;
+        String opponent = prefix + (challenger ? bot.index + 1 : bot.index - 1);
+        for (int g = 0; g < games; g++) {
+            if (challenger) {
+                bot.send("CHALLENGE=" + opponent + (board.equals(MnkBoard.CLASSIC) ? "" : "=" + board));
+            } else {
+                bot.expect("CHALLENGE-REQUEST=" + opponent);
+                bot.send("ACCEPT-CHALLENGE=" + opponent);
+            }
+            String symbol = bot.expect("GAME-START=").split("=")[2];
+            playGame(bot, opponent, symbol);
+            if (challenger) gamesPlayed.incrementAndGet();
+        }
+    }
+
+    private void playGame(Bot bot, String opponent, String symbol) throws IOException {
+        MnkBoard game = MnkBoard.parse(board);
+        boolean myTurn = symbol.equals("X");
+        long sentAt = 0;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (!game.isOver()) {
+            if (myTurn) {
+                int cell = randomEmptyCell(game, random);
+                int row = cell / game.cols();
+                int col = cell % game.cols();
+                game.play(row, col);
+                sentAt = System.nanoTime();
+                bot.send("MOVE=" + bot.nickname + "=" + opponent + "=" + symbol + "=" + row + "=" + col);
+            } else {
+                String[] parts = bot.expect("MOVE=").split("=");
+                if (sentAt != 0) moveLatency.record(System.nanoTime() - sentAt);
+                game.play(Integer.parseInt(parts[4]), Integer.parseInt(parts[5]));
+            }
+            myTurn = !myTurn;
+        }
+        bot.send("GAME-OVER");
+    }
+
+    //Prima casella libera a partire da una posizione casuale
+    private static int randomEmptyCell(MnkBoard game, ThreadLocalRandom random) {
+        int cells = game.rows() * game.cols();
+        int start = random.nextInt(cells);
+        for (int i = 0; i < cells; i++) {
+            int cell = (start + i) % cells;
+            if (game.get(cell / game.cols(), cell % game.cols()) == 0) return cell;
+        }
+        throw new IllegalStateException("Nessuna casella libera");
+    }
+
+    void run() {
+        List<Bot> connected = Collections.synchronizedList(new ArrayList<>());
+
+        //Fase 1: tutte le connessioni insieme, ognuna con la registrazione del nickname
+        long connectStart = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < bots; i++) {
+                Bot bot = new Bot(i);
+                executor.execute(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        bot.connect();
+                        connectLatency.record(System.nanoTime() - start);
+                        connected.add(bot);
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                        bot.close();
+                    }
+                });
+            }
+        }
+        long connectNanos = System.nanoTime() - connectStart;
+        System.out.printf("Connessioni: %d su %d in %.0f ms (%.0f/s), tempo per bot %s%n",
+            connected.size(), bots, connectNanos / 1e6, connected.size() / (connectNanos / 1e9),
+            connectLatency.summaryMillis());
+
+        //Fase 2: le coppie giocano; un bot senza compagno resta fermo fino al timeout
+        long playStart = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Bot bot : connected) {
+                executor.execute(() -> {
+                    try {
+                        play(bot);
+                    } catch (IOException | RuntimeException e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        bot.close();
+                    }
+                });
+            }
+        }
+        long playNanos = System.nanoTime() - playStart;
+        System.out.printf("Partite: %d in %.2f s (%.0f/s) su %s%n",
+            gamesPlayed.get(), playNanos / 1e9, gamesPlayed.get() / (playNanos / 1e9), board);
+        System.out.println("Andata e ritorno di una mossa: " + moveLatency.summaryMillis());
+        System.out.println("Errori: " + failures.get());
+    }
+
+    /*java LoadGenerator [bot] [partite per coppia] [tabellone] [host] [porta[,porta...]]*/
+    public static void main(String[] args) {
+        int bots = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String board = args.length > 2 ? args[2] : MnkBoard.CLASSIC;
+        String host = args.length > 3 ? args[3] : "localhost";
+        int[] ports = args.length > 4
+            ? Arrays.stream(args[4].split(",")).mapToInt(Integer::parseInt).toArray()
+            : new int[] {GameServer.PORT};
+
+        MnkBoard parsed = MnkBoard.parse(board);
+        if (parsed == null) {
+            System.err.println("Tabellone non valido: " + board);
+            return;
+        }
+        //I bot giocano a coppie
+        if (bots % 2 != 0) bots++;
+        new LoadGenerator(host, ports, bots, games, parsed.spec()).run();
+    }
+}
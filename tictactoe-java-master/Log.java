@@ -0,0 +1,188 @@
+import java.io.*;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+/*Log asincrono con livelli. Chi scrive non tocca mai la console: mette la riga in un buffer
+  circolare limitato e senza lock, e un solo thread in background la formatta e la stampa a blocchi.
+  Con il buffer pieno la riga si scarta (e si conta) invece di bloccare il thread che gestisce i client.
+  Un livello disattivato costa la lettura di un campo: le varianti con due argomenti concatenano
+  il testo solo se il livello è attivo. Il livello si imposta con -Dlog.level=<livello> e si cambia
+  a server avviato con il comando LOG-LEVEL (ad esempio TRACE per vedere ogni messaggio)*/
+final class Log {
+    enum Level { TRACE, DEBUG, INFO, WARN, ERROR }
+
+    private static final Level[] LEVELS = Level.values();
+    private static final int CAPACITY = Integer.highestOneBit(Math.max(64, Integer.getInteger("log.buffer", 8192)));
+    private static final int MASK = CAPACITY - 1;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private static volatile int threshold = parse(System.getProperty("log.level", "INFO"), Level.INFO).ordinal();
+
+    /*Buffer circolare a più produttori e un consumatore: ogni cella ha un numero di sequenza
+      che dice se è libera per la posizione tail (sequenza == posizione) o pronta da leggere
+      (sequenza == posizione + 1)*/
+    private static final AtomicLongArray sequence = new AtomicLongArray(CAPACITY);
+    private static final String[] texts = new String[CAPACITY];
+    private static final String[] threads = new String[CAPACITY];
+    private static final long[] times = new long[CAPACITY];
+    private static final byte[] levels = new byte[CAPACITY];
+    private static final AtomicLong tail = new AtomicLong();
+    //Letti e scritti solo dal thread di scrittura
+    private static long head;
+    private static long reportedDrops;
+    private static final LongAdder dropped = new LongAdder();
+    private static volatile Thread writer;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            sequence.set(i, i);
+        }
+        Thread thread = new Thread(Log::drainForever, "log-writer");
+        thread.setDaemon(true);
+        writer = thread;
+        thread.start();
+        //Le ultime righe si stampano anche quando il programma termina
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            writer = null;
+            drain();
+        }, "log-flush"));
+    }
+
+    private Log() {}
+
+    static boolean enabled(Level level) {
+        return level.ordinal() >= threshold;
+    }
+
+    static Level level() {
+        return LEVELS[threshold];
+    }
+
+    static void setLevel(Level level) {
+        threshold = level.ordinal();
+    }
+
+    /*Livello dal nome (senza distinguere maiuscole), fallback se il nome non è valido*/
+    static Level parse(String name, Level fallback) {
+        for (Level level : LEVELS) {
+            if (level.name().equalsIgnoreCase(name)) return level;
+        }
+        return fallback;
+    }
+
+    static void trace(String text) {
+        if (Level.TRACE.ordinal() >= threshold) enqueue(Level.TRACE, text);
+    }
+
+    static void trace(String text, Object value) {
+        if (Level.TRACE.ordinal() >= threshold) enqueue(Level.TRACE, text + value);
+    }
+
+    static void debug(String text) {
+        if (Level.DEBUG.ordinal() >= threshold) enqueue(Level.DEBUG, text);
+    }
+
+    static void debug(String text, Object value) {
+        if (Level.DEBUG.ordinal() >= threshold) enqueue(Level.DEBUG, text + value);
+    }
+
+    static void info(String text) {
+        if (Level.INFO.ordinal() >= threshold) enqueue(Level.INFO, text);
+    }
+
+    static void info(String text, Object value) {
+        if (Level.INFO.ordinal() >= threshold) enqueue(Level.INFO, text + value);
+    }
+
+    static void warn(String text) {
+        if (Level.WARN.ordinal() >= threshold) enqueue(Level.WARN, text);
+    }
+
+    static void warn(String text, Object value) {
+        if (Level.WARN.ordinal() >= threshold) enqueue(Level.WARN, text + value);
+    }
+
+    static void error(String text) {
+        if (Level.ERROR.ordinal() >= threshold) enqueue(Level.ERROR, text);
+    }
+
+    static void error(String text, Throwable error) {
+        if (Level.ERROR.ordinal() >= threshold) {
+            StringWriter trace = new StringWriter();
+            error.printStackTrace(new PrintWriter(trace));
+            enqueue(Level.ERROR, text + System.lineSeparator() + trace.toString().stripTrailing());
+        }
+    }
+
+    static long dropped() {
+        return dropped.sum();
+    }
+
+    private static void enqueue(Level level, String text) {
+        long position = tail.get();
+        while (true) {
+            int slot = (int) position & MASK;
+            long available = sequence.get(slot);
+            if (available == position) {
+                if (tail.compareAndSet(position, position + 1)) break;
+                position = tail.get();
+            } else if (available < position) {
+                //Il thread di scrittura non ha ancora liberato la cella: buffer pieno
+                dropped.increment();
+                return;
+            } else {
+                position = tail.get();
+            }
+        }
+        int slot = (int) position & MASK;
+        texts[slot] = text;
+        threads[slot] = Thread.currentThread().getName();
+        times[slot] = System.currentTimeMillis();
+        levels[slot] = (byte) level.ordinal();
+        //Pubblica la cella: la scrittura del numero di sequenza rende visibili i campi sopra
+        sequence.set(slot, position + 1);
+    }
+
+    private static void drainForever() {
+        while (writer != null) {
+            if (!drain()) LockSupport.parkNanos(1_000_000);
+        }
+    }
+
+    /*Stampa tutte le righe pronte con una sola scrittura per stream; false se non c'era nulla*/
+    private static synchronized boolean drain() {
+        StringBuilder out = new StringBuilder();
+        StringBuilder err = new StringBuilder();
+        long lost = dropped.sum() - reportedDrops;
+        if (lost > 0) {
+            reportedDrops += lost;
+            err.append(LocalTime.now().format(TIME)).append(" WARN  [log-writer] ")
+                .append(lost).append(" righe di log perse (buffer pieno)").append(System.lineSeparator());
+        }
+        while (true) {
+            int slot = (int) head & MASK;
+            if (sequence.get(slot) != head + 1) break;
+            Level level = LEVELS[levels[slot]];
+            StringBuilder target = level.ordinal() >= Level.WARN.ordinal() ? err : out;
+            target.append(LocalTime.ofInstant(Instant.ofEpochMilli(times[slot]), ZoneId.systemDefault()).format(TIME))
+                .append(' ').append(String.format("%-5s", level.name()))
+                .append(" [").append(threads[slot]).append("] ")
+                .append(texts[slot]).append(System.lineSeparator());
+            texts[slot] = null;
+            threads[slot] = null;
+            sequence.set(slot, head + CAPACITY);
+            head++;
+        }
+        if (out.length() > 0) {
+            System.out.print(out);
+            System.out.flush();
+        }
+        if (err.length() > 0) {
+            System.err.print(err);
+            System.err.flush();
+        }
+        return out.length() > 0 || err.length() > 0;
+    }
+}
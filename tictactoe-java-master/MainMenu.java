@@ -1,7 +1,10 @@
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
+import javax.swing.event.*;
 import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 public class MainMenu {
     private JFrame frame;
@@ -9,6 +12,15 @@ public class MainMenu {
     private String myNickname;
     private String pendingOpponent;
     private String pendingSymbol;
+    private String pendingBoard;
+    private DefaultListModel<String> listModel;
+
+    //La lobby si carica a pagine ordinate per nickname mentre si scorre la lista
+    private static final int PAGE_SIZE = 50;
+    private static final String[] BOARDS = {MnkBoard.CLASSIC, "4x4x4", "7x7x4", "15x15x5"};
+    private boolean allLoaded;
+    private boolean loadingPage;
+    private String searchPrefix = "";
 
     public MainMenu() {
         frame = new JFrame("Tic-Tac-Toe Online - Menu");
@@ -16,9 +28,12 @@ public class MainMenu {
         frame.setLocationRelativeTo(null);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setLayout(new BorderLayout());
+    }
 
+    /*Mostra il menu partendo dalla schermata del nickname. Fuori dal costruttore perché i
+      listener dei pulsanti ricevono this*/
+    public void show() {
         showNicknameScreen();
-        
         frame.setVisible(true);
     }
 
@@ -61,14 +76,14 @@ public class MainMenu {
 
             try {
                 //Connessione al server
-                client = new GameClient("localhost", 12345);
+                client = GameClient.connect("localhost", GameServer.PORT);
                 client.setMenuUI(this);
                 myNickname = nickname;
                 client.sendNickname(nickname);
                 
             } catch (IOException ex) {
                 errorLabel.setText("Impossibile connettersi al server!");
-                ex.printStackTrace();
+                Log.error("Connessione al server fallita", ex);
             }
         });
 
@@ -100,31 +115,80 @@ public class MainMenu {
         titleLabel.setForeground(Color.white);
         titleLabel.setHorizontalAlignment(JLabel.CENTER);
 
-        DefaultListModel<String> listModel = new DefaultListModel<>();
+        JTextField searchField = new JTextField();
+        searchField.setFont(new Font("Arial", Font.PLAIN, 16));
+        searchField.setToolTipText("Cerca per nickname");
+
+        JPanel topPanel = new JPanel(new BorderLayout(0, 10));
+        topPanel.setBackground(Color.darkGray);
+        topPanel.setBorder(BorderFactory.createEmptyBorder(0, 0, 10, 0));
+        topPanel.add(titleLabel, BorderLayout.NORTH);
+        topPanel.add(searchField, BorderLayout.SOUTH);
+
+        listModel = new DefaultListModel<>();
         JList<String> playerList = new JList<>(listModel);
         playerList.setFont(new Font("Arial", Font.PLAIN, 16));
         playerList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         JScrollPane scrollPane = new JScrollPane(playerList);
 
+        //Quando si arriva in fondo alla lista si chiede la pagina successiva
+        scrollPane.getVerticalScrollBar().addAdjustmentListener(e -> {
+            JScrollBar bar = (JScrollBar) e.getSource();
+            if (bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - 50) {
+                loadNextPage();
+            }
+        });
+
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) { searchChanged(); }
+            public void removeUpdate(DocumentEvent e) { searchChanged(); }
+            public void changedUpdate(DocumentEvent e) { searchChanged(); }
+
+            private void searchChanged() {
+                searchPrefix = searchField.getText().trim();
+                reloadPlayers();
+            }
+        });
+
         JButton challengeButton = new JButton("Sfida");
         challengeButton.setFont(new Font("Arial", Font.BOLD, 16));
+
+        //Tabellone proposto nella sfida: righe x colonne x simboli da allineare
+        JComboBox<String> boardBox = new JComboBox<>(BOARDS);
+        boardBox.setFont(new Font("Arial", Font.PLAIN, 14));
         
         JButton refreshButton = new JButton("Aggiorna");
         refreshButton.setFont(new Font("Arial", Font.PLAIN, 14));
 
+        JButton queueButton = new JButton("Partita rapida");
+        queueButton.setFont(new Font("Arial", Font.PLAIN, 14));
+
         JPanel buttonPanel = new JPanel();
         buttonPanel.setBackground(Color.darkGray);
         buttonPanel.add(refreshButton);
+        buttonPanel.add(boardBox);
         buttonPanel.add(challengeButton);
+        buttonPanel.add(queueButton);
+
+        //Il server abbina automaticamente i giocatori in coda e invia GAME-START
+        queueButton.addActionListener(e -> {
+            if (queueButton.getText().equals("Partita rapida")) {
+                client.joinQueue();
+                queueButton.setText("Annulla ricerca");
+            } else {
+                client.leaveQueue();
+                queueButton.setText("Partita rapida");
+            }
+        });
 
         refreshButton.addActionListener(e -> {
-            client.requestPlayerList();
+            reloadPlayers();
         });
 
         challengeButton.addActionListener(e -> {
             String selected = playerList.getSelectedValue();
             if (selected != null && !selected.isEmpty()) {
-                client.sendChallenge(selected);
+                client.sendChallenge(selected, (String) boardBox.getSelectedItem());
                 JOptionPane.showMessageDialog(frame, 
                     "Richiesta di sfida inviata a " + selected,
                     "Sfida", 
@@ -132,7 +196,7 @@ public class MainMenu {
             }
         });
 
-        panel.add(titleLabel, BorderLayout.NORTH);
+        panel.add(topPanel, BorderLayout.NORTH);
         panel.add(scrollPane, BorderLayout.CENTER);
         panel.add(buttonPanel, BorderLayout.SOUTH);
 
@@ -141,8 +205,42 @@ public class MainMenu {
         frame.revalidate();
         frame.repaint();
 
-        //Richiedi la lista dei giocatori
-        client.requestPlayerList();
+        //Iscrizione alla lobby (solo variazioni) e prima pagina della lista
+        client.subscribePlayers();
+        reloadPlayers();
+    }
+
+    /*Svuota la lista e chiede la prima pagina, oppure i risultati della ricerca*/
+    private void reloadPlayers() {
+        listModel.clear();
+        allLoaded = false;
+        if (searchPrefix.isEmpty()) {
+            loadingPage = true;
+            client.requestPlayerPage("", PAGE_SIZE);
+        } else {
+            client.searchPlayers(searchPrefix, PAGE_SIZE);
+        }
+    }
+
+    /*Chiede la pagina che segue l'ultimo nickname caricato*/
+    private void loadNextPage() {
+        if (!searchPrefix.isEmpty() || allLoaded || loadingPage || listModel.isEmpty()) return;
+        loadingPage = true;
+        client.requestPlayerPage(listModel.lastElement(), PAGE_SIZE);
+    }
+
+    /*Inserisce il nickname mantenendo l'ordine alfabetico del server*/
+    private void insertSorted(String player) {
+        int low = 0;
+        int high = listModel.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = listModel.get(mid).compareTo(player);
+            if (cmp == 0) return;
+            if (cmp < 0) low = mid + 1;
+            else high = mid - 1;
+        }
+        listModel.add(low, player);
     }
 
     /*Gestisce il successo del nickname*/
@@ -162,40 +260,79 @@ public class MainMenu {
         });
     }
 
-    /*Gestisce la lista dei giocatori*/
+    /*Gestisce la lista completa dei giocatori, aggiornando solo le voci cambiate*/
     public void handlePlayerList(String players) {
         SwingUtilities.invokeLater(() -> {
-            try {
-                Component[] components = ((JPanel) frame.getContentPane().getComponent(0)).getComponents();
-                for (Component comp : components) {
-                    if (comp instanceof JScrollPane) {
-                        JScrollPane scroll = (JScrollPane) comp;
-                        JList<String> list = (JList<String>) scroll.getViewport().getView();
-                        DefaultListModel<String> model = (DefaultListModel<String>) list.getModel();
-                        model.clear();
-                        
-                        if (!players.isEmpty()) {
-                            String[] playerArray = players.split(",");
-                            for (String player : playerArray) {
-                                if (!player.trim().isEmpty()) {
-                                    model.addElement(player.trim());
-                                }
-                            }
-                        }
-                        break;
-                    }
+            if (listModel == null) return;
+
+            Set<String> available = new LinkedHashSet<>();
+            for (String player : players.split(",")) {
+                if (!player.trim().isEmpty()) {
+                    available.add(player.trim());
+                }
+            }
+            for (int i = listModel.size() - 1; i >= 0; i--) {
+                if (!available.remove(listModel.get(i))) {
+                    listModel.remove(i);
                 }
-            } catch (Exception e) {
-                System.err.println("Errore aggiornamento lista: " + e.getMessage());
+            }
+            for (String player : available) {
+                insertSorted(player);
+            }
+        });
+    }
+
+    /*Gestisce una pagina della lobby, da aggiungere in fondo alla lista*/
+    public void handlePlayerPage(String players, boolean more) {
+        SwingUtilities.invokeLater(() -> {
+            loadingPage = false;
+            if (listModel == null || !searchPrefix.isEmpty()) return;
+            for (String player : players.split(",")) {
+                if (!player.isEmpty()) insertSorted(player);
+            }
+            allLoaded = !more;
+        });
+    }
+
+    /*Gestisce i risultati di una ricerca per prefisso*/
+    public void handleSearchResult(String players, boolean more) {
+        SwingUtilities.invokeLater(() -> {
+            if (listModel == null || searchPrefix.isEmpty()) return;
+            listModel.clear();
+            for (String player : players.split(",")) {
+                //Scarta i risultati arrivati per un prefisso ormai cambiato
+                if (!player.isEmpty() && player.startsWith(searchPrefix)) insertSorted(player);
+            }
+        });
+    }
+
+    /*Un giocatore è entrato nella lobby o ha finito una partita*/
+    public void handlePlayerAvailable(String player) {
+        SwingUtilities.invokeLater(() -> {
+            if (listModel == null) return;
+            if (!searchPrefix.isEmpty()) {
+                if (player.startsWith(searchPrefix)) insertSorted(player);
+            } else if (allLoaded || (!listModel.isEmpty() && player.compareTo(listModel.lastElement()) < 0)) {
+                //Oltre l'ultima pagina caricata arriverà con la pagina successiva
+                insertSorted(player);
+            }
+        });
+    }
+
+    /*Un giocatore è uscito dalla lobby o ha iniziato una partita*/
+    public void handlePlayerUnavailable(String player) {
+        SwingUtilities.invokeLater(() -> {
+            if (listModel != null) {
+                listModel.removeElement(player);
             }
         });
     }
 
     /*Gestisce la richiesta di sfida ricevuta*/
-    public void handleChallengeRequest(String challenger) {
+    public void handleChallengeRequest(String challenger, String board) {
         SwingUtilities.invokeLater(() -> {
             int result = JOptionPane.showConfirmDialog(frame,
-                "Richiesta di challenge da " + challenger + ". Accetti?",
+                "Richiesta di challenge da " + challenger + " (" + board + "). Accetti?",
                 "Richiesta di Sfida",
                 JOptionPane.YES_NO_OPTION);
             
@@ -218,17 +355,20 @@ public class MainMenu {
     }
 
     /*Gestisce l'inizio della partita*/
-    public void handleGameStart(String opponent, String symbol) {
+    public void handleGameStart(String opponent, String symbol, String board) {
         //Salva i dati temporaneamente
         this.pendingOpponent = opponent;
         this.pendingSymbol = symbol;
+        this.pendingBoard = board;
         
         SwingUtilities.invokeLater(() -> {
-            //Crea prima la finestra di gioco
-            TicTacToeOnline game = new TicTacToeOnline(client);
+            //Crea prima la finestra di gioco, con il tabellone negoziato
+            MnkBoard game = MnkBoard.parsePlayable(pendingBoard);
+            if (game == null) game = new MnkBoard(3, 3, 3);
+            TicTacToeOnline gameWindow = new TicTacToeOnline(client, game);
             
             //Poi chiama handleGameStart con i dati salvati
-            game.handleGameStart(pendingOpponent, pendingSymbol);
+            gameWindow.handleGameStart(pendingOpponent, pendingSymbol);
             
             //Infine chiudi il menu
             frame.dispose();
@@ -237,7 +377,7 @@ public class MainMenu {
 
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
-            new MainMenu();
+            new MainMenu().show();
         });
     }
 }
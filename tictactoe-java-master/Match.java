@@ -0,0 +1,115 @@
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*Partita in corso vista dal server: tabellone e caselle giocate in ordine, aggiornati a ogni
+  mossa inoltrata, così chi riprende la sessione dopo una disconnessione (RESUME) riceve lo stato
+  in un solo messaggio invece di una nuova sfida.
+  Il lock ordina l'inoltro delle mosse rispetto all'istantanea: ogni mossa o è già
+  nell'istantanea o arriva dopo, mai tutte e due e mai nessuna. Lo prendono solo i due giocatori
+  della partita, ed è un ReentrantLock perché i virtual thread non restino agganciati al carrier.
+  Lo stesso lock ordina le mosse rispetto all'arrivo degli spettatori (Spectators)*/
+final class Match {
+    final int id;
+    final MnkBoard board;
+    //Nickname dei due giocatori, per l'istantanea anche quando l'avversario è già uscito
+    final String x;
+    final String o;
+    private final ReentrantLock lock = new ReentrantLock();
+    //Caselle (riga * colonne + colonna) nell'ordine in cui sono state giocate
+    private int[] moves = new int[16];
+    //Giocatore di turno (BitBoard.EMPTY a partita finita) e da quando, letti senza lock
+    //dal timeout della mossa di GameServer
+    private volatile int toMove = BitBoard.X;
+    private volatile long turnSince = System.currentTimeMillis();
+    //Creati al primo WATCH, null per le partite che nessuno guarda
+    private Spectators spectators;
+    private boolean ended;
+
+    Match(int id, MnkBoard board, String x, String o) {
+        this.id = id;
+        this.board = board;
+        this.x = x;
+        this.o = o;
+    }
+
+    String opponentOf(int side) {
+        return side == BitBoard.X ? o : x;
+    }
+
+    void lock() {
+        lock.lock();
+    }
+
+    void unlock() {
+        lock.unlock();
+    }
+
+    /*Registra la mossa se è del giocatore di turno e valida; le altre non cambiano lo stato e il
+      server non le inoltra. Solo con il lock*/
+    boolean play(int player, int row, int col) {
+        if (player != board.currentPlayer() || !board.play(row, col)) return false;
+        int count = board.moveCount();
+        if (count > moves.length) moves = Arrays.copyOf(moves, moves.length * 2);
+        moves[count - 1] = row * board.cols() + col;
+        toMove = board.isOver() ? BitBoard.EMPTY : board.currentPlayer();
+        turnSince = System.currentTimeMillis();
+        if (spectators != null) spectators.move(player, row, col);
+        return true;
+    }
+
+    /*Aggiunge uno spettatore, che riceve subito l'istantanea (WATCHING) e poi le mosse.
+      false se la partita è già finita*/
+    boolean watch(GameServer.ClientHandler watcher) {
+        lock.lock();
+        try {
+            if (ended) return false;
+            if (spectators == null) spectators = new Spectators(this);
+            spectators.join(watcher, snapshot());
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void unwatch(GameServer.ClientHandler watcher) {
+        lock.lock();
+        try {
+            if (spectators != null) spectators.leave(watcher);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*La partita è finita o interrotta: gli spettatori ricevono WATCH-END e nessuno può più aggiungersi*/
+    void end() {
+        lock.lock();
+        try {
+            if (ended) return;
+            ended = true;
+            if (spectators != null) spectators.end();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int toMove() {
+        return toMove;
+    }
+
+    long turnSince() {
+        return turnSince;
+    }
+
+    /*<tabellone>=<id>=<turno: X, O oppure - a partita finita>=<caselle giocate, separate da virgole>.
+      X gioca sempre per primo, quindi il simbolo di ogni casella si ricava dalla posizione.
+      Solo con il lock*/
+    String snapshot() {
+        StringBuilder sb = new StringBuilder(board.spec()).append('=').append(id).append('=')
+            .append(board.isOver() ? "-" : BitBoard.symbol(board.currentPlayer())).append('=');
+        for (int i = 0; i < board.moveCount(); i++) {
+            if (i > 0) sb.append(',');
+            sb.append(moves[i]);
+        }
+        return sb.toString();
+    }
+}
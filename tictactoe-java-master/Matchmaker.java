@@ -0,0 +1,167 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/*Coda di matchmaking: QUEUE aggiunge il giocatore senza lock, un thread dedicato
+  li abbina a blocchi a ogni tick. I giocatori sono divisi per fascia di rating; chi aspetta
+  da più di WIDEN_AFTER_MS può essere abbinato con la fascia vicina*/
+class Matchmaker {
+    static final long TICK_MS = Long.getLong("matchmaking.tick.ms", 100);
+    static final long WIDEN_AFTER_MS = Long.getLong("matchmaking.widen.ms", 5000);
+    static final int BUCKET_WIDTH = 200;
+    //Il rating arriva dal client: fuori da [0, MAX_RATING] finisce nella fascia estrema
+    static final int MAX_RATING = 4000;
+    static final int BUCKETS = MAX_RATING / BUCKET_WIDTH + 1;
+
+    /*Un giocatore in coda*/
+    static class Ticket {
+        final GameServer.ClientHandler handler;
+        final int bucket;
+        final long enqueuedAt;
+        volatile boolean cancelled;
+
+        Ticket(GameServer.ClientHandler handler, int bucket) {
+            this.handler = handler;
+            this.bucket = bucket;
+            this.enqueuedAt = System.nanoTime();
+        }
+    }
+
+    private final PlayerRegistry players;
+    //Fasce fisse, indicizzate da rating / BUCKET_WIDTH: un client non può farne creare altre
+    private final List<ConcurrentLinkedQueue<Ticket>> buckets = new ArrayList<>(BUCKETS);
+    //Biglietto attivo per ogni giocatore, per ignorare i QUEUE ripetuti e gestire LEAVE-QUEUE
+    private final ConcurrentHashMap<GameServer.ClientHandler, Ticket> tickets = new ConcurrentHashMap<>();
+    //Chi è rimasto spaiato al tick precedente ha la precedenza al successivo
+    private final List<ArrayDeque<Ticket>> leftovers = new ArrayList<>(BUCKETS);
+    private final LatencyHistogram timeToMatch = new LatencyHistogram();
+    private final LongAdder matches = new LongAdder();
+
+    Matchmaker(PlayerRegistry players) {
+        this.players = players;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.add(new ConcurrentLinkedQueue<>());
+            leftovers.add(new ArrayDeque<>());
+        }
+    }
+
+    /*Avvia il thread che esegue i tick*/
+    void start() {
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "matchmaker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleWithFixedDelay(this::tickSafely, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /*Mette in coda il giocatore, restituisce false se era già in coda*/
+    boolean enqueue(GameServer.ClientHandler handler, int rating) {
+        Ticket ticket = new Ticket(handler, Math.clamp(rating, 0, MAX_RATING) / BUCKET_WIDTH);
+        if (tickets.putIfAbsent(handler, ticket) != null) return false;
+        buckets.get(ticket.bucket).add(ticket);
+        return true;
+    }
+
+    void cancel(GameServer.ClientHandler handler) {
+        Ticket ticket = tickets.remove(handler);
+        if (ticket != null) ticket.cancelled = true;
+    }
+
+    boolean isQueued(GameServer.ClientHandler handler) {
+        return tickets.containsKey(handler);
+    }
+
+    int queued() {
+        return tickets.size();
+    }
+
+    long matches() {
+        return matches.sum();
+    }
+
+    LatencyHistogram timeToMatch() {
+        return timeToMatch;
+    }
+
+    private void tickSafely() {
+        OutboundBuffer.beginCycle();
+        try {
+            tick();
+        } catch (RuntimeException e) {
+            Log.error("Errore nel matchmaking", e);
+        } finally {
+            OutboundBuffer.endCycle();
+        }
+    }
+
+    /*Un giro di abbinamenti: prima dentro ogni fascia, poi tra fasce vicine per chi aspetta da troppo*/
+    void tick() {
+        long now = System.nanoTime();
+        long widenAfter = TimeUnit.MILLISECONDS.toNanos(WIDEN_AFTER_MS);
+        //Per ogni fascia, il giocatore spaiato che aspetta da troppo (o null)
+        Ticket[] waitingTooLong = new Ticket[BUCKETS];
+
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            ArrayDeque<Ticket> waiting = leftovers.get(bucket);
+            Ticket ticket;
+            while ((ticket = buckets.get(bucket).poll()) != null) {
+                waiting.add(ticket);
+            }
+            if (waiting.isEmpty()) continue;
+
+            Ticket single = null;
+            List<Ticket> deferred = new ArrayList<>();
+            while (!waiting.isEmpty()) {
+                Ticket next = waiting.poll();
+                if (!isValid(next)) continue;
+                if (single == null) {
+                    single = next;
+                } else if (tryMatch(single, next, now)) {
+                    single = null;
+                } else if (!isValid(single)) {
+                    single = next;
+                } else if (isValid(next)) {
+                    deferred.add(next);
+                }
+            }
+            waiting.addAll(deferred);
+            if (single != null) {
+                waiting.addFirst(single);
+                if (now - single.enqueuedAt > widenAfter) waitingTooLong[bucket] = single;
+            }
+        }
+
+        //Ogni fascia ha al massimo un giocatore spaiato: si abbinano quelli di fasce adiacenti
+        for (int bucket = 1; bucket < BUCKETS; bucket++) {
+            Ticket previous = waitingTooLong[bucket - 1];
+            Ticket current = waitingTooLong[bucket];
+            if (previous != null && current != null && tryMatch(previous, current, now)) {
+                leftovers.get(bucket - 1).remove(previous);
+                leftovers.get(bucket).remove(current);
+                waitingTooLong[bucket] = null;
+            }
+        }
+    }
+
+    /*Un biglietto è valido se il giocatore è ancora connesso, libero e non ha lasciato la coda*/
+    private boolean isValid(Ticket ticket) {
+        if (ticket.cancelled || !players.isRegistered(ticket.handler) || ticket.handler.isInGame()) {
+            tickets.remove(ticket.handler, ticket);
+            return false;
+        }
+        return true;
+    }
+
+    /*Chi aspetta da più tempo gioca con la X*/
+    private boolean tryMatch(Ticket first, Ticket second, long now) {
+        if (!players.pair(first.handler, second.handler)) return false;
+        tickets.remove(first.handler, first);
+        tickets.remove(second.handler, second);
+        timeToMatch.record(now - first.enqueuedAt);
+        timeToMatch.record(now - second.enqueuedAt);
+        matches.increment();
+        GameServer.startGame(first.handler, second.handler);
+        return true;
+    }
+}
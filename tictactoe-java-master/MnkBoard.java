@@ -0,0 +1,209 @@
+/*Motore di gioco m,n,k: tabellone di rows x cols caselle, vince chi allinea k simboli
+  (3x3x3 è il tris, 15x15x5 il gomoku). Dopo ogni mossa si contano i simboli uguali solo a
+  partire dall'ultima casella, nelle 4 direzioni: il controllo costa O(k) e non O(rows * cols).
+  Usa gli stessi valori di BitBoard per EMPTY, X e O*/
+public class MnkBoard {
+    //Le coordinate dei frame binari (BinaryProtocol) occupano un byte: è il limite del formato,
+    //non quello dei tabelloni che si possono giocare
+    public static final int MAX_SIZE = 255;
+    //Lato massimo dei tabelloni richiesti in rete e mostrati dall'interfaccia: oltre non si
+    //gioca davvero, e ogni partita costa rows * cols byte in memoria e nelle istantanee
+    public static final int MAX_PLAYABLE = Math.min(MAX_SIZE, Integer.getInteger("board.max", 25));
+    public static final String CLASSIC = "3x3x3";
+
+    //Orizzontale, verticale, diagonale, antidiagonale
+    private static final int[] DIRECTION_ROW = {0, 1, 1, 1};
+    private static final int[] DIRECTION_COL = {1, 0, 1, -1};
+
+    private final int rows;
+    private final int cols;
+    private final int k;
+    private final byte[] cells;
+    private int moves;
+    private int winner;
+    //Inizio, direzione e lunghezza della fila vincente
+    private int winRow;
+    private int winCol;
+    private int winDirection;
+    private int winLength;
+
+    public MnkBoard(int rows, int cols, int k) {
+        if (!isValid(rows, cols, k)) {
+            throw new IllegalArgumentException("Tabellone non valido: " + rows + "x" + cols + "x" + k);
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.k = k;
+        this.cells = new byte[rows * cols];
+    }
+
+    static boolean isValid(int rows, int cols, int k) {
+        return rows >= 1 && rows <= MAX_SIZE && cols >= 1 && cols <= MAX_SIZE
+            && k >= 1 && k <= Math.max(rows, cols);
+    }
+
+    /*Tabellone descritto da "<rows>x<cols>x<k>", null se la descrizione non è valida*/
+    public static MnkBoard parse(String spec) {
+        String[] parts = spec.split("x");
+        if (parts.length != 3) return null;
+        try {
+            int rows = Integer.parseInt(parts[0]);
+            int cols = Integer.parseInt(parts[1]);
+            int k = Integer.parseInt(parts[2]);
+            return isValid(rows, cols, k) ? new MnkBoard(rows, cols, k) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /*Come parse, ma solo per tabelloni con i lati entro MAX_PLAYABLE: da usare per quelli
+      che arrivano da un client, da un altro nodo o che l'interfaccia deve disegnare*/
+    public static MnkBoard parsePlayable(String spec) {
+        MnkBoard board = parse(spec);
+        return board != null && board.rows <= MAX_PLAYABLE && board.cols <= MAX_PLAYABLE ? board : null;
+    }
+
+    /*Copia indipendente, ad esempio da passare a una ricerca su un altro thread*/
+    public MnkBoard copy() {
+        MnkBoard copy = new MnkBoard(rows, cols, k);
+        System.arraycopy(cells, 0, copy.cells, 0, cells.length);
+        copy.moves = moves;
+        copy.winner = winner;
+        copy.winRow = winRow;
+        copy.winCol = winCol;
+        copy.winDirection = winDirection;
+        copy.winLength = winLength;
+        return copy;
+    }
+
+    public String spec() {
+        return rows + "x" + cols + "x" + k;
+    }
+
+    /*true per il tris classico, l'unico risolto da PerfectPlay*/
+    public boolean isClassic() {
+        return rows == 3 && cols == 3 && k == 3;
+    }
+
+    /*Riporta il tabellone allo stato iniziale*/
+    public void reset() {
+        java.util.Arrays.fill(cells, (byte) BitBoard.EMPTY);
+        moves = 0;
+        winner = BitBoard.EMPTY;
+        winLength = 0;
+    }
+
+    /*Gioca una mossa del giocatore di turno, restituisce false se non è valida*/
+    public boolean play(int row, int col) {
+        if (!inBounds(row, col) || isOver()) return false;
+        int cell = row * cols + col;
+        if (cells[cell] != BitBoard.EMPTY) return false;
+
+        int player = currentPlayer();
+        cells[cell] = (byte) player;
+        moves++;
+        checkWin(row, col, player);
+        return true;
+    }
+
+    /*Conta i simboli uguali in avanti e indietro lungo ognuna delle 4 direzioni*/
+    private void checkWin(int row, int col, int player) {
+        for (int d = 0; d < 4; d++) {
+            int dr = DIRECTION_ROW[d];
+            int dc = DIRECTION_COL[d];
+            int forward = count(row, col, dr, dc, player);
+            int backward = count(row, col, -dr, -dc, player);
+            if (forward + backward + 1 >= k) {
+                winner = player;
+                winRow = row - backward * dr;
+                winCol = col - backward * dc;
+                winDirection = d;
+                winLength = forward + backward + 1;
+                return;
+            }
+        }
+    }
+
+    /*true se la casella (row, col), vuota, farebbe vincere player: lo stesso conteggio di checkWin
+      senza giocare la mossa, quindi senza doverla annullare*/
+    public boolean wins(int row, int col, int player) {
+        for (int d = 0; d < 4; d++) {
+            int dr = DIRECTION_ROW[d];
+            int dc = DIRECTION_COL[d];
+            if (count(row, col, dr, dc, player) + count(row, col, -dr, -dc, player) + 1 >= k) return true;
+        }
+        return false;
+    }
+
+    //Si ferma a k - 1: oltre non cambia l'esito
+    private int count(int row, int col, int dr, int dc, int player) {
+        int n = 0;
+        int r = row + dr;
+        int c = col + dc;
+        while (n < k - 1 && inBounds(r, c) && cells[r * cols + c] == player) {
+            n++;
+            r += dr;
+            c += dc;
+        }
+        return n;
+    }
+
+    public boolean inBounds(int row, int col) {
+        return row >= 0 && row < rows && col >= 0 && col < cols;
+    }
+
+    public int get(int row, int col) {
+        return cells[row * cols + col];
+    }
+
+    public int currentPlayer() {
+        return (moves & 1) == 0 ? BitBoard.X : BitBoard.O;
+    }
+
+    public int winner() {
+        return winner;
+    }
+
+    /*Caselle (row * cols + col) della fila vincente, vuoto se nessuno ha vinto*/
+    public int[] winningCells() {
+        int[] line = new int[winLength];
+        for (int i = 0; i < winLength; i++) {
+            line[i] = (winRow + i * DIRECTION_ROW[winDirection]) * cols
+                + winCol + i * DIRECTION_COL[winDirection];
+        }
+        return line;
+    }
+
+    public boolean isDraw() {
+        return winner == BitBoard.EMPTY && moves == cells.length;
+    }
+
+    public boolean isOver() {
+        return winner != BitBoard.EMPTY || moves == cells.length;
+    }
+
+    public int moveCount() {
+        return moves;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    public int k() {
+        return k;
+    }
+
+    /*Maschera delle caselle del giocatore come in BitBoard, solo per tabelloni fino a 31 caselle*/
+    public int mask(int player) {
+        int mask = 0;
+        for (int cell = 0; cell < cells.length; cell++) {
+            if (cells[cell] == player) mask |= 1 << cell;
+        }
+        return mask;
+    }
+}
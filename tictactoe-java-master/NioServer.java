@@ -0,0 +1,395 @@
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/*Server non bloccante: pochi thread di I/O, ognuno con il proprio Selector,
+  servono tutte le connessioni usando lo stesso protocollo di GameServer (righe di testo
+  oppure frame di BinaryProtocol dopo la negoziazione)*/
+public class NioServer {
+    private static final int MAX_LINE = BinaryProtocol.MAX_FRAME;
+
+    private final int port;
+    private final EventLoop[] loops;
+    private int nextLoop = 0;
+
+    public NioServer(int port, int loopCount) throws IOException {
+        this.port = port;
+        this.loops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new EventLoop(i);
+        }
+    }
+
+    /*Avvia i thread di I/O e accetta le connessioni distribuendole a rotazione*/
+    public void start() throws IOException {
+        for (EventLoop loop : loops) {
+            Thread thread = new Thread(loop, "nio-loop-" + loop.id);
+            thread.start();
+        }
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                ServerMetrics.connectionOpened();
+                Log.info("Nuova connessione da: ", channel.socket().getInetAddress());
+                EventLoop loop = loops[nextLoop];
+                nextLoop = (nextLoop + 1) % loops.length;
+                loop.register(channel);
+            }
+        }
+    }
+
+    /*Thread di I/O che gestisce un sottoinsieme delle connessioni*/
+    static class EventLoop implements Runnable {
+        private final int id;
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile Thread thread;
+
+        EventLoop(int id) throws IOException {
+            this.id = id;
+            this.selector = Selector.open();
+        }
+
+        /*Esegue un'operazione sul thread del loop*/
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    NioConnection connection = new NioConnection(this, channel);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    connection.handler.startHeartbeat();
+                } catch (IOException e) {
+                    Log.warn("Registrazione fallita: ", e.getMessage());
+                    closeQuietly(channel);
+                }
+            });
+        }
+
+        boolean inLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        /*Un'eccezione inattesa in un gestore chiude solo la sua connessione (o perde solo
+          l'operazione in coda): il loop continua a servire tutte le altre*/
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            while (true) {
+                try {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        try {
+                            task.run();
+                        } catch (RuntimeException e) {
+                            Log.error("Errore in un'operazione del loop " + id, e);
+                        }
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioConnection connection = (NioConnection) key.attachment();
+                        if (!key.isValid()) continue;
+                        try {
+                            if (key.isReadable()) connection.onReadable();
+                            if (key.isValid() && key.isWritable()) connection.onWritable();
+                        } catch (RuntimeException e) {
+                            connection.fail(e);
+                        }
+                    }
+                } catch (IOException e) {
+                    Log.error("Errore nel loop " + id + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /*Singola connessione gestita da un EventLoop. La coda di uscita ha lo stesso limite e la
+      stessa politica per i client lenti delle connessioni bloccanti (OutboundBuffer)*/
+    static class NioConnection implements Connection {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final GameServer.ClientHandler handler;
+        //Byte ricevuti e non ancora consumati: righe di testo o frame binari
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(MAX_LINE + BinaryProtocol.HEADER);
+        private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+        //Messaggi in coda raccolti per una sola write vettoriale
+        private final ByteBuffer[] batch = new ByteBuffer[64];
+        private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+        //Byte in writeQueue, non ancora scritti sul socket
+        private final AtomicInteger queued = new AtomicInteger();
+        //Variazioni della lobby trattenute con la coda piena (COALESCE), per chiave. Le variazioni
+        //per un iscritto arrivano una alla volta (lock dell'iscritto in PlayerRegistry)
+        private final ConcurrentHashMap<String, byte[]> held = new ConcurrentHashMap<>();
+        private SelectionKey key;
+        //Scritto solo dal thread del loop, letto anche da chi invia da altri thread
+        private volatile boolean closed;
+
+        NioConnection(EventLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+            this.handler = new GameServer.ClientHandler(this);
+        }
+
+        /*Legge i byte disponibili e passa al gestore ogni riga o frame completo*/
+        void onReadable() {
+            int read;
+            try {
+                read = channel.read(readBuffer);
+            } catch (IOException e) {
+                read = -1;
+            }
+            if (read < 0) {
+                Log.info("Connessione persa: ", handler.getNickname());
+                close();
+                return;
+            }
+            ServerMetrics.bytesIn(read);
+
+            readBuffer.flip();
+            process();
+        }
+
+        /*Passa al gestore i messaggi completi nel buffer. Se il gestore sospende la lettura (SET-NICKNAME
+          in attesa del cluster) si ferma e toglie OP_READ: il resto lo riprende resumeReading*/
+        private void process() {
+            //Il gestore può passare al protocollo binario a metà buffer, quindi si ricontrolla a ogni messaggio
+            boolean consumed = true;
+            while (consumed && !closed && !handler.isParked()) {
+                consumed = handler.isBinary() ? readFrame() : readLine();
+            }
+            if (closed) return;
+            if (handler.isParked()) {
+                key.interestOps(key.interestOps() & SelectionKey.OP_WRITE);
+                readBuffer.compact();
+                return;
+            }
+            if (readBuffer.position() == 0 && readBuffer.limit() == readBuffer.capacity()) {
+                Log.warn("Messaggio troppo lungo, chiusura: ", handler.getNickname());
+                close();
+                return;
+            }
+            readBuffer.compact();
+        }
+
+        /*Consuma una riga completa, restituisce false se manca ancora il terminatore*/
+        private boolean readLine() {
+            byte[] bytes = readBuffer.array();
+            int start = readBuffer.position();
+            int limit = readBuffer.limit();
+            for (int i = start; i < limit; i++) {
+                if (bytes[i] == '\n') {
+                    int end = i > start && bytes[i - 1] == '\r' ? i - 1 : i;
+                    readBuffer.position(i + 1);
+                    handler.handleLine(bytes, start, end - start);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /*Consuma un frame binario completo, restituisce false se non è ancora arrivato tutto*/
+        private boolean readFrame() {
+            if (readBuffer.remaining() < BinaryProtocol.HEADER) return false;
+            int start = readBuffer.position();
+            int length = readBuffer.getShort(start) & 0xFFFF;
+            if (length < 1 || length > MAX_LINE) {
+                Log.warn("Frame non valido, chiusura: ", handler.getNickname());
+                close();
+                return false;
+            }
+            if (readBuffer.remaining() < BinaryProtocol.HEADER + length) return false;
+
+            byte[] bytes = readBuffer.array();
+            int opcode = bytes[start + BinaryProtocol.HEADER] & 0xFF;
+            readBuffer.position(start + BinaryProtocol.HEADER + length);
+            handler.handleFrame(opcode, bytes, start + BinaryProtocol.HEADER + 1, length - 1);
+            return true;
+        }
+
+        /*Scrive quanto possibile della coda senza bloccare, più messaggi per ogni write*/
+        void onWritable() {
+            try {
+                if (!held.isEmpty()) release();
+                while (!writeQueue.isEmpty()) {
+                    int count = 0;
+                    for (ByteBuffer buffer : writeQueue) {
+                        if (count == batch.length) break;
+                        batch[count++] = buffer;
+                    }
+                    ServerMetrics.bytesOut(channel.write(batch, 0, count));
+
+                    int written = 0;
+                    int bytes = 0;
+                    while (written < count && !batch[written].hasRemaining()) {
+                        writeQueue.poll();
+                        bytes += batch[written].limit();
+                        batch[written++] = null;
+                    }
+                    if (written > 0) {
+                        OutboundBuffer.record(written);
+                        ServerMetrics.outboundQueued(-bytes, 0);
+                        queued.addAndGet(-bytes);
+                    }
+                    if (written < count) {
+                        Arrays.fill(batch, written, count, null);
+                        return;
+                    }
+                    if (!held.isEmpty()) release();
+                }
+                key.interestOps(readInterest());
+                writeScheduled.set(false);
+                //Un'altra send (o una variazione trattenuta) potrebbe essere arrivata dopo lo svuotamento
+                if (!writeQueue.isEmpty() || !held.isEmpty()) scheduleWrite();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        @Override
+        public void send(String message) {
+            sendBytes((message + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void sendLine(byte[] bytes, int offset, int length) {
+            byte[] line = Arrays.copyOfRange(bytes, offset, offset + length + 1);
+            line[length] = '\n';
+            sendBytes(line);
+        }
+
+        @Override
+        public void sendBytes(byte[] bytes) {
+            if (closed) return;
+            int depth = queued.addAndGet(bytes.length);
+            if (depth > OutboundBuffer.MAX_BYTES && depth > bytes.length) {
+                queued.addAndGet(-bytes.length);
+                if (!OutboundBuffer.dropOnOverflow()) close();
+                return;
+            }
+            ServerMetrics.outboundQueued(bytes.length, depth);
+            writeQueue.add(ByteBuffer.wrap(bytes));
+            scheduleWrite();
+        }
+
+        @Override
+        public void sendUpdate(String key, byte[] bytes) {
+            if (closed) return;
+            if (OutboundBuffer.POLICY == OutboundBuffer.Policy.COALESCE) {
+                //Se la chiave è già in attesa la variazione non può passarle davanti; se release
+                //l'ha appena tolta, replace fallisce e la variazione va in coda dopo di lei
+                if (held.replace(key, bytes) != null) {
+                    ServerMetrics.outboundCoalesced();
+                    return;
+                }
+                if (queued.get() >= OutboundBuffer.MAX_BYTES / 2) {
+                    held.put(key, bytes);
+                    scheduleWrite();
+                    return;
+                }
+            }
+            sendBytes(bytes);
+        }
+
+        /*Rimette in coda le variazioni trattenute quando la coda è scesa sotto la metà.
+          La chiave si toglie solo dopo averla accodata e solo se nel frattempo non è arrivata
+          una variazione più recente, che resta in attesa e partirà dopo*/
+        private void release() {
+            for (var entry : held.entrySet()) {
+                if (queued.get() >= OutboundBuffer.MAX_BYTES / 2) return;
+                byte[] bytes = entry.getValue();
+                int depth = queued.addAndGet(bytes.length);
+                ServerMetrics.outboundQueued(bytes.length, depth);
+                writeQueue.add(ByteBuffer.wrap(bytes));
+                held.remove(entry.getKey(), bytes);
+            }
+        }
+
+        private void scheduleWrite() {
+            if (writeScheduled.compareAndSet(false, true)) {
+                if (loop.inLoop()) {
+                    enableWrite();
+                } else {
+                    loop.execute(this::enableWrite);
+                }
+            }
+        }
+
+        private void enableWrite() {
+            if (key != null && key.isValid()) {
+                key.interestOps(readInterest() | SelectionKey.OP_WRITE);
+            }
+        }
+
+        private int readInterest() {
+            return handler.isParked() ? 0 : SelectionKey.OP_READ;
+        }
+
+        /*La conferma del cluster è arrivata: il loop riprende dai messaggi rimasti nel buffer.
+          Sul thread del loop la conferma è arrivata dentro handleLine e process() prosegue da sé*/
+        @Override
+        public void resumeReading() {
+            if (loop.inLoop()) return;
+            loop.execute(() -> {
+                if (closed || handler.isParked()) return;
+                try {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                    readBuffer.flip();
+                    process();
+                } catch (RuntimeException e) {
+                    fail(e);
+                }
+            });
+        }
+
+        /*Errore inatteso nella gestione della connessione: si chiude lei sola*/
+        void fail(RuntimeException e) {
+            Log.error("Errore sulla connessione di " + handler.getNickname() + ", chiusura", e);
+            try {
+                close();
+            } catch (RuntimeException again) {
+                Log.error("Chiusura fallita", again);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!loop.inLoop()) {
+                loop.execute(this::close);
+                return;
+            }
+            if (closed) return;
+            closed = true;
+            ServerMetrics.outboundQueued(-queued.getAndSet(0), 0);
+            held.clear();
+            if (key != null) key.cancel();
+            closeQuietly(channel);
+            handler.cleanup();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.error("Chiusura fallita", e);
+        }
+    }
+}
@@ -0,0 +1,353 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/*Uscita bufferizzata di una connessione bloccante: i messaggi si accumulano e partono
+  insieme con una sola write. Il flush avviene alla fine del ciclo di gestione del thread
+  che li ha scritti (beginCycle/endCycle) oppure, fuori da un ciclo, entro DEADLINE_MS.
+  Sul server la write non la fa chi ha scritto i messaggi: il flush passa il buffer allo scrittore
+  della connessione (un virtual thread, al più uno alla volta per connessione) e ne apre un altro,
+  così un client che non legge ferma solo il proprio scrittore e non l'avversario che gli manda
+  la mossa o chi pubblica le variazioni della lobby. La coda è limitata a MAX_BYTES (compresi i
+  byte che lo scrittore sta inviando) e quando è piena decide POLICY*/
+class OutboundBuffer {
+    static final long DEADLINE_MS = Long.getLong("outbound.deadline.ms", 2);
+    static final int MAX_BYTES = Math.max(1, Integer.getInteger("outbound.max.kb", 256)) * 1024;
+    static final Policy POLICY = Policy.parse(System.getProperty("outbound.policy", "coalesce"));
+
+    /*Cosa succede a un messaggio che non sta nella coda di un client lento.
+      Un messaggio con la coda vuota passa sempre, anche se da solo supera MAX_BYTES*/
+    enum Policy {
+        //Il messaggio si perde, qualunque sia: anche una mossa
+        DROP,
+        //Le variazioni della lobby (sendUpdate), già con la coda a metà, restano in attesa una per
+        //giocatore e la più recente sostituisce la precedente: partono quando la coda si svuota.
+        //Gli altri messaggi che non ci stanno chiudono la connessione
+        COALESCE,
+        //La connessione viene chiusa
+        DISCONNECT;
+
+        static Policy parse(String name) {
+            for (Policy policy : values()) {
+                if (policy.name().equalsIgnoreCase(name)) return policy;
+            }
+            return COALESCE;
+        }
+    }
+
+    //Contatori globali, condivisi anche con il server NIO
+    private static final LongAdder messages = new LongAdder();
+    private static final LongAdder flushes = new LongAdder();
+    private static final AtomicLong maxBatch = new AtomicLong();
+
+    //Buffer scritti durante il ciclo corrente del thread, da svuotare in endCycle
+    private static final ThreadLocal<Cycle> cycle = ThreadLocal.withInitial(Cycle::new);
+    //Buffer scritti fuori da un ciclo, svuotati dal thread di flush
+    private static final Queue<OutboundBuffer> delayed = new ConcurrentLinkedQueue<>();
+    private static final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "outbound-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    //Scrittori delle connessioni del server: un virtual thread solo finché c'è qualcosa da inviare
+    private static final ExecutorService writers =
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("outbound-writer-", 0).factory());
+
+    static {
+        flusher.scheduleWithFixedDelay(OutboundBuffer::flushDelayed, DEADLINE_MS, DEADLINE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static class Cycle {
+        boolean active;
+        final ArrayList<OutboundBuffer> touched = new ArrayList<>();
+    }
+
+    private final OutputStream out;
+    //Chiude la connessione quando la coda è piena, null nel client (scrive da sé e senza limite)
+    private final Runnable overflow;
+    private final Policy policy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private byte[] buffer = new byte[512];
+    //Il buffer che lo scrittore ha appena inviato, riusato al giro successivo
+    private byte[] spare = new byte[512];
+    private int length;
+    private int pending;
+    //Byte passati allo scrittore e non ancora inviati
+    private int inFlight;
+    private boolean scheduled;
+    private boolean writing;
+    private boolean failed;
+    //Variazioni della lobby trattenute con la coda piena (COALESCE), per chiave
+    private LinkedHashMap<String, byte[]> held;
+
+    /*Uscita del client: flush scrive subito sul thread che lo chiama*/
+    OutboundBuffer(OutputStream out) {
+        this(out, null);
+    }
+
+    /*Uscita di una connessione del server, con coda limitata e scrittore proprio*/
+    OutboundBuffer(OutputStream out, Runnable overflow) {
+        this(out, overflow, POLICY);
+    }
+
+    /*Come sopra ma con una politica diversa da quella del processo, per i test*/
+    OutboundBuffer(OutputStream out, Runnable overflow, Policy policy) {
+        this.out = out;
+        this.overflow = overflow;
+        this.policy = policy;
+    }
+
+    /*Accoda una riga di testo (con terminatore)*/
+    void writeLine(String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        write(bytes, 0, bytes.length, true);
+    }
+
+    /*Accoda una riga già codificata, copiandola direttamente nel buffer*/
+    void writeLine(byte[] bytes, int offset, int count) {
+        write(bytes, offset, count, true);
+    }
+
+    /*Accoda byte già codificati*/
+    void write(byte[] bytes) {
+        write(bytes, 0, bytes.length, false);
+    }
+
+    /*Accoda una variazione di stato identificata da key: con il client in ritardo e la politica
+      COALESCE resta in attesa, e una più recente con la stessa chiave la sostituisce*/
+    void writeUpdate(String key, byte[] bytes) {
+        if (overflow != null && policy == Policy.COALESCE) {
+            lock.lock();
+            try {
+                if (failed) return;
+                //Se la chiave è già in attesa, la variazione non può passarle davanti
+                if (held != null && held.containsKey(key)) {
+                    held.put(key, bytes);
+                    ServerMetrics.outboundCoalesced();
+                    return;
+                }
+                if (length + inFlight >= MAX_BYTES / 2) {
+                    if (held == null) held = new LinkedHashMap<>();
+                    held.put(key, bytes);
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        write(bytes, 0, bytes.length, false);
+    }
+
+    private void write(byte[] bytes, int offset, int count, boolean newline) {
+        int size = count + (newline ? 1 : 0);
+        boolean schedule;
+        boolean close = false;
+        lock.lock();
+        try {
+            if (failed) return;
+            int queued = length + inFlight;
+            if (overflow != null && queued > 0 && queued + size > MAX_BYTES) {
+                if (dropOnOverflow(policy)) return;
+                discard();
+                close = true;
+                schedule = false;
+            } else {
+                int needed = length + size;
+                if (needed > buffer.length) buffer = Arrays.copyOf(buffer, Math.max(needed, buffer.length * 2));
+                System.arraycopy(bytes, offset, buffer, length, count);
+                length += count;
+                if (newline) buffer[length++] = '\n';
+                pending++;
+                if (overflow != null) ServerMetrics.outboundQueued(size, queued + size);
+                schedule = !scheduled;
+                scheduled = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (close) {
+            overflow.run();
+        } else if (schedule) {
+            Cycle current = cycle.get();
+            if (current.active) {
+                current.touched.add(this);
+            } else {
+                delayed.add(this);
+            }
+        }
+    }
+
+    /*Nel client scrive sul socket tutto ciò che è in coda con una sola write;
+      sul server lo passa allo scrittore della connessione, se non è già al lavoro*/
+    void flush() {
+        boolean start = false;
+        lock.lock();
+        try {
+            scheduled = false;
+            if (length == 0 || failed) return;
+            if (overflow != null) {
+                start = !writing;
+                writing = true;
+                return;
+            }
+            out.write(buffer, 0, length);
+            out.flush();
+            record(pending);
+            ServerMetrics.bytesOut(length);
+            length = 0;
+            pending = 0;
+        } catch (IOException e) {
+            //La connessione è persa: il thread di lettura se ne accorgerà e farà cleanup
+            failed = true;
+            length = 0;
+            pending = 0;
+        } finally {
+            lock.unlock();
+            if (start) writers.execute(this::drain);
+        }
+    }
+
+    /*Ciclo dello scrittore: prende il buffer pieno, ne lascia uno vuoto a chi scrive e invia
+      senza lock, finché non resta niente. Le variazioni trattenute rientrano quando la coda
+      torna sotto la metà*/
+    private void drain() {
+        while (true) {
+            byte[] chunk;
+            int size;
+            int batch;
+            lock.lock();
+            try {
+                if (held != null && !held.isEmpty() && length < MAX_BYTES / 2) release();
+                if (length == 0 || failed) {
+                    writing = false;
+                    return;
+                }
+                chunk = buffer;
+                size = length;
+                batch = pending;
+                buffer = spare;
+                spare = null;
+                length = 0;
+                pending = 0;
+                inFlight = size;
+            } finally {
+                lock.unlock();
+            }
+
+            boolean sent = false;
+            try {
+                out.write(chunk, 0, size);
+                out.flush();
+                sent = true;
+            } catch (IOException e) {
+                //Come nel client: la lettura si accorgerà della connessione persa
+            }
+
+            lock.lock();
+            try {
+                inFlight = 0;
+                spare = chunk;
+                ServerMetrics.outboundQueued(-size, 0);
+                if (!sent) {
+                    discard();
+                    writing = false;
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            record(batch);
+            ServerMetrics.bytesOut(size);
+        }
+    }
+
+    /*Rimette in coda le variazioni trattenute, in ordine di chiave, finché stanno sotto MAX_BYTES*/
+    private void release() {
+        Iterator<byte[]> it = held.values().iterator();
+        while (it.hasNext()) {
+            byte[] bytes = it.next();
+            if (length + bytes.length > MAX_BYTES) break;
+            if (length + bytes.length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(length + bytes.length, buffer.length * 2));
+            }
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+            pending++;
+            ServerMetrics.outboundQueued(bytes.length, length);
+            it.remove();
+        }
+    }
+
+    /*Connessione persa o chiusa per la coda piena: da qui in poi si scarta tutto. Solo con il lock*/
+    private void discard() {
+        failed = true;
+        ServerMetrics.outboundQueued(-length, 0);
+        length = 0;
+        pending = 0;
+        held = null;
+    }
+
+    /*Decide del messaggio che non sta nella coda di un client lento: true se con DROP va solo
+      scartato, false se la connessione va chiusa. Condiviso con il server NIO*/
+    static boolean dropOnOverflow() {
+        return dropOnOverflow(POLICY);
+    }
+
+    private static boolean dropOnOverflow(Policy policy) {
+        if (policy == Policy.DROP) {
+            ServerMetrics.outboundDropped();
+            return true;
+        }
+        ServerMetrics.slowConsumerClosed();
+        Log.warn("Client lento, coda di uscita piena: chiusura della connessione");
+        return false;
+    }
+
+    /*Inizia un ciclo di gestione: le scritture vengono raccolte fino a endCycle*/
+    static void beginCycle() {
+        cycle.get().active = true;
+    }
+
+    /*Chiude il ciclo svuotando ogni buffer toccato dal thread*/
+    static void endCycle() {
+        Cycle current = cycle.get();
+        current.active = false;
+        for (int i = 0; i < current.touched.size(); i++) {
+            current.touched.get(i).flush();
+        }
+        current.touched.clear();
+    }
+
+    private static void flushDelayed() {
+        OutboundBuffer buffer;
+        while ((buffer = delayed.poll()) != null) {
+            buffer.flush();
+        }
+    }
+
+    /*Registra un flush che ha inviato il numero di messaggi indicato*/
+    static void record(int batch) {
+        messages.add(batch);
+        flushes.increment();
+        maxBatch.accumulateAndGet(batch, Math::max);
+    }
+
+    static long messages() {
+        return messages.sum();
+    }
+
+    static long flushes() {
+        return flushes.sum();
+    }
+
+    static String summary() {
+        long m = messages.sum();
+        long f = flushes.sum();
+        return String.format("messaggi=%d flush=%d messaggi/flush=%.2f max=%d",
+            m, f, f == 0 ? 0.0 : (double) m / f, maxBatch.get());
+    }
+}
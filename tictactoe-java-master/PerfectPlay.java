@@ -0,0 +1,171 @@
+/*Gioco perfetto per il tris 3x3, risolto una sola volta all'avvio.
+  Il valore di ogni posizione si calcola solo per le posizioni canoniche (la minima tra le 8
+  simmetrie del tabellone); poi, per ogni posizione raggiungibile, si salva la mossa migliore in
+  una tabella di byte indicizzata in base 3, così durante la partita una mossa è una lettura O(1)*/
+final class PerfectPlay {
+    //3^9 configurazioni del tabellone
+    static final int POSITIONS = 19683;
+    private static final byte UNKNOWN = Byte.MIN_VALUE;
+
+    //Contributo all'indice in base 3 delle caselle di X (cifra 1) e di O (cifra 2), per maschera
+    private static final int[] X_INDEX = new int[512];
+    private static final int[] O_INDEX = new int[512];
+    //Le 8 simmetrie applicate a una maschera: SYMMETRY[s][mask]
+    private static final int[][] SYMMETRY = new int[8][512];
+
+    //Mossa migliore (0-8) per ogni posizione raggiungibile non finita, -1 altrove
+    private static final byte[] BEST_MOVE = new byte[POSITIONS];
+    //Valore per chi deve muovere, solo per le posizioni canoniche
+    private static final byte[] SCORE = new byte[POSITIONS];
+
+    private static int reachable;
+    private static int canonical;
+    private static final long buildNanos;
+
+    static {
+        long start = System.nanoTime();
+        buildIndexTables();
+        java.util.Arrays.fill(BEST_MOVE, (byte) -1);
+        java.util.Arrays.fill(SCORE, UNKNOWN);
+        fillMoves(0, 0, new boolean[POSITIONS]);
+        buildNanos = System.nanoTime() - start;
+    }
+
+    private PerfectPlay() {}
+
+    /*Mossa migliore (0-8) per il giocatore di turno, -1 se la partita è finita*/
+    static int bestMove(BitBoard board) {
+        if (board.isOver()) return -1;
+        return BEST_MOVE[index(board.xMask(), board.oMask())];
+    }
+
+    /*Come bestMove(BitBoard), per un MnkBoard classico (3x3, tris)*/
+    static int bestMove(MnkBoard board) {
+        if (!board.isClassic() || board.isOver()) return -1;
+        return BEST_MOVE[index(board.mask(BitBoard.X), board.mask(BitBoard.O))];
+    }
+
+    static int index(int xMask, int oMask) {
+        return X_INDEX[xMask] + O_INDEX[oMask];
+    }
+
+    /*Riassunto di costruzione: tempo, posizioni e memoria delle tabelle*/
+    static String summary() {
+        long bytes = BEST_MOVE.length + SCORE.length
+            + 4L * (X_INDEX.length + O_INDEX.length + 8 * 512);
+        return String.format("posizioni raggiungibili=%d canoniche=%d costruzione=%.1fms memoria=%d KB",
+            reachable, canonical, buildNanos / 1e6, bytes / 1024);
+    }
+
+    private static void buildIndexTables() {
+        int[] pow3 = new int[9];
+        pow3[0] = 1;
+        for (int i = 1; i < 9; i++) pow3[i] = pow3[i - 1] * 3;
+
+        //Dove finisce la casella (r, c) in ognuna delle 8 simmetrie
+        int[][] cellMap = new int[8][9];
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 3; c++) {
+                int cell = r * 3 + c;
+                cellMap[0][cell] = r * 3 + c;
+                cellMap[1][cell] = c * 3 + (2 - r);
+                cellMap[2][cell] = (2 - r) * 3 + (2 - c);
+                cellMap[3][cell] = (2 - c) * 3 + r;
+                cellMap[4][cell] = r * 3 + (2 - c);
+                cellMap[5][cell] = (2 - r) * 3 + c;
+                cellMap[6][cell] = c * 3 + r;
+                cellMap[7][cell] = (2 - c) * 3 + (2 - r);
+            }
+        }
+
+        for (int mask = 0; mask < 512; mask++) {
+            for (int cell = 0; cell < 9; cell++) {
+                if ((mask & (1 << cell)) == 0) continue;
+                X_INDEX[mask] += pow3[cell];
+                O_INDEX[mask] += 2 * pow3[cell];
+                for (int s = 0; s < 8; s++) {
+                    SYMMETRY[s][mask] |= 1 << cellMap[s][cell];
+                }
+            }
+        }
+    }
+
+    /*Indice della posizione canonica: il minimo tra le 8 simmetrie*/
+    static int canonicalIndex(int xMask, int oMask) {
+        int best = Integer.MAX_VALUE;
+        for (int s = 0; s < 8; s++) {
+            best = Math.min(best, index(SYMMETRY[s][xMask], SYMMETRY[s][oMask]));
+        }
+        return best;
+    }
+
+    /*Casella canonica (0-8) tra quelle equivalenti per simmetria: 0 per un angolo, 1 per un lato,
+      4 per il centro*/
+    static int canonicalCell(int cell) {
+        int best = 1 << cell;
+        for (int s = 1; s < 8; s++) {
+            best = Math.min(best, SYMMETRY[s][1 << cell]);
+        }
+        return Integer.numberOfTrailingZeros(best);
+    }
+
+    /*Valore negamax per chi deve muovere: positivo se vince (prima vince, più alto), 0 se pareggia*/
+    private static int score(int xMask, int oMask) {
+        int key = canonicalIndex(xMask, oMask);
+        if (SCORE[key] != UNKNOWN) return SCORE[key];
+        canonical++;
+
+        int moves = Integer.bitCount(xMask | oMask);
+        int last = (moves & 1) == 1 ? xMask : oMask;
+        int result;
+        if (BitBoard.isWin(last)) {
+            result = -(10 - moves);
+        } else if (moves == 9) {
+            result = 0;
+        } else {
+            result = Integer.MIN_VALUE;
+            boolean xToMove = (moves & 1) == 0;
+            for (int cell = 0; cell < 9; cell++) {
+                int bit = 1 << cell;
+                if (((xMask | oMask) & bit) != 0) continue;
+                int child = xToMove ? -score(xMask | bit, oMask) : -score(xMask, oMask | bit);
+                result = Math.max(result, child);
+            }
+        }
+        SCORE[key] = (byte) result;
+        return result;
+    }
+
+    /*Visita tutte le posizioni raggiungibili salvando la mossa migliore di ognuna*/
+    private static void fillMoves(int xMask, int oMask, boolean[] visited) {
+        int index = index(xMask, oMask);
+        if (visited[index]) return;
+        visited[index] = true;
+        reachable++;
+
+        int moves = Integer.bitCount(xMask | oMask);
+        int last = (moves & 1) == 1 ? xMask : oMask;
+        if (moves == 9 || (moves > 0 && BitBoard.isWin(last))) {
+            score(xMask, oMask);
+            return;
+        }
+
+        boolean xToMove = (moves & 1) == 0;
+        int bestCell = -1;
+        int bestScore = Integer.MIN_VALUE;
+        for (int cell = 0; cell < 9; cell++) {
+            int bit = 1 << cell;
+            if (((xMask | oMask) & bit) != 0) continue;
+            int childX = xToMove ? xMask | bit : xMask;
+            int childO = xToMove ? oMask : oMask | bit;
+            int childScore = -score(childX, childO);
+            if (childScore > bestScore) {
+                bestScore = childScore;
+                bestCell = cell;
+            }
+            fillMoves(childX, childO, visited);
+        }
+        BEST_MOVE[index] = (byte) bestCell;
+        score(xMask, oMask);
+    }
+}
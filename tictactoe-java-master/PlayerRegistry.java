@@ -0,0 +1,268 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+/*Registro concorrente dei giocatori connessi e delle sfide pendenti.
+  Le letture non prendono lock; l'accoppiamento di due giocatori usa compareAndSet
+  sull'avversario di ciascuno, quindi nessun monitor globale serializza la lobby.
+  I client iscritti alla lobby ricevono solo le variazioni (PLAYER-JOIN/LEAVE/BUSY/FREE).
+  I giocatori liberi sono anche in un indice ordinato, per pagine e ricerche per prefisso*/
+class PlayerRegistry {
+    private final ConcurrentHashMap<String, GameServer.ClientHandler> players = new ConcurrentHashMap<>();
+    //Sfidato -> sfidante -> sfida: uno sfidato, come l'AI, può avere più sfide pendenti insieme
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Challenge>> challenges = new ConcurrentHashMap<>();
+    //Iscritti alla lobby, ognuno con il lock che ordina istantanea e variazioni a lui dirette
+    private final ConcurrentHashMap<GameServer.ClientHandler, ReentrantLock> subscribers = new ConcurrentHashMap<>();
+    //Nickname dei giocatori registrati e non in partita, in ordine alfabetico
+    private final ConcurrentSkipListSet<String> available = new ConcurrentSkipListSet<>();
+
+    static final int MAX_PAGE = 500;
+    //Byte di nickname e virgole in un messaggio con una lista: con il nome più lungo
+    //("SEARCH-RESULT=1=") il messaggio sta in BinaryProtocol.MAX_TEXT
+    static final int MAX_LIST_BYTES = BinaryProtocol.MAX_TEXT - 32;
+
+    /*Sfida pendente: chi l'ha inviata, su quale tabellone ("<rows>x<cols>x<k>") e da quale nodo
+      del cluster (Cluster.self() se lo sfidante è collegato qui)*/
+    record Challenge(String challenger, String board, int node) {}
+
+    /*Registra il nickname, restituisce false se è già in uso*/
+    boolean register(String nickname, GameServer.ClientHandler handler) {
+        if (players.putIfAbsent(nickname, handler) != null) return false;
+        available.add(nickname);
+        publish("PLAYER-JOIN", nickname, handler);
+        return true;
+    }
+
+    /*Rimuove il giocatore solo se il nickname appartiene ancora a questo handler;
+      restituisce true se l'ha rimosso*/
+    boolean unregister(String nickname, GameServer.ClientHandler handler) {
+        subscribers.remove(handler);
+        challenges.remove(nickname);
+        if (players.get(nickname) == handler) {
+            available.remove(nickname);
+        }
+        if (players.remove(nickname, handler)) {
+            publish("PLAYER-LEAVE", nickname, handler);
+            return true;
+        }
+        return false;
+    }
+
+    /*Passa il nickname dall'handler della connessione caduta a quello che ha ripreso la sessione
+      (RESUME), senza PLAYER-LEAVE/JOIN: per la lobby il giocatore non è mai uscito*/
+    boolean rebind(String nickname, GameServer.ClientHandler old, GameServer.ClientHandler handler) {
+        return players.replace(nickname, old, handler);
+    }
+
+    GameServer.ClientHandler get(String nickname) {
+        return players.get(nickname);
+    }
+
+    boolean isRegistered(GameServer.ClientHandler handler) {
+        String nickname = handler.getNickname();
+        return nickname != null && players.get(nickname) == handler;
+    }
+
+    Iterable<GameServer.ClientHandler> all() {
+        return players.values();
+    }
+
+    /*Lista completa dei giocatori liberi nel formato PLAYERS=a,b,. Se supera MAX_LIST_BYTES si
+      divide in più messaggi: prima uno o più PLAYERS-MORE=a,b, e per ultimo PLAYERS= con il resto,
+      così la lista è completa quando arriva PLAYERS*/
+    List<String> snapshot(GameServer.ClientHandler requester) {
+        List<String> parts = new ArrayList<>();
+        StringBuilder list = new StringBuilder();
+        int bytes = 0;
+        String self = requester.getNickname();
+        for (String player : available) {
+            if (player.equals(self)) continue;
+            int length = player.getBytes(StandardCharsets.UTF_8).length + 1;
+            if (bytes + length > MAX_LIST_BYTES) {
+                parts.add("PLAYERS-MORE=" + list);
+                list.setLength(0);
+                bytes = 0;
+            }
+            list.append(player).append(",");
+            bytes += length;
+        }
+        parts.add("PLAYERS=" + list);
+        return parts;
+    }
+
+    /*Pagina dei giocatori liberi successivi al cursore (vuoto = dall'inizio), in O(log N + count).
+      Formato: PLAYERS-PAGE=<1 se ce ne sono altri, altrimenti 0>=a,b,. Una pagina si ferma anche
+      a MAX_LIST_BYTES, con 1: il client continua dall'ultimo nickname ricevuto*/
+    void sendPage(GameServer.ClientHandler requester, String after, int count) {
+        sendInOrder(requester, () -> {
+            NavigableSet<String> view = after.isEmpty() ? available : available.tailSet(after, false);
+            return "PLAYERS-PAGE=" + collect(view, requester, count);
+        });
+    }
+
+    /*Primi count giocatori liberi il cui nickname inizia con prefix, in O(log N + count).
+      Formato: SEARCH-RESULT=<1 se ce ne sono altri, altrimenti 0>=a,b,*/
+    void sendSearch(GameServer.ClientHandler requester, String prefix, int count) {
+        sendInOrder(requester, () -> {
+            NavigableSet<String> view = available.subSet(prefix, true, prefix + Character.MAX_VALUE, false);
+            return "SEARCH-RESULT=" + collect(view, requester, count);
+        });
+    }
+
+    private String collect(NavigableSet<String> view, GameServer.ClientHandler requester, int count) {
+        count = Math.max(1, Math.min(count, MAX_PAGE));
+        String self = requester.getNickname();
+        StringBuilder list = new StringBuilder();
+        int added = 0;
+        int bytes = 0;
+        boolean more = false;
+        for (String player : view) {
+            if (player.equals(self)) continue;
+            int length = player.getBytes(StandardCharsets.UTF_8).length + 1;
+            if (added == count || bytes + length > MAX_LIST_BYTES) {
+                more = true;
+                break;
+            }
+            list.append(player).append(",");
+            added++;
+            bytes += length;
+        }
+        return (more ? "1=" : "0=") + list;
+    }
+
+    /*Se il client è iscritto, la risposta passa dal suo lock così non si mescola alle variazioni*/
+    private void sendInOrder(GameServer.ClientHandler handler, Supplier<String> message) {
+        ReentrantLock lock = subscribers.get(handler);
+        if (lock == null) {
+            handler.send(message.get());
+            return;
+        }
+        lock.lock();
+        try {
+            handler.send(message.get());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*Iscrive il client alla lobby: riceve subito l'istantanea (se richiesta) e poi solo le variazioni.
+      Il lock dell'iscritto garantisce che nessuna variazione arrivi prima dell'istantanea*/
+    void subscribe(GameServer.ClientHandler handler, boolean snapshot) {
+        ReentrantLock lock = new ReentrantLock();
+        lock.lock();
+        try {
+            if (subscribers.putIfAbsent(handler, lock) != null) return;
+            if (snapshot) {
+                for (String part : snapshot(handler)) {
+                    handler.send(part);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void unsubscribe(GameServer.ClientHandler handler) {
+        subscribers.remove(handler);
+    }
+
+    /*Invia una variazione a tutti gli iscritti tranne il giocatore a cui si riferisce.
+      Ogni variazione descrive tutto lo stato del giocatore, quindi a un iscritto in ritardo basta
+      l'ultima: la connessione può sostituire quelle non ancora partite (sendUpdate)*/
+    private void publish(String event, String nickname, GameServer.ClientHandler subject) {
+        String message = event + "=" + nickname;
+        for (var entry : subscribers.entrySet()) {
+            if (entry.getKey() == subject) continue;
+            ReentrantLock lock = entry.getValue();
+            lock.lock();
+            try {
+                entry.getKey().sendUpdate(nickname, message);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    int size() {
+        return players.size();
+    }
+
+    /*Registra la sfida di challenger a target; una nuova sfida dello stesso sfidante sostituisce la precedente*/
+    void putChallenge(String target, String challenger, String board, int node) {
+        challenges.computeIfAbsent(target, t -> new ConcurrentHashMap<>())
+            .put(challenger, new Challenge(challenger, board, node));
+    }
+
+    /*Toglie e restituisce la sfida di challenger a target, null se non è pendente. Chi la
+      ottiene è il solo a poterla accettare o rifiutare*/
+    Challenge takeChallenge(String target, String challenger) {
+        ConcurrentHashMap<String, Challenge> received = challenges.get(target);
+        return received != null ? received.remove(challenger) : null;
+    }
+
+    /*Accoppia due giocatori liberi in modo atomico: se uno dei due è già in partita
+      o si è disconnesso nel frattempo, lo stato torna com'era e restituisce false*/
+    boolean pair(GameServer.ClientHandler a, GameServer.ClientHandler b) {
+        if (a == b) return false;
+        if (!a.opponentRef().compareAndSet(null, b)) return false;
+        if (!b.opponentRef().compareAndSet(null, a)) {
+            a.opponentRef().compareAndSet(b, null);
+            return false;
+        }
+        if (!isPresent(a) || !isPresent(b)) {
+            a.opponentRef().compareAndSet(b, null);
+            b.opponentRef().compareAndSet(a, null);
+            return false;
+        }
+
+        //Chi gioca non segue la lobby: si iscrive di nuovo quando ci torna
+        subscribers.remove(a);
+        subscribers.remove(b);
+        markBusy(a);
+        markBusy(b);
+        ServerMetrics.gameStarted();
+        return true;
+    }
+
+    /*I giocatori simulati e quelli di un altro nodo (RemotePlayer) non sono nel registro:
+      ne esiste uno per partita*/
+    private boolean isPresent(GameServer.ClientHandler handler) {
+        return handler.isBot() || isRegistered(handler);
+    }
+
+    private void markBusy(GameServer.ClientHandler handler) {
+        //Il nickname dell'AI resta libero nella lobby anche mentre gioca
+        if (handler.isBot()) return;
+        available.remove(handler.getNickname());
+        publish("PLAYER-BUSY", handler.getNickname(), handler);
+    }
+
+    /*Scioglie la partita del giocatore, restituisce l'avversario che aveva (o null)*/
+    GameServer.ClientHandler unpair(GameServer.ClientHandler handler) {
+        GameServer.ClientHandler opponent = handler.opponentRef().getAndSet(null);
+        if (opponent != null) {
+            //Se i due escono insieme la compareAndSet fallisce: il lato dell'avversario lo libera lui
+            boolean both = opponent.opponentRef().compareAndSet(handler, null);
+            ServerMetrics.sidesFinished(both ? 2 : 1);
+            markFree(handler);
+            markFree(opponent);
+        }
+        return opponent;
+    }
+
+    /*Rimette il giocatore nell'indice dei liberi, se è ancora connesso e non ha iniziato un'altra partita.
+      Chi è in attesa di RESUME non torna libero: nessuno potrebbe sfidarlo finché non rientra*/
+    void markFree(GameServer.ClientHandler handler) {
+        String nickname = handler.getNickname();
+        if (!isRegistered(handler) || handler.isInGame() || handler.isAway()) return;
+        available.add(nickname);
+        //Può essersi disconnesso (o aver iniziato un'altra partita) mentre lo aggiungevamo
+        if (!isRegistered(handler) || handler.isInGame()) {
+            available.remove(nickname);
+            return;
+        }
+        publish("PLAYER-FREE", nickname, handler);
+    }
+}
@@ -0,0 +1,130 @@
+import java.nio.charset.StandardCharsets;
+
+/*Riga del protocollo testuale scomposta in un solo passaggio e senza copie: nome del comando
+  e argomenti (separati da '=') restano nel buffer ricevuto come coppie inizio/fine, e una
+  String si crea solo per gli argomenti che servono davvero come stringhe (ad esempio un nickname
+  da cercare nel registro). I numeri si leggono direttamente dai byte.
+  La vista vale finché il buffer non viene riusato, cioè fino alla riga successiva: ogni
+  connessione ne ha una sua*/
+final class ProtocolLine {
+    //Nessun comando ne usa più di cinque; oltre, la riga viene comunque contata e rifiutata
+    static final int MAX_ARGS = 8;
+    //Valore di intArg per un argomento che non è un numero (o non sta in un int)
+    static final int NOT_A_NUMBER = Integer.MIN_VALUE;
+
+    private byte[] buffer;
+    private int start;
+    private int end;
+    private int nameEnd;
+    private int argCount;
+    private final int[] argStart = new int[MAX_ARGS];
+    private final int[] argEnd = new int[MAX_ARGS];
+
+    /*Scompone buffer[offset, offset + length) e cerca il comando nella tabella: null se il comando
+      non esiste. Il numero di argomenti va poi controllato con Entry.accepts(argCount())*/
+    <E> CommandTable.Entry<E> parse(byte[] buffer, int offset, int length, CommandTable<E> table) {
+        int limit = offset + length;
+        this.buffer = buffer;
+        this.start = offset;
+        this.end = limit;
+
+        int i = offset;
+        while (i < limit && buffer[i] != '=') {
+            i++;
+        }
+        nameEnd = i;
+
+        //Ogni '=' chiude l'argomento precedente e ne apre uno nuovo, la fine della riga chiude l'ultimo
+        int count = 0;
+        int[] starts = argStart;
+        int[] ends = argEnd;
+        if (i < limit) {
+            int from = ++i;
+            for (; i < limit; i++) {
+                if (buffer[i] == '=') {
+                    if (count < MAX_ARGS) {
+                        starts[count] = from;
+                        ends[count] = i;
+                    }
+                    count++;
+                    from = i + 1;
+                }
+            }
+            if (count < MAX_ARGS) {
+                starts[count] = from;
+                ends[count] = limit;
+            }
+            count++;
+        }
+        argCount = count;
+        return table.find(buffer, offset, nameEnd);
+    }
+
+    int argCount() {
+        return argCount;
+    }
+
+    int argLength(int index) {
+        return argEnd[index] - argStart[index];
+    }
+
+    /*Argomento come stringa (l'unica operazione che alloca)*/
+    String arg(int index) {
+        return new String(buffer, argStart[index], argLength(index), StandardCharsets.UTF_8);
+    }
+
+    /*true se l'argomento è esattamente il testo ASCII indicato*/
+    boolean argEquals(int index, String ascii) {
+        int from = argStart[index];
+        if (argEnd[index] - from != ascii.length()) return false;
+        for (int i = 0; i < ascii.length(); i++) {
+            if (buffer[from + i] != ascii.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /*Argomento come intero decimale (con segno opzionale), NOT_A_NUMBER se non è valido*/
+    int intArg(int index) {
+        int i = argStart[index];
+        int to = argEnd[index];
+        boolean negative = i < to && buffer[i] == '-';
+        if (negative) i++;
+        if (i == to || to - i > 10) return NOT_A_NUMBER;
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) return NOT_A_NUMBER;
+            value = value * 10 + digit;
+        }
+        if (negative) value = -value;
+        if (value < Integer.MIN_VALUE + 1 || value > Integer.MAX_VALUE) return NOT_A_NUMBER;
+        return (int) value;
+    }
+
+    int nameLength() {
+        return nameEnd - start;
+    }
+
+    /*Nome del comando come stringa, per i messaggi di errore*/
+    String name() {
+        return new String(buffer, start, nameEnd - start, StandardCharsets.UTF_8);
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    int offset() {
+        return start;
+    }
+
+    int length() {
+        return end - start;
+    }
+
+    /*La riga intera, per il log*/
+    @Override
+    public String toString() {
+        return new String(buffer, start, end - start, StandardCharsets.UTF_8);
+    }
+}
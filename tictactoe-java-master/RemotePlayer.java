@@ -0,0 +1,76 @@
+/*Avversario collegato a un altro nodo del cluster: per il giocatore locale è un avversario come
+  gli altri, creato per una sola partita come quelli di AiPlayer e fuori dal registro.
+  Ciò che il server gli invia (mosse, GAME-OVER, OPPONENT-AWAY/BACK/DISCONNECTED) riparte verso
+  il suo nodo come FORWARD di Cluster; ciò che il nodo remoto inoltra da parte sua rientra da
+  receive() e passa dal normale handleMessage, quindi la partita ha su entrambi i nodi lo stesso
+  Match e lo stesso id*/
+class RemotePlayer implements Connection {
+    private final int node;
+    //Il giocatore locale con cui gioca, mittente dei messaggi inoltrati
+    private final String opponent;
+    private GameServer.ClientHandler handler;
+
+    private RemotePlayer(int node, String opponent) {
+        this.node = node;
+        this.opponent = opponent;
+    }
+
+    /*Crea l'avversario remoto nickname, collegato a node, per una partita con il giocatore locale opponent*/
+    static GameServer.ClientHandler create(String nickname, int node, String opponent) {
+        RemotePlayer remote = new RemotePlayer(node, opponent);
+        remote.handler = new GameServer.ClientHandler(remote, nickname);
+        return remote.handler;
+    }
+
+    int node() {
+        return node;
+    }
+
+    /*GAME-START lo manda già il nodo del giocatore, che ha la stessa partita. Se il messaggio non
+      può partire (collegamento chiuso o bloccato) la partita si chiude qui come per una
+      disconnessione: il giocatore locale riceve OPPONENT-DISCONNECTED, e l'altro nodo lo stesso
+      quando vede cadere il collegamento*/
+    @Override
+    public void send(String message) {
+        if (message.startsWith("GAME-START=")) return;
+        if (!Cluster.forward(node, handler.getNickname(), opponent, message)) handler.cleanup();
+    }
+
+    //Tra i nodi viaggia sempre il testo: la codifica binaria la sceglie ogni nodo per i suoi client
+    @Override
+    public void sendBytes(byte[] bytes) {}
+
+    @Override
+    public void close() {}
+
+    /*Consegna un messaggio inoltrato dal nodo node: lo riceve l'avversario remoto from del giocatore
+      locale to, se i due sono ancora in partita*/
+    static void deliver(PlayerRegistry players, int node, String to, String from, String message) {
+        GameServer.ClientHandler local = players.get(to);
+        if (local == null) return;
+        GameServer.ClientHandler opponentHandler = local.opponentRef().get();
+        RemotePlayer remote = opponentHandler != null ? opponentHandler.remote() : null;
+        if (remote == null || remote.node != node || !opponentHandler.getNickname().equals(from)) return;
+        remote.receive(message);
+    }
+
+    private void receive(String message) {
+        if (message.startsWith("MOVE=") || message.equals("GAME-OVER")) {
+            handler.handleMessage(message);
+        } else if (message.startsWith("OPPONENT-AWAY=")) {
+            handler.setAway(true);
+            sendToOpponent(message);
+        } else if (message.equals("OPPONENT-BACK")) {
+            handler.setAway(false);
+            sendToOpponent(message);
+        } else if (message.equals("OPPONENT-DISCONNECTED")) {
+            //Come una disconnessione sul nodo locale: la partita si chiude e l'avversario lo riceve
+            handler.cleanup();
+        }
+    }
+
+    private void sendToOpponent(String message) {
+        GameServer.ClientHandler local = handler.opponentRef().get();
+        if (local != null) local.send(message);
+    }
+}
@@ -0,0 +1,576 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/*Motore di ricerca per i tabelloni m,n,k, dove una tabella come quella di PerfectPlay non è possibile.
+  Alpha-beta con approfondimento iterativo e un limite di tempo per mossa: a ogni profondità la prima
+  mossa della radice si cerca da sola per avere una soglia, le altre in parallelo su un ForkJoinPool
+  con la soglia alpha condivisa. Tutti i thread usano la stessa tabella delle trasposizioni,
+  indicizzata con hash di Zobrist e senza lock.
+  La valutazione conta le finestre di k caselle ancora aperte per un solo giocatore; i contatori
+  delle finestre si aggiornano a ogni mossa, quindi valutare una posizione costa O(1) e scoprire
+  una vittoria O(k), come in MnkBoard*/
+final class SearchEngine {
+    static final int WIN = 1_000_000_000;
+    private static final int INFINITY = WIN + 1;
+    private static final int MAX_PLY = 64;
+    //Ogni quanti nodi un thread controlla il tempo
+    private static final int CHECK_EVERY = 1024;
+    //Fino a questa dimensione si provano tutte le caselle, oltre solo quelle vicine ai simboli
+    private static final int SMALL_BOARD = 25;
+
+    private static final ConcurrentHashMap<String, Geometry> geometries = new ConcurrentHashMap<>();
+
+    private final ForkJoinPool pool;
+    private final int threads;
+    private final TranspositionTable table;
+    private final LongAdder nodes = new LongAdder();
+    private volatile boolean stopped;
+    private volatile long deadline;
+
+    SearchEngine(int threads) {
+        this(threads, Integer.getInteger("search.tt.bits", 20));
+    }
+
+    SearchEngine(int threads, int tableBits) {
+        this.threads = threads;
+        this.pool = new ForkJoinPool(threads);
+        this.table = new TranspositionTable(tableBits);
+    }
+
+    /*Esito di una ricerca: casella scelta (row * cols + col), valore, profondità completata*/
+    static final class Result {
+        final int cell;
+        final int score;
+        final int depth;
+        final long nodes;
+        final long nanos;
+
+        Result(int cell, int score, int depth, long nodes, long nanos) {
+            this.cell = cell;
+            this.score = score;
+            this.depth = depth;
+            this.nodes = nodes;
+            this.nanos = nanos;
+        }
+
+        long nodesPerSecond() {
+            return nanos == 0 ? 0 : nodes * 1_000_000_000L / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("mossa=%d valore=%d profondità=%d nodi=%d tempo=%.1fms nodi/s=%d",
+                cell, score, depth, nodes, nanos / 1e6, nodesPerSecond());
+        }
+    }
+
+    /*Mossa per il giocatore di turno entro il tempo indicato, -1 se la partita è finita*/
+    int bestMove(MnkBoard board, long budgetMillis) {
+        return search(board, MAX_PLY, budgetMillis).cell;
+    }
+
+    /*Ferma i thread del pool, per i motori creati per una sola esecuzione (vedi Tournament)*/
+    void shutdown() {
+        pool.shutdown();
+    }
+
+    /*Approfondimento iterativo fino a maxDepth o fino allo scadere del tempo. Le ricerche sono
+      una alla volta: ognuna usa già tutti i thread del pool*/
+    synchronized Result search(MnkBoard board, int maxDepth, long budgetMillis) {
+        long start = System.nanoTime();
+        nodes.reset();
+        stopped = false;
+        deadline = start + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        if (board.isOver()) return new Result(-1, 0, 0, 0, 0);
+
+        Geometry geometry = geometries.computeIfAbsent(board.spec(), spec -> new Geometry(board));
+        Position root = new Position(geometry, board);
+        int empty = geometry.cells - root.moves;
+        int bestCell = -1;
+        int bestScore = 0;
+        int completed = 0;
+
+        for (int depth = 1; depth <= Math.min(Math.min(maxDepth, empty), MAX_PLY); depth++) {
+            long result = searchRoot(root, depth, bestCell);
+            //Una profondità interrotta dal tempo non vale: resta la mossa della precedente
+            if (stopped && bestCell >= 0) break;
+            bestCell = (int) result;
+            bestScore = (int) (result >> 32);
+            completed = depth;
+            if (stopped || Math.abs(bestScore) >= WIN - MAX_PLY) break;
+        }
+        return new Result(bestCell, bestScore, completed, nodes.sum(), System.nanoTime() - start);
+    }
+
+    /*Cerca la radice a profondità fissa; restituisce valore (32 bit alti) e casella (32 bassi)*/
+    private long searchRoot(Position root, int depth, int previousBest) {
+        int count = root.generate(0, previousBest);
+        root.sortAll(0, count);
+        int[] moves = Arrays.copyOf(root.moveList(0), count);
+
+        //La prima mossa (di solito la migliore dell'iterazione precedente) fissa la soglia
+        int firstScore = scoreRootMove(root, moves[0], depth, -INFINITY);
+        flushNodes(root);
+        //Valore nei 32 bit alti, a parità di valore vince la mossa che viene prima
+        AtomicLong best = new AtomicLong(pack(firstScore, moves.length));
+        if (moves.length > 1 && !stopped) {
+            pool.invoke(new RootSplit(root, moves, 1, moves.length, depth, best));
+        }
+        int score = (int) (best.get() >> 32);
+        int index = moves.length - (int) best.get();
+        return ((long) score << 32) | moves[index];
+    }
+
+    //Ogni thread conta i nodi nella sua posizione e li somma al totale solo alla fine
+    private void flushNodes(Position position) {
+        nodes.add(position.nodes);
+        position.nodes = 0;
+    }
+
+    private static long pack(int score, int rank) {
+        return ((long) score << 32) | rank;
+    }
+
+    private int scoreRootMove(Position position, int cell, int depth, int alpha) {
+        int score = position.make(cell) ? WIN : -search(position, depth - 1, -INFINITY, -alpha, 1);
+        position.undo(cell);
+        return score;
+    }
+
+    /*Divide le mosse della radice a metà finché ne resta una per compito.
+      Non viene mai serializzato, anche se RecursiveAction è Serializable*/
+    @SuppressWarnings("serial")
+    private final class RootSplit extends RecursiveAction {
+        private final Position root;
+        private final int[] moves;
+        private final int from;
+        private final int to;
+        private final int depth;
+        private final AtomicLong best;
+
+        RootSplit(Position root, int[] moves, int from, int to, int depth, AtomicLong best) {
+            this.root = root;
+            this.moves = moves;
+            this.from = from;
+            this.to = to;
+            this.depth = depth;
+            this.best = best;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RootSplit(root, moves, from, middle, depth, best),
+                    new RootSplit(root, moves, middle, to, depth, best));
+                return;
+            }
+            if (stopped) return;
+            Position position = root.copy();
+            int alpha = (int) (best.get() >> 32);
+            int score = scoreRootMove(position, moves[from], depth, alpha);
+            flushNodes(position);
+            if (!stopped && score > alpha) {
+                best.accumulateAndGet(pack(score, moves.length - from), Math::max);
+            }
+        }
+    }
+
+    /*Negamax con potature alpha-beta; il valore è dal punto di vista di chi deve muovere*/
+    private int search(Position position, int depth, int alpha, int beta, int ply) {
+        if (++position.nodes % CHECK_EVERY == 0 && System.nanoTime() > deadline) stopped = true;
+        if (stopped) return 0;
+        if (position.moves == position.geometry.cells) return 0;
+        if (depth == 0) return position.evaluate();
+
+        int alphaOriginal = alpha;
+        int tableMove = -1;
+        long entry = table.probe(position.hash);
+        if (entry != 0) {
+            tableMove = TranspositionTable.move(entry);
+            if (TranspositionTable.depth(entry) >= depth) {
+                int score = fromTable(TranspositionTable.score(entry), ply);
+                int flag = TranspositionTable.flag(entry);
+                if (flag == TranspositionTable.EXACT) return score;
+                if (flag == TranspositionTable.LOWER) alpha = Math.max(alpha, score);
+                if (flag == TranspositionTable.UPPER) beta = Math.min(beta, score);
+                if (alpha >= beta) return score;
+            }
+        }
+
+        int count = position.generate(ply, tableMove);
+        int best = -INFINITY;
+        int bestCell = -1;
+        for (int i = 0; i < count; i++) {
+            int cell = position.next(ply, i, count);
+            int score;
+            if (position.make(cell)) {
+                //Vincere subito è il massimo possibile: prima si vince, più alto è il valore
+                score = WIN - ply;
+                position.undo(cell);
+                best = score;
+                bestCell = cell;
+                break;
+            }
+            score = -search(position, depth - 1, -beta, -alpha, ply + 1);
+            position.undo(cell);
+            if (stopped) return 0;
+            if (score > best) {
+                best = score;
+                bestCell = cell;
+            }
+            if (score > alpha) alpha = score;
+            if (alpha >= beta) break;
+        }
+
+        int flag = best <= alphaOriginal ? TranspositionTable.UPPER
+            : best >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+        table.store(position.hash, depth, flag, toTable(best, ply), bestCell);
+        return best;
+    }
+
+    //I valori di vittoria dipendono dalla distanza dalla radice: nella tabella si salvano relativi al nodo
+    private static int toTable(int score, int ply) {
+        if (score >= WIN - MAX_PLY) return score + ply;
+        if (score <= -(WIN - MAX_PLY)) return score - ply;
+        return score;
+    }
+
+    private static int fromTable(int score, int ply) {
+        if (score >= WIN - MAX_PLY) return score - ply;
+        if (score <= -(WIN - MAX_PLY)) return score + ply;
+        return score;
+    }
+
+    int threads() {
+        return threads;
+    }
+
+    /*Misura nodi al secondo e scalabilità: "java SearchEngine [tabellone] [profondità] [thread...]".
+      Ogni misura cerca la stessa posizione di apertura a profondità fissa con una tabella nuova*/
+    public static void main(String[] args) {
+        MnkBoard board = MnkBoard.parse(args.length > 0 ? args[0] : "15x15x5");
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 7;
+        int[] threadCounts = {1, 2, 4, Runtime.getRuntime().availableProcessors()};
+        if (args.length > 2) {
+            threadCounts = Arrays.stream(args, 2, args.length).mapToInt(Integer::parseInt).toArray();
+        }
+        //Qualche mossa al centro, così la posizione non è banale
+        int r = board.rows() / 2;
+        int c = board.cols() / 2;
+        int[][] opening = {{r, c}, {r, c + 1}, {r + 1, c}, {r - 1, c - 1}, {r + 1, c + 1}, {r - 1, c + 1}};
+        for (int[] move : opening) board.play(move[0], move[1]);
+
+        //Prima una ricerca a vuoto, così il JIT non falsa la prima misura
+        SearchEngine warmup = new SearchEngine(1);
+        warmup.search(board, depth, 600_000);
+        warmup.pool.shutdown();
+
+        long baseline = 0;
+        for (int count : Arrays.stream(threadCounts).distinct().toArray()) {
+            SearchEngine engine = new SearchEngine(count);
+            Result result = engine.search(board, depth, 600_000);
+            if (baseline == 0) baseline = result.nanos;
+            System.out.printf("thread=%d %s accelerazione=%.2fx%n", count, result, (double) baseline / result.nanos);
+            engine.pool.shutdown();
+        }
+    }
+
+    /*Dati fissi di un tipo di tabellone, condivisi da tutti i thread*/
+    private static final class Geometry {
+        final int rows;
+        final int cols;
+        final int k;
+        final int cells;
+        final boolean small;
+        //Caselle di ogni finestra di k caselle allineate, e finestre che passano per ogni casella
+        final int[][] windowCells;
+        final int[][] windowsByCell;
+        //Caselle adiacenti (anche in diagonale)
+        final int[][] neighbors;
+        //Chiavi di Zobrist: una per casella e giocatore
+        final long[] zobrist;
+        //Peso di una finestra con n simboli di un solo giocatore
+        final int[] weight;
+
+        Geometry(MnkBoard board) {
+            rows = board.rows();
+            cols = board.cols();
+            k = board.k();
+            cells = rows * cols;
+            small = cells <= SMALL_BOARD;
+
+            int[] dr = {0, 1, 1, 1};
+            int[] dc = {1, 0, 1, -1};
+            List<int[]> windows = new ArrayList<>();
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    for (int d = 0; d < 4; d++) {
+                        int endRow = r + (k - 1) * dr[d];
+                        int endCol = c + (k - 1) * dc[d];
+                        if (!board.inBounds(endRow, endCol)) continue;
+                        //Con k = 1 le 4 direzioni darebbero la stessa finestra
+                        if (k == 1 && d > 0) continue;
+                        int[] window = new int[k];
+                        for (int i = 0; i < k; i++) {
+                            window[i] = (r + i * dr[d]) * cols + c + i * dc[d];
+                        }
+                        windows.add(window);
+                    }
+                }
+            }
+            windowCells = windows.toArray(new int[0][]);
+
+            int[] perCell = new int[cells];
+            for (int[] window : windowCells) {
+                for (int cell : window) perCell[cell]++;
+            }
+            windowsByCell = new int[cells][];
+            for (int cell = 0; cell < cells; cell++) windowsByCell[cell] = new int[perCell[cell]];
+            Arrays.fill(perCell, 0);
+            for (int w = 0; w < windowCells.length; w++) {
+                for (int cell : windowCells[w]) windowsByCell[cell][perCell[cell]++] = w;
+            }
+
+            neighbors = new int[cells][];
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    int[] list = new int[8];
+                    int n = 0;
+                    for (int i = -1; i <= 1; i++) {
+                        for (int j = -1; j <= 1; j++) {
+                            if ((i != 0 || j != 0) && board.inBounds(r + i, c + j)) {
+                                list[n++] = (r + i) * cols + c + j;
+                            }
+                        }
+                    }
+                    neighbors[r * cols + c] = Arrays.copyOf(list, n);
+                }
+            }
+
+            //Seme fisso: le stesse posizioni hanno lo stesso hash a ogni avvio
+            SplittableRandom random = new SplittableRandom(cells * 31L + k);
+            zobrist = new long[cells * 2];
+            for (int i = 0; i < zobrist.length; i++) zobrist[i] = random.nextLong();
+
+            //1, 10, 100, ... fino a 100000; una finestra piena vale molto di più (serve solo a ordinare)
+            weight = new int[k + 1];
+            for (int n = 1; n < k; n++) weight[n] = (int) Math.pow(10, Math.min(n, 6) - 1);
+            weight[k] = 10_000_000;
+        }
+
+        int center() {
+            return (rows / 2) * cols + cols / 2;
+        }
+    }
+
+    /*Stato di una ricerca, uno per thread: simboli, contatori delle finestre, hash e liste di mosse*/
+    private static final class Position {
+        final Geometry geometry;
+        final byte[] cells;
+        final int[] xCount;
+        final int[] oCount;
+        //Quanti simboli ha vicino ogni casella: si generano solo le mosse vicine al gioco
+        final int[] near;
+        long hash;
+        //Valutazione dal punto di vista di X
+        int score;
+        int moves;
+        long nodes;
+        private final int[][] moveLists = new int[MAX_PLY + 1][];
+        private final long[][] moveKeys = new long[MAX_PLY + 1][];
+
+        Position(Geometry geometry, MnkBoard board) {
+            this.geometry = geometry;
+            cells = new byte[geometry.cells];
+            xCount = new int[geometry.windowCells.length];
+            oCount = new int[geometry.windowCells.length];
+            near = new int[geometry.cells];
+            for (int r = 0; r < geometry.rows; r++) {
+                for (int c = 0; c < geometry.cols; c++) {
+                    int player = board.get(r, c);
+                    if (player != BitBoard.EMPTY) place(r * geometry.cols + c, player);
+                }
+            }
+        }
+
+        private Position(Position other) {
+            geometry = other.geometry;
+            cells = other.cells.clone();
+            xCount = other.xCount.clone();
+            oCount = other.oCount.clone();
+            near = other.near.clone();
+            hash = other.hash;
+            score = other.score;
+            moves = other.moves;
+        }
+
+        Position copy() {
+            return new Position(this);
+        }
+
+        int currentPlayer() {
+            return (moves & 1) == 0 ? BitBoard.X : BitBoard.O;
+        }
+
+        /*Gioca la casella per il giocatore di turno, restituisce true se ha vinto*/
+        boolean make(int cell) {
+            return place(cell, currentPlayer());
+        }
+
+        private boolean place(int cell, int player) {
+            boolean win = false;
+            int[] mine = player == BitBoard.X ? xCount : oCount;
+            for (int w : geometry.windowsByCell[cell]) {
+                int before = windowValue(w);
+                if (++mine[w] == geometry.k) win = true;
+                score += windowValue(w) - before;
+            }
+            cells[cell] = (byte) player;
+            hash ^= geometry.zobrist[cell * 2 + player - 1];
+            for (int neighbor : geometry.neighbors[cell]) near[neighbor]++;
+            moves++;
+            return win;
+        }
+
+        void undo(int cell) {
+            int player = cells[cell];
+            int[] mine = player == BitBoard.X ? xCount : oCount;
+            for (int w : geometry.windowsByCell[cell]) {
+                int before = windowValue(w);
+                mine[w]--;
+                score += windowValue(w) - before;
+            }
+            cells[cell] = BitBoard.EMPTY;
+            hash ^= geometry.zobrist[cell * 2 + player - 1];
+            for (int neighbor : geometry.neighbors[cell]) near[neighbor]--;
+            moves--;
+        }
+
+        //Una finestra conta solo se contiene simboli di un solo giocatore
+        private int windowValue(int w) {
+            int x = xCount[w];
+            int o = oCount[w];
+            if (x > 0 && o > 0) return 0;
+            if (x > 0) return geometry.weight[x];
+            if (o > 0) return -geometry.weight[o];
+            return 0;
+        }
+
+        int evaluate() {
+            int value = Math.max(-WIN / 2, Math.min(WIN / 2, score));
+            return currentPlayer() == BitBoard.X ? value : -value;
+        }
+
+        int[] moveList(int ply) {
+            if (moveLists[ply] == null) {
+                moveLists[ply] = new int[geometry.cells];
+                moveKeys[ply] = new long[geometry.cells];
+            }
+            return moveLists[ply];
+        }
+
+        /*Genera le mosse candidate del nodo con la loro priorità; la mossa suggerita dalla tabella va prima*/
+        int generate(int ply, int first) {
+            int[] list = moveList(ply);
+            long[] keys = moveKeys[ply];
+            if (moves == 0) {
+                list[0] = geometry.center();
+                keys[0] = 0;
+                return 1;
+            }
+            int n = 0;
+            for (int cell = 0; cell < geometry.cells; cell++) {
+                if (cells[cell] != BitBoard.EMPTY || (!geometry.small && near[cell] == 0)) continue;
+                list[n] = cell;
+                keys[n] = cell == first ? Long.MAX_VALUE : priority(cell);
+                n++;
+            }
+            return n;
+        }
+
+        /*Quanto la mossa allunga le proprie finestre (attacco) e blocca quelle dell'avversario*/
+        private long priority(int cell) {
+            int[] mine = currentPlayer() == BitBoard.X ? xCount : oCount;
+            int[] theirs = currentPlayer() == BitBoard.X ? oCount : xCount;
+            long priority = 0;
+            for (int w : geometry.windowsByCell[cell]) {
+                if (theirs[w] == 0) priority += 2L * geometry.weight[mine[w] + 1];
+                if (mine[w] == 0) priority += geometry.weight[theirs[w] + 1];
+            }
+            return priority;
+        }
+
+        /*Selezione pigra: porta in posizione i la mossa con priorità più alta tra le restanti,
+          così dopo un taglio alpha-beta non si è pagato l'ordinamento delle altre*/
+        int next(int ply, int i, int count) {
+            int[] list = moveLists[ply];
+            long[] keys = moveKeys[ply];
+            int best = i;
+            for (int j = i + 1; j < count; j++) {
+                if (keys[j] > keys[best]) best = j;
+            }
+            int cell = list[best];
+            long key = keys[best];
+            list[best] = list[i];
+            keys[best] = keys[i];
+            list[i] = cell;
+            keys[i] = key;
+            return cell;
+        }
+
+        void sortAll(int ply, int count) {
+            for (int i = 0; i < count; i++) next(ply, i, count);
+        }
+    }
+
+    /*Tabella delle trasposizioni senza lock. Ogni posizione occupa due long: (chiave XOR dati) e dati.
+      Se due thread scrivono la stessa posizione insieme, o se una scrittura viene letta a metà,
+      la chiave ricalcolata non corrisponde e la voce viene semplicemente ignorata*/
+    static final class TranspositionTable {
+        static final int EXACT = 1;
+        static final int LOWER = 2;
+        static final int UPPER = 3;
+
+        private final long[] entries;
+        private final int mask;
+
+        TranspositionTable(int bits) {
+            entries = new long[2 << bits];
+            mask = (1 << bits) - 1;
+        }
+
+        /*Dati della posizione, 0 se non c'è*/
+        long probe(long key) {
+            int slot = ((int) key & mask) << 1;
+            long data = entries[slot + 1];
+            return (entries[slot] ^ data) == key ? data : 0;
+        }
+
+        //Dati: valore (32 bit), mossa + 1 (16 bit), profondità (8 bit), tipo di valore (2 bit)
+        void store(long key, int depth, int flag, int score, int move) {
+            long data = (score & 0xFFFFFFFFL) | ((long) (move + 1) << 32)
+                | ((long) Math.min(depth, 255) << 48) | ((long) flag << 56);
+            int slot = ((int) key & mask) << 1;
+            entries[slot] = key ^ data;
+            entries[slot + 1] = data;
+        }
+
+        static int score(long data) {
+            return (int) data;
+        }
+
+        static int move(long data) {
+            return (int) ((data >>> 32) & 0xFFFF) - 1;
+        }
+
+        static int depth(long data) {
+            return (int) ((data >>> 48) & 0xFF);
+        }
+
+        static int flag(long data) {
+            return (int) ((data >>> 56) & 0x3);
+        }
+    }
+}
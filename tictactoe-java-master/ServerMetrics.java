@@ -0,0 +1,329 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.IntSupplier;
+
+/*Metriche del server: contatori LongAdder e un LatencyHistogram per ogni comando del protocollo,
+  aggiornati dai thread che gestiscono i client senza lock e senza contesa su un solo contatore.
+  Si leggono con il comando STATS oppure dall'endpoint HTTP locale /metrics, nel formato testo
+  di Prometheus, così si possono raccogliere e disegnare in produzione*/
+final class ServerMetrics {
+    //Porta dell'endpoint HTTP, solo su loopback; 0 lo disattiva
+    static final int HTTP_PORT = Integer.getInteger("metrics.port", 12346);
+
+    /*Comandi misurati, con il numero minimo e massimo di argomenti dopo il nome: GameServer
+      costruisce da qui la sua CommandTable. BINARY_MOVE (un frame, non una riga) e UNKNOWN
+      non sono comandi del protocollo testuale*/
+    enum Command {
+        SET_NICKNAME(1, 2), RESUME(1, 2), GET_PLAYERS_PAGE(2, 2), GET_PLAYERS(0, 0), SEARCH_PLAYERS(2, 2),
+        SUBSCRIBE_PLAYERS(0, 1), UNSUBSCRIBE_PLAYERS(0, 0), QUEUE(0, 1), LEAVE_QUEUE(0, 0),
+        CHALLENGE(1, 2), ACCEPT_CHALLENGE(1, 1), DECLINE_CHALLENGE(1, 1), MOVE(5, 5),
+        BINARY_MOVE(-1, -1), GAME_OVER(0, 0), WATCH(1, 1), UNWATCH(0, 0), PING(0, 0), PONG(0, 0), STATS(0, 0), ANALYTICS(0, 1), LOG_LEVEL(0, 1),
+        UNKNOWN(-1, -1);
+
+        //Nome come appare nel protocollo, ad esempio "SET-NICKNAME"
+        final String label = name().replace('_', '-');
+        final int minArgs;
+        final int maxArgs;
+
+        Command(int minArgs, int maxArgs) {
+            this.minArgs = minArgs;
+            this.maxArgs = maxArgs;
+        }
+
+        boolean isText() {
+            return minArgs >= 0;
+        }
+    }
+
+    private static final Command[] COMMANDS = Command.values();
+    private static final LatencyHistogram[] handling = new LatencyHistogram[COMMANDS.length];
+
+    private static final LongAdder accepted = new LongAdder();
+    private static final LongAdder closed = new LongAdder();
+    //Connessioni chiuse dal server: nessuna risposta al PING, inattività o mossa troppo lenta
+    private static final LongAdder reaped = new LongAdder();
+    private static final LongAdder gamesStarted = new LongAdder();
+    //Ogni partita ha due lati (il riferimento all'avversario di ciascun giocatore) e ognuno viene
+    //liberato una sola volta, anche se i due giocatori escono insieme: le partite finite sono la metà
+    private static final LongAdder sidesFinished = new LongAdder();
+    private static final LongAdder bytesIn = new LongAdder();
+    private static final LongAdder bytesOut = new LongAdder();
+    //Sessioni messe in attesa di RESUME, riprese e scadute (SessionStore)
+    private static final LongAdder sessionsAway = new LongAdder();
+    private static final LongAdder sessionsResumed = new LongAdder();
+    private static final LongAdder sessionsExpired = new LongAdder();
+    //Code di uscita (OutboundBuffer e server NIO): byte in coda su tutte le connessioni, coda più
+    //lunga vista, messaggi scartati (DROP), variazioni della lobby sostituite da una più recente
+    //(COALESCE) e connessioni chiuse perché il client non leggeva
+    private static final LongAdder outboundQueued = new LongAdder();
+    private static final AtomicLong outboundMax = new AtomicLong();
+    private static final LongAdder outboundDropped = new LongAdder();
+    private static final LongAdder outboundCoalesced = new LongAdder();
+    private static final LongAdder slowConsumers = new LongAdder();
+    //Spettatori che seguono una partita (WATCH) e messaggi consegnati a tutti loro
+    private static final LongAdder spectators = new LongAdder();
+    private static final LongAdder spectatorMessages = new LongAdder();
+    //Partite finite nell'ultimo secondo, aggiornato dal campionatore
+    private static volatile double gamesPerSecond;
+    private static volatile IntSupplier players = () -> 0;
+
+    static {
+        for (int i = 0; i < handling.length; i++) {
+            handling[i] = new LatencyHistogram();
+        }
+    }
+
+    private ServerMetrics() {}
+
+    /*Avvia il campionatore delle partite al secondo e l'endpoint HTTP*/
+    static void start(IntSupplier playerCount) {
+        players = playerCount;
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long[] last = {0};
+        sampler.scheduleAtFixedRate(() -> {
+            long finished = gamesFinished();
+            gamesPerSecond = finished - last[0];
+            last[0] = finished;
+        }, 1, 1, TimeUnit.SECONDS);
+
+        if (HTTP_PORT > 0) {
+            try {
+                HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), HTTP_PORT), 0);
+                http.createContext("/metrics", exchange -> {
+                    byte[] body = prometheus().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                });
+                http.start();
+                Log.info("Metriche su http://localhost:" + HTTP_PORT + "/metrics");
+            } catch (IOException e) {
+                Log.warn("Endpoint delle metriche non disponibile: ", e.getMessage());
+            }
+        }
+    }
+
+    /*Registra la gestione di un comando durata nanos nanosecondi*/
+    static void record(Command command, long nanos) {
+        handling[command.ordinal()].record(nanos);
+    }
+
+    static void connectionOpened() {
+        accepted.increment();
+    }
+
+    static void connectionClosed() {
+        closed.increment();
+    }
+
+    static void connectionReaped() {
+        reaped.increment();
+    }
+
+    static void gameStarted() {
+        gamesStarted.increment();
+    }
+
+    static void sidesFinished(int sides) {
+        sidesFinished.add(sides);
+    }
+
+    private static long gamesFinished() {
+        return sidesFinished.sum() / 2;
+    }
+
+    static void sessionAway() {
+        sessionsAway.increment();
+    }
+
+    static void sessionResumed() {
+        sessionsResumed.increment();
+    }
+
+    static void sessionExpired() {
+        sessionsExpired.increment();
+    }
+
+    /*Byte entrati (delta positivo) o usciti dalla coda di una connessione, che ora ne contiene depth*/
+    static void outboundQueued(long delta, long depth) {
+        outboundQueued.add(delta);
+        if (depth > outboundMax.get()) outboundMax.accumulateAndGet(depth, Math::max);
+    }
+
+    static void outboundDropped() {
+        outboundDropped.increment();
+    }
+
+    static void outboundCoalesced() {
+        outboundCoalesced.increment();
+    }
+
+    static void slowConsumerClosed() {
+        slowConsumers.increment();
+    }
+
+    static void spectators(int delta) {
+        spectators.add(delta);
+    }
+
+    static void spectatorMessages(int count) {
+        spectatorMessages.add(count);
+    }
+
+    private static long sessionsWaiting() {
+        return sessionsAway.sum() - sessionsResumed.sum() - sessionsExpired.sum();
+    }
+
+    static void bytesIn(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    static void bytesOut(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    /*Stream di ingresso che conta i byte letti dal socket (una somma per ogni read, non per byte)*/
+    static InputStream counting(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) bytesIn.increment();
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) bytesIn.add(read);
+                return read;
+            }
+        };
+    }
+
+    /*Risposta a STATS: valori generali e poi, per ogni comando usato,
+      <comando>:<numero>/<p50 µs>/<p99 µs>/<tempo totale ms>*/
+    static String stats() {
+        StringBuilder sb = new StringBuilder("STATS=");
+        sb.append("connections:").append(accepted.sum() - closed.sum())
+            .append(",connections-reaped:").append(reaped.sum())
+            .append(",players:").append(players.getAsInt())
+            .append(",games:").append(gamesStarted.sum() - gamesFinished())
+            .append(",games-finished:").append(gamesFinished())
+            .append(",games-per-second:").append(gamesPerSecond)
+            .append(",bytes-in:").append(bytesIn.sum())
+            .append(",bytes-out:").append(bytesOut.sum())
+            .append(",sessions-away:").append(sessionsWaiting())
+            .append(",sessions-resumed:").append(sessionsResumed.sum())
+            .append(",sessions-expired:").append(sessionsExpired.sum())
+            .append(",outbound-queued:").append(outboundQueued.sum())
+            .append(",outbound-max:").append(outboundMax.get())
+            .append(",outbound-dropped:").append(outboundDropped.sum())
+            .append(",outbound-coalesced:").append(outboundCoalesced.sum())
+            .append(",slow-consumers-closed:").append(slowConsumers.sum())
+            .append(",spectators:").append(spectators.sum())
+            .append(",spectator-messages:").append(spectatorMessages.sum());
+        if (GameJournal.isEnabled()) {
+            sb.append(",journal-records:").append(GameJournal.written())
+                .append(",journal-dropped:").append(GameJournal.dropped());
+        }
+        if (Cluster.isEnabled()) {
+            sb.append(",cluster-node:").append(Cluster.self())
+                .append(",cluster-peers:").append(Cluster.peers())
+                .append(",cluster-directory:").append(Cluster.directorySize())
+                .append(",cluster-frames-in:").append(Cluster.framesIn())
+                .append(",cluster-frames-out:").append(Cluster.framesOut())
+                .append(",cluster-batches-out:").append(Cluster.batchesOut());
+        }
+        for (Command command : COMMANDS) {
+            LatencyHistogram h = handling[command.ordinal()];
+            if (h.count() == 0) continue;
+            sb.append(',').append(command.label).append(':').append(h.count())
+                .append('/').append(String.format(Locale.ROOT, "%.1f", h.percentile(0.50) / 1e3))
+                .append('/').append(String.format(Locale.ROOT, "%.1f", h.percentile(0.99) / 1e3))
+                .append('/').append(String.format(Locale.ROOT, "%.1f", h.sum() / 1e6));
+        }
+        return sb.toString();
+    }
+
+    /*Tutte le metriche nel formato testo di Prometheus*/
+    static String prometheus() {
+        StringBuilder sb = new StringBuilder();
+        gauge(sb, "tictactoe_connections", "Connessioni aperte", accepted.sum() - closed.sum());
+        gauge(sb, "tictactoe_players", "Giocatori registrati", players.getAsInt());
+        gauge(sb, "tictactoe_games_in_progress", "Partite in corso", gamesStarted.sum() - gamesFinished());
+        gauge(sb, "tictactoe_games_finished_per_second", "Partite finite nell'ultimo secondo", gamesPerSecond);
+        counter(sb, "tictactoe_connections_accepted_total", "Connessioni accettate", accepted.sum());
+        counter(sb, "tictactoe_connections_reaped_total", "Connessioni chiuse dal server per timeout", reaped.sum());
+        counter(sb, "tictactoe_games_finished_total", "Partite finite", gamesFinished());
+        counter(sb, "tictactoe_bytes_received_total", "Byte ricevuti dai client", bytesIn.sum());
+        counter(sb, "tictactoe_bytes_sent_total", "Byte inviati ai client", bytesOut.sum());
+        gauge(sb, "tictactoe_sessions_away", "Giocatori disconnessi in attesa di RESUME", sessionsWaiting());
+        counter(sb, "tictactoe_sessions_resumed_total", "Sessioni riprese con RESUME", sessionsResumed.sum());
+        counter(sb, "tictactoe_sessions_expired_total", "Sessioni scadute senza RESUME", sessionsExpired.sum());
+        gauge(sb, "tictactoe_outbound_queued_bytes", "Byte in coda verso i client", outboundQueued.sum());
+        gauge(sb, "tictactoe_outbound_queue_max_bytes", "Coda di uscita più lunga vista per una connessione", outboundMax.get());
+        counter(sb, "tictactoe_outbound_dropped_total", "Messaggi scartati con la coda di uscita piena", outboundDropped.sum());
+        counter(sb, "tictactoe_outbound_coalesced_total", "Variazioni della lobby sostituite da una più recente", outboundCoalesced.sum());
+        counter(sb, "tictactoe_slow_consumers_closed_total", "Connessioni chiuse con la coda di uscita piena", slowConsumers.sum());
+        gauge(sb, "tictactoe_spectators", "Spettatori che seguono una partita", spectators.sum());
+        counter(sb, "tictactoe_spectator_messages_total", "Mosse e fine partita consegnate agli spettatori", spectatorMessages.sum());
+        if (GameJournal.isEnabled()) {
+            counter(sb, "tictactoe_journal_records_total", "Record scritti nel registro delle partite", GameJournal.written());
+            counter(sb, "tictactoe_journal_dropped_total", "Record scartati con il buffer del registro pieno", GameJournal.dropped());
+        }
+        if (Cluster.isEnabled()) {
+            gauge(sb, "tictactoe_cluster_peers", "Nodi del cluster raggiungibili", Cluster.peers());
+            gauge(sb, "tictactoe_cluster_directory_entries", "Nickname nella partizione della directory di questo nodo", Cluster.directorySize());
+            counter(sb, "tictactoe_cluster_frames_received_total", "Frame ricevuti dagli altri nodi", Cluster.framesIn());
+            counter(sb, "tictactoe_cluster_frames_sent_total", "Frame inviati agli altri nodi", Cluster.framesOut());
+            counter(sb, "tictactoe_cluster_batches_sent_total", "Write sui collegamenti tra i nodi", Cluster.batchesOut());
+        }
+
+        sb.append("# HELP tictactoe_command_seconds Tempo di gestione di un comando\n");
+        sb.append("# TYPE tictactoe_command_seconds summary\n");
+        for (Command command : COMMANDS) {
+            LatencyHistogram h = handling[command.ordinal()];
+            if (h.count() == 0) continue;
+            String label = "command=\"" + command.label + "\"";
+            for (double q : new double[] {0.5, 0.9, 0.99}) {
+                sb.append("tictactoe_command_seconds{").append(label).append(",quantile=\"").append(q).append("\"} ")
+                    .append(h.percentile(q) / 1e9).append('\n');
+            }
+            sb.append("tictactoe_command_seconds_sum{").append(label).append("} ").append(h.sum() / 1e9).append('\n');
+            sb.append("tictactoe_command_seconds_count{").append(label).append("} ").append(h.count()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, double value) {
+        metric(sb, name, help, "gauge", value);
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, double value) {
+        metric(sb, name, help, "counter", value);
+    }
+
+    private static void metric(StringBuilder sb, String name, String help, String type, double value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        sb.append(name).append(' ');
+        if (value == Math.rint(value)) {
+            sb.append((long) value);
+        } else {
+            sb.append(value);
+        }
+        sb.append('\n');
+    }
+}
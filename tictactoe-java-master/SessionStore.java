@@ -0,0 +1,62 @@
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.concurrent.*;
+
+/*Sessioni riprendibili: con NICKNAME-SUCCESS ogni giocatore riceve un token casuale.
+  Se la connessione cade durante una partita, il giocatore resta nel registro (con il nickname
+  occupato) e la partita resta aperta per -Dresume.grace.ms (30 s di default, 0 disattiva):
+  RESUME=<token> da una nuova connessione riprende nickname e partita. Scaduto il tempo
+  la disconnessione diventa definitiva, come senza token.
+  Chi si disconnette dalla lobby, fuori da una partita, esce subito come prima*/
+final class SessionStore {
+    static final long GRACE_MS = Long.getLong("resume.grace.ms", 30_000);
+
+    private static final SecureRandom random = new SecureRandom();
+    //Un solo thread per tutte le scadenze: ognuna è un controllo sulla mappa
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "session-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    //Token -> giocatore disconnesso in attesa di RESUME
+    private final ConcurrentHashMap<String, GameServer.ClientHandler> away = new ConcurrentHashMap<>();
+
+    /*Token di 128 bit in esadecimale: non contiene '=' e non si indovina*/
+    static String newToken() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    static boolean isEnabled() {
+        return GRACE_MS > 0;
+    }
+
+    /*Attesa in secondi, arrotondata per eccesso, come la riceve l'avversario in OPPONENT-AWAY*/
+    static long graceSeconds() {
+        return (GRACE_MS + 999) / 1000;
+    }
+
+    /*Mette in attesa il giocatore disconnesso: se nessuno lo riprende entro GRACE_MS,
+      expire viene eseguito sul thread del timer*/
+    void park(String token, GameServer.ClientHandler handler, Runnable expire) {
+        away.put(token, handler);
+        ServerMetrics.sessionAway();
+        timer.schedule(() -> {
+            //Se RESUME è arrivato prima, il token non punta più a questo handler
+            if (away.remove(token, handler)) {
+                ServerMetrics.sessionExpired();
+                expire.run();
+            }
+        }, GRACE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /*Toglie dall'attesa il giocatore del token, null se il token non è valido o è già scaduto.
+      La rimozione è atomica: tra RESUME e scadenza vince uno solo*/
+    GameServer.ClientHandler claim(String token) {
+        GameServer.ClientHandler handler = away.remove(token);
+        if (handler != null) ServerMetrics.sessionResumed();
+        return handler;
+    }
+}
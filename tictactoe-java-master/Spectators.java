@@ -0,0 +1,113 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/*Spettatori di una partita (WATCH), creati alla prima richiesta: ricevono l'istantanea quando
+  arrivano e poi ogni mossa giocata, fino alla fine della partita.
+  I giocatori non scrivono mai agli spettatori: sotto il lock della partita accodano l'evento e al più
+  avviano il distributore, un virtual thread (al più uno alla volta per partita, come lo scrittore di
+  OutboundBuffer) che codifica la mossa una sola volta, in testo e in binario, e consegna gli stessi
+  due array a tutti. Il server bloccante li copia nel buffer di ogni connessione, quello NIO li mette
+  in coda senza copiarli: una volta consegnati non vanno più modificati.
+  Arrivi, uscite e mosse passano dalla stessa coda, quindi ogni spettatore riceve l'istantanea e poi
+  esattamente le mosse che non contiene. L'insieme degli spettatori lo tocca solo il distributore*/
+final class Spectators {
+    //Spettatori serviti prima di cedere il passo: i virtual thread non vengono interrotti, e senza
+    //pause la consegna a 10.000 spettatori passava davanti alle mosse dei giocatori (vedi README)
+    private static final int CHUNK = 256;
+
+    private static final ExecutorService distributors =
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("spectators-", 0).factory());
+
+    private final Match match;
+    private final Queue<Runnable> events = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean running = new AtomicBoolean();
+    //Solo sul distributore; in ordine di arrivo, con uscita in O(1)
+    private final LinkedHashSet<GameServer.ClientHandler> watchers = new LinkedHashSet<>();
+
+    Spectators(Match match) {
+        this.match = match;
+    }
+
+    /*Nuovo spettatore: l'istantanea va presa con il lock della partita, così nessuna mossa manca o
+      arriva due volte*/
+    void join(GameServer.ClientHandler watcher, String snapshot) {
+        submit(() -> {
+            if (!watchers.add(watcher)) return;
+            ServerMetrics.spectators(1);
+            watcher.send("WATCHING=" + match.x + "=" + match.o + "=" + snapshot);
+        });
+    }
+
+    void leave(GameServer.ClientHandler watcher) {
+        submit(() -> {
+            if (watchers.remove(watcher)) ServerMetrics.spectators(-1);
+        });
+    }
+
+    /*Mossa appena giocata, con il lock della partita*/
+    void move(int player, int row, int col) {
+        submit(() -> {
+            if (watchers.isEmpty()) return;
+            byte[] line = ("WATCH-MOVE=" + match.id + "=" + BitBoard.symbol(player) + "=" + row + "=" + col + "\n")
+                .getBytes(StandardCharsets.UTF_8);
+            broadcast(line, BinaryProtocol.move(match.id, player, row, col));
+        });
+    }
+
+    /*Partita finita: gli spettatori ricevono WATCH-END=<id> e vengono congedati*/
+    void end() {
+        submit(() -> {
+            if (watchers.isEmpty()) return;
+            String message = "WATCH-END=" + match.id;
+            broadcast((message + "\n").getBytes(StandardCharsets.UTF_8), BinaryProtocol.text(message));
+            for (GameServer.ClientHandler watcher : watchers) {
+                watcher.watchEnded(match);
+            }
+            ServerMetrics.spectators(-watchers.size());
+            watchers.clear();
+        });
+    }
+
+    /*Consegna a tutti gli stessi array. Ogni CHUNK spettatori chiude il ciclo, così i loro scrittori
+      partono subito, e cede il carrier: le mosse e gli scrittori dei giocatori si mettono in coda
+      dietro al più CHUNK scritture, non dietro a tutti gli spettatori*/
+    private void broadcast(byte[] line, byte[] frame) {
+        int sent = 0;
+        for (GameServer.ClientHandler watcher : watchers) {
+            watcher.sendShared(line, frame);
+            if (++sent % CHUNK == 0) {
+                OutboundBuffer.endCycle();
+                Thread.yield();
+                OutboundBuffer.beginCycle();
+            }
+        }
+        ServerMetrics.spectatorMessages(sent);
+    }
+
+    private void submit(Runnable event) {
+        events.add(event);
+        if (running.compareAndSet(false, true)) distributors.execute(this::distribute);
+    }
+
+    /*Esegue gli eventi in coda nello stesso ciclo di OutboundBuffer: se le mosse arrivano più in fretta
+      di quanto il distributore le consegni, ogni spettatore le riceve insieme con un solo flush*/
+    private void distribute() {
+        do {
+            OutboundBuffer.beginCycle();
+            try {
+                Runnable event;
+                while ((event = events.poll()) != null) {
+                    event.run();
+                }
+            } catch (RuntimeException e) {
+                Log.error("Errore nell'invio agli spettatori", e);
+            } finally {
+                OutboundBuffer.endCycle();
+            }
+            running.set(false);
+            //Un evento accodato dopo l'ultimo poll ma prima di running=false non ha avviato nessuno
+        } while (!events.isEmpty() && running.compareAndSet(false, true));
+    }
+}
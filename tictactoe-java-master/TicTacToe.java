@@ -11,15 +11,30 @@ public class TicTacToe {
     JPanel textPanel = new JPanel();
     JPanel boardPanel = new JPanel();
 
-    JButton[][] board = new JButton[3][3];
+    JButton[][] board;
     String playerX = "X";
     String playerO = "O";
     String currentPlayer = playerX;
 
     boolean gameOver = false;
-    int turns = 0;
+    MnkBoard game;
+    //Se true il computer gioca con la O: PerfectPlay sul 3x3, SearchEngine sugli altri tabelloni
+    boolean vsComputer;
+    boolean computerThinking = false;
+    SearchEngine engine;
 
     TicTacToe() {
+        this(new MnkBoard(3, 3, 3), false);
+    }
+
+    TicTacToe(boolean vsComputer) {
+        this(new MnkBoard(3, 3, 3), vsComputer);
+    }
+
+    TicTacToe(MnkBoard game, boolean vsComputer) {
+        this.game = game;
+        this.vsComputer = vsComputer;
+        board = new JButton[game.rows()][game.cols()];
         frame.setVisible(true);
         frame.setSize(boardWidth, boardHeight);
         frame.setLocationRelativeTo(null);
@@ -38,103 +53,92 @@ public class TicTacToe {
         textPanel.add(textLabel);
         frame.add(textPanel, BorderLayout.NORTH);
 
-        boardPanel.setLayout(new GridLayout(3, 3));
+        boardPanel.setLayout(new GridLayout(game.rows(), game.cols()));
         boardPanel.setBackground(Color.darkGray);
         frame.add(boardPanel);
 
-        for (int r = 0; r < 3; r++) {
-            for (int c = 0; c < 3; c++) {
+        //120 sul 3x3, più piccolo sui tabelloni grandi
+        int fontSize = Math.max(8, 360 / Math.max(game.rows(), game.cols()));
+
+        for (int r = 0; r < game.rows(); r++) {
+            for (int c = 0; c < game.cols(); c++) {
                 JButton tile = new JButton();
                 board[r][c] = tile;
                 boardPanel.add(tile);
 
                 tile.setBackground(Color.darkGray);
                 tile.setForeground(Color.white);
-                tile.setFont(new Font("Arial", Font.BOLD, 120));
+                tile.setFont(new Font("Arial", Font.BOLD, fontSize));
+                tile.setMargin(new Insets(0, 0, 0, 0));
                 tile.setFocusable(false);
                 // tile.setText(currentPlayer);
 
+                int row = r;
+                int col = c;
+
                 tile.addActionListener(new ActionListener() {
                     public void actionPerformed(ActionEvent e) {
-                        if (gameOver) return;
-                        JButton tile = (JButton) e.getSource();
-                        if (tile.getText() == "") {
-                            tile.setText(currentPlayer);
-                            turns++;
-                            checkWinner();
-                            if (!gameOver) {
-                                currentPlayer = currentPlayer == playerX ? playerO : playerX;
-                                textLabel.setText(currentPlayer + "'s turn.");
-                            }
+                        if (gameOver || computerThinking) return;
+                        if (playMove(row, col) && vsComputer && !gameOver) {
+                            computerMove();
                         }
-
                     }
                 });
             }
         }
     }
-    
-    void checkWinner() {
-        //horizontal
-        for (int r = 0; r < 3; r++) {
-            if (board[r][0].getText() == "") continue;
-
-            if (board[r][0].getText() == board[r][1].getText() &&
-                board[r][1].getText() == board[r][2].getText()) {
-                for (int i = 0; i < 3; i++) {
-                    setWinner(board[r][i]);
-                }
-                gameOver = true;
-                return;
-            }
-        }
 
-        //vertical
-        for (int c = 0; c < 3; c++) {
-            if (board[0][c].getText() == "") continue;
-            
-            if (board[0][c].getText() == board[1][c].getText() &&
-                board[1][c].getText() == board[2][c].getText()) {
-                for (int i = 0; i < 3; i++) {
-                    setWinner(board[i][c]);
-                }
-                gameOver = true;
-                return;
-            }
+    /*Mossa del computer: sul 3x3 è immediata, altrimenti la ricerca gira fuori dal thread di Swing*/
+    void computerMove() {
+        if (game.isClassic()) {
+            int cell = PerfectPlay.bestMove(game);
+            playMove(cell / 3, cell % 3);
+            return;
         }
+        if (engine == null) engine = new SearchEngine(Runtime.getRuntime().availableProcessors());
+        computerThinking = true;
+        MnkBoard position = game.copy();
+        new Thread(() -> {
+            int cell = engine.bestMove(position, AiPlayer.BUDGET_MS);
+            SwingUtilities.invokeLater(() -> {
+                computerThinking = false;
+                playMove(cell / game.cols(), cell % game.cols());
+            });
+        }, "computer-move").start();
+    }
 
-        //diagonally
-        if (board[0][0].getText() == board[1][1].getText() &&
-            board[1][1].getText() == board[2][2].getText() &&
-            board[0][0].getText() != "") {
-            for (int i = 0; i < 3; i++) {
-                setWinner(board[i][i]);
-            }
-            gameOver = true;
-            return;
+    /*Gioca una mossa per il giocatore di turno, restituisce false se la casella è occupata*/
+    boolean playMove(int row, int col) {
+        if (!game.play(row, col)) return false;
+        board[row][col].setText(currentPlayer);
+        checkWinner();
+        if (!gameOver) {
+            currentPlayer = BitBoard.symbol(game.currentPlayer());
+            textLabel.setText(currentPlayer + "'s turn.");
         }
+        return true;
+    }
 
-        //anti-diagonally
-        if (board[0][2].getText() == board[1][1].getText() &&
-            board[1][1].getText() == board[2][0].getText() &&
-            board[0][2].getText() != "") {
-            setWinner(board[0][2]);
-            setWinner(board[1][1]);
-            setWinner(board[2][0]);
+    void checkWinner() {
+        //the engine already knows the winning line, just highlight it
+        int[] line = game.winningCells();
+        if (line.length > 0) {
+            for (int cell : line) {
+                setWinner(board[cell / game.cols()][cell % game.cols()]);
+            }
             gameOver = true;
             return;
         }
 
-        if (turns == 9) {
-            for (int r = 0; r < 3; r++) {
-                for (int c = 0; c < 3; c++) {
+        if (game.isDraw()) {
+            for (int r = 0; r < game.rows(); r++) {
+                for (int c = 0; c < game.cols(); c++) {
                     setTie(board[r][c]);
                 }
             }
             gameOver = true;
         }
     }
-
     void setWinner(JButton tile) {
         tile.setForeground(Color.green);
         tile.setBackground(Color.gray);
@@ -11,17 +11,25 @@ public class TicTacToeOnline {
     JPanel textPanel = new JPanel();
     JPanel boardPanel = new JPanel();
 
-    JButton[][] board = new JButton[3][3];
+    JButton[][] board;
     String currentPlayer;
-    boolean gameOver = false;
-    int turns = 0;
+    //Letto anche dal thread di ascolto di GameClient, per decidere se riconnettersi
+    volatile boolean gameOver = false;
+    //Dimensioni e lunghezza della fila negoziate in GAME-START
+    MnkBoard game;
 
     GameClient client;
     String mySymbol;
     boolean myTurn = false;
 
     TicTacToeOnline(GameClient client) {
+        this(client, new MnkBoard(3, 3, 3));
+    }
+
+    TicTacToeOnline(GameClient client, MnkBoard game) {
         this.client = client;
+        this.game = game;
+        board = new JButton[game.rows()][game.cols()];
         client.setUI(this);
 
         frame.setVisible(true);
@@ -42,19 +50,23 @@ public class TicTacToeOnline {
         textPanel.add(textLabel);
         frame.add(textPanel, BorderLayout.NORTH);
 
-        boardPanel.setLayout(new GridLayout(3, 3));
+        boardPanel.setLayout(new GridLayout(game.rows(), game.cols()));
         boardPanel.setBackground(Color.darkGray);
         frame.add(boardPanel);
 
-        for (int r = 0; r < 3; r++) {
-            for (int c = 0; c < 3; c++) {
+        //120 sul 3x3, più piccolo sui tabelloni grandi
+        int fontSize = Math.max(8, 360 / Math.max(game.rows(), game.cols()));
+
+        for (int r = 0; r < game.rows(); r++) {
+            for (int c = 0; c < game.cols(); c++) {
                 JButton tile = new JButton();
                 board[r][c] = tile;
                 boardPanel.add(tile);
 
                 tile.setBackground(Color.darkGray);
                 tile.setForeground(Color.white);
-                tile.setFont(new Font("Arial", Font.BOLD, 120));
+                tile.setFont(new Font("Arial", Font.BOLD, fontSize));
+                tile.setMargin(new Insets(0, 0, 0, 0));
                 tile.setFocusable(false);
 
                 int row = r;
@@ -65,9 +77,8 @@ public class TicTacToeOnline {
                         if (gameOver || !myTurn) return;
                         
                         JButton tile = (JButton) e.getSource();
-                        if (tile.getText().equals("")) {
+                        if (game.play(row, col)) {
                             tile.setText(mySymbol);
-                            turns++;
                             
                             //Invia la mossa al server
                             client.sendMove(row, col, mySymbol);
@@ -91,7 +102,7 @@ public class TicTacToeOnline {
             this.mySymbol = symbol;
             this.currentPlayer = "X";
             
-            System.out.println("Partita iniziata! Io sono " + symbol + ", avversario: " + opponent);
+            Log.info("Partita iniziata! Io sono " + symbol + ", avversario: " + opponent);
             
             //Il giocatore X inizia sempre per primo
             if (symbol.equals("X")) {
@@ -108,13 +119,17 @@ public class TicTacToeOnline {
     public void handleOpponentMove(int row, int col, String symbol) {
         SwingUtilities.invokeLater(() -> {
             //Controlla che le coordinate siano valide
-            if (row < 0 || row > 2 || col < 0 || col > 2) {
-                System.err.println("Coordinate non valide: " + row + ", " + col);
+            if (!game.inBounds(row, col)) {
+                Log.warn("Coordinate non valide: " + row + ", " + col);
+                return;
+            }
+
+            if (!game.play(row, col)) {
+                Log.warn("Mossa non valida: " + row + ", " + col);
                 return;
             }
 
             board[row][col].setText(symbol);
-            turns++;
             myTurn = true;
             
             checkWinner();
@@ -125,66 +140,81 @@ public class TicTacToeOnline {
         });
     }
 
-    /*Controlla se c'è un vincitore*/
-    void checkWinner() {
-        //Controllo orizzontale
-        for (int r = 0; r < 3; r++) {
-            if (board[r][0].getText().equals("")) continue;
-
-            if (board[r][0].getText().equals(board[r][1].getText()) &&
-                board[r][1].getText().equals(board[r][2].getText())) {
-                for (int i = 0; i < 3; i++) {
-                    setWinner(board[r][i]);
+    /*La connessione è caduta e GameClient prova a riprendere la partita: niente mosse nel frattempo*/
+    public void handleConnectionLost() {
+        SwingUtilities.invokeLater(() -> {
+            myTurn = false;
+            textLabel.setText("Riconnessione...");
+        });
+    }
+
+    /*Partita ripresa dopo RESUME: il tabellone si ricostruisce rigiocando le caselle in ordine,
+      X per primo, e il turno è quello indicato dal server*/
+    public void handleResumed(String symbol, String turn, int[] moves) {
+        SwingUtilities.invokeLater(() -> {
+            this.mySymbol = symbol;
+            game.reset();
+            for (int r = 0; r < game.rows(); r++) {
+                for (int c = 0; c < game.cols(); c++) {
+                    board[r][c].setText("");
+                    board[r][c].setForeground(Color.white);
+                    board[r][c].setBackground(Color.darkGray);
                 }
-                gameOver = true;
-                client.sendGameOver();
-                return;
             }
-        }
-
-        //Controllo verticale
-        for (int c = 0; c < 3; c++) {
-            if (board[0][c].getText().equals("")) continue;
-            
-            if (board[0][c].getText().equals(board[1][c].getText()) &&
-                board[1][c].getText().equals(board[2][c].getText())) {
-                for (int i = 0; i < 3; i++) {
-                    setWinner(board[i][c]);
+            for (int cell : moves) {
+                int row = cell / game.cols();
+                int col = cell % game.cols();
+                String played = BitBoard.symbol(game.currentPlayer());
+                if (!game.play(row, col)) {
+                    Log.warn("Casella non valida nello stato ripreso: " + cell);
+                    continue;
                 }
-                gameOver = true;
-                client.sendGameOver();
-                return;
+                board[row][col].setText(played);
             }
-        }
+            Log.info("Partita ripresa dopo " + moves.length + " mosse");
 
-        //Controllo diagonale
-        if (!board[0][0].getText().equals("") &&
-            board[0][0].getText().equals(board[1][1].getText()) &&
-            board[1][1].getText().equals(board[2][2].getText())) {
-            for (int i = 0; i < 3; i++) {
-                setWinner(board[i][i]);
+            gameOver = false;
+            myTurn = turn.equals(mySymbol);
+            checkWinner();
+            if (!gameOver) {
+                textLabel.setText(myTurn ? "Il tuo turno! Sei " + mySymbol : "Turno di " + client.getOpponent());
             }
-            gameOver = true;
-            client.sendGameOver();
-            return;
-        }
+        });
+    }
+
+    /*L'avversario ha perso la connessione: il server tiene aperta la partita per qualche secondo*/
+    public void handleOpponentAway(int seconds) {
+        SwingUtilities.invokeLater(() -> {
+            if (!gameOver) textLabel.setText(client.getOpponent() + " riconnessione... (" + seconds + " s)");
+        });
+    }
+
+    /*L'avversario è rientrato nella partita*/
+    public void handleOpponentBack() {
+        SwingUtilities.invokeLater(() -> {
+            if (!gameOver) {
+                textLabel.setText(myTurn ? "Il tuo turno! Sei " + mySymbol : "Turno di " + client.getOpponent());
+            }
+        });
+    }
 
-        //Controllo anti-diagonale
-        if (!board[0][2].getText().equals("") &&
-            board[0][2].getText().equals(board[1][1].getText()) &&
-            board[1][1].getText().equals(board[2][0].getText())) {
-            setWinner(board[0][2]);
-            setWinner(board[1][1]);
-            setWinner(board[2][0]);
+    /*Controlla se c'è un vincitore*/
+    void checkWinner() {
+        //La linea vincente è già calcolata dal motore, basta evidenziarla
+        int[] line = game.winningCells();
+        if (line.length > 0) {
+            for (int cell : line) {
+                setWinner(board[cell / game.cols()][cell % game.cols()]);
+            }
             gameOver = true;
             client.sendGameOver();
             return;
         }
 
         //Controllo pareggio
-        if (turns == 9) {
-            for (int r = 0; r < 3; r++) {
-                for (int c = 0; c < 3; c++) {
+        if (game.isDraw()) {
+            for (int r = 0; r < game.rows(); r++) {
+                for (int c = 0; c < game.cols(); c++) {
                     setTie(board[r][c]);
                 }
             }
@@ -198,7 +228,7 @@ public class TicTacToeOnline {
         tile.setForeground(Color.green);
         tile.setBackground(Color.gray);
         
-        String winner = tile.getText().equals(mySymbol) ? "Tu" : client.getOpponent();
+        String winner = game.winner() == BitBoard.player(mySymbol) ? "Tu" : client.getOpponent();
         textLabel.setText(winner + " ha vinto!");
     }
 
@@ -218,10 +248,25 @@ public class TicTacToeOnline {
         frame.dispose();
     }
 
+    /*La partita non si può riprendere: il server non ha più la sessione o non risponde*/
+    public void handleResumeFailed() {
+        SwingUtilities.invokeLater(() -> {
+            JOptionPane.showMessageDialog(frame,
+                "Connessione al server persa!",
+                "Disconnessione",
+                JOptionPane.WARNING_MESSAGE);
+            frame.dispose();
+        });
+    }
+
     /*Metodi chiamati dal client per gestire eventi*/
     public void handleNicknameSuccess() {}
     public void handleNicknameError() {}
     public void handlePlayerList(String players) {}
-    public void handleChallengeRequest(String challenger) {}
+    public void handlePlayerPage(String players, boolean more) {}
+    public void handleSearchResult(String players, boolean more) {}
+    public void handlePlayerAvailable(String player) {}
+    public void handlePlayerUnavailable(String player) {}
+    public void handleChallengeRequest(String challenger, String board) {}
     public void handleChallengeDeclined(String player) {}
 }
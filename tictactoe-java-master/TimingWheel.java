@@ -0,0 +1,122 @@
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/*Ruota dei tempi (hashed timing wheel): un solo thread e un array di slot, uno per tick.
+  Un timer con scadenza fra d tick va nello slot (tick + d) mod slot, e a ogni tick si guarda
+  solo lo slot corrente: inserire un timer costa O(1) e un tick costa quanto i timer che ci
+  cadono dentro, non quanto tutti i timer. Quelli con scadenza oltre un giro restano nello slot
+  e si saltano finché non arriva il loro giro.
+  Non c'è cancellazione: chi non ha più bisogno del timer restituisce 0 alla scadenza.
+  Per i timeout di inattività conviene così: la connessione a ogni messaggio scrive solo l'ora
+  (now(), una lettura volatile) e alla scadenza il timer si riprogramma da solo in base all'ultima
+  attività, invece di togliere e rimettere un timer a ogni messaggio*/
+final class TimingWheel {
+    /*Timer della ruota: expire gira sul thread della ruota, non deve bloccare e restituisce fra
+      quanti ms ripetersi, oppure 0 (o meno) per uscire dalla ruota*/
+    interface Timer {
+        long expire(long now);
+    }
+
+    private static final class Entry {
+        final Timer timer;
+        //Scadenza in ms e tick in cui scade, calcolato quando il timer entra nello slot
+        long deadline;
+        long due;
+
+        Entry(Timer timer, long deadline) {
+            this.timer = timer;
+            this.deadline = deadline;
+        }
+    }
+
+    private final long tickMs;
+    private final int mask;
+    private final ArrayList<Entry>[] slots;
+    //Timer aggiunti da altri thread, sistemati negli slot dal thread della ruota al tick successivo
+    private final Queue<Entry> added = new ConcurrentLinkedQueue<>();
+    //Timer da ripetere nello stesso slot che si sta scorrendo, rimessi alla fine del tick
+    private final ArrayList<Entry> again = new ArrayList<>();
+    private long tick;
+    //Ora dell'ultimo tick: un orologio approssimato al tick ma molto più economico da leggere
+    private volatile long now = System.currentTimeMillis();
+
+    @SuppressWarnings("unchecked")
+    TimingWheel(String name, long tickMs, int slots) {
+        this.tickMs = Math.max(1, tickMs);
+        int size = Integer.highestOneBit(Math.max(16, slots - 1) << 1);
+        this.mask = size - 1;
+        this.slots = (ArrayList<Entry>[]) new ArrayList<?>[size];
+        for (int i = 0; i < size; i++) {
+            this.slots[i] = new ArrayList<>();
+        }
+        Thread thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    long now() {
+        return now;
+    }
+
+    /*Aggiunge un timer che scade fra delayMs (arrotondati al tick successivo)*/
+    void schedule(Timer timer, long delayMs) {
+        added.add(new Entry(timer, now + Math.max(0, delayMs)));
+    }
+
+    private void run() {
+        long next = System.nanoTime();
+        while (true) {
+            next += TimeUnit.MILLISECONDS.toNanos(tickMs);
+            long wait;
+            while ((wait = next - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            now = System.currentTimeMillis();
+            tick++;
+            Entry entry;
+            while ((entry = added.poll()) != null) {
+                place(entry);
+            }
+            expire(slots[(int) tick & mask]);
+        }
+    }
+
+    private void place(Entry entry) {
+        //Un timer già scaduto va al tick successivo, mai in uno slot appena passato
+        long ticks = Math.max(1, (entry.deadline - now + tickMs - 1) / tickMs);
+        entry.due = tick + ticks;
+        slots[(int) entry.due & mask].add(entry);
+    }
+
+    private void expire(ArrayList<Entry> slot) {
+        int kept = 0;
+        int size = slot.size();
+        for (int i = 0; i < size; i++) {
+            Entry entry = slot.get(i);
+            //Scade in un giro successivo della ruota
+            if (entry.due > tick) {
+                slot.set(kept++, entry);
+                continue;
+            }
+            long delay;
+            try {
+                delay = entry.timer.expire(now);
+            } catch (RuntimeException e) {
+                Log.error("Errore in un timer della ruota", e);
+                delay = 0;
+            }
+            if (delay > 0) {
+                entry.deadline = now + delay;
+                again.add(entry);
+            }
+        }
+        slot.subList(kept, size).clear();
+        for (int i = 0; i < again.size(); i++) {
+            place(again.get(i));
+        }
+        again.clear();
+    }
+}
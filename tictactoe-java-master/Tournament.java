@@ -0,0 +1,518 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/*Torneo tra strategie dell'AI senza socket né Swing, con le regole di MnkBoard: per controllare
+  che una modifica a PerfectPlay o a SearchEngine non peggiori il gioco e per mettere alla prova
+  le regole con milioni di partite.
+  Le partite di ogni coppia si dividono su un ForkJoinPool: un blocco si spezza a metà finché supera
+  LEAF partite e i thread rimasti senza lavoro rubano le metà degli altri, quindi una coppia lenta
+  (ad esempio con una ricerca) non lascia fermi i core. Ogni thread ha il suo Worker con tabellone,
+  generatore casuale, totali e buffer di uscita, riusati per tutte le sue partite: una partita non
+  alloca nulla (tranne le ricerche di SearchEngine). Il seme di ogni partita dipende solo dalla coppia
+  e dal numero della partita, quindi i risultati non cambiano con il numero di thread.
+  Sul tris ogni mossa si gioca anche su BitBoard: i due motori devono dare sempre lo stesso esito.
+  I risultati vanno su file man mano che i blocchi finiscono (vedi write).
+  java Tournament [strategie] [partite per coppia] [tabellone] [round-robin|bracket] [file] [thread...]
+      strategie separate da virgole (perfect, greedy, random, search<profondità>), di default
+      "perfect,greedy,random" con 100000 partite per coppia sul tris; con più numeri di thread il
+      torneo si ripete con ognuno e stampa partite al secondo e accelerazione
+  java Tournament read [file]  riepilogo di un file di risultati*/
+final class Tournament {
+    static final String FILE = "tournament.dat";
+    static final int MAGIC = 0x54545231; //"TTR1"
+    static final int VERSION = 1;
+    //Seme del torneo e mosse iniziali giocate a caso, così anche due strategie deterministiche
+    //giocano partite diverse
+    static final long SEED = Long.getLong("tournament.seed", 1);
+    static final int OPENING = Integer.getInteger("tournament.opening", 0);
+    //Partite per blocco: abbastanza da rendere trascurabile il costo del compito, abbastanza poche
+    //da lasciare lavoro da rubare
+    static final int LEAF = 1024;
+    private static final int CHUNK_HEADER = 8;
+    private static final long SEARCH_BUDGET_MS = 600_000;
+    private static final int SEARCH_TABLE_BITS = 16;
+
+    //Esiti di una partita: come in GameAnalytics, più la mossa non valida (perde chi l'ha giocata)
+    static final int X_WINS = GameAnalytics.X_WINS;
+    static final int O_WINS = GameAnalytics.O_WINS;
+    static final int DRAW = GameAnalytics.DRAW;
+    static final int X_INVALID = 3;
+    static final int O_INVALID = 4;
+    //Totali per coppia: un contatore per esito, poi la somma delle mosse
+    private static final int MOVES = 5;
+    private static final int FIELDS = 6;
+
+    /*Strategia: la casella (row * cols + col) per il giocatore di turno. Lo stato tra una mossa e
+      l'altra sta nel Worker, quindi la stessa strategia serve tutti i thread*/
+    interface Strategy {
+        int move(MnkBoard board, Worker worker);
+    }
+
+    private final MnkBoard spec;
+    private final String[] names;
+    private final Strategy[] strategies;
+    private final int games;
+    private final boolean bracket;
+    private final Queue<Worker> workers = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Worker> worker = ThreadLocal.withInitial(this::newWorker);
+    private final AtomicLong mismatches = new AtomicLong();
+    private final AtomicReference<String> firstMismatch = new AtomicReference<>();
+    private final StringBuilder rounds = new StringBuilder();
+    private FileChannel out;
+    private long[] totals;
+    private long played;
+    private long nanos;
+
+    Tournament(MnkBoard spec, String[] names, int games, boolean bracket) {
+        this.spec = spec;
+        this.names = names;
+        this.strategies = new Strategy[names.length];
+        for (int i = 0; i < names.length; i++) {
+            strategies[i] = strategy(names[i]);
+            if (strategies[i] == null) throw new IllegalArgumentException("Strategia sconosciuta: " + names[i]);
+        }
+        this.games = games;
+        this.bracket = bracket;
+    }
+
+    /*Strategia dal nome, null se non esiste*/
+    static Strategy strategy(String name) {
+        switch (name) {
+            case "random":
+                return (board, worker) -> worker.randomCell(board);
+            case "greedy":
+                return Tournament::greedy;
+            case "perfect":
+                //PerfectPlay risolve solo il tris: sugli altri tabelloni gioca come greedy
+                return (board, worker) -> board.isClassic() ? PerfectPlay.bestMove(board) : greedy(board, worker);
+            default:
+                if (!name.matches("search[1-9][0-9]*")) return null;
+                int depth = Integer.parseInt(name.substring("search".length()));
+                return (board, worker) -> worker.engine().search(board, depth, SEARCH_BUDGET_MS).cell;
+        }
+    }
+
+    /*Vince se può, altrimenti blocca la vittoria immediata dell'avversario, altrimenti gioca a caso*/
+    static int greedy(MnkBoard board, Worker worker) {
+        int player = board.currentPlayer();
+        int other = player == BitBoard.X ? BitBoard.O : BitBoard.X;
+        int block = -1;
+        for (int row = 0; row < board.rows(); row++) {
+            for (int col = 0; col < board.cols(); col++) {
+                if (board.get(row, col) != BitBoard.EMPTY) continue;
+                if (board.wins(row, col, player)) return row * board.cols() + col;
+                if (block < 0 && board.wins(row, col, other)) block = row * board.cols() + col;
+            }
+        }
+        return block >= 0 ? block : worker.randomCell(board);
+    }
+
+    /*Gioca il torneo su threads thread e scrive i risultati in file (null per non scriverli)*/
+    void run(int threads, Path file) throws IOException {
+        int n = strategies.length;
+        totals = new long[n * n * FIELDS];
+        if (file != null) {
+            out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+            writeHeader();
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        try {
+            if (bracket) {
+                playBracket(pool);
+            } else {
+                List<Games> round = new ArrayList<>();
+                for (int x = 0; x < n; x++) {
+                    for (int o = 0; o < n; o++) {
+                        //Ogni strategia contro ogni altra con entrambi i simboli; da sola contro se stessa
+                        if (x != o || n == 1) round.add(new Games(x, o, 0, games));
+                    }
+                }
+                playRound(pool, round);
+            }
+        } finally {
+            nanos = System.nanoTime() - start;
+            pool.shutdown();
+            for (Worker w : workers) {
+                if (w.engine != null) w.engine.shutdown();
+            }
+            if (out != null) out.close();
+        }
+    }
+
+    /*Eliminazione diretta nell'ordine dato (chi resta senza avversario passa il turno): ogni incontro
+      ha metà delle partite per simbolo e passa chi fa più punti (1 la vittoria, mezzo la patta),
+      a parità chi era prima nell'elenco. Gli incontri di un turno si giocano tutti insieme*/
+    private void playBracket(ForkJoinPool pool) {
+        List<Integer> alive = new ArrayList<>();
+        for (int i = 0; i < strategies.length; i++) alive.add(i);
+        int turn = 0;
+        while (alive.size() > 1) {
+            turn++;
+            List<Games> round = new ArrayList<>();
+            for (int i = 0; i + 1 < alive.size(); i += 2) {
+                int a = alive.get(i);
+                int b = alive.get(i + 1);
+                round.add(new Games(a, b, 0, games - games / 2));
+                round.add(new Games(b, a, 0, games / 2));
+            }
+            playRound(pool, round);
+
+            List<Integer> next = new ArrayList<>();
+            for (int i = 0; i < alive.size(); i += 2) {
+                if (i + 1 == alive.size()) {
+                    next.add(alive.get(i));
+                    continue;
+                }
+                int a = alive.get(i);
+                int b = alive.get(i + 1);
+                double pa = points(a, b);
+                double pb = points(b, a);
+                int winner = pb > pa ? b : a;
+                next.add(winner);
+                rounds.append(String.format(Locale.ROOT, "Turno %d: %s - %s %.1f-%.1f, passa %s%n",
+                    turn, names[a], names[b], pa, pb, names[winner]));
+            }
+            alive = next;
+        }
+        rounds.append("Vincitore: ").append(names[alive.get(0)]).append('\n');
+    }
+
+    private void playRound(ForkJoinPool pool, List<Games> round) {
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(round);
+            }
+        });
+        //I totali dei Worker si sommano tra un turno e l'altro, quando nessuno li sta scrivendo
+        Arrays.fill(totals, 0);
+        played = 0;
+        for (Worker w : workers) {
+            for (int i = 0; i < totals.length; i++) totals[i] += w.totals[i];
+        }
+        for (int pair = 0; pair < totals.length; pair += FIELDS) {
+            for (int outcome = 0; outcome < MOVES; outcome++) played += totals[pair + outcome];
+        }
+    }
+
+    /*Punti di a contro b, con entrambi i simboli*/
+    private double points(int a, int b) {
+        return points(totals, strategies.length, a, b);
+    }
+
+    private static double points(long[] totals, int n, int a, int b) {
+        int asX = (a * n + b) * FIELDS;
+        int asO = (b * n + a) * FIELDS;
+        return totals[asX + X_WINS] + totals[asX + O_INVALID] + totals[asO + O_WINS] + totals[asO + X_INVALID]
+            + 0.5 * (totals[asX + DRAW] + totals[asO + DRAW]);
+    }
+
+    /*Blocco di partite tra x (che gioca X) e o: si divide a metà finché supera LEAF.
+      Non viene mai serializzato, anche se RecursiveAction è Serializable*/
+    @SuppressWarnings("serial")
+    private final class Games extends RecursiveAction {
+        private final int x;
+        private final int o;
+        private final int first;
+        private final int count;
+
+        Games(int x, int o, int first, int count) {
+            this.x = x;
+            this.o = o;
+            this.first = first;
+            this.count = count;
+        }
+
+        @Override
+        protected void compute() {
+            if (count <= LEAF) {
+                Worker w = worker.get();
+                while (w.busy) w = w.nested();
+                w.play(x, o, first, count);
+                return;
+            }
+            int half = count / 2;
+            invokeAll(new Games(x, o, first, half), new Games(x, o, first + half, count - half));
+        }
+    }
+
+    private Worker newWorker() {
+        Worker w = new Worker();
+        workers.add(w);
+        return w;
+    }
+
+    /*Stato di un thread del pool, riusato per tutte le partite che gioca*/
+    final class Worker {
+        private final MnkBoard board = new MnkBoard(spec.rows(), spec.cols(), spec.k());
+        //Sul tris la stessa partita su BitBoard, per confrontare i due motori
+        private final BitBoard check = new BitBoard();
+        private final long[] totals = new long[strategies.length * strategies.length * FIELDS];
+        private final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_HEADER + 2 * LEAF);
+        private long random;
+        private SearchEngine engine;
+        //Un thread del pool che aspetta la ricerca di SearchEngine (un altro pool) intanto esegue
+        //altri blocchi di questo: quelli li gioca un secondo Worker, che non tocca la partita sospesa
+        private boolean busy;
+        private Worker nested;
+
+        /*Gioca le partite [first, first + count) tra x e o e ne scrive i risultati come un blocco*/
+        void play(int x, int o, int first, int count) {
+            Strategy xStrategy = strategies[x];
+            Strategy oStrategy = strategies[o];
+            int pair = (x * strategies.length + o) * FIELDS;
+            int cols = board.cols();
+            boolean classic = board.isClassic();
+            busy = true;
+            buffer.clear();
+            buffer.put((byte) x).put((byte) o).putShort((short) count).putInt(first);
+
+            for (int game = first; game < first + count; game++) {
+                random = SEED * 0x9E3779B97F4A7C15L ^ ((long) x << 56 | (long) o << 48 | game);
+                board.reset();
+                check.reset();
+                int outcome = -1;
+                boolean diverged = false;
+                while (!board.isOver()) {
+                    boolean xToMove = board.currentPlayer() == BitBoard.X;
+                    int cell = board.moveCount() < OPENING ? randomCell(board)
+                        : (xToMove ? xStrategy : oStrategy).move(board, this);
+                    if (cell < 0 || !board.play(cell / cols, cell % cols)) {
+                        outcome = xToMove ? X_INVALID : O_INVALID;
+                        break;
+                    }
+                    if (classic && !diverged && (!check.play(cell) || check.winner() != board.winner()
+                            || check.isOver() != board.isOver())) {
+                        diverged = true;
+                        mismatch(x, o, game);
+                    }
+                }
+                if (outcome < 0) {
+                    outcome = board.winner() == BitBoard.X ? X_WINS : board.winner() == BitBoard.O ? O_WINS : DRAW;
+                }
+                totals[pair + outcome]++;
+                totals[pair + MOVES] += board.moveCount();
+                buffer.put((byte) outcome).put((byte) Math.min(board.moveCount(), 255));
+            }
+            write(buffer);
+            busy = false;
+        }
+
+        Worker nested() {
+            if (nested == null) nested = newWorker();
+            return nested;
+        }
+
+        /*Casella vuota a caso, con il generatore della partita*/
+        int randomCell(MnkBoard board) {
+            int skip = nextInt(board.rows() * board.cols() - board.moveCount());
+            for (int row = 0; row < board.rows(); row++) {
+                for (int col = 0; col < board.cols(); col++) {
+                    if (board.get(row, col) == BitBoard.EMPTY && skip-- == 0) return row * board.cols() + col;
+                }
+            }
+            return -1;
+        }
+
+        //SplitMix64: lo stato è un long, riassegnato a ogni partita dal suo seme
+        private int nextInt(int bound) {
+            long z = random += 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            z ^= z >>> 31;
+            return (int) (((z >>> 32) * bound) >>> 32);
+        }
+
+        /*Motore di ricerca del thread, creato alla prima mossa di una strategia search*/
+        SearchEngine engine() {
+            if (engine == null) engine = new SearchEngine(1, SEARCH_TABLE_BITS);
+            return engine;
+        }
+    }
+
+    private void mismatch(int x, int o, int game) {
+        mismatches.incrementAndGet();
+        firstMismatch.compareAndSet(null, names[x] + " - " + names[o] + " partita " + game);
+    }
+
+    /*Intestazione: MAGIC, versione, righe, colonne, k, numero di strategie e i loro nomi (lunghezza
+      u8 e UTF-8). Poi i blocchi nell'ordine in cui finiscono: [x u8][o u8][partite u16][prima partita
+      u32] e per ogni partita [esito u8][mosse u8] (mosse fino a 255)*/
+    private void writeHeader() {
+        ByteBuffer header = ByteBuffer.allocate(1024 + 256 * names.length);
+        header.putInt(MAGIC).put((byte) VERSION)
+            .put((byte) spec.rows()).put((byte) spec.cols()).put((byte) spec.k())
+            .put((byte) names.length);
+        for (String name : names) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            header.put((byte) bytes.length).put(bytes);
+        }
+        write(header);
+    }
+
+    //FileChannel.write è già sicura tra thread: un blocco non si mescola con quelli degli altri
+    private void write(ByteBuffer buffer) {
+        if (out == null) return;
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) out.write(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    long played() {
+        return played;
+    }
+
+    long nanos() {
+        return nanos;
+    }
+
+    long[] totals() {
+        return totals;
+    }
+
+    /*Riepilogo leggibile: coppie, classifica, turni del tabellone e confronto tra i motori*/
+    String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%d partite su %s in %.2f s (%.0f partite al secondo)%n",
+            played, spec.spec(), nanos / 1e9, played / (nanos / 1e9)));
+        sb.append(report(names, totals));
+        sb.append(rounds);
+        if (spec.isClassic()) {
+            sb.append("Incoerenze tra MnkBoard e BitBoard: ").append(mismatches.get());
+            if (firstMismatch.get() != null) sb.append(" (la prima: ").append(firstMismatch.get()).append(')');
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String report(String[] names, long[] totals) {
+        int n = names.length;
+        StringBuilder sb = new StringBuilder();
+        for (int x = 0; x < n; x++) {
+            for (int o = 0; o < n; o++) {
+                int pair = (x * n + o) * FIELDS;
+                long games = 0;
+                for (int outcome = 0; outcome < MOVES; outcome++) games += totals[pair + outcome];
+                if (games == 0) continue;
+                sb.append(String.format(Locale.ROOT, "%s (X) - %s (O): %d partite, X %.1f%%, O %.1f%%, patte %.1f%%, mosse medie %.2f",
+                    names[x], names[o], games, percent(totals[pair + X_WINS], games), percent(totals[pair + O_WINS], games),
+                    percent(totals[pair + DRAW], games), (double) totals[pair + MOVES] / games));
+                long invalid = totals[pair + X_INVALID] + totals[pair + O_INVALID];
+                if (invalid > 0) sb.append(", mosse non valide ").append(invalid);
+                sb.append('\n');
+            }
+        }
+
+        //Classifica per punti su tutte le partite giocate
+        double[] points = new double[n];
+        long[] played = new long[n];
+        for (int a = 0; a < n; a++) {
+            for (int b = 0; b < n; b++) {
+                if (a == b) continue;
+                points[a] += points(totals, n, a, b);
+                for (int outcome = 0; outcome < MOVES; outcome++) {
+                    played[a] += totals[(a * n + b) * FIELDS + outcome] + totals[(b * n + a) * FIELDS + outcome];
+                }
+            }
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(points[b] / Math.max(1, played[b]), points[a] / Math.max(1, played[a])));
+        if (n > 1) sb.append("Classifica (punti per partita):\n");
+        for (int i = 0; i < n && n > 1; i++) {
+            int s = order[i];
+            sb.append(String.format(Locale.ROOT, "%d. %s %.3f (%.1f punti in %d partite)%n",
+                i + 1, names[s], points[s] / Math.max(1, played[s]), points[s], played[s]));
+        }
+        return sb.toString();
+    }
+
+    private static double percent(long part, long whole) {
+        return whole == 0 ? 0 : 100.0 * part / whole;
+    }
+
+    /*Riepilogo di un file di risultati: totali per coppia e classifica, sommando i blocchi*/
+    static String read(Path file) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (data.remaining() < 9 || data.getInt() != MAGIC || data.get() != VERSION) {
+            throw new IOException("Non è un file di risultati del torneo: " + file);
+        }
+        String board = (data.get() & 0xFF) + "x" + (data.get() & 0xFF) + "x" + (data.get() & 0xFF);
+        String[] names = new String[data.get() & 0xFF];
+        for (int i = 0; i < names.length; i++) {
+            byte[] bytes = new byte[data.get() & 0xFF];
+            data.get(bytes);
+            names[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        int n = names.length;
+        long[] totals = new long[n * n * FIELDS];
+        long games = 0;
+        long chunks = 0;
+        while (data.remaining() >= CHUNK_HEADER) {
+            int pair = ((data.get() & 0xFF) * n + (data.get() & 0xFF)) * FIELDS;
+            int count = data.getShort() & 0xFFFF;
+            data.getInt();
+            //Un blocco troncato (torneo interrotto) si scarta
+            if (data.remaining() < 2 * count) break;
+            for (int i = 0; i < count; i++) {
+                totals[pair + data.get()]++;
+                totals[pair + MOVES] += data.get() & 0xFF;
+            }
+            games += count;
+            chunks++;
+        }
+        return String.format("%d partite su %s in %d blocchi%n", games, board, chunks) + report(names, totals);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("read")) {
+            System.out.print(read(Paths.get(args.length > 1 ? args[1] : FILE)));
+            return;
+        }
+        String[] names = (args.length > 0 ? args[0] : "perfect,greedy,random").split(",");
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        MnkBoard board = MnkBoard.parse(args.length > 2 ? args[2] : MnkBoard.CLASSIC);
+        String format = args.length > 3 ? args[3] : "round-robin";
+        Path file = Paths.get(args.length > 4 ? args[4] : FILE);
+        int[] threadCounts = {Runtime.getRuntime().availableProcessors()};
+        if (args.length > 5) {
+            threadCounts = Arrays.stream(args, 5, args.length).mapToInt(Integer::parseInt).toArray();
+        }
+        if (board == null || !(format.equals("round-robin") || format.equals("bracket"))) {
+            System.err.println("Uso: java Tournament [strategie] [partite per coppia] [tabellone] [round-robin|bracket] [file] [thread...]");
+            return;
+        }
+        boolean bracket = format.equals("bracket");
+
+        //Prima un torneo breve a vuoto, così il JIT non falsa la prima misura
+        new Tournament(board, names, Math.min(games, 10 * LEAF), bracket).run(threadCounts[0], null);
+
+        Tournament last = null;
+        long baseline = 0;
+        for (int count : threadCounts) {
+            Tournament tournament = new Tournament(board, names, games, bracket);
+            tournament.run(count, file);
+            if (baseline == 0) baseline = tournament.nanos();
+            String same = last == null ? "" : Arrays.equals(last.totals(), tournament.totals())
+                ? " risultati identici" : " risultati diversi";
+            System.out.printf(Locale.ROOT, "thread=%d partite=%d tempo=%.2fs partite/s=%.0f accelerazione=%.2fx%s%n",
+                count, tournament.played(), tournament.nanos() / 1e9, tournament.played() / (tournament.nanos() / 1e9),
+                (double) baseline / tournament.nanos(), same);
+            last = tournament;
+        }
+        System.out.print(last.report());
+        System.out.println("Risultati in " + file);
+    }
+}
@@ -0,0 +1,87 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+/*Frame binari scritti da BinaryProtocol e riletti da FrameReader, con i limiti di lunghezza
+  e il passaggio dal testo ai frame sullo stesso stream*/
+class BinaryProtocolTest {
+    private static FrameReader reader(byte[]... chunks) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] chunk : chunks) {
+            bytes.write(chunk);
+        }
+        return new FrameReader(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    private static String payload(FrameReader in) {
+        return new String(in.buffer(), 0, in.length(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void textFrameRoundTrip() throws IOException {
+        FrameReader in = reader(BinaryProtocol.text("GAME-START=bruno=X=3x3x3=7"), BinaryProtocol.text("zoè"));
+        assertEquals(BinaryProtocol.OP_TEXT, in.readFrame());
+        assertEquals("GAME-START=bruno=X=3x3x3=7", payload(in));
+        assertEquals(BinaryProtocol.OP_TEXT, in.readFrame());
+        assertEquals("zoè", payload(in));
+        assertEquals(-1, in.readFrame());
+    }
+
+    @Test
+    void moveFrameRoundTrip() throws IOException {
+        byte[] frame = BinaryProtocol.move(0x01020304, BitBoard.O, 24, 255);
+        assertEquals(BinaryProtocol.MOVE_FRAME, frame.length);
+        FrameReader in = reader(frame);
+        assertEquals(BinaryProtocol.OP_MOVE, in.readFrame());
+        assertEquals(BinaryProtocol.MOVE_PAYLOAD, in.length());
+        assertEquals(0x01020304, BinaryProtocol.moveMatchId(in.buffer(), 0));
+        assertEquals(BitBoard.O, BinaryProtocol.movePlayer(in.buffer(), 0));
+        assertEquals(24, BinaryProtocol.moveRow(in.buffer(), 0));
+        assertEquals(255, BinaryProtocol.moveCol(in.buffer(), 0));
+    }
+
+    @Test
+    void linesThenFramesOnTheSameStream() throws IOException {
+        FrameReader in = reader("SET-NICKNAME=anna=BIN1\r\n".getBytes(StandardCharsets.UTF_8),
+            BinaryProtocol.move(9, BitBoard.X, 1, 2));
+        int length = in.readLine();
+        assertEquals("SET-NICKNAME=anna=BIN1", new String(in.buffer(), 0, length, StandardCharsets.UTF_8));
+        assertEquals(BinaryProtocol.OP_MOVE, in.readFrame());
+        assertEquals(9, BinaryProtocol.moveMatchId(in.buffer(), 0));
+    }
+
+    @Test
+    void largestTextFrameIsReadBack() throws IOException {
+        byte[] text = new byte[BinaryProtocol.MAX_TEXT];
+        java.util.Arrays.fill(text, (byte) 'a');
+        byte[] frame = BinaryProtocol.text(text, 0, text.length);
+        assertEquals(BinaryProtocol.HEADER + BinaryProtocol.MAX_FRAME, frame.length);
+        FrameReader in = reader(frame);
+        assertEquals(BinaryProtocol.OP_TEXT, in.readFrame());
+        assertEquals(BinaryProtocol.MAX_TEXT, in.length());
+    }
+
+    @Test
+    void oversizedPayloadsAreRefused() {
+        byte[] text = new byte[BinaryProtocol.MAX_TEXT + 1];
+        assertThrows(IllegalArgumentException.class, () -> BinaryProtocol.text(text, 0, text.length));
+        //Oltre i 16 bit la lunghezza nell'intestazione ricomincerebbe da capo
+        byte[] huge = new byte[70_000];
+        assertThrows(IllegalArgumentException.class, () -> BinaryProtocol.frame(BinaryProtocol.OP_TEXT, huge, 0, huge.length));
+    }
+
+    @Test
+    void readerRejectsOversizedFramesAndLines() throws IOException {
+        int length = BinaryProtocol.MAX_FRAME + 1;
+        FrameReader frames = reader(new byte[] {(byte) (length >>> 8), (byte) length, BinaryProtocol.OP_TEXT});
+        assertThrows(IOException.class, frames::readFrame);
+        assertThrows(IOException.class, reader(new byte[] {0, 0})::readFrame);
+
+        byte[] line = new byte[BinaryProtocol.MAX_FRAME + 1];
+        java.util.Arrays.fill(line, (byte) 'a');
+        assertThrows(IOException.class, reader(line, new byte[] {'\n'})::readLine);
+        assertEquals(BinaryProtocol.MAX_TEXT, reader(java.util.Arrays.copyOf(line, BinaryProtocol.MAX_TEXT), new byte[] {'\n'}).readLine());
+    }
+}
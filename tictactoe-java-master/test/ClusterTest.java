@@ -0,0 +1,210 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/*Cluster di due nodi, ognuno in un processo proprio (la configurazione di Cluster è del processo):
+  nickname unici tra i nodi, sfide e mosse tra giocatori collegati a nodi diversi, in testo e in
+  binario, e collegamenti tra i nodi accettati solo con il segreto comune*/
+class ClusterTest {
+    private static final String SECRET = "segreto-di-prova";
+    private static final int[] clientPorts = new int[2];
+    private static final int[] linkPorts = new int[2];
+    private static final Process[] nodes = new Process[2];
+    //Righe di log di ogni nodo, lette da un thread per processo
+    private static final List<BlockingQueue<String>> logs = List.of(new LinkedBlockingQueue<>(), new LinkedBlockingQueue<>());
+
+    private final List<NioServerTest.Client> clients = new ArrayList<>();
+
+    private static int freePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            return probe.getLocalPort();
+        }
+    }
+
+    @BeforeAll
+    static void startNodes() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            clientPorts[i] = freePort();
+            linkPorts[i] = freePort();
+        }
+        String members = "127.0.0.1:" + linkPorts[0] + ",127.0.0.1:" + linkPorts[1];
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        for (int i = 0; i < 2; i++) {
+            List<String> command = new ArrayList<>(List.of(java, "-cp", System.getProperty("java.class.path"),
+                "-Dserver.port=" + clientPorts[i], "-Dcluster.nodes=" + members, "-Dcluster.node=" + i,
+                "-Dcluster.secret=" + SECRET, "-Dcluster.retry.ms=100", "-Dmetrics.port=0",
+                //Senza attesa di RESUME: la caduta di un giocatore chiude subito la partita
+                "-Dresume.grace.ms=0", "-Djournal.dir=target/cluster-journal-" + i, "GameServer"));
+            //Un nodo bloccante e uno NIO
+            if (i == 1) command.addAll(List.of("nio", "1"));
+            nodes[i] = new ProcessBuilder(command).redirectErrorStream(true).start();
+            BlockingQueue<String> log = logs.get(i);
+            BufferedReader output = new BufferedReader(new InputStreamReader(nodes[i].getInputStream(), StandardCharsets.UTF_8));
+            Thread reader = new Thread(() -> {
+                try {
+                    String line;
+                    while ((line = output.readLine()) != null) {
+                        log.add(line);
+                    }
+                } catch (IOException e) {
+                    //Il processo è terminato
+                }
+            }, "cluster-test-log-" + i);
+            reader.setDaemon(true);
+            reader.start();
+        }
+        //Pronti quando ognuno ha il collegamento in uscita e quello in entrata e accetta i client
+        awaitLog(0, "Collegato al nodo 1", "Collegamento dal nodo 1");
+        awaitLog(1, "Collegato al nodo 0", "Collegamento dal nodo 0");
+        for (int port : clientPorts) {
+            awaitPort(port);
+        }
+    }
+
+    private static void awaitLog(int node, String... expected) throws InterruptedException {
+        Set<String> missing = new HashSet<>(List.of(expected));
+        long deadline = System.nanoTime() + 20_000_000_000L;
+        while (!missing.isEmpty()) {
+            String line = logs.get(node).poll(Math.max(1, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            assertNotNull(line, "il nodo " + node + " non ha scritto " + missing);
+            missing.removeIf(line::contains);
+        }
+    }
+
+    private static void awaitPort(int port) throws Exception {
+        long deadline = System.nanoTime() + 20_000_000_000L;
+        while (true) {
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                return;
+            } catch (ConnectException e) {
+                if (System.nanoTime() > deadline) throw e;
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    @AfterAll
+    static void stopNodes() throws InterruptedException {
+        for (Process node : nodes) {
+            if (node == null) continue;
+            node.destroyForcibly();
+            node.waitFor(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @AfterEach
+    void closeClients() throws IOException {
+        for (NioServerTest.Client client : clients) {
+            client.close();
+        }
+    }
+
+    private NioServerTest.Client connect(int node) throws IOException {
+        NioServerTest.Client client = new NioServerTest.Client(clientPorts[node]);
+        clients.add(client);
+        return client;
+    }
+
+    private NioServerTest.Client register(int node, String nickname) throws IOException {
+        NioServerTest.Client client = connect(node);
+        client.send("SET-NICKNAME=" + nickname);
+        String reply = client.line();
+        assertTrue(reply.startsWith("NICKNAME-SUCCESS"), reply);
+        return client;
+    }
+
+    @Test
+    void nicknamesAreUniqueAcrossNodes() throws Exception {
+        for (String nickname : List.of("clu-unico", "clu-unica", "clu-unici")) {
+            NioServerTest.Client first = register(0, nickname);
+            NioServerTest.Client second = connect(1);
+            second.send("SET-NICKNAME=" + nickname);
+            assertEquals("NOT-VALID", second.line());
+            //Uscito dal primo nodo, il nickname torna libero anche sull'altro
+            first.close();
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            String reply;
+            do {
+                Thread.sleep(20);
+                second.send("SET-NICKNAME=" + nickname);
+                reply = second.line();
+            } while (reply.equals("NOT-VALID") && System.nanoTime() < deadline);
+            assertTrue(reply.startsWith("NICKNAME-SUCCESS"), reply);
+        }
+    }
+
+    @Test
+    void matchBetweenPlayersOnDifferentNodes() throws IOException {
+        NioServerTest.Client anna = register(0, "clu-anna");
+        NioServerTest.Client bruno = connect(1);
+        bruno.send("SET-NICKNAME=clu-bruno=BIN1");
+        assertTrue(bruno.line().startsWith("NICKNAME-SUCCESS=BIN1"));
+
+        anna.send("CHALLENGE=clu-bruno=4x4x3");
+        assertEquals("CHALLENGE-REQUEST=clu-anna=4x4x3", bruno.textFrame());
+        bruno.write(BinaryProtocol.text("ACCEPT-CHALLENGE=clu-anna"));
+        assertEquals("GAME-START=clu-bruno=X=4x4x3", anna.line());
+        String start = bruno.textFrame();
+        assertTrue(start.startsWith("GAME-START=clu-anna=O=4x4x3="), start);
+        int matchId = Integer.parseInt(start.substring(start.lastIndexOf('=') + 1));
+
+        //Dal nodo 0 al nodo 1 e ritorno, in ordine
+        anna.send("MOVE=clu-anna=clu-bruno=X=3=3");
+        assertEquals(BinaryProtocol.OP_MOVE, bruno.in.readFrame());
+        assertEquals(matchId, BinaryProtocol.moveMatchId(bruno.in.buffer(), 0));
+        assertEquals(BitBoard.X, BinaryProtocol.movePlayer(bruno.in.buffer(), 0));
+        assertEquals(3, BinaryProtocol.moveCol(bruno.in.buffer(), 0));
+        bruno.write(BinaryProtocol.move(matchId, BitBoard.O, 0, 1));
+        assertEquals("MOVE=clu-bruno=clu-anna=O=0=1", anna.line());
+        //Una mossa fuori turno non lascia il nodo di chi la manda
+        bruno.write(BinaryProtocol.move(matchId, BitBoard.O, 0, 2));
+        assertEquals("ERROR=REJECTED=MOVE", bruno.textFrame());
+        anna.send("MOVE=clu-anna=clu-bruno=X=2=2");
+        assertEquals(BinaryProtocol.OP_MOVE, bruno.in.readFrame());
+        assertEquals(2, BinaryProtocol.moveRow(bruno.in.buffer(), 0));
+
+        //Chi esce chiude la partita anche sull'altro nodo
+        anna.close();
+        assertEquals("OPPONENT-DISCONNECTED", bruno.textFrame());
+    }
+
+    @Test
+    void declinedChallengeReachesTheChallenger() throws IOException {
+        NioServerTest.Client carla = register(1, "clu-carla");
+        NioServerTest.Client dario = register(0, "clu-dario");
+        carla.send("CHALLENGE=clu-dario");
+        assertEquals("CHALLENGE-REQUEST=clu-carla", dario.line());
+        dario.send("DECLINE-CHALLENGE=clu-carla");
+        assertEquals("CHALLENGE-DECLINED=clu-dario", carla.line());
+        //Una sfida rifiutata non si può più accettare
+        dario.send("ACCEPT-CHALLENGE=clu-carla");
+        carla.send("PING");
+        assertEquals("PONG", carla.line());
+    }
+
+    @Test
+    void linksWithoutTheSecretAreRefused() throws IOException {
+        for (String hello : List.of("1=sbagliato", "1", "7=" + SECRET)) {
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), linkPorts[0])) {
+                socket.setSoTimeout(10_000);
+                byte[] payload = hello.getBytes(StandardCharsets.UTF_8);
+                socket.getOutputStream().write(BinaryProtocol.frame(Cluster.HELLO, payload, 0, payload.length));
+                socket.getOutputStream().flush();
+                assertEquals(-1, socket.getInputStream().read(), hello);
+            }
+        }
+        //Il collegamento vero non ne risente
+        NioServerTest.Client elena = register(0, "clu-elena");
+        NioServerTest.Client fabio = register(1, "clu-fabio");
+        elena.send("CHALLENGE=clu-fabio");
+        assertEquals("CHALLENGE-REQUEST=clu-elena", fabio.line());
+    }
+}
@@ -0,0 +1,115 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.List;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/*Registro delle partite scritto da GameJournal e riletto da JournalReader. Il pom imposta
+  segmenti da 1 MB (32767 record dopo l'intestazione): una partita lunga ne riempie uno e
+  continua nel successivo*/
+class GameJournalTest {
+    //Più dei record di un segmento, meno del buffer circolare: nessun record scartato
+    private static final int MOVES = 33_000;
+    //Più di un record NAME, con un carattere di due byte a cavallo fra il primo e il secondo
+    private static final String LONG_NAME = "giocatore_numerò_quindici_e_oltre";
+
+    private static final int FIRST = 1;
+    private static final int SECOND = 2;
+
+    private static Path dir;
+
+    @BeforeAll
+    static void writeJournal() throws Exception {
+        dir = Paths.get(GameJournal.DIR);
+        for (Path segment : JournalReader.segments(dir)) {
+            Files.delete(segment);
+        }
+        assertEquals(0, GameJournal.start());
+        assertTrue(GameJournal.isEnabled());
+        assertTrue(GameJournal.SEGMENT_BYTES / GameJournal.RECORD - 1 < MOVES,
+            "segmento troppo grande per il test");
+
+        GameJournal.gameStarted(FIRST, LONG_NAME, "o", "15x15x5");
+        for (int i = 0; i < MOVES; i++) {
+            GameJournal.move(FIRST, i % 2 == 0 ? BitBoard.X : BitBoard.O, i % 15, (i / 15) % 15);
+        }
+        GameJournal.gameStarted(SECOND, "anna", "bruno", "3x3x3");
+        GameJournal.move(SECOND, BitBoard.X, 1, 1);
+        GameJournal.move(SECOND, BitBoard.O, 0, 0);
+        GameJournal.gameEnded(SECOND, GameJournal.DISCONNECTED);
+        //Se escono tutti e due arrivano due END: conta il primo, e le mosse dopo non contano
+        GameJournal.gameEnded(FIRST, GameJournal.FINISHED);
+        GameJournal.move(FIRST, BitBoard.X, 14, 14);
+        GameJournal.gameEnded(FIRST, GameJournal.DISCONNECTED);
+
+        //START, 3 NAME per il nome lungo, 1 per "o"; START e 2 NAME, 2 mosse ed END; 2 END e una mossa
+        long records = 5 + MOVES + 6 + 3;
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (GameJournal.written() < records && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(records, GameJournal.written());
+        assertEquals(0, GameJournal.dropped());
+    }
+
+    @Test
+    void writesPastTheFirstSegment() throws IOException {
+        List<Path> segments = JournalReader.segments(dir);
+        assertEquals(2, segments.size());
+        assertEquals(1, JournalReader.segmentIndex(segments.get(0)));
+        assertEquals(2, JournalReader.segmentIndex(segments.get(1)));
+        assertEquals(SECOND, JournalReader.lastMatchId(segments));
+    }
+
+    @Test
+    void replaysAGameSpanningTwoSegments() throws IOException {
+        JournalReader.Game game = JournalReader.replay(dir, FIRST);
+        assertNotNull(game);
+        assertEquals("15x15x5", game.board);
+        assertEquals(LONG_NAME, game.x());
+        assertEquals("o", game.o());
+        assertEquals(GameJournal.FINISHED, game.endReason);
+        assertEquals(MOVES, game.moves.size());
+        for (int i : new int[] {0, 1, MOVES / 2, MOVES - 1}) {
+            int[] move = game.moves.get(i);
+            assertEquals(i % 2 == 0 ? BitBoard.X : BitBoard.O, move[0], "mossa " + i);
+            assertEquals(i % 15, move[1], "mossa " + i);
+            assertEquals((i / 15) % 15, move[2], "mossa " + i);
+        }
+        assertTrue(game.ended >= game.started);
+    }
+
+    @Test
+    void replaysAGameInTheSecondSegment() throws IOException {
+        JournalReader.Game game = JournalReader.replay(dir, SECOND);
+        assertNotNull(game);
+        assertEquals("3x3x3", game.board);
+        assertEquals("anna", game.x());
+        assertEquals("bruno", game.o());
+        assertEquals(GameJournal.DISCONNECTED, game.endReason);
+        assertEquals(2, game.moves.size());
+        assertArrayEquals(new int[] {BitBoard.X, 1, 1}, game.moves.get(0));
+        assertArrayEquals(new int[] {BitBoard.O, 0, 0}, game.moves.get(1));
+    }
+
+    @Test
+    void cursorVisitsEveryRecordInOrder() throws IOException {
+        JournalReader reader = new JournalReader(dir);
+        int records = 0;
+        int moves = 0;
+        int previousMatch = 0;
+        while (reader.next()) {
+            records++;
+            if (reader.type() == GameJournal.MOVE && reader.matchId() == FIRST) moves++;
+            if (reader.type() == GameJournal.START) {
+                assertTrue(reader.matchId() > previousMatch);
+                previousMatch = reader.matchId();
+            }
+        }
+        assertEquals(GameJournal.written(), records);
+        assertEquals(MOVES + 1, moves);
+        assertNull(JournalReader.replay(dir, 3));
+    }
+}
@@ -0,0 +1,136 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/*Liste della lobby su una lobby grande, con nickname della lunghezza massima: ogni messaggio
+  deve stare in un frame (e in una riga di FrameReader) e, unendo le parti, nessun giocatore
+  deve mancare*/
+class LobbyListTest {
+    private static final int PLAYERS = 3000;
+
+    private static final PlayerRegistry registry = new PlayerRegistry();
+    private static final List<String> nicknames = new ArrayList<>();
+
+    @BeforeAll
+    static void fillLobby() {
+        for (int i = 0; i < PLAYERS; i++) {
+            //Nickname di 64 byte, con una lettera di due byte per non contare i caratteri
+            String prefix = String.format("giocatorè_%05d_", i);
+            String nickname = prefix + "x".repeat(GameServer.MAX_NICKNAME - prefix.getBytes(StandardCharsets.UTF_8).length);
+            assertEquals(GameServer.MAX_NICKNAME, nickname.getBytes(StandardCharsets.UTF_8).length);
+            assertTrue(registry.register(nickname, handler(nickname)));
+            nicknames.add(nickname);
+        }
+        Collections.sort(nicknames);
+    }
+
+    private static GameServer.ClientHandler handler(String nickname) {
+        return new GameServer.ClientHandler(new PlayerRegistryTest.RecordingConnection(), nickname);
+    }
+
+    private static void assertFits(String message) {
+        int bytes = message.getBytes(StandardCharsets.UTF_8).length;
+        assertTrue(bytes <= BinaryProtocol.MAX_TEXT, "messaggio di " + bytes + " byte");
+        //Lo stesso messaggio in un frame binario
+        assertNotNull(BinaryProtocol.text(message));
+    }
+
+    private static List<String> names(String list) {
+        List<String> names = new ArrayList<>();
+        for (String name : list.split(",")) {
+            if (!name.isEmpty()) names.add(name);
+        }
+        return names;
+    }
+
+    @Test
+    void snapshotIsSplitIntoMessagesThatFit() {
+        GameServer.ClientHandler requester = handler("zz");
+        List<String> parts = registry.snapshot(requester);
+        assertTrue(parts.size() > 1);
+        StringBuilder list = new StringBuilder();
+        for (int i = 0; i < parts.size(); i++) {
+            String part = parts.get(i);
+            assertFits(part);
+            String prefix = i == parts.size() - 1 ? "PLAYERS=" : "PLAYERS-MORE=";
+            assertTrue(part.startsWith(prefix), part.substring(0, 20));
+            list.append(part, prefix.length(), part.length());
+        }
+        assertEquals(nicknames, names(list.toString()));
+    }
+
+    @Test
+    void subscriberReceivesTheWholeLobby() {
+        PlayerRegistryTest.RecordingConnection connection = new PlayerRegistryTest.RecordingConnection();
+        GameServer.ClientHandler subscriber = new GameServer.ClientHandler(connection, nicknames.get(0));
+        registry.subscribe(subscriber, true);
+        registry.unsubscribe(subscriber);
+        List<String> received = new ArrayList<>();
+        for (String message : connection.messages) {
+            assertFits(message);
+            received.addAll(names(message.substring(message.indexOf('=') + 1)));
+        }
+        //Il proprio nickname non è nella lista
+        assertEquals(nicknames.subList(1, nicknames.size()), received);
+    }
+
+    @Test
+    void largestPagesStopAtTheMessageLimit() {
+        PlayerRegistryTest.RecordingConnection connection = new PlayerRegistryTest.RecordingConnection();
+        GameServer.ClientHandler requester = new GameServer.ClientHandler(connection, "zz");
+        List<String> received = new ArrayList<>();
+        String after = "";
+        int pages = 0;
+        while (true) {
+            registry.sendPage(requester, after, PlayerRegistry.MAX_PAGE);
+            String page = connection.messages.poll();
+            assertFits(page);
+            assertTrue(page.startsWith("PLAYERS-PAGE="));
+            List<String> names = names(page.substring("PLAYERS-PAGE=1=".length()));
+            assertFalse(names.isEmpty());
+            assertTrue(names.size() < PlayerRegistry.MAX_PAGE);
+            received.addAll(names);
+            pages++;
+            if (page.startsWith("PLAYERS-PAGE=0=")) break;
+            after = names.get(names.size() - 1);
+        }
+        assertTrue(pages > PLAYERS / PlayerRegistry.MAX_PAGE);
+        assertEquals(nicknames, received);
+    }
+
+    @Test
+    void largestSearchFits() {
+        PlayerRegistryTest.RecordingConnection connection = new PlayerRegistryTest.RecordingConnection();
+        registry.sendSearch(new GameServer.ClientHandler(connection, "zz"), "giocatorè_0", PlayerRegistry.MAX_PAGE);
+        String result = connection.messages.poll();
+        assertFits(result);
+        assertTrue(result.startsWith("SEARCH-RESULT=1="));
+    }
+
+    @Test
+    void nicknamesOverTheLimitAreMalformed() {
+        PlayerRegistryTest.RecordingConnection connection = new PlayerRegistryTest.RecordingConnection();
+        GameServer.ClientHandler client = new GameServer.ClientHandler(connection);
+        client.handleMessage("SET-NICKNAME=" + "è".repeat(GameServer.MAX_NICKNAME / 2 + 1));
+        assertEquals("ERROR=MALFORMED=SET-NICKNAME", connection.messages.poll());
+        assertNull(client.getNickname());
+    }
+
+    @Test
+    void longArgumentsAreNotEchoed() {
+        PlayerRegistryTest.RecordingConnection connection = new PlayerRegistryTest.RecordingConnection();
+        GameServer.ClientHandler client = new GameServer.ClientHandler(connection);
+        String longName = "A".repeat(BinaryProtocol.MAX_TEXT - 10);
+        client.handleMessage(longName);
+        assertEquals("ERROR=UNKNOWN-COMMAND=", connection.messages.poll());
+        client.handleMessage("WATCH=" + longName);
+        assertEquals("ERROR=MALFORMED=WATCH", connection.messages.poll());
+        client.handleMessage("ANALYTICS=" + longName);
+        assertEquals("ERROR=MALFORMED=ANALYTICS", connection.messages.poll());
+        client.handleMessage("WATCH=nessuno");
+        assertEquals("WATCH-FAILED=nessuno", connection.messages.poll());
+    }
+}
@@ -0,0 +1,120 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+/*Un tick del matchmaking alla volta, senza il thread: giocatori della stessa fascia abbinati
+  in ordine di arrivo, fasce lontane in attesa, biglietti di chi è uscito ignorati*/
+class MatchmakerTest {
+    private final PlayerRegistry registry = new PlayerRegistry();
+    private final Matchmaker matchmaker = new Matchmaker(registry);
+    private final Map<GameServer.ClientHandler, PlayerRegistryTest.RecordingConnection> connections = new HashMap<>();
+
+    private GameServer.ClientHandler player(String nickname) {
+        PlayerRegistryTest.RecordingConnection connection = new PlayerRegistryTest.RecordingConnection();
+        GameServer.ClientHandler handler = new GameServer.ClientHandler(connection, nickname);
+        assertTrue(registry.register(nickname, handler));
+        connections.put(handler, connection);
+        return handler;
+    }
+
+    private String received(GameServer.ClientHandler handler) {
+        return connections.get(handler).messages.poll();
+    }
+
+    @Test
+    void playersOfTheSameBucketArePairedInOrderOfArrival() {
+        GameServer.ClientHandler anna = player("mm-anna");
+        GameServer.ClientHandler bruno = player("mm-bruno");
+        assertTrue(matchmaker.enqueue(anna, 1210));
+        assertTrue(matchmaker.enqueue(bruno, 1390));
+        matchmaker.tick();
+        //Chi aspetta da più tempo gioca con la X
+        assertEquals("GAME-START=mm-bruno=X=3x3x3", received(anna));
+        assertEquals("GAME-START=mm-anna=O=3x3x3", received(bruno));
+        assertSame(bruno, anna.opponentRef().get());
+        assertEquals(0, matchmaker.queued());
+        assertEquals(1, matchmaker.matches());
+    }
+
+    @Test
+    void distantRatingsKeepWaiting() {
+        GameServer.ClientHandler anna = player("mm-anna");
+        GameServer.ClientHandler bruno = player("mm-bruno");
+        matchmaker.enqueue(anna, 100);
+        //Fascia vicina ma diversa: senza attesa lunga non si allarga
+        matchmaker.enqueue(bruno, 250);
+        matchmaker.tick();
+        matchmaker.tick();
+        assertFalse(anna.isInGame());
+        assertFalse(bruno.isInGame());
+        assertEquals(2, matchmaker.queued());
+        assertNull(received(anna));
+    }
+
+    @Test
+    void leftoverIsPairedFirstOnTheNextTick() {
+        GameServer.ClientHandler[] handlers = new GameServer.ClientHandler[4];
+        for (int i = 0; i < 3; i++) {
+            handlers[i] = player("mm-" + i);
+            matchmaker.enqueue(handlers[i], 2000);
+        }
+        matchmaker.tick();
+        assertSame(handlers[1], handlers[0].opponentRef().get());
+        assertFalse(handlers[2].isInGame());
+        assertTrue(matchmaker.isQueued(handlers[2]));
+
+        handlers[3] = player("mm-3");
+        matchmaker.enqueue(handlers[3], 2100);
+        matchmaker.tick();
+        assertEquals("GAME-START=mm-3=X=3x3x3", received(handlers[2]));
+        assertEquals(2, matchmaker.matches());
+    }
+
+    @Test
+    void repeatedQueueIsIgnored() {
+        GameServer.ClientHandler anna = player("mm-anna");
+        assertTrue(matchmaker.enqueue(anna, 1500));
+        assertFalse(matchmaker.enqueue(anna, 3000));
+        matchmaker.tick();
+        assertEquals(1, matchmaker.queued());
+        assertFalse(anna.isInGame());
+    }
+
+    @Test
+    void cancelledAndDisconnectedPlayersAreSkipped() {
+        GameServer.ClientHandler anna = player("mm-anna");
+        GameServer.ClientHandler bruno = player("mm-bruno");
+        GameServer.ClientHandler carla = player("mm-carla");
+        matchmaker.enqueue(anna, 800);
+        matchmaker.enqueue(bruno, 800);
+        matchmaker.enqueue(carla, 800);
+        matchmaker.cancel(anna);
+        registry.unregister("mm-bruno", bruno);
+        matchmaker.tick();
+        assertFalse(anna.isInGame());
+        assertFalse(bruno.isInGame());
+        assertFalse(carla.isInGame());
+        assertEquals(1, matchmaker.queued());
+
+        GameServer.ClientHandler dario = player("mm-dario");
+        matchmaker.enqueue(dario, 900);
+        matchmaker.tick();
+        assertSame(dario, carla.opponentRef().get());
+    }
+
+    @Test
+    void ratingsOutsideTheRangeUseTheEdgeBuckets() {
+        GameServer.ClientHandler low = player("mm-basso");
+        GameServer.ClientHandler zero = player("mm-zero");
+        GameServer.ClientHandler high = player("mm-alto");
+        GameServer.ClientHandler top = player("mm-cima");
+        matchmaker.enqueue(low, -500);
+        matchmaker.enqueue(high, Integer.MAX_VALUE);
+        matchmaker.enqueue(zero, 0);
+        matchmaker.enqueue(top, Matchmaker.MAX_RATING);
+        matchmaker.tick();
+        assertSame(zero, low.opponentRef().get());
+        assertSame(top, high.opponentRef().get());
+    }
+}
@@ -0,0 +1,163 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+/*Controllo della vittoria di MnkBoard sui bordi, sugli angoli e in diagonale, più i limiti
+  dei tabelloni accettati*/
+class MnkBoardTest {
+    /*Gioca le mosse date come coppie riga, colonna, alternando X e O*/
+    private static MnkBoard play(String spec, int... cells) {
+        MnkBoard board = MnkBoard.parse(spec);
+        for (int i = 0; i < cells.length; i += 2) {
+            assertTrue(board.play(cells[i], cells[i + 1]), "mossa " + cells[i] + "," + cells[i + 1]);
+        }
+        return board;
+    }
+
+    private static int[] cells(MnkBoard board, int... rowCol) {
+        int[] cells = new int[rowCol.length / 2];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = rowCol[2 * i] * board.cols() + rowCol[2 * i + 1];
+        }
+        return cells;
+    }
+
+    @Test
+    void rowOnTheBottomEdgeEndingInTheCorner() {
+        MnkBoard board = play("7x7x4", 6, 3, 0, 0, 6, 4, 0, 2, 6, 5, 0, 4);
+        assertTrue(board.wins(6, 6, BitBoard.X));
+        assertFalse(board.wins(6, 6, BitBoard.O));
+        assertTrue(board.play(6, 6));
+        assertEquals(BitBoard.X, board.winner());
+        assertArrayEquals(cells(board, 6, 3, 6, 4, 6, 5, 6, 6), board.winningCells());
+    }
+
+    @Test
+    void columnOnTheRightEdgeCompletedInTheMiddle() {
+        MnkBoard board = play("7x7x4", 0, 6, 0, 0, 1, 6, 1, 0, 3, 6, 3, 0);
+        assertEquals(BitBoard.EMPTY, board.winner());
+        assertTrue(board.play(2, 6));
+        assertEquals(BitBoard.X, board.winner());
+        assertArrayEquals(cells(board, 0, 6, 1, 6, 2, 6, 3, 6), board.winningCells());
+    }
+
+    @Test
+    void diagonalIntoTheBottomRightCorner() {
+        MnkBoard board = play("7x7x4", 3, 3, 0, 1, 4, 4, 0, 2, 5, 5, 0, 3, 6, 6);
+        assertEquals(BitBoard.X, board.winner());
+        assertArrayEquals(cells(board, 3, 3, 4, 4, 5, 5, 6, 6), board.winningCells());
+    }
+
+    @Test
+    void antidiagonalFromTheTopRightCornerWonByO() {
+        MnkBoard board = play("7x7x4", 6, 0, 0, 6, 6, 1, 1, 5, 6, 3, 3, 3, 5, 0);
+        assertTrue(board.wins(2, 4, BitBoard.O));
+        assertTrue(board.play(2, 4));
+        assertEquals(BitBoard.O, board.winner());
+        assertArrayEquals(cells(board, 0, 6, 1, 5, 2, 4, 3, 3), board.winningCells());
+    }
+
+    @Test
+    void antidiagonalIntoTheBottomLeftCorner() {
+        MnkBoard board = play("5x5x3", 2, 2, 0, 0, 3, 1, 0, 1, 4, 0);
+        assertEquals(BitBoard.X, board.winner());
+        assertArrayEquals(cells(board, 2, 2, 3, 1, 4, 0), board.winningCells());
+    }
+
+    @Test
+    void linesDoNotWrapAroundTheEdges() {
+        //(0,3) (0,4) (1,0) sono consecutive nell'array delle caselle, non sul tabellone
+        MnkBoard row = play("5x5x3", 0, 3, 4, 4, 0, 4, 4, 2, 1, 0);
+        assertEquals(BitBoard.EMPTY, row.winner());
+        //Lo stesso per la diagonale: (1,4) + 6 è (3,0)
+        MnkBoard diagonal = play("5x5x3", 0, 3, 4, 4, 1, 4, 4, 2, 3, 0);
+        assertEquals(BitBoard.EMPTY, diagonal.winner());
+        //E per l'antidiagonale: (0,1), (1,0) e (1,4) distano 4 l'una dall'altra
+        MnkBoard antidiagonal = play("5x5x3", 0, 1, 4, 4, 1, 0, 4, 2, 1, 4);
+        assertEquals(BitBoard.EMPTY, antidiagonal.winner());
+    }
+
+    @Test
+    void oneShortOfKIsNotAWin() {
+        MnkBoard board = play("7x7x4", 3, 0, 0, 0, 3, 1, 0, 2, 3, 2);
+        assertEquals(BitBoard.EMPTY, board.winner());
+        assertFalse(board.isOver());
+        assertFalse(board.wins(3, 4, BitBoard.X));
+        assertTrue(board.wins(3, 3, BitBoard.X));
+    }
+
+    @Test
+    void fillingAGapCanMakeALineLongerThanK() {
+        MnkBoard board = play("7x7x4", 3, 0, 0, 0, 3, 1, 0, 2, 3, 3, 0, 4, 3, 4, 0, 6, 3, 2);
+        assertEquals(BitBoard.X, board.winner());
+        int[] line = board.winningCells();
+        assertEquals(5, line.length);
+        for (int i = 0; i < line.length; i++) {
+            assertEquals(3 * 7 + i, line[i]);
+        }
+    }
+
+    @Test
+    void singleRowAndSingleColumnBoards() {
+        MnkBoard row = play("1x5x3", 0, 0, 0, 1, 0, 2, 0, 3, 0, 4);
+        assertTrue(row.isDraw());
+        MnkBoard column = play("4x1x2", 0, 0, 1, 0, 2, 0, 3, 0);
+        assertTrue(column.isDraw());
+        MnkBoard one = play("3x3x1", 2, 2);
+        assertEquals(BitBoard.X, one.winner());
+        assertArrayEquals(new int[] {8}, one.winningCells());
+    }
+
+    @Test
+    void invalidMovesAreRejected() {
+        MnkBoard board = play("3x3x3", 1, 1);
+        assertFalse(board.play(1, 1));
+        assertFalse(board.play(-1, 0));
+        assertFalse(board.play(0, 3));
+        assertFalse(board.play(3, 0));
+        assertEquals(1, board.moveCount());
+        assertEquals(BitBoard.O, board.currentPlayer());
+
+        MnkBoard won = play("3x3x3", 0, 0, 1, 0, 0, 1, 1, 1, 0, 2);
+        assertEquals(BitBoard.X, won.winner());
+        assertFalse(won.play(2, 2));
+        assertEquals(BitBoard.EMPTY, won.get(2, 2));
+    }
+
+    @Test
+    void copyIsIndependentAndResetClears() {
+        MnkBoard board = play("4x4x3", 0, 0, 1, 1);
+        MnkBoard copy = board.copy();
+        assertTrue(copy.play(0, 1));
+        assertEquals(BitBoard.EMPTY, board.get(0, 1));
+        assertEquals(2, board.moveCount());
+        assertEquals(3, copy.moveCount());
+
+        board.reset();
+        assertEquals(0, board.moveCount());
+        assertEquals(BitBoard.EMPTY, board.get(0, 0));
+        assertEquals(0, board.winningCells().length);
+    }
+
+    @Test
+    void parseChecksTheWireLimit() {
+        assertEquals("3x3x3", MnkBoard.parse("3x3x3").spec());
+        assertNotNull(MnkBoard.parse(MnkBoard.MAX_SIZE + "x" + MnkBoard.MAX_SIZE + "x5"));
+        for (String spec : Arrays.asList("", "3x3", "3x3x3x3", "axbxc", "3x3x", "0x3x1", "3x3x4", "3x3x0",
+                "-3x3x3", (MnkBoard.MAX_SIZE + 1) + "x3x3", "3x" + (MnkBoard.MAX_SIZE + 1) + "x3", "99999999999x3x3")) {
+            assertNull(MnkBoard.parse(spec), spec);
+        }
+    }
+
+    @Test
+    void parsePlayableChecksTheSmallerLimit() {
+        int max = MnkBoard.MAX_PLAYABLE;
+        assertTrue(max < MnkBoard.MAX_SIZE);
+        assertNotNull(MnkBoard.parsePlayable(max + "x" + max + "x5"));
+        assertNull(MnkBoard.parsePlayable((max + 1) + "x" + max + "x5"));
+        assertNull(MnkBoard.parsePlayable(max + "x" + (max + 1) + "x5"));
+        assertNull(MnkBoard.parsePlayable("3x3"));
+        assertNotNull(MnkBoard.parse((max + 1) + "x" + (max + 1) + "x5"));
+    }
+}
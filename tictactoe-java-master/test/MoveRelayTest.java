@@ -0,0 +1,110 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/*Mosse ricevute dal server durante una partita: arrivano all'avversario solo quelle che la
+  partita accetta, le altre tornano al mittente come ERROR=REJECTED=MOVE*/
+class MoveRelayTest {
+    private final PlayerRegistryTest.RecordingConnection xConnection = new PlayerRegistryTest.RecordingConnection();
+    private final PlayerRegistryTest.RecordingConnection oConnection = new PlayerRegistryTest.RecordingConnection();
+    private final GameServer.ClientHandler x = new GameServer.ClientHandler(xConnection, "anna");
+    private final GameServer.ClientHandler o = new GameServer.ClientHandler(oConnection, "bruno");
+    private int matchId;
+
+    @BeforeEach
+    void startMatch() {
+        assertTrue(new PlayerRegistry().pair(x, o));
+        matchId = GameServer.startGame(x, o, "3x3x3");
+        xConnection.messages.clear();
+        oConnection.messages.clear();
+    }
+
+    private static byte[] movePayload(int matchId, int player, int row, int col) {
+        byte[] frame = BinaryProtocol.move(matchId, player, row, col);
+        byte[] payload = new byte[BinaryProtocol.MOVE_PAYLOAD];
+        System.arraycopy(frame, BinaryProtocol.HEADER + 1, payload, 0, payload.length);
+        return payload;
+    }
+
+    @Test
+    void validMovesReachTheOpponent() {
+        x.handleMessage("MOVE=anna=bruno=X=1=1");
+        assertEquals("MOVE=anna=bruno=X=1=1", oConnection.messages.poll());
+        o.handleMessage("MOVE=bruno=anna=O=0=2");
+        assertEquals("MOVE=bruno=anna=O=0=2", xConnection.messages.poll());
+        assertTrue(xConnection.messages.isEmpty());
+        assertTrue(oConnection.messages.isEmpty());
+    }
+
+    @Test
+    void movesOutOfTurnAreRejected() {
+        x.handleMessage("MOVE=anna=bruno=X=1=1");
+        oConnection.messages.clear();
+        x.handleMessage("MOVE=anna=bruno=X=0=0");
+        assertEquals("ERROR=REJECTED=MOVE", xConnection.messages.poll());
+        assertTrue(oConnection.messages.isEmpty());
+    }
+
+    @Test
+    void movesOnAnOccupiedCellAreRejected() {
+        x.handleMessage("MOVE=anna=bruno=X=1=1");
+        o.handleMessage("MOVE=bruno=anna=O=1=1");
+        assertEquals("ERROR=REJECTED=MOVE", oConnection.messages.stream()
+            .filter(message -> message.startsWith("ERROR")).findFirst().orElse(null));
+        assertTrue(xConnection.messages.isEmpty());
+    }
+
+    @Test
+    void movesWithTheOpponentsSymbolAreRejected() {
+        //È il turno di X, ma a giocarlo è O
+        o.handleMessage("MOVE=bruno=anna=X=1=1");
+        assertEquals("ERROR=REJECTED=MOVE", oConnection.messages.poll());
+        assertTrue(xConnection.messages.isEmpty());
+        //La casella è rimasta libera per X
+        x.handleMessage("MOVE=anna=bruno=X=1=1");
+        assertEquals("MOVE=anna=bruno=X=1=1", oConnection.messages.poll());
+    }
+
+    @Test
+    void cellsOutsideTheMatchBoardAreMalformed() {
+        x.handleMessage("MOVE=anna=bruno=X=3=0");
+        x.handleMessage("MOVE=anna=bruno=X=0=3");
+        x.handleMessage("MOVE=anna=bruno=X=-1=0");
+        x.handleMessage("MOVE=anna=bruno=Y=0=0");
+        for (int i = 0; i < 4; i++) {
+            assertEquals("ERROR=MALFORMED=MOVE", xConnection.messages.poll());
+        }
+        assertTrue(oConnection.messages.isEmpty());
+    }
+
+    @Test
+    void malformedBinaryMovesAreNotRelayed() {
+        for (byte[] payload : new byte[][] {movePayload(matchId, BitBoard.EMPTY, 0, 0),
+                movePayload(matchId, 7, 0, 0), movePayload(matchId, BitBoard.X, 3, 0),
+                movePayload(matchId, BitBoard.X, 0, 255)}) {
+            x.handleFrame(BinaryProtocol.OP_MOVE, payload, 0, payload.length);
+            assertEquals("ERROR=MALFORMED=MOVE", xConnection.messages.poll());
+        }
+        assertTrue(oConnection.messages.isEmpty());
+        //La partita non è cambiata: X è ancora di turno
+        x.handleMessage("MOVE=anna=bruno=X=0=0");
+        assertEquals("MOVE=anna=bruno=X=0=0", oConnection.messages.poll());
+    }
+
+    @Test
+    void binaryMovesAreCheckedTheSameWay() {
+        byte[] wrongSide = movePayload(matchId, BitBoard.X, 0, 0);
+        o.handleFrame(BinaryProtocol.OP_MOVE, wrongSide, 0, wrongSide.length);
+        assertEquals("ERROR=REJECTED=MOVE", oConnection.messages.poll());
+
+        byte[] valid = movePayload(matchId, BitBoard.X, 2, 2);
+        x.handleFrame(BinaryProtocol.OP_MOVE, valid, 0, valid.length);
+        assertEquals("MOVE=anna=bruno=X=2=2", oConnection.messages.poll());
+
+        byte[] occupied = movePayload(matchId, BitBoard.O, 2, 2);
+        o.handleFrame(BinaryProtocol.OP_MOVE, occupied, 0, occupied.length);
+        assertEquals("ERROR=REJECTED=MOVE", oConnection.messages.poll());
+        assertTrue(xConnection.messages.isEmpty());
+    }
+}
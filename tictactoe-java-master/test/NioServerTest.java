@@ -0,0 +1,208 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/*Server NIO con un solo thread di I/O e client veri su socket: molte connessioni sullo stesso
+  loop, passaggio al protocollo binario a metà buffer, una partita tra due client e connessioni
+  che sbagliano senza fermare le altre*/
+class NioServerTest {
+    private static int port;
+    private final List<Client> clients = new ArrayList<>();
+
+    /*Client di prova: righe di testo o frame, con un timeout su ogni lettura*/
+    static final class Client implements Closeable {
+        final Socket socket;
+        final FrameReader in;
+        final OutputStream out;
+
+        Client(int port) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setSoTimeout(5000);
+            in = new FrameReader(socket.getInputStream());
+            out = socket.getOutputStream();
+        }
+
+        void send(String line) throws IOException {
+            write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        void write(byte[]... chunks) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (byte[] chunk : chunks) {
+                bytes.write(chunk);
+            }
+            out.write(bytes.toByteArray());
+            out.flush();
+        }
+
+        String line() throws IOException {
+            int length = in.readLine();
+            return length < 0 ? null : new String(in.buffer(), 0, length, StandardCharsets.UTF_8);
+        }
+
+        String textFrame() throws IOException {
+            assertEquals(BinaryProtocol.OP_TEXT, in.readFrame());
+            return new String(in.buffer(), 0, in.length(), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        port = start();
+    }
+
+    /*Avvia un server NIO con un solo loop su una porta libera e ne restituisce la porta*/
+    static int start() throws Exception {
+        int free;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            free = probe.getLocalPort();
+        }
+        NioServer server = new NioServer(free, 1);
+        Thread acceptor = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                Log.error("Server di prova fermo", e);
+            }
+        }, "nio-test-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        //Il server è pronto quando accetta connessioni
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (true) {
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), free)) {
+                break;
+            } catch (ConnectException e) {
+                if (System.nanoTime() > deadline) throw e;
+                Thread.sleep(20);
+            }
+        }
+        return free;
+    }
+
+    @AfterEach
+    void closeClients() throws IOException {
+        for (Client client : clients) {
+            client.close();
+        }
+    }
+
+    private Client connect() throws IOException {
+        Client client = new Client(port);
+        clients.add(client);
+        return client;
+    }
+
+    private Client register(String nickname) throws IOException {
+        Client client = connect();
+        client.send("SET-NICKNAME=" + nickname);
+        assertTrue(client.line().startsWith("NICKNAME-SUCCESS"));
+        return client;
+    }
+
+    @Test
+    void oneLoopServesManyConnections() throws IOException {
+        List<Client> many = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Client client = connect();
+            client.send("SET-NICKNAME=nio-molti-" + i);
+            many.add(client);
+        }
+        for (Client client : many) {
+            assertTrue(client.line().startsWith("NICKNAME-SUCCESS"));
+            //Più comandi in una sola write: si separano sul loop
+            client.write("PING\nPING\r\nGET-PLAYERS-PAGE=1=nio-molti-\n".getBytes(StandardCharsets.UTF_8));
+        }
+        for (Client client : many) {
+            assertEquals("PONG", client.line());
+            assertEquals("PONG", client.line());
+            assertTrue(client.line().startsWith("PLAYERS-PAGE=1=nio-molti-"));
+        }
+    }
+
+    @Test
+    void switchesToFramesInTheMiddleOfABuffer() throws IOException {
+        Client client = connect();
+        //La richiesta del protocollo binario e il primo frame arrivano nella stessa write
+        client.write("SET-NICKNAME=nio-binario=BIN1\n".getBytes(StandardCharsets.UTF_8), BinaryProtocol.text("PING"));
+        assertTrue(client.line().startsWith("NICKNAME-SUCCESS=BIN1"));
+        assertEquals("PONG", client.textFrame());
+        //Un frame spezzato in due write si ricompone
+        byte[] frame = BinaryProtocol.text("PING");
+        client.write(Arrays.copyOf(frame, 2));
+        client.write(Arrays.copyOfRange(frame, 2, frame.length));
+        assertEquals("PONG", client.textFrame());
+    }
+
+    @Test
+    void playsAMatchBetweenTwoClients() throws IOException {
+        Client anna = register("nio-anna");
+        Client bruno = connect();
+        bruno.send("SET-NICKNAME=nio-bruno=BIN1");
+        assertTrue(bruno.line().startsWith("NICKNAME-SUCCESS=BIN1"));
+
+        anna.send("CHALLENGE=nio-bruno=4x4x3");
+        assertEquals("CHALLENGE-REQUEST=nio-anna=4x4x3", bruno.textFrame());
+        bruno.write(BinaryProtocol.text("ACCEPT-CHALLENGE=nio-anna"));
+        assertEquals("GAME-START=nio-bruno=X=4x4x3", anna.line());
+        String start = bruno.textFrame();
+        assertTrue(start.startsWith("GAME-START=nio-anna=O=4x4x3="), start);
+        int matchId = Integer.parseInt(start.substring(start.lastIndexOf('=') + 1));
+
+        //Testo verso binario: il server converte la mossa nel frame con l'id della partita
+        anna.send("MOVE=nio-anna=nio-bruno=X=3=3");
+        assertEquals(BinaryProtocol.OP_MOVE, bruno.in.readFrame());
+        assertEquals(matchId, BinaryProtocol.moveMatchId(bruno.in.buffer(), 0));
+        assertEquals(3, BinaryProtocol.moveRow(bruno.in.buffer(), 0));
+        //E dal binario al testo
+        bruno.write(BinaryProtocol.move(matchId, BitBoard.O, 0, 1));
+        assertEquals("MOVE=nio-bruno=nio-anna=O=0=1", anna.line());
+    }
+
+    @Test
+    void badConnectionsAreClosedAlone() throws IOException {
+        Client good = register("nio-buono");
+        Client badFrame = connect();
+        badFrame.send("SET-NICKNAME=nio-frame=BIN1");
+        assertTrue(badFrame.line().startsWith("NICKNAME-SUCCESS=BIN1"));
+        //Lunghezza 0: frame non valido, il server chiude la connessione
+        badFrame.write(new byte[] {0, 0});
+        assertEquals(-1, badFrame.in.readFrame());
+
+        Client longLine = connect();
+        byte[] line = new byte[BinaryProtocol.MAX_FRAME + 10];
+        Arrays.fill(line, (byte) 'A');
+        longLine.write(line);
+        assertNull(longLine.line());
+
+        good.send("PING");
+        assertEquals("PONG", good.line());
+    }
+
+    @Test
+    void loopSurvivesAFailingTask() throws Exception {
+        NioServer.EventLoop loop = new NioServer.EventLoop(99);
+        Thread thread = new Thread(loop, "nio-test-loop");
+        thread.setDaemon(true);
+        thread.start();
+        CountDownLatch after = new CountDownLatch(1);
+        loop.execute(() -> {
+            throw new IllegalStateException("operazione di prova");
+        });
+        loop.execute(after::countDown);
+        assertTrue(after.await(5, TimeUnit.SECONDS));
+        assertTrue(thread.isAlive());
+    }
+}
@@ -0,0 +1,237 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.junit.jupiter.api.Test;
+
+/*Uscita bufferizzata: i messaggi di un ciclo di gestione partono con una sola write, quelli
+  scritti fuori da un ciclo entro la scadenza, sia nel client sia con lo scrittore del server.
+  Poi un client che non legge, con ciascuna delle politiche per la coda piena*/
+class OutboundBufferTest {
+    /*Stream che tiene i byte ricevuti e conta le write*/
+    static class RecordingStream extends OutputStream {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        volatile int writes;
+
+        @Override
+        public synchronized void write(int b) {
+            writes++;
+            bytes.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            writes++;
+            bytes.write(b, off, len);
+        }
+
+        synchronized String text() {
+            return bytes.toString(StandardCharsets.UTF_8);
+        }
+    }
+
+    /*Stream di un client che non legge: la prima write resta ferma finché il test non apre*/
+    static class StalledStream extends RecordingStream {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch open = new CountDownLatch(1);
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            entered.countDown();
+            try {
+                open.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.write(b, off, len);
+        }
+    }
+
+    /*Aspetta che lo stream abbia ricevuto il testo atteso, scritto da un altro thread*/
+    static void awaitText(RecordingStream stream, String expected) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!stream.text().equals(expected) && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, stream.text());
+    }
+
+    @Test
+    void cycleSendsEverythingWithOneWrite() {
+        RecordingStream stream = new RecordingStream();
+        OutboundBuffer out = new OutboundBuffer(stream);
+        OutboundBuffer.beginCycle();
+        try {
+            out.writeLine("PLAYER-JOIN=anna");
+            out.writeLine("PLAYER-JOIN=bruno".getBytes(StandardCharsets.UTF_8), 0, 17);
+            out.write(BinaryProtocol.move(1, BitBoard.X, 0, 0));
+            assertEquals(0, stream.writes);
+        } finally {
+            OutboundBuffer.endCycle();
+        }
+        assertEquals(1, stream.writes);
+        byte[] sent = stream.bytes.toByteArray();
+        assertEquals("PLAYER-JOIN=anna\nPLAYER-JOIN=bruno\n",
+            new String(sent, 0, sent.length - BinaryProtocol.MOVE_FRAME, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void buffersOfEveryConnectionAreFlushedAtTheEndOfTheCycle() {
+        RecordingStream first = new RecordingStream();
+        RecordingStream second = new RecordingStream();
+        OutboundBuffer a = new OutboundBuffer(first);
+        OutboundBuffer b = new OutboundBuffer(second);
+        OutboundBuffer.beginCycle();
+        try {
+            a.writeLine("MOVE=anna=bruno=X=1=1");
+            b.writeLine("MOVE=anna=bruno=X=1=1");
+            a.writeLine("GAME-OVER");
+        } finally {
+            OutboundBuffer.endCycle();
+        }
+        assertEquals(1, first.writes);
+        assertEquals(1, second.writes);
+        assertEquals("MOVE=anna=bruno=X=1=1\nGAME-OVER\n", first.text());
+    }
+
+    @Test
+    void writesOutsideACycleLeaveWithinTheDeadline() throws InterruptedException {
+        RecordingStream stream = new RecordingStream();
+        OutboundBuffer out = new OutboundBuffer(stream);
+        out.writeLine("PING");
+        out.writeLine("PONG");
+        awaitText(stream, "PING\nPONG\n");
+    }
+
+    @Test
+    void serverWriterSendsTheCycleInOneWrite() throws InterruptedException {
+        RecordingStream stream = new RecordingStream();
+        OutboundBuffer out = new OutboundBuffer(stream, () -> fail("coda piena"));
+        OutboundBuffer.beginCycle();
+        try {
+            for (int i = 0; i < 10; i++) {
+                out.writeLine("PLAYER-JOIN=p" + i);
+            }
+        } finally {
+            OutboundBuffer.endCycle();
+        }
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            expected.append("PLAYER-JOIN=p").append(i).append('\n');
+        }
+        awaitText(stream, expected.toString());
+        assertEquals(1, stream.writes);
+    }
+
+    @Test
+    void explicitFlushWritesImmediatelyInTheClient() {
+        RecordingStream stream = new RecordingStream();
+        OutboundBuffer out = new OutboundBuffer(stream);
+        out.writeLine("SET-NICKNAME=anna");
+        out.flush();
+        assertEquals("SET-NICKNAME=anna\n", stream.text());
+        //Niente da inviare: nessuna write vuota
+        out.flush();
+        assertEquals(1, stream.writes);
+    }
+
+    /*Buffer del server con lo scrittore fermo sulla prima riga: da qui la coda si riempie*/
+    private static OutboundBuffer stalled(StalledStream stream, AtomicInteger closed, OutboundBuffer.Policy policy)
+            throws InterruptedException {
+        OutboundBuffer out = new OutboundBuffer(stream, closed::incrementAndGet, policy);
+        out.writeLine("PRIMA");
+        out.flush();
+        assertTrue(stream.entered.await(5, TimeUnit.SECONDS));
+        return out;
+    }
+
+    //Righe di 1 KB con il terminatore
+    private static String line(int i) {
+        String prefix = String.format("m%04d", i);
+        return prefix + ".".repeat(1023 - prefix.length());
+    }
+
+    private static String lines(int count) {
+        StringBuilder text = new StringBuilder("PRIMA\n");
+        for (int i = 0; i < count; i++) {
+            text.append(line(i)).append('\n');
+        }
+        return text.toString();
+    }
+
+    //Le righe che stanno nella coda insieme a quella che lo scrittore sta inviando
+    private static final int FITTING = (OutboundBuffer.MAX_BYTES - "PRIMA\n".length()) / 1024;
+
+    @Test
+    void dropLosesWhatDoesNotFitAndKeepsTheConnection() throws InterruptedException {
+        StalledStream stream = new StalledStream();
+        AtomicInteger closed = new AtomicInteger();
+        OutboundBuffer out = stalled(stream, closed, OutboundBuffer.Policy.DROP);
+        for (int i = 0; i < FITTING + 100; i++) {
+            out.writeLine(line(i));
+        }
+        stream.open.countDown();
+        awaitText(stream, lines(FITTING));
+        //Svuotata la coda, i messaggi passano di nuovo
+        out.writeLine("DOPO");
+        awaitText(stream, lines(FITTING) + "DOPO\n");
+        assertEquals(0, closed.get());
+    }
+
+    @Test
+    void disconnectClosesOnTheFirstMessageThatDoesNotFit() throws InterruptedException {
+        StalledStream stream = new StalledStream();
+        AtomicInteger closed = new AtomicInteger();
+        OutboundBuffer out = stalled(stream, closed, OutboundBuffer.Policy.DISCONNECT);
+        for (int i = 0; i < FITTING; i++) {
+            out.writeLine(line(i));
+        }
+        assertEquals(0, closed.get());
+        out.writeLine(line(FITTING));
+        assertEquals(1, closed.get());
+        //Da qui si scarta tutto, anche quello che era già in coda
+        out.writeLine("DOPO");
+        stream.open.countDown();
+        awaitText(stream, "PRIMA\n");
+        Thread.sleep(50);
+        assertEquals("PRIMA\n", stream.text());
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    void coalesceHoldsOnlyTheLatestUpdatePerPlayer() throws InterruptedException {
+        StalledStream stream = new StalledStream();
+        AtomicInteger closed = new AtomicInteger();
+        OutboundBuffer out = stalled(stream, closed, OutboundBuffer.Policy.COALESCE);
+        //Coda a metà: da qui le variazioni della lobby restano in attesa
+        int half = (OutboundBuffer.MAX_BYTES / 2 - "PRIMA\n".length() + 1023) / 1024;
+        for (int i = 0; i < half; i++) {
+            out.writeLine(line(i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            out.writeUpdate("anna", ("PLAYER-JOIN=anna" + i + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        out.writeUpdate("bruno", "PLAYER-JOIN=bruno\n".getBytes(StandardCharsets.UTF_8));
+        out.writeUpdate("anna", "PLAYER-LEAVE=anna\n".getBytes(StandardCharsets.UTF_8));
+        //Una mossa invece entra in coda e parte prima delle variazioni trattenute
+        out.writeLine("MOVE=anna=bruno=X=0=0");
+        stream.open.countDown();
+        awaitText(stream, lines(half) + "MOVE=anna=bruno=X=0=0\nPLAYER-LEAVE=anna\nPLAYER-JOIN=bruno\n");
+        assertEquals(0, closed.get());
+    }
+
+    @Test
+    void coalesceClosesOnOtherMessagesThatDoNotFit() throws InterruptedException {
+        StalledStream stream = new StalledStream();
+        AtomicInteger closed = new AtomicInteger();
+        OutboundBuffer out = stalled(stream, closed, OutboundBuffer.Policy.COALESCE);
+        for (int i = 0; i <= FITTING; i++) {
+            out.writeLine(line(i));
+        }
+        assertEquals(1, closed.get());
+        stream.open.countDown();
+        awaitText(stream, "PRIMA\n");
+    }
+}
@@ -0,0 +1,181 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+/*La tabella di PerfectPlay confrontata con un minimax a forza bruta, senza simmetrie, su tutte
+  le posizioni raggiungibili del tris; poi partite contro ogni possibile avversario*/
+class PerfectPlayTest {
+    private static final int[] LINES = {
+        0b000_000_111, 0b000_111_000, 0b111_000_000,
+        0b001_001_001, 0b010_010_010, 0b100_100_100,
+        0b100_010_001, 0b001_010_100
+    };
+
+    //Valore minimax per chi deve muovere, memorizzato per (maschera X, maschera O)
+    private static final Map<Integer, Integer> values = new HashMap<>();
+
+    private static boolean wins(int mask) {
+        for (int line : LINES) {
+            if ((mask & line) == line) return true;
+        }
+        return false;
+    }
+
+    private static boolean isOver(int xMask, int oMask) {
+        return wins(xMask) || wins(oMask) || (xMask | oMask) == BitBoard.FULL;
+    }
+
+    /*Stessa scala di PerfectPlay: vincere prima vale di più, perdere dopo costa di meno*/
+    private static int value(int xMask, int oMask) {
+        int moves = Integer.bitCount(xMask | oMask);
+        if (wins(xMask) || wins(oMask)) return -(10 - moves);
+        if (moves == 9) return 0;
+        Integer known = values.get(xMask << 9 | oMask);
+        if (known != null) return known;
+        boolean xToMove = (moves & 1) == 0;
+        int best = Integer.MIN_VALUE;
+        for (int cell = 0; cell < 9; cell++) {
+            int bit = 1 << cell;
+            if (((xMask | oMask) & bit) != 0) continue;
+            best = Math.max(best, -(xToMove ? value(xMask | bit, oMask) : value(xMask, oMask | bit)));
+        }
+        values.put(xMask << 9 | oMask, best);
+        return best;
+    }
+
+    private static int valueAfter(int xMask, int oMask, int cell) {
+        boolean xToMove = Integer.bitCount(xMask | oMask) % 2 == 0;
+        int bit = 1 << cell;
+        return -(xToMove ? value(xMask | bit, oMask) : value(xMask, oMask | bit));
+    }
+
+    /*Tutte le posizioni raggiungibili, come coppie di maschere*/
+    private static List<int[]> reachable() {
+        List<int[]> positions = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+        Deque<int[]> stack = new ArrayDeque<>();
+        stack.push(new int[] {0, 0});
+        while (!stack.isEmpty()) {
+            int[] position = stack.pop();
+            if (!seen.add(position[0] << 9 | position[1])) continue;
+            positions.add(position);
+            if (isOver(position[0], position[1])) continue;
+            boolean xToMove = Integer.bitCount(position[0] | position[1]) % 2 == 0;
+            for (int cell = 0; cell < 9; cell++) {
+                int bit = 1 << cell;
+                if (((position[0] | position[1]) & bit) != 0) continue;
+                stack.push(xToMove ? new int[] {position[0] | bit, position[1]} : new int[] {position[0], position[1] | bit});
+            }
+        }
+        return positions;
+    }
+
+    /*Ricostruisce la posizione alternando le caselle di X e di O: in una posizione raggiungibile
+      e non finita nessuna linea si completa prima dell'ultima mossa*/
+    private static BitBoard board(int xMask, int oMask) {
+        BitBoard board = new BitBoard();
+        int xs = xMask;
+        int os = oMask;
+        while (xs != 0) {
+            assertTrue(board.play(Integer.numberOfTrailingZeros(xs)));
+            xs &= xs - 1;
+            if (os != 0) {
+                assertTrue(board.play(Integer.numberOfTrailingZeros(os)));
+                os &= os - 1;
+            }
+        }
+        return board;
+    }
+
+    private static MnkBoard classic(BitBoard board) {
+        MnkBoard classic = MnkBoard.parse("3x3x3");
+        int xs = board.xMask();
+        int os = board.oMask();
+        while (xs != 0) {
+            int cell = Integer.numberOfTrailingZeros(xs);
+            assertTrue(classic.play(cell / 3, cell % 3));
+            xs &= xs - 1;
+            if (os != 0) {
+                cell = Integer.numberOfTrailingZeros(os);
+                assertTrue(classic.play(cell / 3, cell % 3));
+                os &= os - 1;
+            }
+        }
+        return classic;
+    }
+
+    @Test
+    void everyReachablePositionHasAnOptimalMove() {
+        List<int[]> positions = reachable();
+        assertEquals(5478, positions.size());
+        int checked = 0;
+        for (int[] position : positions) {
+            int xMask = position[0];
+            int oMask = position[1];
+            if (isOver(xMask, oMask)) continue;
+            BitBoard board = board(xMask, oMask);
+            int move = PerfectPlay.bestMove(board);
+            assertTrue(move >= 0 && move < 9, "nessuna mossa in " + Arrays.toString(position));
+            assertEquals(0, ((xMask | oMask) >> move) & 1, "casella occupata");
+            assertEquals(value(xMask, oMask), valueAfter(xMask, oMask, move),
+                "mossa " + move + " non ottimale in " + Arrays.toString(position));
+            assertEquals(move, PerfectPlay.bestMove(classic(board)));
+            checked++;
+        }
+        assertEquals(4520, checked);
+    }
+
+    @Test
+    void finishedGamesHaveNoMove() {
+        BitBoard won = board(0b000_000_011, 0b000_011_000);
+        assertTrue(won.play(2));
+        assertEquals(-1, PerfectPlay.bestMove(won));
+        MnkBoard larger = MnkBoard.parse("4x4x3");
+        assertEquals(-1, PerfectPlay.bestMove(larger));
+    }
+
+    @Test
+    void perfectPlayNeverLoses() {
+        assertEquals(0, value(0, 0));
+        //PerfectPlay gioca X, l'avversario prova ogni risposta, poi il contrario
+        assertNeverLoses(new ArrayList<>(), BitBoard.X);
+        assertNeverLoses(new ArrayList<>(), BitBoard.O);
+    }
+
+    private static void assertNeverLoses(List<Integer> moves, int perfect) {
+        BitBoard board = new BitBoard();
+        for (int move : moves) {
+            board.play(move);
+        }
+        if (board.isOver()) {
+            assertNotEquals(perfect == BitBoard.X ? BitBoard.O : BitBoard.X, board.winner(), "persa con " + moves);
+            return;
+        }
+        if (board.currentPlayer() == perfect) {
+            moves.add(PerfectPlay.bestMove(board));
+            assertNeverLoses(moves, perfect);
+            moves.remove(moves.size() - 1);
+            return;
+        }
+        for (int cell = 0; cell < 9; cell++) {
+            if (board.get(cell / 3, cell % 3) != BitBoard.EMPTY) continue;
+            moves.add(cell);
+            assertNeverLoses(moves, perfect);
+            moves.remove(moves.size() - 1);
+        }
+    }
+
+    @Test
+    void canonicalPositionsMatchAcrossSymmetries() {
+        //X in un angolo e O al centro: le quattro rotazioni hanno lo stesso indice canonico
+        int canonical = PerfectPlay.canonicalIndex(1 << 0, 1 << 4);
+        assertEquals(canonical, PerfectPlay.canonicalIndex(1 << 2, 1 << 4));
+        assertEquals(canonical, PerfectPlay.canonicalIndex(1 << 6, 1 << 4));
+        assertEquals(canonical, PerfectPlay.canonicalIndex(1 << 8, 1 << 4));
+        assertNotEquals(canonical, PerfectPlay.canonicalIndex(1 << 1, 1 << 4));
+        assertEquals(0, PerfectPlay.canonicalCell(8));
+        assertEquals(1, PerfectPlay.canonicalCell(5));
+        assertEquals(4, PerfectPlay.canonicalCell(4));
+    }
+}
@@ -0,0 +1,260 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.Test;
+
+/*Accoppiamento concorrente del registro (pair e unpair da più thread insieme) e sfide pendenti.
+  Gli handler sono quelli dei giocatori simulati (nickname fisso, nessun socket), che il registro
+  considera sempre presenti*/
+class PlayerRegistryTest {
+    private static final int ROUNDS = 500;
+
+    /*Connessione che tiene i messaggi ricevuti*/
+    static final class RecordingConnection implements Connection {
+        final Queue<String> messages = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public void send(String message) {
+            messages.add(message);
+        }
+
+        @Override
+        public void sendBytes(byte[] bytes) {
+            messages.add(new String(bytes, java.nio.charset.StandardCharsets.UTF_8).strip());
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    private static GameServer.ClientHandler handler(String nickname) {
+        return new GameServer.ClientHandler(new RecordingConnection(), nickname);
+    }
+
+    /*Esegue i compiti tutti insieme, dopo un solo via, e aspetta che finiscano*/
+    private static <T> List<T> race(ExecutorService pool, List<Callable<T>> tasks) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<T>> futures = new ArrayList<>();
+        for (Callable<T> task : tasks) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                return task.call();
+            }));
+        }
+        start.countDown();
+        List<T> results = new ArrayList<>();
+        for (Future<T> future : futures) {
+            results.add(future.get(10, TimeUnit.SECONDS));
+        }
+        return results;
+    }
+
+    @Test
+    void onlyOneChallengerPairsWithTheSamePlayer() throws Exception {
+        PlayerRegistry registry = new PlayerRegistry();
+        GameServer.ClientHandler target = handler("target");
+        List<GameServer.ClientHandler> challengers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            challengers.add(handler("c" + i));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(challengers.size());
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                List<Callable<Boolean>> tasks = new ArrayList<>();
+                for (GameServer.ClientHandler challenger : challengers) {
+                    tasks.add(() -> registry.pair(challenger, target));
+                }
+                List<Boolean> paired = race(pool, tasks);
+
+                assertEquals(1, paired.stream().filter(p -> p).count(), "round " + round);
+                GameServer.ClientHandler winner = challengers.get(paired.indexOf(true));
+                assertSame(winner, target.opponentRef().get());
+                assertSame(target, winner.opponentRef().get());
+                for (GameServer.ClientHandler challenger : challengers) {
+                    if (challenger != winner) assertNull(challenger.opponentRef().get());
+                }
+                assertSame(winner, registry.unpair(target));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void pairingsInARingStaySymmetric() throws Exception {
+        PlayerRegistry registry = new PlayerRegistry();
+        GameServer.ClientHandler[] ring = {handler("a"), handler("b"), handler("c"), handler("d")};
+        ExecutorService pool = Executors.newFixedThreadPool(ring.length);
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                //Ognuno prova ad accoppiarsi con il successivo: al più due coppie possono riuscire
+                List<Callable<Boolean>> tasks = new ArrayList<>();
+                for (int i = 0; i < ring.length; i++) {
+                    GameServer.ClientHandler a = ring[i];
+                    GameServer.ClientHandler b = ring[(i + 1) % ring.length];
+                    tasks.add(() -> registry.pair(a, b));
+                }
+                long paired = race(pool, tasks).stream().filter(p -> p).count();
+
+                int busy = 0;
+                for (GameServer.ClientHandler h : ring) {
+                    GameServer.ClientHandler opponent = h.opponentRef().get();
+                    if (opponent == null) continue;
+                    busy++;
+                    assertSame(h, opponent.opponentRef().get(), "round " + round);
+                }
+                assertEquals(2 * paired, busy, "round " + round);
+                for (GameServer.ClientHandler h : ring) {
+                    registry.unpair(h);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void unpairFromBothSidesFreesBoth() throws Exception {
+        PlayerRegistry registry = new PlayerRegistry();
+        GameServer.ClientHandler a = handler("a");
+        GameServer.ClientHandler b = handler("b");
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                assertTrue(registry.pair(a, b), "round " + round);
+                List<GameServer.ClientHandler> opponents = race(pool, List.of(() -> registry.unpair(a), () -> registry.unpair(b)));
+
+                //Chi arriva prima scioglie entrambi i lati: l'altro può trovare già null
+                assertTrue(opponents.get(0) == b || opponents.get(0) == null);
+                assertTrue(opponents.get(1) == a || opponents.get(1) == null);
+                assertTrue(opponents.get(0) != null || opponents.get(1) != null, "round " + round);
+                assertNull(a.opponentRef().get());
+                assertNull(b.opponentRef().get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void pairAndUnpairEdgeCases() {
+        PlayerRegistry registry = new PlayerRegistry();
+        GameServer.ClientHandler a = handler("a");
+        GameServer.ClientHandler b = handler("b");
+        GameServer.ClientHandler c = handler("c");
+
+        assertFalse(registry.pair(a, a));
+        assertNull(registry.unpair(a));
+        assertTrue(registry.pair(a, b));
+        assertFalse(registry.pair(a, c));
+        assertFalse(registry.pair(c, b));
+        //Il tentativo fallito non lascia c a metà accoppiamento
+        assertNull(c.opponentRef().get());
+        assertSame(b, registry.unpair(a));
+        assertNull(registry.unpair(b));
+        assertTrue(registry.pair(b, c));
+    }
+
+    @Test
+    void concurrentRegistrationsKeepOneOwnerPerNickname() throws Exception {
+        PlayerRegistry registry = new PlayerRegistry();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<GameServer.ClientHandler> handlers = new ArrayList<>();
+            List<Callable<Boolean>> tasks = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                GameServer.ClientHandler h = handler("same");
+                handlers.add(h);
+                tasks.add(() -> registry.register("same", h));
+            }
+            List<Boolean> registered = race(pool, tasks);
+
+            assertEquals(1, registered.stream().filter(r -> r).count());
+            GameServer.ClientHandler owner = handlers.get(registered.indexOf(true));
+            assertSame(owner, registry.get("same"));
+            GameServer.ClientHandler other = handlers.get(registered.indexOf(false));
+            assertFalse(registry.unregister("same", other));
+            assertSame(owner, registry.get("same"));
+            assertTrue(registry.rebind("same", owner, other));
+            assertFalse(registry.unregister("same", owner));
+            assertTrue(registry.unregister("same", other));
+            assertNull(registry.get("same"));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void challengesToTheSameTargetAreKeptPerChallenger() {
+        PlayerRegistry registry = new PlayerRegistry();
+        registry.putChallenge("AI", "anna", "7x7x4", 0);
+        registry.putChallenge("AI", "bruno", MnkBoard.CLASSIC, 0);
+        //Una nuova sfida dello stesso sfidante sostituisce la sua precedente, non quelle degli altri
+        registry.putChallenge("AI", "anna", "9x9x5", 0);
+
+        assertEquals("9x9x5", registry.takeChallenge("AI", "anna").board());
+        assertEquals(MnkBoard.CLASSIC, registry.takeChallenge("AI", "bruno").board());
+        assertNull(registry.takeChallenge("AI", "anna"));
+        assertNull(registry.takeChallenge("nessuno", "anna"));
+
+        registry.register("carla", handler("carla"));
+        registry.putChallenge("carla", "anna", "5x5x4", 0);
+        registry.unregister("carla", registry.get("carla"));
+        assertNull(registry.takeChallenge("carla", "anna"));
+    }
+
+    @Test
+    void concurrentChallengesKeepTheirOwnBoards() throws Exception {
+        PlayerRegistry registry = new PlayerRegistry();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                List<Callable<String>> tasks = new ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    String challenger = "c" + i;
+                    String board = (4 + i) + "x" + (4 + i) + "x4";
+                    tasks.add(() -> {
+                        registry.putChallenge("AI", challenger, board, 0);
+                        return board.equals(registry.takeChallenge("AI", challenger).board()) ? board : null;
+                    });
+                }
+                assertFalse(race(pool, tasks).contains(null), "round " + round);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void onlyOneAcceptTakesAChallenge() throws Exception {
+        PlayerRegistry registry = new PlayerRegistry();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                registry.putChallenge("target", "anna", MnkBoard.CLASSIC, 0);
+                List<Callable<Boolean>> tasks = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    tasks.add(() -> registry.takeChallenge("target", "anna") != null);
+                }
+                assertEquals(1, race(pool, tasks).stream().filter(taken -> taken).count(), "round " + round);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void subscribersSeeJoinsAfterTheirSnapshot() {
+        PlayerRegistry registry = new PlayerRegistry();
+        RecordingConnection watcher = new RecordingConnection();
+        GameServer.ClientHandler subscriber = new GameServer.ClientHandler(watcher, "watcher");
+        registry.register("watcher", subscriber);
+        registry.register("early", handler("early"));
+
+        registry.subscribe(subscriber, true);
+        registry.register("late", handler("late"));
+
+        assertEquals(List.of("PLAYERS=early,", "PLAYER-JOIN=late"), new ArrayList<>(watcher.messages));
+    }
+}
@@ -0,0 +1,164 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+/*Scomposizione delle righe del protocollo testuale e ricerca nella tabella dei comandi,
+  con righe malformate e valori ai limiti*/
+class ProtocolLineTest {
+    enum Command { MOVE, MAKE, PING, CHALLENGE }
+
+    private final CommandTable<Command> table = new CommandTable<Command>()
+        .add("MOVE", 5, 5, Command.MOVE)
+        //Stessa lunghezza, primo e ultimo byte di MOVE: stesso hash, la distingue solo il confronto
+        .add("MAKE", 0, 1, Command.MAKE)
+        .add("PING", 0, 0, Command.PING)
+        .add("CHALLENGE", 1, 2, Command.CHALLENGE);
+    private final ProtocolLine line = new ProtocolLine();
+
+    private CommandTable.Entry<Command> parse(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return line.parse(bytes, 0, bytes.length, table);
+    }
+
+    @Test
+    void commandWithoutArguments() {
+        assertEquals(Command.PING, parse("PING").value);
+        assertEquals(0, line.argCount());
+        assertEquals("PING", line.name());
+        assertTrue(table.find("PING".getBytes(StandardCharsets.US_ASCII), 0, 4).accepts(0));
+    }
+
+    @Test
+    void emptyArgumentsAreCounted() {
+        assertEquals(Command.MAKE, parse("MAKE=").value);
+        assertEquals(1, line.argCount());
+        assertEquals("", line.arg(0));
+
+        assertEquals(Command.CHALLENGE, parse("CHALLENGE==").value);
+        assertEquals(2, line.argCount());
+        assertEquals("", line.arg(0));
+        assertEquals("", line.arg(1));
+    }
+
+    @Test
+    void argumentsKeepTheirBoundaries() {
+        CommandTable.Entry<Command> entry = parse("MOVE=anna=bruno=X=2=14");
+        assertEquals(Command.MOVE, entry.value);
+        assertTrue(entry.accepts(line.argCount()));
+        assertEquals("anna", line.arg(0));
+        assertEquals("bruno", line.arg(1));
+        assertTrue(line.argEquals(2, "X"));
+        assertFalse(line.argEquals(2, "XX"));
+        assertFalse(line.argEquals(2, ""));
+        assertEquals(2, line.intArg(3));
+        assertEquals(14, line.intArg(4));
+        assertEquals(2, line.argLength(4));
+    }
+
+    @Test
+    void parsesASliceOfALargerBuffer() {
+        byte[] bytes = "xxCHALLENGE=zoè=7x7x4\nPING".getBytes(StandardCharsets.UTF_8);
+        int end = indexOf(bytes, (byte) '\n');
+        CommandTable.Entry<Command> entry = line.parse(bytes, 2, end - 2, table);
+        assertEquals(Command.CHALLENGE, entry.value);
+        assertEquals("zoè", line.arg(0));
+        assertEquals("7x7x4", line.arg(1));
+        assertEquals("CHALLENGE=zoè=7x7x4", line.toString());
+        assertEquals(2, line.offset());
+        assertEquals(end - 2, line.length());
+    }
+
+    @Test
+    void unknownAndMalformedCommands() {
+        assertNull(parse(""));
+        assertEquals(0, line.argCount());
+        assertNull(parse("=anna"));
+        assertEquals(1, line.argCount());
+        assertNull(parse("move=a=b=X=0=0"));
+        assertNull(parse("MOVES"));
+        assertNull(parse("MOV"));
+        assertNull(parse("MIKE"));
+        assertNull(parse(" PING"));
+        assertEquals(Command.MAKE, parse("MAKE").value);
+        assertEquals(Command.MOVE, parse("MOVE").value);
+    }
+
+    @Test
+    void argumentsBeyondTheLimitAreCountedButNotStored() {
+        StringBuilder text = new StringBuilder("CHALLENGE");
+        for (int i = 0; i < ProtocolLine.MAX_ARGS + 3; i++) {
+            text.append('=').append(i);
+        }
+        CommandTable.Entry<Command> entry = parse(text.toString());
+        assertEquals(ProtocolLine.MAX_ARGS + 3, line.argCount());
+        assertFalse(entry.accepts(line.argCount()));
+        assertEquals(ProtocolLine.MAX_ARGS - 1, line.intArg(ProtocolLine.MAX_ARGS - 1));
+    }
+
+    @Test
+    void numbersAtTheLimits() {
+        assertEquals(0, intOf("0"));
+        assertEquals(0, intOf("-0"));
+        assertEquals(7, intOf("0000000007"));
+        assertEquals(Integer.MAX_VALUE, intOf("2147483647"));
+        assertEquals(-Integer.MAX_VALUE, intOf("-2147483647"));
+        //MIN_VALUE è il valore riservato a NOT_A_NUMBER
+        assertEquals(ProtocolLine.NOT_A_NUMBER, intOf("-2147483648"));
+        assertEquals(ProtocolLine.NOT_A_NUMBER, intOf("2147483648"));
+        assertEquals(ProtocolLine.NOT_A_NUMBER, intOf("99999999999"));
+        assertEquals(ProtocolLine.NOT_A_NUMBER, intOf("00000000007"));
+        assertEquals(ProtocolLine.NOT_A_NUMBER, intOf(""));
+        assertEquals(ProtocolLine.NOT_A_NUMBER, intOf("-"));
+        assertEquals(ProtocolLine.NOT_A_NUMBER, intOf("+5"));
+        assertEquals(ProtocolLine.NOT_A_NUMBER, intOf(" 5"));
+        assertEquals(ProtocolLine.NOT_A_NUMBER, intOf("5 "));
+        assertEquals(ProtocolLine.NOT_A_NUMBER, intOf("1a"));
+        assertEquals(ProtocolLine.NOT_A_NUMBER, intOf("--1"));
+        assertEquals(ProtocolLine.NOT_A_NUMBER, intOf("١"));
+    }
+
+    @Test
+    void tableRejectsDuplicatesAndOverflow() {
+        CommandTable<Integer> small = new CommandTable<>();
+        small.add("A", 0, 0, 0);
+        assertThrows(IllegalArgumentException.class, () -> small.add("A", 0, 0, 1));
+
+        CommandTable<Integer> full = new CommandTable<>();
+        int added = 0;
+        try {
+            while (added < 1000) {
+                full.add("C" + added, 0, 0, added);
+                added++;
+            }
+            fail("la tabella non ha un limite");
+        } catch (IllegalStateException e) {
+            assertTrue(added > 0);
+        }
+        for (int i = 0; i < added; i++) {
+            byte[] name = ("C" + i).getBytes(StandardCharsets.US_ASCII);
+            assertEquals(i, full.find(name, 0, name.length).value);
+        }
+    }
+
+    @Test
+    void argumentCountRange() {
+        CommandTable.Entry<Command> entry = parse("CHALLENGE=anna");
+        assertFalse(entry.accepts(0));
+        assertTrue(entry.accepts(1));
+        assertTrue(entry.accepts(2));
+        assertFalse(entry.accepts(3));
+    }
+
+    private int intOf(String argument) {
+        parse("MAKE=" + argument);
+        return line.intArg(0);
+    }
+
+    private static int indexOf(byte[] bytes, byte value) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == value) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,113 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/*La ricerca alpha-beta confrontata con la tabella di PerfectPlay su tutte le posizioni
+  raggiungibili del tris: con profondità piena deve dare lo stesso valore e scegliere una mossa
+  che lo conserva (non necessariamente la stessa, quando più mosse si equivalgono)*/
+class SearchEngineTest {
+    //Abbondante: sul tris la ricerca completa dura pochi millisecondi
+    private static final long BUDGET_MS = 60_000;
+
+    private static SearchEngine single;
+    private static SearchEngine parallel;
+
+    @BeforeAll
+    static void createEngines() {
+        single = new SearchEngine(1, 16);
+        parallel = new SearchEngine(4, 16);
+    }
+
+    @AfterAll
+    static void shutdownEngines() {
+        single.shutdown();
+        parallel.shutdown();
+    }
+
+    /*Esito con gioco perfetto da entrambe le parti, per player: 1 vince, 0 pareggio, -1 perde*/
+    private static int perfectOutcome(MnkBoard position, int player) {
+        MnkBoard board = position.copy();
+        while (!board.isOver()) {
+            int cell = PerfectPlay.bestMove(board);
+            assertTrue(board.play(cell / 3, cell % 3));
+        }
+        return board.winner() == BitBoard.EMPTY ? 0 : board.winner() == player ? 1 : -1;
+    }
+
+    /*Confronta il motore con PerfectPlay su board e su tutte le posizioni che ne discendono;
+      restituisce quante posizioni ha controllato*/
+    private static int checkFrom(SearchEngine engine, MnkBoard board, boolean[] visited) {
+        int index = PerfectPlay.index(board.mask(BitBoard.X), board.mask(BitBoard.O));
+        if (visited[index]) return 0;
+        visited[index] = true;
+        if (board.isOver()) return 0;
+
+        int player = board.currentPlayer();
+        int expected = perfectOutcome(board, player);
+        SearchEngine.Result result = engine.search(board, 9, BUDGET_MS);
+        String where = "X=" + Integer.toBinaryString(board.mask(BitBoard.X))
+            + " O=" + Integer.toBinaryString(board.mask(BitBoard.O));
+        //Una vittoria trovata ferma l'approfondimento, un pareggio richiede la profondità piena
+        if (expected == 0) assertEquals(9 - board.moveCount(), result.depth, where);
+        assertEquals(expected, Integer.signum(result.score), where);
+        MnkBoard after = board.copy();
+        assertTrue(after.play(result.cell / 3, result.cell % 3), where);
+        assertEquals(expected, perfectOutcome(after, player), where);
+
+        int checked = 1;
+        for (int cell = 0; cell < 9; cell++) {
+            MnkBoard next = board.copy();
+            if (next.play(cell / 3, cell % 3)) checked += checkFrom(engine, next, visited);
+        }
+        return checked;
+    }
+
+    @Test
+    void agreesWithPerfectPlayOnEveryPosition() {
+        int checked = checkFrom(single, new MnkBoard(3, 3, 3), new boolean[PerfectPlay.POSITIONS]);
+        //Posizioni raggiungibili del tris in cui la partita non è finita
+        assertEquals(4520, checked);
+    }
+
+    @Test
+    void parallelSearchAgreesWithPerfectPlay() {
+        int checked = checkFrom(parallel, new MnkBoard(3, 3, 3), new boolean[PerfectPlay.POSITIONS]);
+        assertEquals(4520, checked);
+    }
+
+    @Test
+    void emptyBoardIsADraw() {
+        SearchEngine.Result result = single.search(new MnkBoard(3, 3, 3), 9, BUDGET_MS);
+        assertEquals(0, result.score);
+        assertEquals(9, result.depth);
+    }
+
+    @Test
+    void finishedGameHasNoMove() {
+        MnkBoard board = new MnkBoard(3, 3, 3);
+        for (int cell : new int[] {0, 3, 1, 4, 2}) {
+            board.play(cell / 3, cell % 3);
+        }
+        assertEquals(-1, single.bestMove(board, BUDGET_MS));
+    }
+
+    @Test
+    void takesAWinAndBlocksALossOnALargerBoard() {
+        //X ha tre in fila aperti sulla riga 3 di un 7x7x4: vince subito
+        MnkBoard win = new MnkBoard(7, 7, 4);
+        for (int[] move : new int[][] {{3, 2}, {0, 0}, {3, 3}, {0, 6}, {3, 4}, {6, 0}}) {
+            win.play(move[0], move[1]);
+        }
+        int cell = parallel.search(win, 4, BUDGET_MS).cell;
+        assertTrue(cell == 3 * 7 + 1 || cell == 3 * 7 + 5, "mossa " + cell);
+
+        //Qui O ha tre in colonna con una sola estremità libera: X deve chiuderla
+        MnkBoard block = new MnkBoard(7, 7, 4);
+        for (int[] move : new int[][] {{6, 6}, {0, 3}, {5, 0}, {1, 3}, {4, 6}, {2, 3}}) {
+            block.play(move[0], move[1]);
+        }
+        assertEquals(3 * 7 + 3, parallel.search(block, 4, BUDGET_MS).cell);
+    }
+}
@@ -0,0 +1,131 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.util.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/*Ripresa di una partita dopo la caduta della connessione, con client veri sul server NIO:
+  l'avversario riceve OPPONENT-AWAY e OPPONENT-BACK, chi riprende riceve l'istantanea e poi
+  le mosse, nel protocollo chiesto con RESUME*/
+class SessionResumeTest {
+    private static int port;
+    private final List<NioServerTest.Client> clients = new ArrayList<>();
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        port = NioServerTest.start();
+    }
+
+    @AfterEach
+    void closeClients() throws IOException {
+        for (NioServerTest.Client client : clients) {
+            client.close();
+        }
+    }
+
+    private NioServerTest.Client connect() throws IOException {
+        NioServerTest.Client client = new NioServerTest.Client(port);
+        clients.add(client);
+        return client;
+    }
+
+    /*Registra il giocatore e restituisce il token per RESUME*/
+    private static String register(NioServerTest.Client client, String nickname, boolean binary) throws IOException {
+        client.send("SET-NICKNAME=" + nickname + (binary ? "=BIN1" : ""));
+        String reply = client.line();
+        assertTrue(reply.startsWith(binary ? "NICKNAME-SUCCESS=BIN1=" : "NICKNAME-SUCCESS="), reply);
+        return reply.substring(reply.lastIndexOf('=') + 1);
+    }
+
+    /*anna sfida bruno e gioca la prima mossa al centro; entrambi in testo*/
+    private static void startMatch(NioServerTest.Client anna, String annaName, NioServerTest.Client bruno, String brunoName)
+            throws IOException {
+        anna.send("CHALLENGE=" + brunoName + "=3x3x3");
+        //Il tabellone classico non compare nella richiesta
+        assertEquals("CHALLENGE-REQUEST=" + annaName, bruno.line());
+        bruno.send("ACCEPT-CHALLENGE=" + annaName);
+        assertEquals("GAME-START=" + brunoName + "=X=3x3x3", anna.line());
+        assertEquals("GAME-START=" + annaName + "=O=3x3x3", bruno.line());
+        anna.send("MOVE=" + annaName + "=" + brunoName + "=X=1=1");
+        assertEquals("MOVE=" + annaName + "=" + brunoName + "=X=1=1", bruno.line());
+    }
+
+    @Test
+    void resumedPlayerGetsTheSnapshotAndThenTheMoves() throws IOException {
+        NioServerTest.Client anna = connect();
+        String token = register(anna, "res-anna", false);
+        NioServerTest.Client bruno = connect();
+        register(bruno, "res-bruno", false);
+        startMatch(anna, "res-anna", bruno, "res-bruno");
+
+        anna.close();
+        assertEquals("OPPONENT-AWAY=" + SessionStore.graceSeconds(), bruno.line());
+        //Il nickname resta occupato durante l'attesa
+        NioServerTest.Client other = connect();
+        other.send("SET-NICKNAME=res-anna");
+        assertEquals("NOT-VALID", other.line());
+
+        NioServerTest.Client back = connect();
+        back.send("RESUME=" + token);
+        String resumed = back.line();
+        assertTrue(resumed.matches("RESUMED=res-bruno=X=3x3x3=\\d+=O=4"), resumed);
+        assertEquals("OPPONENT-BACK", bruno.line());
+
+        bruno.send("MOVE=res-bruno=res-anna=O=0=0");
+        assertEquals("MOVE=res-bruno=res-anna=O=0=0", back.line());
+        back.send("MOVE=res-anna=res-bruno=X=2=2");
+        assertEquals("MOVE=res-anna=res-bruno=X=2=2", bruno.line());
+
+        //Il token vale una volta sola
+        NioServerTest.Client again = connect();
+        again.send("RESUME=" + token);
+        assertEquals("RESUME-FAILED", again.line());
+    }
+
+    @Test
+    void unknownTokenFailsAndTheConnectionCanStillRegister() throws IOException {
+        NioServerTest.Client client = connect();
+        client.send("RESUME=" + SessionStore.newToken());
+        assertEquals("RESUME-FAILED", client.line());
+        register(client, "res-dopo", false);
+    }
+
+    @Test
+    void resumeChoosesTheProtocolAgain() throws IOException {
+        NioServerTest.Client carla = connect();
+        String token = register(carla, "res-carla", true);
+        NioServerTest.Client dario = connect();
+        register(dario, "res-dario", false);
+        carla.write(BinaryProtocol.text("CHALLENGE=res-dario=3x3x3"));
+        assertEquals("CHALLENGE-REQUEST=res-carla", dario.line());
+        dario.send("ACCEPT-CHALLENGE=res-carla");
+        assertTrue(carla.textFrame().startsWith("GAME-START=res-dario=X=3x3x3="));
+        assertEquals("GAME-START=res-carla=O=3x3x3", dario.line());
+
+        //Prima in binario, ripresa in testo: le mosse arrivano come righe
+        carla.close();
+        assertEquals("OPPONENT-AWAY=" + SessionStore.graceSeconds(), dario.line());
+        NioServerTest.Client text = connect();
+        text.send("RESUME=" + token);
+        String resumed = text.line();
+        assertTrue(resumed.matches("RESUMED=res-dario=X=3x3x3=\\d+=X="), resumed);
+        assertEquals("OPPONENT-BACK", dario.line());
+        int matchId = Integer.parseInt(resumed.split("=")[4]);
+        text.send("MOVE=res-carla=res-dario=X=0=1");
+        assertEquals("MOVE=res-carla=res-dario=X=0=1", dario.line());
+
+        //Di nuovo via, ripresa con BIN1: dopo RESUMED solo frame
+        text.close();
+        assertEquals("OPPONENT-AWAY=" + SessionStore.graceSeconds(), dario.line());
+        NioServerTest.Client binary = connect();
+        binary.send("RESUME=" + token + "=BIN1");
+        assertEquals("RESUMED=res-dario=X=3x3x3=" + matchId + "=O=1", binary.line());
+        assertEquals("OPPONENT-BACK", dario.line());
+        dario.send("MOVE=res-dario=res-carla=O=2=2");
+        assertEquals(BinaryProtocol.OP_MOVE, binary.in.readFrame());
+        assertEquals(matchId, BinaryProtocol.moveMatchId(binary.in.buffer(), 0));
+        assertEquals(BitBoard.O, BinaryProtocol.movePlayer(binary.in.buffer(), 0));
+    }
+}
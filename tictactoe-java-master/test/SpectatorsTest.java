@@ -0,0 +1,206 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/*Spettatori di una partita: ognuno riceve l'istantanea, poi esattamente le mosse che non contiene,
+  in ordine, e infine WATCH-END, anche quando arriva mentre si gioca. Poi lo stesso con WATCH
+  da client veri sul server NIO*/
+class SpectatorsTest {
+    private static int port;
+    private final List<NioServerTest.Client> clients = new ArrayList<>();
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        port = NioServerTest.start();
+    }
+
+    @AfterEach
+    void closeClients() throws IOException {
+        for (NioServerTest.Client client : clients) {
+            client.close();
+        }
+    }
+
+    /*Mosse che non vincono mai, per una partita lunga: per ogni turno la prima casella libera
+      che non completa una linea*/
+    private static List<int[]> quietMoves(String spec, int count) {
+        MnkBoard board = MnkBoard.parse(spec);
+        List<int[]> moves = new ArrayList<>();
+        for (int cell = 0; moves.size() < count; cell = (cell + 1) % (board.rows() * board.cols())) {
+            int row = cell / board.cols();
+            int col = cell % board.cols();
+            if (board.get(row, col) != BitBoard.EMPTY || board.wins(row, col, board.currentPlayer())) continue;
+            assertTrue(board.play(row, col));
+            moves.add(new int[] {row, col});
+        }
+        return moves;
+    }
+
+    /*Aspetta WATCH-END e restituisce le caselle viste dallo spettatore: quelle dell'istantanea
+      e poi quelle delle WATCH-MOVE, nell'ordine di arrivo*/
+    private static List<Integer> watched(PlayerRegistryTest.RecordingConnection connection, Match match)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        List<String> messages = new ArrayList<>();
+        while (messages.isEmpty() || !messages.get(messages.size() - 1).startsWith("WATCH-END")) {
+            assertTrue(System.nanoTime() < deadline, "WATCH-END mancante: " + messages);
+            String message = connection.messages.poll();
+            if (message == null) {
+                Thread.sleep(1);
+            } else {
+                messages.add(message);
+            }
+        }
+        assertEquals("WATCH-END=" + match.id, messages.get(messages.size() - 1));
+
+        String snapshot = messages.get(0);
+        String prefix = "WATCHING=" + match.x + "=" + match.o + "=" + match.board.spec() + "=" + match.id + "=";
+        assertTrue(snapshot.startsWith(prefix), snapshot);
+        List<Integer> cells = new ArrayList<>();
+        String played = snapshot.substring(snapshot.lastIndexOf('=') + 1);
+        for (String cell : played.split(",")) {
+            if (!cell.isEmpty()) cells.add(Integer.parseInt(cell));
+        }
+        for (String move : messages.subList(1, messages.size() - 1)) {
+            String[] parts = move.split("=");
+            assertEquals("WATCH-MOVE", parts[0], move);
+            assertEquals(match.id, Integer.parseInt(parts[1]));
+            int cell = Integer.parseInt(parts[3]) * match.board.cols() + Integer.parseInt(parts[4]);
+            //X gioca le mosse pari, O le dispari
+            assertEquals(cells.size() % 2 == 0 ? "X" : "O", parts[2], move);
+            cells.add(cell);
+        }
+        return cells;
+    }
+
+    @Test
+    void spectatorsJoiningDuringTheMatchMissNothing() throws Exception {
+        List<int[]> moves = quietMoves("9x9x5", 60);
+        Match match = new Match(4242, MnkBoard.parse("9x9x5"), "spec-anna", "spec-bruno");
+        List<PlayerRegistryTest.RecordingConnection> connections = new ArrayList<>();
+        List<GameServer.ClientHandler> watchers = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            PlayerRegistryTest.RecordingConnection connection = new PlayerRegistryTest.RecordingConnection();
+            connections.add(connection);
+            watchers.add(new GameServer.ClientHandler(connection, "spec-" + i));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            Future<?> players = pool.submit(() -> {
+                start.await();
+                for (int[] move : moves) {
+                    match.lock();
+                    try {
+                        assertTrue(match.play(match.board.currentPlayer(), move[0], move[1]));
+                    } finally {
+                        match.unlock();
+                    }
+                    Thread.yield();
+                }
+                return null;
+            });
+            Future<?> arrivals = pool.submit(() -> {
+                start.await();
+                for (GameServer.ClientHandler watcher : watchers) {
+                    assertTrue(match.watch(watcher));
+                    Thread.yield();
+                }
+                return null;
+            });
+            start.countDown();
+            players.get(10, TimeUnit.SECONDS);
+            arrivals.get(10, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdown();
+        }
+        match.end();
+        assertFalse(match.watch(new GameServer.ClientHandler(new PlayerRegistryTest.RecordingConnection(), "spec-tardi")));
+
+        List<Integer> expected = new ArrayList<>();
+        for (int[] move : moves) {
+            expected.add(move[0] * match.board.cols() + move[1]);
+        }
+        for (PlayerRegistryTest.RecordingConnection connection : connections) {
+            assertEquals(expected, watched(connection, match));
+        }
+    }
+
+    @Test
+    void spectatorWhoLeavesGetsNothingMore() throws Exception {
+        Match match = new Match(4243, MnkBoard.parse("3x3x3"), "spec-carla", "spec-dario");
+        PlayerRegistryTest.RecordingConnection connection = new PlayerRegistryTest.RecordingConnection();
+        GameServer.ClientHandler watcher = new GameServer.ClientHandler(connection, "spec-via");
+        match.lock();
+        try {
+            assertTrue(match.play(BitBoard.X, 1, 1));
+        } finally {
+            match.unlock();
+        }
+        assertTrue(match.watch(watcher));
+        match.unwatch(watcher);
+        match.lock();
+        try {
+            assertTrue(match.play(BitBoard.O, 0, 0));
+        } finally {
+            match.unlock();
+        }
+        match.end();
+        //Gli eventi passano dalla stessa coda: dopo l'uscita arriva solo quello che la precedeva
+        Thread.sleep(100);
+        assertEquals("WATCHING=spec-carla=spec-dario=3x3x3=4243=O=4", connection.messages.poll());
+        assertNull(connection.messages.poll());
+    }
+
+    @Test
+    void watchOverTheNetworkInTextAndBinary() throws IOException {
+        NioServerTest.Client anna = new NioServerTest.Client(port);
+        NioServerTest.Client bruno = new NioServerTest.Client(port);
+        NioServerTest.Client text = new NioServerTest.Client(port);
+        NioServerTest.Client binary = new NioServerTest.Client(port);
+        clients.addAll(List.of(anna, bruno, text, binary));
+        anna.send("SET-NICKNAME=spec-anna");
+        assertTrue(anna.line().startsWith("NICKNAME-SUCCESS"));
+        bruno.send("SET-NICKNAME=spec-bruno");
+        assertTrue(bruno.line().startsWith("NICKNAME-SUCCESS"));
+        binary.send("SET-NICKNAME=spec-binario=BIN1");
+        assertTrue(binary.line().startsWith("NICKNAME-SUCCESS=BIN1"));
+
+        //Senza partita non c'è niente da guardare; lo spettatore non ha bisogno di un nickname
+        text.send("WATCH=spec-anna");
+        assertEquals("WATCH-FAILED=spec-anna", text.line());
+
+        anna.send("CHALLENGE=spec-bruno");
+        assertEquals("CHALLENGE-REQUEST=spec-anna", bruno.line());
+        bruno.send("ACCEPT-CHALLENGE=spec-anna");
+        assertEquals("GAME-START=spec-bruno=X=3x3x3", anna.line());
+        assertEquals("GAME-START=spec-anna=O=3x3x3", bruno.line());
+        anna.send("MOVE=spec-anna=spec-bruno=X=1=1");
+        assertEquals("MOVE=spec-anna=spec-bruno=X=1=1", bruno.line());
+
+        text.send("WATCH=spec-bruno");
+        String watching = text.line();
+        assertTrue(watching.matches("WATCHING=spec-anna=spec-bruno=3x3x3=\\d+=O=4"), watching);
+        int matchId = Integer.parseInt(watching.split("=")[4]);
+        binary.write(BinaryProtocol.text("WATCH=spec-anna"));
+        assertEquals("WATCHING=spec-anna=spec-bruno=3x3x3=" + matchId + "=O=4", binary.textFrame());
+
+        bruno.send("MOVE=spec-bruno=spec-anna=O=0=0");
+        assertEquals("MOVE=spec-bruno=spec-anna=O=0=0", anna.line());
+        assertEquals("WATCH-MOVE=" + matchId + "=O=0=0", text.line());
+        assertEquals(BinaryProtocol.OP_MOVE, binary.in.readFrame());
+        assertEquals(matchId, BinaryProtocol.moveMatchId(binary.in.buffer(), 0));
+        assertEquals(BitBoard.O, BinaryProtocol.movePlayer(binary.in.buffer(), 0));
+        assertEquals(0, BinaryProtocol.moveRow(binary.in.buffer(), 0));
+
+        anna.send("GAME-OVER");
+        assertEquals("WATCH-END=" + matchId, text.line());
+        assertEquals("WATCH-END=" + matchId, binary.textFrame());
+    }
+}
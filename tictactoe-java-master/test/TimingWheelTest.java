@@ -0,0 +1,132 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.junit.jupiter.api.Test;
+
+/*Ruota dei tempi: ordine delle scadenze, timer oltre un giro, ripetizione e uscita dalla ruota.
+  I tempi sono stretti verso il basso (mai prima della scadenza, a meno dell'arrotondamento al
+  tick) e larghi verso l'alto, perché il thread della ruota può essere in ritardo su una
+  macchina carica*/
+class TimingWheelTest {
+    private static final long TICK_MS = 5;
+    //32 slot da 5 ms: un giro dura 160 ms
+    private final TimingWheel wheel = new TimingWheel("test-wheel", TICK_MS, 16);
+
+    @Test
+    void timersFireInDeadlineOrder() throws Exception {
+        long[] delays = {300, 40, 120, 200, 10};
+        List<Long> fired = Collections.synchronizedList(new ArrayList<>());
+        Map<Long, Long> elapsed = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(delays.length);
+        long start = System.nanoTime();
+        for (long delay : delays) {
+            wheel.schedule(now -> {
+                elapsed.put(delay, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                fired.add(delay);
+                done.countDown();
+                return 0;
+            }, delay);
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(10L, 40L, 120L, 200L, 300L), fired);
+        for (long delay : delays) {
+            assertTrue(elapsed.get(delay) >= delay - 2 * TICK_MS, delay + " scaduto dopo " + elapsed.get(delay) + " ms");
+        }
+    }
+
+    @Test
+    void timerBeyondOneTurnWaitsForItsTurn() throws Exception {
+        //Due giri e mezzo: lo slot passa sotto la ruota due volte prima della scadenza
+        long delay = 400;
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicLong elapsed = new AtomicLong();
+        long start = System.nanoTime();
+        wheel.schedule(now -> {
+            elapsed.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            done.countDown();
+            return 0;
+        }, delay);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(elapsed.get() >= delay - 2 * TICK_MS, "scaduto dopo " + elapsed.get() + " ms");
+    }
+
+    @Test
+    void equalDeadlinesFireInScheduleOrder() throws Exception {
+        List<Integer> fired = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) {
+            int id = i;
+            wheel.schedule(now -> {
+                fired.add(id);
+                done.countDown();
+                return 0;
+            }, 50);
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) expected.add(i);
+        assertEquals(expected, fired);
+    }
+
+    @Test
+    void timerRepeatsUntilItReturnsZero() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch stopped = new CountDownLatch(1);
+        wheel.schedule(now -> {
+            if (runs.incrementAndGet() < 3) return 20;
+            stopped.countDown();
+            return 0;
+        }, 0);
+
+        assertTrue(stopped.await(5, TimeUnit.SECONDS));
+        //Uscito dalla ruota non scade più
+        Thread.sleep(200);
+        assertEquals(3, runs.get());
+    }
+
+    @Test
+    void failingTimerLeavesTheWheelAndOthersStillFire() throws Exception {
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch other = new CountDownLatch(2);
+        wheel.schedule(now -> {
+            failures.incrementAndGet();
+            throw new IllegalStateException("timer di prova");
+        }, 30);
+        wheel.schedule(now -> {
+            other.countDown();
+            return other.getCount() > 0 ? 60 : 0;
+        }, 30);
+
+        assertTrue(other.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(1, failures.get());
+    }
+
+    @Test
+    void timerCanScheduleAnotherFromTheWheelThread() throws Exception {
+        CountDownLatch second = new CountDownLatch(1);
+        wheel.schedule(now -> {
+            wheel.schedule(later -> {
+                second.countDown();
+                return 0;
+            }, 20);
+            return 0;
+        }, 20);
+
+        assertTrue(second.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void clockAdvancesWithTheTicks() throws Exception {
+        long first = wheel.now();
+        Thread.sleep(50);
+        long second = wheel.now();
+        assertTrue(second > first);
+        assertTrue(Math.abs(System.currentTimeMillis() - second) < 1000);
+    }
+}